@@ -3,6 +3,7 @@
 import org.kissweb.json.JSONArray
 import org.kissweb.json.JSONObject
 import org.kissweb.database.Connection
+import org.kissweb.database.Exporter
 import org.kissweb.restServer.ProcessServlet
 import mycompany.database.PhoneManager
 import mycompany.domain.Phone
@@ -88,7 +89,27 @@ void runReport(JSONObject injson, JSONObject outjson, Connection db, ProcessServ
         outjson.put("reportUrl", "Reports not implemented for Perst")
     }
 
+    /**
+     * Streams the phone book to the front-end as a CSV file or XLSX workbook ("format" in injson).
+     * SQL tables would be exported straight from a query with <code>Exporter.write(out, db, sql)</code>.
+     */
     void runExport(JSONObject injson, JSONObject outjson, Connection db, ProcessServlet servlet) {
-        outjson.put("exportUrl", "Export not implemented for Perst")
+        Exporter ex = Exporter.of(injson.getString("format", "csv"))
+        ex.titles("Id", "First Name", "Last Name", "Phone Number")
+        ex.progress(1000, servlet.downloadProgress())
+        Iterator<Phone> phones = PhoneManager.getAll().iterator()
+        Iterator<Object[]> rows = new Iterator<Object[]>() {
+            boolean hasNext() {
+                phones.hasNext()
+            }
+
+            Object[] next() {
+                Phone phone = phones.next()
+                [phone.getOid(), phone.getFirstName(), phone.getLastName(), phone.getPhoneNumber()] as Object[]
+            }
+        }
+        OutputStream out = servlet.startDownload("phones" + ex.getFileExtension(), ex.getContentType(),
+                ex.getFormat() == Exporter.Format.CSV)
+        ex.write(out, ["id", "firstName", "lastName", "phoneNumber"] as String[], rows)
     }
 }
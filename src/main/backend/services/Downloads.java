@@ -0,0 +1,24 @@
+package services;
+
+import org.kissweb.database.Connection;
+import org.kissweb.json.JSONObject;
+import org.kissweb.restServer.DownloadProgress;
+import org.kissweb.restServer.ProcessServlet;
+
+import java.io.IOException;
+
+/**
+ * Downloads - lets the front-end follow the progress of a streamed download.
+ *
+ * Exposes:
+ * - /rest?service=Downloads&method=watch   ("downloadId")
+ *
+ * The progress is sent as server-sent events until the download ends (see DownloadProgress).
+ * Server.download() in the front-end calls this when given a progress callback.
+ */
+public class Downloads {
+
+    public void watch(JSONObject injson, JSONObject outjson, Connection db, ProcessServlet servlet) throws IOException {
+        DownloadProgress.watch(servlet, injson.getString("downloadId"));
+    }
+}
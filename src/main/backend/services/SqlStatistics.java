@@ -0,0 +1,77 @@
+package services;
+
+import org.kissweb.database.Connection;
+import org.kissweb.database.SqlStats;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+import org.kissweb.restServer.MainServlet;
+import org.kissweb.restServer.ProcessServlet;
+import org.kissweb.restServer.UserData;
+
+/**
+ * SqlStatistics - REST endpoints for SQL statement statistics and the slow-query log.
+ *
+ * Exposes:
+ * - /rest?service=SqlStatistics&method=getStatistics   (optional "limit" and "service")
+ * - /rest?service=SqlStatistics&method=getSlowQueries
+ * - /rest?service=SqlStatistics&method=reset
+ *
+ * Only users listed in AdminUsers (application.ini, default "admin") may use them.
+ * Statistics are collected when DatabaseStatistics = true and slow queries are logged when
+ * DatabaseSlowQueryMillis is set.
+ */
+public class SqlStatistics {
+
+    public void getStatistics(JSONObject injson, JSONObject outjson, Connection db, ProcessServlet servlet) {
+        if (!isAdmin(servlet, outjson))
+            return;
+        final int limit = injson.getInt("limit", 0);
+        final String service = injson.getString("service", null);
+        final JSONArray all = SqlStats.getStatistics();
+        final JSONArray statements = new JSONArray();
+        for (int i = 0; i < all.length() && (limit <= 0 || statements.length() < limit); i++) {
+            final JSONObject stmt = all.getJSONObject(i);
+            if (service == null || hasService(stmt, service))
+                statements.put(stmt);
+        }
+        outjson.put("enabled", SqlStats.isEnabled());
+        outjson.put("statements", statements);
+        outjson.put("status", "ok");
+    }
+
+    public void getSlowQueries(JSONObject injson, JSONObject outjson, Connection db, ProcessServlet servlet) {
+        if (!isAdmin(servlet, outjson))
+            return;
+        outjson.put("slowQueries", SqlStats.getSlowQueries());
+        outjson.put("status", "ok");
+    }
+
+    public void reset(JSONObject injson, JSONObject outjson, Connection db, ProcessServlet servlet) {
+        if (!isAdmin(servlet, outjson))
+            return;
+        SqlStats.reset();
+        outjson.put("status", "ok");
+    }
+
+    private static boolean hasService(JSONObject stmt, String service) {
+        final JSONArray services = stmt.getJSONArray("services");
+        for (int i = 0; i < services.length(); i++)
+            if (service.equals(services.getJSONObject(i).getString("service")))
+                return true;
+        return false;
+    }
+
+    private static boolean isAdmin(ProcessServlet servlet, JSONObject outjson) {
+        final UserData ud = servlet.getUserData();
+        String admins = (String) MainServlet.getEnvironment("AdminUsers");
+        if (admins == null || admins.trim().isEmpty())
+            admins = "admin";
+        if (ud != null)
+            for (String user : admins.split(","))
+                if (user.trim().equals(ud.getUsername()))
+                    return true;
+        outjson.put("status", "unauthorized");
+        outjson.put("message", "SQL statistics are only available to administrators");
+        return false;
+    }
+}
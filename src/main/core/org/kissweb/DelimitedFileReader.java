@@ -204,6 +204,15 @@ public void readHeader() {
         }
     }
 
+    /**
+     * Returns true if <code>readHeader()</code> has been called, so that fields may be accessed by name.
+     *
+     * @return true if column titles have been read
+     */
+    public boolean hasHeaders() {
+        return nameMap != null;
+    }
+
     /**
      * Checks if the given column header exists in the delimited file.
      * Note that this only works after <code>readHeader()</code> has been called.
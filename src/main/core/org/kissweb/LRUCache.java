@@ -236,7 +236,7 @@ public int size() {
     /**
      * Removes all entries from the cache.
      */
-    public void clear() {
+    public synchronized void clear() {
         map.clear();
         head = tail = null;
     }
@@ -0,0 +1,128 @@
+package org.kissweb;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request-scoped K→V cache.
+ * <p>
+ * Each instance stores its values in the {@link RequestContext} of the web service request that is
+ * currently running.  Key features:
+ * <ul>
+ *   <li>Values are explicitly put/get - no automatic loading</li>
+ *   <li>Multiple RequestCache instances can coexist (typically as static fields)</li>
+ *   <li>Values live exactly as long as the request and are dropped in O(1) when it completes</li>
+ *   <li>Values are visible to child tasks forked by the request via {@link RequestContext#wrap(Runnable)}</li>
+ *   <li>Values never leak to another request that reuses the same (platform or virtual) thread</li>
+ * </ul>
+ * Outside of a request (no bound context) the cache holds nothing: <code>get</code> returns null and
+ * <code>put</code> stores nothing.
+ * <br><br>
+ * Null keys and values are not supported.  Putting a null value removes the key.
+ * <br><br>
+ * This class is thread-safe.
+ *
+ * @param <K> the type of keys stored in this cache
+ * @param <V> the type of values stored in this cache
+ * @see RequestContext
+ * @see ThreadLevelCache
+ */
+public final class RequestCache<K,V> {
+
+    /**
+     * Creates a new RequestCache instance.
+     */
+    public RequestCache() {
+    }
+
+    private ConcurrentHashMap<Object,Object> storage(boolean create) {
+        final RequestContext ctx = RequestContext.current();
+        return ctx == null ? null : ctx.storage(this, create);
+    }
+
+    /**
+     * Returns the value for the specified key in the current request, or null if absent.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value associated with the specified key, or null if no mapping exists
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        final ConcurrentHashMap<Object,Object> m = storage(false);
+        return m == null ? null : (V) m.get(key);
+    }
+
+    /**
+     * Returns the value for the specified key in the current request, or adds and returns
+     * the default value if absent.
+     *
+     * @param key the key whose associated value is to be returned
+     * @param def the default value to be returned (and stored) if the key is not present
+     * @return the value associated with the specified key, or def if no mapping existed
+     */
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(K key, V def) {
+        final ConcurrentHashMap<Object,Object> m = storage(true);
+        if (m == null || def == null)
+            return m == null ? def : (V) m.get(key);
+        final Object prev = m.putIfAbsent(key, def);
+        return prev == null ? def : (V) prev;
+    }
+
+    /**
+     * Returns true if this cache (in the current request) contains the specified key.
+     *
+     * @param key the key whose presence is to be tested
+     * @return true if this cache contains a mapping for the specified key
+     */
+    public boolean containsKey(K key) {
+        final ConcurrentHashMap<Object,Object> m = storage(false);
+        return m != null && m.containsKey(key);
+    }
+
+    /**
+     * Puts (inserts or replaces) an entry in this cache for the current request.
+     *
+     * @param key the key with which the specified value is to be associated
+     * @param value the value to be associated with the specified key (null removes the key)
+     * @return the previous value associated with key, or null if there was no mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (value == null)
+            return invalidate(key);
+        final ConcurrentHashMap<Object,Object> m = storage(true);
+        return m == null ? null : (V) m.put(key, value);
+    }
+
+    /**
+     * Removes and returns a single cached entry in this cache for the current request.
+     *
+     * @param key the key whose mapping is to be removed from the cache
+     * @return the previous value associated with key, or null if there was no mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V invalidate(K key) {
+        final ConcurrentHashMap<Object,Object> m = storage(false);
+        return m == null ? null : (V) m.remove(key);
+    }
+
+    /**
+     * Clears ONLY this cache instance in the current request.
+     * Other RequestCache instances remain unaffected.
+     */
+    public void clear() {
+        final ConcurrentHashMap<Object,Object> m = storage(false);
+        if (m != null)
+            m.clear();
+    }
+
+    /**
+     * Returns the number of entries in this cache for the current request.
+     *
+     * @return the number of key-value mappings in this cache
+     */
+    public int size() {
+        final ConcurrentHashMap<Object,Object> m = storage(false);
+        return m == null ? 0 : m.size();
+    }
+}
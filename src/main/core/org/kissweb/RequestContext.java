@@ -0,0 +1,169 @@
+package org.kissweb;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A per-request context object that holds the storage for all {@link RequestCache} instances.
+ * <p>
+ * Unlike {@link ThreadLevelCache}, storage belongs to the request rather than to the thread that
+ * happens to be running it.  Key features:
+ * <ul>
+ *   <li>One context is created per web service request and is owned by the <code>ProcessServlet</code></li>
+ *   <li>The context is bound to the worker thread for the duration of the request</li>
+ *   <li>Child tasks forked by the request see the same context when wrapped with one of the
+ *       <code>wrap</code> methods (e.g. <code>executor.submit(RequestContext.wrap(task))</code>)</li>
+ *   <li>{@link #close()} drops all request-scoped values at once in O(1) regardless of how many
+ *       caches or entries were used</li>
+ *   <li>A thread that is reused for another request never sees the values of the previous request</li>
+ * </ul>
+ * This is the context-object equivalent of a <code>ScopedValue</code>, usable on the Java release Kiss targets.
+ * It works equally well with platform or virtual threads.
+ * <br><br>
+ * This class is thread-safe.
+ *
+ * @see RequestCache
+ */
+public final class RequestContext {
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    /* storage for each RequestCache instance used during this request; null once closed */
+    private volatile ConcurrentHashMap<RequestCache<?,?>, ConcurrentHashMap<Object,Object>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new, open, unbound request context.
+     */
+    public RequestContext() {
+    }
+
+    /**
+     * Returns the context bound to the current thread, or null if the current thread is not running on behalf of a request.
+     *
+     * @return the current context or null
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds this context to the current thread.
+     *
+     * @return the context previously bound to the current thread (to be passed to {@link #unbind(RequestContext)})
+     */
+    public RequestContext bind() {
+        RequestContext prev = CURRENT.get();
+        CURRENT.set(this);
+        return prev;
+    }
+
+    /**
+     * Restores the context that was bound to the current thread before {@link #bind()}.
+     *
+     * @param previous the value returned by {@link #bind()}
+     */
+    public static void unbind(RequestContext previous) {
+        if (previous == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(previous);
+    }
+
+    /**
+     * Drops all values held by this context.  Caches used after this point behave as if outside any request.
+     * This is called by Kiss when the request completes.
+     */
+    public void close() {
+        caches = null;
+    }
+
+    /**
+     * Returns true if {@link #close()} has been called.
+     *
+     * @return true if closed
+     */
+    public boolean isClosed() {
+        return caches == null;
+    }
+
+    /**
+     * Returns the storage map for a particular cache, creating it if needed.
+     *
+     * @param cache the cache
+     * @param create if true, create the map if it doesn't exist
+     * @return the map, or null if the context is closed (or the map doesn't exist and <code>create</code> is false)
+     */
+    ConcurrentHashMap<Object,Object> storage(RequestCache<?,?> cache, boolean create) {
+        final ConcurrentHashMap<RequestCache<?,?>, ConcurrentHashMap<Object,Object>> c = caches;
+        if (c == null)
+            return null;
+        return create ? c.computeIfAbsent(cache, k -> new ConcurrentHashMap<>()) : c.get(cache);
+    }
+
+    /* ---- Propagation to child tasks ---- */
+
+    /**
+     * Wraps a task so that it runs with the current thread's request context bound.
+     * Use this when handing work from a request to another thread or executor.
+     *
+     * @param task the task to wrap
+     * @return the wrapped task (or <code>task</code> itself if there is no current context)
+     */
+    public static Runnable wrap(Runnable task) {
+        final RequestContext ctx = CURRENT.get();
+        if (ctx == null)
+            return task;
+        return () -> {
+            RequestContext prev = ctx.bind();
+            try {
+                task.run();
+            } finally {
+                unbind(prev);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs with the current thread's request context bound.
+     *
+     * @param task the task to wrap
+     * @param <T> the result type
+     * @return the wrapped task (or <code>task</code> itself if there is no current context)
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        final RequestContext ctx = CURRENT.get();
+        if (ctx == null)
+            return task;
+        return () -> {
+            RequestContext prev = ctx.bind();
+            try {
+                return task.call();
+            } finally {
+                unbind(prev);
+            }
+        };
+    }
+
+    /**
+     * Wraps a supplier (e.g. for <code>CompletableFuture.supplyAsync</code>) so that it runs with the
+     * current thread's request context bound.
+     *
+     * @param task the supplier to wrap
+     * @param <T> the result type
+     * @return the wrapped supplier (or <code>task</code> itself if there is no current context)
+     */
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+        final RequestContext ctx = CURRENT.get();
+        if (ctx == null)
+            return task;
+        return () -> {
+            RequestContext prev = ctx.bind();
+            try {
+                return task.get();
+            } finally {
+                unbind(prev);
+            }
+        };
+    }
+}
@@ -17,8 +17,12 @@
  *   <li>{@link #releaseThreadLocal()} removes per-thread maps/registrations for this instance</li>
  * </ul>
  *
+ * For values that should live exactly as long as a web service request (and be visible to tasks
+ * the request forks onto other threads) use {@link RequestCache} instead.
+ *
  * @param <K> the type of keys stored in this cache
  * @param <V> the type of values stored in this cache
+ * @see RequestCache
  */
 public final class ThreadLevelCache<K,V> {
 
@@ -0,0 +1,290 @@
+package org.kissweb.database;
+
+import org.postgresql.PGConnection;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Rewrites statements that use <code>PrimitiveList</code> parameters for the database in use.
+ * <br><br>
+ * PostgreSQL binds the lists as arrays, so only <code>x IN (?)</code> and <code>x NOT IN (?)</code> are changed
+ * (to <code>x = ANY(?)</code> and <code>x &lt;&gt; ALL(?)</code>).  On the other databases each list is written
+ * into the statement as one or more <code>IN</code> lists of literals and removed from the parameters.
+ *
+ * @see PrimitiveList
+ */
+final class ArrayParams {
+
+    /**
+     * The most values written in one <code>IN</code> list (Oracle's limit).
+     */
+    static final int MAX_IN_LIST = 1000;
+
+    /**
+     * A rewritten statement and its remaining parameters.
+     */
+    static final class Statement {
+        final String sql;
+        final Object [] args;
+
+        Statement(String sql, Object [] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    private ArrayParams() {
+    }
+
+    /**
+     * Create a PostgreSQL array directly from a primitive array (no boxing).
+     */
+    static java.sql.Array createPostgreSQLArray(Connection conn, String type, Object primitiveArray) throws SQLException {
+        return conn.conn.unwrap(PGConnection.class).createArrayOf(type, primitiveArray);
+    }
+
+    /**
+     * Rewrite a statement for its <code>PrimitiveList</code> parameters.
+     *
+     * @param conn the connection the statement is for
+     * @param sql the statement
+     * @param args the parameters (may be null)
+     * @return the rewritten statement, or null if there are no <code>PrimitiveList</code> parameters
+     * @throws SQLException if a list is used where it can't be rewritten
+     */
+    static Statement expand(Connection conn, String sql, Object [] args) throws SQLException {
+        return expand(conn.getDBType(), sql, args);
+    }
+
+    static Statement expand(Connection.ConnectionType type, String sql, Object [] args) throws SQLException {
+        if (args == null)
+            return null;
+        boolean found = false;
+        for (Object a : args)
+            if (a instanceof PrimitiveList) {
+                found = true;
+                break;
+            }
+        if (!found)
+            return null;
+        final boolean pg = type == Connection.ConnectionType.PostgreSQL;
+        final StringBuilder out = new StringBuilder(sql.length() + 64);
+        final ArrayList<Object> params = new ArrayList<>(args.length);
+        final int len = sql.length();
+        int param = 0;
+        int copied = 0;  // sql has been copied to out up to here
+        for (int i = 0; i < len; i++) {
+            final char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                final int end = sql.indexOf(c, i + 1);  // a doubled quote just starts the next quoted part
+                i = end < 0 ? len : end;
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                final int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 1;
+            } else if (c == '?') {
+                if (i + 1 < len && sql.charAt(i + 1) == '?') {  // JDBC escape for a ? operator
+                    i++;
+                    continue;
+                }
+                final Object a = param < args.length ? args[param] : null;
+                param++;
+                if (!(a instanceof PrimitiveList)) {
+                    params.add(a);
+                    continue;
+                }
+                final Use use = Use.find(sql, i);
+                if (use == null) {
+                    if (!pg)
+                        throw new SQLException("A " + a.getClass().getSimpleName() +
+                                " parameter must be used as x = ANY(?), x <> ALL(?), x IN (?), or x NOT IN (?)");
+                    params.add(a);  // used some other way with an array
+                    continue;
+                }
+                final String replacement;
+                final int from;
+                if (pg) {
+                    params.add(a);
+                    if (!use.in)
+                        continue;
+                    from = use.opStart;
+                    replacement = use.not ? "<> ALL(?)" : "= ANY(?)";
+                } else {
+                    final PrimitiveList lst = (PrimitiveList) a;
+                    if (lst.size == 0 && use.not) {
+                        if (use.operandStart < 0)
+                            throw new SQLException("An empty " + a.getClass().getSimpleName() +
+                                    " used with NOT IN or <> ALL must follow a column name");
+                        from = use.operandStart;
+                        replacement = "1 = 1";
+                    } else if (lst.size <= MAX_IN_LIST) {
+                        from = use.opStart;
+                        replacement = inList(lst, 0, lst.size, use.not);
+                    } else if (use.operandStart < 0) {
+                        throw new SQLException("A " + a.getClass().getSimpleName() + " of more than " + MAX_IN_LIST +
+                                " values must be compared with a single column name");
+                    } else {
+                        from = use.operandStart;
+                        final String operand = sql.substring(use.operandStart, use.opStart).trim();
+                        final StringBuilder sb = new StringBuilder("(");
+                        for (int s = 0; s < lst.size; s += MAX_IN_LIST) {
+                            if (s > 0)
+                                sb.append(use.not ? " AND " : " OR ");
+                            sb.append(operand).append(' ').append(inList(lst, s, Math.min(lst.size, s + MAX_IN_LIST), use.not));
+                        }
+                        replacement = sb.append(')').toString();
+                    }
+                }
+                out.append(sql, copied, from).append(replacement);
+                copied = use.end;
+                i = use.end - 1;
+            }
+        }
+        out.append(sql, copied, len);
+        for (; param < args.length; param++)  // more parameters than placeholders; let the driver report it
+            params.add(args[param]);
+        return new Statement(out.toString(), params.toArray());
+    }
+
+    static String inList(PrimitiveList lst, int from, int to, boolean not) {
+        if (from == to)
+            return "IN (NULL)";  // matches nothing
+        final StringBuilder sb = new StringBuilder(not ? "NOT IN (" : "IN (");
+        for (int i = from; i < to; i++) {
+            if (i > from)
+                sb.append(',');
+            lst.appendLiteral(sb, i);
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Where a list parameter appears in <code>x = ANY(?)</code>, <code>x &lt;&gt; ALL(?)</code>,
+     * <code>x IN (?)</code>, or <code>x NOT IN (?)</code>.
+     */
+    private static final class Use {
+        boolean in;        // IN rather than ANY/ALL
+        boolean not;       // NOT IN or <> ALL
+        int opStart;       // start of the operator (=, <>, IN, or NOT)
+        int operandStart;  // start of x if it is a column name, else -1
+        int end;           // just past the closing parenthesis
+
+        static Use find(String sql, int q) {
+            int close = skipSpace(sql, q + 1, 1);
+            if (close >= sql.length() || sql.charAt(close) != ')')
+                return null;
+            int open = skipSpace(sql, q - 1, -1);
+            if (open < 0 || sql.charAt(open) != '(')
+                return null;
+            final int kwEnd = skipSpace(sql, open - 1, -1) + 1;
+            final int kwStart = wordStart(sql, kwEnd);
+            final String kw = sql.substring(kwStart, kwEnd).toUpperCase();
+            final Use use = new Use();
+            use.end = close + 1;
+            int before = skipSpace(sql, kwStart - 1, -1);  // last character before the keyword
+            switch (kw) {
+                case "IN":
+                    use.in = true;
+                    use.opStart = kwStart;
+                    final int notStart = wordStart(sql, before + 1);
+                    if (sql.substring(notStart, before + 1).equalsIgnoreCase("NOT")) {
+                        use.not = true;
+                        use.opStart = notStart;
+                        before = skipSpace(sql, notStart - 1, -1);
+                    }
+                    break;
+                case "ANY":
+                case "SOME":
+                case "ALL":
+                    if (before < 0)
+                        return null;
+                    if (sql.charAt(before) == '=' && before > 0 && "<>!".indexOf(sql.charAt(before - 1)) < 0)
+                        use.opStart = before;
+                    else if (before > 0 && (sql.startsWith("<>", before - 1) || sql.startsWith("!=", before - 1))) {
+                        use.opStart = before - 1;
+                        use.not = true;
+                    } else
+                        return null;
+                    if (use.not != kw.equals("ALL"))
+                        return null;  // only = ANY and <> ALL are lists
+                    before = skipSpace(sql, use.opStart - 1, -1);
+                    break;
+                default:
+                    return null;
+            }
+            // x is only used when it is a (possibly qualified or quoted) column name standing on its own
+            use.operandStart = before < 0 ? -1 : columnStart(sql, before + 1);
+            if (use.operandStart >= 0) {
+                final int prev = skipSpace(sql, use.operandStart - 1, -1);
+                if (prev >= 0 && sql.charAt(prev) != '(' && sql.charAt(prev) != ',') {
+                    final int prevStart = wordStart(sql, prev + 1);
+                    if (prevStart > 0 && isWordChar(sql.charAt(prevStart - 1))
+                            || !KEYWORDS.contains(sql.substring(prevStart, prev + 1).toUpperCase()))
+                        use.operandStart = -1;
+                }
+            }
+            return use;
+        }
+
+        /**
+         * Keywords that may come directly before a column being compared.
+         */
+        private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+                "WHERE", "AND", "OR", "NOT", "ON", "HAVING", "WHEN", "THEN", "ELSE", "SELECT"));
+
+        /**
+         * Find the start of the column name that ends at <code>end</code>.  The name may be qualified and its
+         * parts may be quoted with <code>"</code>, <code>`</code>, or <code>[]</code>.
+         *
+         * @return the start of the name, or -1 if the text ending there isn't a column name
+         */
+        private static int columnStart(String sql, int end) {
+            int s = end;
+            for (;;) {
+                if (s <= 0)
+                    return -1;
+                final char c = sql.charAt(s - 1);
+                final char open = c == '"' || c == '`' ? c : c == ']' ? '[' : 0;
+                if (open != 0) {
+                    final int o = s > 1 ? sql.lastIndexOf(open, s - 2) : -1;
+                    if (o < 0 || o == s - 2)
+                        return -1;
+                    s = o;
+                } else {
+                    int w = s;
+                    while (w > 0 && isWordChar(sql.charAt(w - 1)))
+                        w--;
+                    if (w == s || Character.isDigit(sql.charAt(w)))
+                        return -1;
+                    s = w;
+                }
+                if (s == 0 || sql.charAt(s - 1) != '.')
+                    return s;
+                s--;
+            }
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+        }
+
+        private static int wordStart(String sql, int end) {
+            int s = end;
+            while (s > 0 && Character.isLetter(sql.charAt(s - 1)))
+                s--;
+            return s;
+        }
+
+        private static int skipSpace(String sql, int i, int step) {
+            while (i >= 0 && i < sql.length() && Character.isWhitespace(sql.charAt(i)))
+                i += step;
+            return i;
+        }
+    }
+}
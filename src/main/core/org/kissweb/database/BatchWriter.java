@@ -0,0 +1,515 @@
+package org.kissweb.database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Writes inserts, updates, and deletes of <code>Record</code>s to the database in batches rather than one
+ * statement per row.
+ * <br><br>
+ * <code>Record.addRecord()</code>, <code>update()</code>, and <code>delete()</code> each execute one statement,
+ * so writing 100,000 rows takes 100,000 round trips to the database.  A <code>BatchWriter</code> queues the
+ * records instead and groups them by operation, table, and column set.  When a group reaches the flush size
+ * (or <code>flush()</code> or <code>close()</code> is called) the queued rows are sent together:
+ * <ul>
+ *     <li>Inserts use a single multi-row <code>insert ... values (...), (...), ...</code> statement on PostgreSQL,
+ *     MySQL, SQLite, and Microsoft SQL Server, split as needed to stay under each database's parameter limit.
+ *     Oracle uses JDBC <code>addBatch</code>/<code>executeBatch</code>.</li>
+ *     <li>Generated keys (<code>addAutoInc</code>) are stored back into each record.  They are read in bulk from
+ *     a multi-row insert on MySQL (whose driver reports them in row order) and from a <code>merge</code> that
+ *     outputs each row's position on Microsoft SQL Server.  Other databases don't say which key belongs to which
+ *     row of a multi-row insert, so those rows are written one statement per row (batched on PostgreSQL and
+ *     Oracle).</li>
+ *     <li>Upserts (<code>upsert</code>) are written the same way as inserts, as multi-row
+ *     <code>insert ... on conflict</code> (PostgreSQL, SQLite), <code>insert ... on duplicate key update</code>
+ *     (MySQL), or <code>merge</code> (Microsoft SQL Server) statements.  Oracle uses a batched <code>merge</code>.</li>
+ *     <li>Updates and deletes use <code>addBatch</code>/<code>executeBatch</code>.</li>
+ * </ul>
+ * Typical usage:
+ * <br><br>
+ * <code>
+ * &nbsp;&nbsp;&nbsp;&nbsp;try (BatchWriter bw = db.newBatchWriter()) {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;for (...) {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;Record rec = db.newRecord("item");<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;rec.set("name", name);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;bw.add(rec);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;db.commit();
+ * </code>
+ * <br><br>
+ * Column values are captured when a record is queued, so it may be reused or changed immediately.  The record is
+ * marked as written (and any generated key is stored into it) when its group has been flushed.  Columns changed
+ * in the meantime are still seen as changed.
+ * <br><br>
+ * Rows within a group are written in the order they were queued.  Groups are flushed together, in the order each
+ * group was first used, so (for example) parent rows queued before child rows are written first.  Statements that
+ * depend on each other in other ways (such as deleting a row inserted in the same batch) should be separated
+ * with <code>flush()</code>.  If a flush fails, the rows it was writing are discarded and the exception is thrown;
+ * the transaction should then be rolled back.
+ * <br><br>
+ * This class is not thread-safe.
+ *
+ * @see Connection#newBatchWriter()
+ * @see Connection#newBatchWriter(int)
+ */
+public class BatchWriter implements AutoCloseable {
+
+    /**
+     * The default number of rows queued in a group before it is flushed.
+     */
+    public static final int DEFAULT_FLUSH_SIZE = 1000;
+
+    private enum Op { INSERT, INSERT_KEY, UPSERT, UPDATE, DELETE }
+
+    private final Connection conn;
+    private final int flushSize;
+    private final LinkedHashMap<String, Group> groups = new LinkedHashMap<>();
+    private long rowCount;
+    private long statementCount;
+
+    BatchWriter(Connection conn, int flushSize) {
+        if (flushSize < 1)
+            throw new IllegalArgumentException("flushSize must be at least 1");
+        this.conn = conn;
+        this.flushSize = flushSize;
+    }
+
+    /**
+     * Queue a record to be inserted.  Only columns with non-null values are written.
+     *
+     * @param rec the record to insert
+     * @return this BatchWriter
+     * @throws SQLException if a flush occurs and fails
+     * @see Record#addRecord()
+     */
+    public BatchWriter add(Record rec) throws SQLException {
+        final String [] cols = insertColumns(rec);
+        return queue(Op.INSERT, rec, cols, new String[0], values(rec, cols, null, false));
+    }
+
+    /**
+     * Queue a record to be inserted into a table with an auto-increment (serial or identity) primary key.
+     * When the row is written, the key the database assigned is stored into the record's primary key column.
+     *
+     * @param rec the record to insert
+     * @return this BatchWriter
+     * @throws SQLException if a flush occurs and fails, or the table does not have a single-column primary key
+     * @see Record#addRecordAutoInc()
+     */
+    public BatchWriter addAutoInc(Record rec) throws SQLException {
+        final String [] cols = insertColumns(rec);
+        final String pcol = conn.getPrimaryColumnName(rec.getTableName());
+        return queue(Op.INSERT_KEY, rec, cols, new String[] { pcol }, values(rec, cols, null, false));
+    }
+
+    /**
+     * Queue a record to be inserted, or to update the existing row with the same primary key.
+     * Only columns with non-null values are written, and every primary key column must have a value.
+     * <br><br>
+     * PostgreSQL and Microsoft SQL Server reject a statement that writes the same key twice, so a key should
+     * be queued at most once between flushes.
+     *
+     * @param rec the record to upsert
+     * @return this BatchWriter
+     * @throws SQLException if a flush occurs and fails
+     * @see Record#upsert()
+     */
+    public BatchWriter upsert(Record rec) throws SQLException {
+        final String [] cols = insertColumns(rec);
+        return queue(Op.UPSERT, rec, cols, primaryColumns(rec), values(rec, cols, null, false));
+    }
+
+    /**
+     * Queue the changed columns of a record to be updated.  Nothing is queued if no column has changed.
+     *
+     * @param rec the record to update
+     * @return this BatchWriter
+     * @throws SQLException if a flush occurs and fails
+     * @see Record#update()
+     */
+    public BatchWriter update(Record rec) throws SQLException {
+        final String [] cols = rec.changedColumns();
+        if (cols.length == 0)
+            return this;
+        final String [] keys = primaryColumns(rec);
+        return queue(Op.UPDATE, rec, cols, keys, values(rec, cols, keys, true));
+    }
+
+    /**
+     * Queue a record to be deleted.
+     *
+     * @param rec the record to delete
+     * @return this BatchWriter
+     * @throws SQLException if a flush occurs and fails
+     * @see Record#delete()
+     */
+    public BatchWriter delete(Record rec) throws SQLException {
+        final String [] keys = primaryColumns(rec);
+        return queue(Op.DELETE, rec, new String[0], keys, values(rec, new String[0], keys, true));
+    }
+
+    /**
+     * Write all queued rows to the database.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    public void flush() throws SQLException {
+        SQLException error = null;
+        for (Group g : groups.values()) {
+            try {
+                if (error == null)
+                    g.flush();
+            } catch (SQLException e) {
+                error = e;
+            } finally {
+                g.pending.clear();
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Returns the number of rows written so far.
+     *
+     * @return the number of rows written
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of statements (round trips) executed so far.
+     *
+     * @return the number of statements executed
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Flush any queued rows and release the statements.
+     *
+     * @throws SQLException if a database error occurs
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            for (Group g : groups.values())
+                g.close();
+            groups.clear();
+        }
+    }
+
+    private BatchWriter queue(Op op, Record rec, String [] cols, String [] keys, Object [] vals) throws SQLException {
+        final String table = rec.getTableName();
+        if (table == null)
+            throw new SQLException("Can't write record; no table name");
+        final String gkey = op.ordinal() + table + '\u0000' + String.join(",", cols) + '\u0000' + String.join(",", keys);
+        Group g = groups.get(gkey);
+        if (g == null)
+            groups.put(gkey, g = new Group(op, table, cols, keys));
+        g.pending.add(new Pending(rec, vals));
+        if (g.pending.size() >= flushSize)
+            flush();
+        return this;
+    }
+
+    private static String [] insertColumns(Record rec) throws SQLException {
+        final String [] cols = rec.nonNullColumns();
+        if (cols.length == 0)
+            throw new SQLException("Can't insert record into " + rec.getTableName() + "; no column values");
+        return cols;
+    }
+
+    private String [] primaryColumns(Record rec) throws SQLException {
+        final List<String> pc = conn.getPrimaryColumns(rec.getTableName());
+        return pc.toArray(new String[0]);
+    }
+
+    private static Object [] values(Record rec, String [] cols, String [] keys, boolean originalKeys) {
+        final int nkeys = keys == null ? 0 : keys.length;
+        final Object [] vals = new Object[cols.length + nkeys];
+        for (int i = 0; i < cols.length; i++)
+            vals[i] = rec.value(cols[i]);
+        for (int i = 0; i < nkeys; i++)
+            vals[cols.length + i] = originalKeys ? rec.originalValue(keys[i]) : rec.value(keys[i]);
+        return vals;
+    }
+
+    /**
+     * The largest number of bind parameters to use in one statement, or 0 if multi-row inserts are not used.
+     */
+    static int maxParameters(Connection.ConnectionType ct) {
+        if (ct == null)
+            return 0;
+        switch (ct) {
+            case PostgreSQL:
+                return 32767;
+            case MySQL:
+                return 65535;
+            case MicrosoftServer:
+                return 2000;
+            case SQLite:
+                return 999;      //  the default limit of older SQLite versions
+            default:
+                return 0;
+        }
+    }
+
+    private static final class Pending {
+        final Record rec;
+        final Object [] vals;
+        final Object [] written;   // the record's values when queued
+        Object key;                // the generated key
+
+        Pending(Record rec, Object [] vals) {
+            this.rec = rec;
+            this.vals = vals;
+            final Object [] rv = rec.rowValues();
+            written = Arrays.copyOf(rv, rv.length);
+        }
+    }
+
+    private final class Group {
+        final Op op;
+        final String table;
+        final String [] cols;
+        final String [] keys;
+        final ArrayList<Pending> pending = new ArrayList<>();
+        PreparedStatement full;     // multi-row insert for a full chunk, kept across flushes
+        int fullRows;
+
+        Group(Op op, String table, String [] cols, String [] keys) {
+            this.op = op;
+            this.table = table;
+            this.cols = cols;
+            this.keys = keys;
+        }
+
+        void flush() throws SQLException {
+            if (pending.isEmpty())
+                return;
+            conn.noteWrite(table);
+            final Connection.ConnectionType ct = conn.getDBType();
+            final int maxParams = maxParameters(ct);
+            if (op == Op.INSERT_KEY && ct == Connection.ConnectionType.SQLite)
+                flushEach();
+            else if ((op == Op.INSERT || op == Op.UPSERT || op == Op.INSERT_KEY && multiRowKeys(ct)) && maxParams > 0)
+                flushMultiRow(maxParams);
+            else
+                flushBatch();
+            rowCount += pending.size();
+            final String key = op == Op.INSERT_KEY ? keys[0] : null;
+            for (Pending p : pending)
+                p.rec.markWritten(p.written, key, p.key);
+            if (op == Op.DELETE && conn.deleteCallback != null && keys.length == 1)
+                for (Pending p : pending)
+                    conn.deleteCallback.accept(table, p.vals[0]);
+        }
+
+        private void flushMultiRow(int maxParams) throws SQLException {
+            int rowsPerStatement = Math.max(1, Math.min(flushSize, maxParams / cols.length));
+            if (conn.getDBType() == Connection.ConnectionType.MicrosoftServer)
+                rowsPerStatement = Math.min(rowsPerStatement, 1000);
+            for (int start = 0; start < pending.size(); start += rowsPerStatement) {
+                final int n = Math.min(rowsPerStatement, pending.size() - start);
+                PreparedStatement ps;
+                if (n == rowsPerStatement) {
+                    if (full == null || fullRows != n) {
+                        if (full != null)
+                            full.close();
+                        full = prepareInsert(n);
+                        fullRows = n;
+                    } else
+                        full.clearParameters();
+                    ps = full;
+                } else
+                    ps = prepareInsert(n);
+                try {
+                    int param = 1;
+                    for (int r = start; r < start + n; r++)
+                        for (Object val : pending.get(r).vals)
+                            Record.bindValue(conn, ps, param++, val);
+                    statementCount++;
+                    if (op != Op.INSERT_KEY)
+                        ps.executeUpdate();
+                    else
+                        storeKeys(ps, start, n);
+                } finally {
+                    if (ps != full)
+                        ps.close();
+                }
+            }
+        }
+
+        /**
+         * Returns true if the generated keys of a multi-row insert can be matched to its rows.
+         */
+        private boolean multiRowKeys(Connection.ConnectionType ct) {
+            return ct == Connection.ConnectionType.MySQL || ct == Connection.ConnectionType.MicrosoftServer;
+        }
+
+        private PreparedStatement prepareInsert(int rows) throws SQLException {
+            final Connection.ConnectionType ct = conn.getDBType();
+            if (op == Op.UPSERT)
+                return conn.conn.prepareStatement(Upsert.sql(ct, table, cols, Arrays.asList(keys), rows));
+            if (op == Op.INSERT_KEY && ct == Connection.ConnectionType.MicrosoftServer)
+                return conn.conn.prepareStatement(keyedMerge(rows));
+            final StringBuilder sql = new StringBuilder("insert into ").append(table).append(" (");
+            sql.append(String.join(", ", cols)).append(")");
+            sql.append(" values ");
+            final StringBuilder row = new StringBuilder("(");
+            for (int c = 0; c < cols.length; c++)
+                row.append(c == 0 ? "?" : ", ?");
+            row.append(")");
+            for (int r = 0; r < rows; r++) {
+                if (r > 0)
+                    sql.append(", ");
+                sql.append(row);
+            }
+            if (op == Op.INSERT_KEY)  // MySQL
+                return conn.conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+            return conn.conn.prepareStatement(sql.toString());
+        }
+
+        /**
+         * A Microsoft SQL Server insert that outputs each row's position in the values list with its generated key.
+         * (Unlike <code>insert</code>, the <code>output</code> clause of <code>merge</code> can refer to the source.)
+         */
+        private String keyedMerge(int rows) {
+            final StringBuilder sql = new StringBuilder("merge into ").append(table).append(" using (values ");
+            for (int r = 0; r < rows; r++) {
+                sql.append(r == 0 ? "(" : ", (");
+                for (int c = 0; c < cols.length; c++)
+                    sql.append("?, ");
+                sql.append(r).append(")");
+            }
+            sql.append(") as src (").append(String.join(", ", cols)).append(", kiss_row) on 1 = 0");
+            sql.append(" when not matched then insert (").append(String.join(", ", cols)).append(") values (");
+            for (int c = 0; c < cols.length; c++)
+                sql.append(c == 0 ? "src." : ", src.").append(cols[c]);
+            sql.append(") output src.kiss_row, inserted.").append(keys[0]).append(";");
+            return sql.toString();
+        }
+
+        private void storeKeys(PreparedStatement ps, int start, int n) throws SQLException {
+            int found = 0;
+            if (conn.getDBType() == Connection.ConnectionType.MySQL) {
+                ps.executeUpdate();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    while (rs.next() && found < n)
+                        pending.get(start + found++).key = rs.getObject(1);
+                }
+            } else {
+                final boolean [] seen = new boolean[n];
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        final int r = rs.getInt(1);
+                        if (r < 0 || r >= n || seen[r])
+                            throw new SQLException("Unexpected row position " + r + " from " + table);
+                        seen[r] = true;
+                        pending.get(start + r).key = rs.getObject(2);
+                        found++;
+                    }
+                }
+            }
+            if (found != n)
+                throw new SQLException("Expected " + n + " generated keys from " + table + " but got " + found);
+        }
+
+        /**
+         * Insert the rows one at a time, reading each generated key (SQLite, which runs in-process).
+         */
+        private void flushEach() throws SQLException {
+            final StringBuilder sql = new StringBuilder("insert into ").append(table).append(" (");
+            sql.append(String.join(", ", cols)).append(") values (");
+            for (int c = 0; c < cols.length; c++)
+                sql.append(c == 0 ? "?" : ", ?");
+            sql.append(") returning ").append(keys[0]);
+            try (PreparedStatement ps = conn.conn.prepareStatement(sql.toString())) {
+                for (Pending p : pending) {
+                    for (int i = 0; i < cols.length; i++)
+                        Record.bindValue(conn, ps, i + 1, p.vals[i]);
+                    statementCount++;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next())
+                            throw new SQLException("Failure to get next serial");
+                        p.key = rs.getObject(1);
+                    }
+                }
+            }
+        }
+
+        private void flushBatch() throws SQLException {
+            final StringBuilder sql = new StringBuilder();
+            switch (op) {
+                case INSERT:
+                case INSERT_KEY:
+                    sql.append("insert into ").append(table).append(" (").append(String.join(", ", cols)).append(") values (");
+                    for (int c = 0; c < cols.length; c++)
+                        sql.append(c == 0 ? "?" : ", ?");
+                    sql.append(")");
+                    break;
+                case UPSERT:
+                    sql.append(Upsert.sql(conn.getDBType(), table, cols, Arrays.asList(keys), 1));
+                    break;
+                case UPDATE:
+                    sql.append("update ").append(table).append(" set ");
+                    for (int c = 0; c < cols.length; c++)
+                        sql.append(c == 0 ? "" : ", ").append(cols[c]).append("=?");
+                    appendWhere(sql);
+                    break;
+                case DELETE:
+                    sql.append("delete from ").append(table);
+                    appendWhere(sql);
+                    break;
+            }
+            try (PreparedStatement ps = op == Op.INSERT_KEY
+                    ? conn.conn.prepareStatement(sql.toString(), new String[] { keys[0] })
+                    : conn.conn.prepareStatement(sql.toString())) {
+                for (Pending p : pending) {
+                    final int nvals = op == Op.INSERT_KEY ? cols.length : p.vals.length;
+                    for (int i = 0; i < nvals; i++)
+                        Record.bindValue(conn, ps, i + 1, p.vals[i]);
+                    ps.addBatch();
+                }
+                statementCount++;
+                ps.executeBatch();
+                if (op == Op.INSERT_KEY)
+                    try (ResultSet rs = ps.getGeneratedKeys()) {
+                        for (Pending p : pending) {
+                            if (!rs.next())
+                                throw new SQLException("Failure to get next serial");
+                            p.key = rs.getObject(1);
+                        }
+                    }
+            }
+        }
+
+        private void appendWhere(StringBuilder sql) {
+            sql.append(" where ");
+            for (int k = 0; k < keys.length; k++)
+                sql.append(k == 0 ? "" : " and ").append(keys[k]).append("=?");
+        }
+
+        void close() {
+            if (full != null) {
+                try {
+                    full.close();
+                } catch (SQLException ignore) {
+                }
+                full = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package org.kissweb.database;
+
+import org.kissweb.DelimitedFileReader;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads large amounts of data into a table as fast as the database allows.
+ * <br><br>
+ * On PostgreSQL the rows are streamed through <code>COPY ... FROM STDIN</code>, which is many times faster than
+ * even batched inserts.  Other databases fall back to JDBC batched inserts.  In both cases rows are read from the
+ * source one at a time and written as they are read, so the data is never held in memory as a whole.
+ * <br><br>
+ * Rows may come from a <code>DelimitedFileReader</code>, an iterator of <code>Record</code>s, or a
+ * <code>JSONArray</code> of <code>JSONObject</code>s.  Column names must be given when loading a delimited file;
+ * otherwise, if none are given, they are taken from the first record or the first JSON object.
+ * Empty fields from a delimited file are loaded as nulls.
+ * <br><br>
+ * Typical usage:
+ * <br><br>
+ * <code>
+ * &nbsp;&nbsp;&nbsp;&nbsp;try (DelimitedFileReader dfr = new DelimitedFileReader("items.csv")) {<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;dfr.readHeader();<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;long n = db.newBulkLoader("item")<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;.setProgressCallback(rows -&gt; logger.info(rows + " rows loaded"), 100_000)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;.load(dfr);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;}<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;db.commit();
+ * </code>
+ * <br><br>
+ * Errors are reported per row through the handler set with <code>setErrorHandler</code>.  Rows that can't be
+ * read from the source (such as a delimited file line with the wrong number of fields) are reported and skipped.
+ * A row rejected by the database aborts the load, as the database rolls back the statement; it is reported with
+ * its row number (and its values when they are still available) and then an <code>SQLException</code> is thrown.
+ * If the JDBC driver doesn't identify the failing row of a batch, the first row of the batch is reported and the
+ * message gives the range of rows in the batch.
+ * Without a handler, the first error of either kind is thrown.
+ * <br><br>
+ * This class is not thread-safe.
+ *
+ * @see Connection#newBulkLoader(String, String...)
+ */
+public class BulkLoader {
+
+    /**
+     * Receives rows that could not be loaded.
+     */
+    @FunctionalInterface
+    public interface RowErrorHandler {
+        /**
+         * Called for each row that could not be loaded.
+         *
+         * @param row the row number in the source, starting at 1 (a file's header line is not counted)
+         * @param values the row's values, or null if they are not available
+         * @param message a description of the error
+         */
+        void error(long row, Object [] values, String message);
+    }
+
+    /**
+     * Supplies rows to load.  <code>next</code> returns null at the end.
+     */
+    private interface RowSource {
+        Object [] next() throws RowException, SQLException;
+    }
+
+    private static final class RowException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final Object [] values;
+
+        RowException(String message, Object [] values) {
+            super(message);
+            this.values = values;
+        }
+    }
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Connection conn;
+    private final String table;
+    private String [] columns;
+    private int batchSize = 1000;
+    private LongConsumer progressCallback;
+    private long progressInterval = 10_000;
+    private RowErrorHandler errorHandler;
+    private long rowNumber;     // rows read from the source
+    private long rowCount;      // rows loaded
+    private long skipped;       // rows reported and skipped
+
+    BulkLoader(Connection conn, String table, String ... columns) {
+        this.conn = conn;
+        this.table = table;
+        if (columns != null && columns.length > 0) {
+            this.columns = new String[columns.length];
+            for (int i = 0; i < columns.length; i++)
+                this.columns[i] = columns[i].toLowerCase();
+        }
+    }
+
+    /**
+     * Set the number of rows sent per batch when batched inserts are used (the default is 1000).
+     *
+     * @param batchSize rows per batch
+     * @return this BulkLoader
+     */
+    public BulkLoader setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Set a callback that receives the number of rows loaded so far every <code>interval</code> rows and at the end.
+     * The count is of rows the database has accepted: with batched inserts it is reported after the batch that
+     * reaches it has executed, and with <code>COPY</code> each <code>interval</code> rows are sent as a
+     * <code>COPY</code> of their own and the count is reported once it completes.
+     *
+     * @param callback the progress callback
+     * @param interval how many rows between calls
+     * @return this BulkLoader
+     */
+    public BulkLoader setProgressCallback(LongConsumer callback, long interval) {
+        progressCallback = callback;
+        progressInterval = Math.max(1, interval);
+        return this;
+    }
+
+    /**
+     * Set the handler that receives rows that could not be loaded.
+     *
+     * @param handler the error handler
+     * @return this BulkLoader
+     * @see RowErrorHandler
+     */
+    public BulkLoader setErrorHandler(RowErrorHandler handler) {
+        errorHandler = handler;
+        return this;
+    }
+
+    /**
+     * Returns true if this loader uses PostgreSQL <code>COPY</code> rather than batched inserts.
+     *
+     * @return true if <code>COPY</code> is used
+     */
+    public boolean usesCopy() {
+        return conn.getDBType() == Connection.ConnectionType.PostgreSQL;
+    }
+
+    /**
+     * Returns the number of rows that were reported to the error handler and skipped.
+     *
+     * @return the number of skipped rows
+     */
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Load the remaining lines of a delimited file.
+     * If <code>readHeader()</code> was called on the reader, fields are matched to columns by name; otherwise
+     * they are matched by position.
+     *
+     * @param dfr the delimited file reader
+     * @return the number of rows loaded
+     * @throws SQLException if a database error occurs
+     */
+    public long load(DelimitedFileReader dfr) throws SQLException {
+        if (columns == null)
+            throw new SQLException("Column names must be specified to load a delimited file");
+        final boolean byName = dfr.hasHeaders();
+        return load(() -> {
+            try {
+                if (!dfr.nextLine())
+                    return null;
+            } catch (java.io.IOException e) {
+                throw new SQLException(e);
+            } catch (Exception e) {
+                throw new RowException(e.getMessage(), null);
+            }
+            final Object [] vals = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                final String s = byName ? dfr.getString(columns[i]) : dfr.getString(i);
+                vals[i] = s == null || s.isEmpty() ? null : s;
+            }
+            if (!byName && dfr.size() < columns.length)
+                throw new RowException("Expected " + columns.length + " fields but found " + dfr.size(), vals);
+            return vals;
+        });
+    }
+
+    /**
+     * Load records.  Records are read from the iterator as they are written, so the iterator may produce them
+     * lazily.
+     *
+     * @param records the records to load
+     * @return the number of rows loaded
+     * @throws SQLException if a database error occurs
+     */
+    public long load(Iterator<Record> records) throws SQLException {
+        return load(new RowSource() {
+            Record first;
+
+            {
+                if (columns == null && records.hasNext()) {
+                    first = records.next();
+                    columns = first.getAllColumns().keySet().toArray(new String[0]);
+                }
+            }
+
+            @Override
+            public Object [] next() {
+                final Record rec;
+                if (first != null) {
+                    rec = first;
+                    first = null;
+                } else if (records.hasNext())
+                    rec = records.next();
+                else
+                    return null;
+                final Object [] vals = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++)
+                    vals[i] = rec.value(columns[i]);
+                return vals;
+            }
+        });
+    }
+
+    /**
+     * Load the JSON objects in an array.  Keys are matched to column names exactly.
+     *
+     * @param rows an array of <code>JSONObject</code>s
+     * @return the number of rows loaded
+     * @throws SQLException if a database error occurs
+     */
+    public long load(JSONArray rows) throws SQLException {
+        if (columns == null && rows.length() > 0 && rows.opt(0) instanceof JSONObject)
+            columns = ((JSONObject) rows.opt(0)).keySet().toArray(new String[0]);
+        return load(new RowSource() {
+            int i = 0;
+
+            @Override
+            public Object [] next() throws RowException {
+                if (i >= rows.length())
+                    return null;
+                final Object o = rows.opt(i++);
+                if (!(o instanceof JSONObject))
+                    throw new RowException("Not a JSON object", new Object[] { o });
+                final JSONObject obj = (JSONObject) o;
+                final Object [] vals = new Object[columns.length];
+                for (int c = 0; c < columns.length; c++)
+                    vals[c] = obj.opt(columns[c]);
+                return vals;
+            }
+        });
+    }
+
+    private long load(RowSource src) throws SQLException {
+        rowNumber = rowCount = skipped = 0;
+        conn.noteWrite(table);
+        final long n = usesCopy() ? PgCopy.copy(this, src) : insertBatches(src);
+        if (progressCallback != null)
+            progressCallback.accept(n);
+        return n;
+    }
+
+    /**
+     * Returns the next row from the source, reporting and skipping rows that can't be read.
+     */
+    private Object [] nextRow(RowSource src) throws SQLException {
+        while (true) {
+            try {
+                final Object [] vals = src.next();
+                if (vals != null)
+                    rowNumber++;
+                return vals;
+            } catch (RowException e) {
+                rowNumber++;
+                if (errorHandler == null)
+                    throw new SQLException("Row " + rowNumber + ": " + e.getMessage());
+                skipped++;
+                errorHandler.error(rowNumber, e.values, e.getMessage());
+            }
+        }
+    }
+
+    private void loaded() {
+        if (++rowCount % progressInterval == 0 && progressCallback != null)
+            progressCallback.accept(rowCount);
+    }
+
+    private String insertSQL() {
+        final StringBuilder sql = new StringBuilder("insert into ").append(table).append(" (");
+        sql.append(String.join(", ", columns)).append(") values (");
+        for (int i = 0; i < columns.length; i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        return sql.append(")").toString();
+    }
+
+    private long insertBatches(RowSource src) throws SQLException {
+        Object [] vals = nextRow(src);
+        if (vals == null)
+            return 0;
+        final ArrayList<Object[]> batch = new ArrayList<>(batchSize);
+        final ArrayList<Long> batchRows = new ArrayList<>(batchSize);
+        try (PreparedStatement ps = conn.conn.prepareStatement(insertSQL())) {
+            while (vals != null) {
+                for (int i = 0; i < vals.length; i++)
+                    Record.bindValue(conn, ps, i + 1, vals[i]);
+                ps.addBatch();
+                batch.add(vals);
+                batchRows.add(rowNumber);
+                vals = nextRow(src);
+                if (batch.size() >= batchSize || vals == null)
+                    executeBatch(ps, batch, batchRows);
+            }
+        }
+        return rowCount;
+    }
+
+    private void executeBatch(PreparedStatement ps, ArrayList<Object[]> batch, ArrayList<Long> batchRows) throws SQLException {
+        try {
+            ps.executeBatch();
+        } catch (BatchUpdateException e) {
+            // drivers either stop at the failing row or mark it EXECUTE_FAILED
+            final int [] counts = e.getUpdateCounts();
+            int failed = counts == null ? 0 : counts.length;
+            if (counts != null)
+                for (int i = 0; i < counts.length; i++)
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+                        failed = i;
+                        break;
+                    }
+            if (failed >= batch.size())
+                failed = batch.size() - 1;
+            if (errorHandler != null)
+                errorHandler.error(batchRows.get(failed), batch.get(failed), e.getMessage());
+            throw e;
+        } catch (SQLException e) {
+            // the driver doesn't say which row failed (SQLite, for example)
+            if (errorHandler != null)
+                errorHandler.error(batchRows.get(0), null, "In rows " + batchRows.get(0) + "-" + batchRows.get(batchRows.size() - 1) + ": " + e.getMessage());
+            throw e;
+        }
+        for (int i = 0; i < batch.size(); i++)
+            loaded();
+        batch.clear();
+        batchRows.clear();
+    }
+
+    /**
+     * Formats a value as a PostgreSQL CSV <code>COPY</code> field.  Nulls are empty and unquoted.
+     */
+    static void appendCSV(StringBuilder sb, Object val) {
+        if (val == null)
+            return;
+        if (val instanceof Number) {
+            sb.append(val instanceof BigDecimal ? ((BigDecimal) val).toPlainString() : val.toString());
+            return;
+        }
+        if (val instanceof Boolean) {
+            sb.append((Boolean) val ? 't' : 'f');
+            return;
+        }
+        if (val instanceof byte[]) {
+            sb.append("\\x");
+            for (byte b : (byte[]) val)
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            return;
+        }
+        final String s;
+        if (val instanceof ZonedDateTime)
+            s = ((ZonedDateTime) val).toOffsetDateTime().toString();
+        else if (val instanceof java.util.Date && !(val instanceof java.sql.Date || val instanceof java.sql.Time))
+            s = (val instanceof Timestamp ? val : new Timestamp(((java.util.Date) val).getTime())).toString();
+        else if (val instanceof Collection)
+            s = arrayLiteral(((Collection<?>) val).toArray());
+        else if (val instanceof Object[])
+            s = arrayLiteral((Object[]) val);
+        else
+            s = val.toString();
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"')
+                sb.append('"');
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static String arrayLiteral(Object [] a) {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < a.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            if (a[i] == null)
+                sb.append("NULL");
+            else {
+                sb.append('"');
+                final String s = a[i].toString();
+                for (int j = 0; j < s.length(); j++) {
+                    final char c = s.charAt(j);
+                    if (c == '"' || c == '\\')
+                        sb.append('\\');
+                    sb.append(c);
+                }
+                sb.append('"');
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * The PostgreSQL <code>COPY</code> path.  It is kept in its own class so that the PostgreSQL driver classes
+     * are only loaded when they are used.
+     */
+    private static final class PgCopy {
+
+        private static final Pattern LINE = Pattern.compile("line (\\d+)");
+
+        static long copy(BulkLoader bl, RowSource src) throws SQLException {
+            Object [] vals = bl.nextRow(src);
+            while (vals != null) {
+                vals = copyBatch(bl, src, vals);
+                if (vals != null && bl.progressCallback != null)
+                    bl.progressCallback.accept(bl.rowCount);  // the end is reported by load()
+            }
+            return bl.rowCount;
+        }
+
+        /**
+         * Send rows, starting with <code>vals</code>, in one <code>COPY</code> until the source ends or, when
+         * progress is reported, a progress interval's rows have been sent.
+         *
+         * @return the next row, or null at the end of the source
+         */
+        private static Object [] copyBatch(BulkLoader bl, RowSource src, Object [] vals) throws SQLException {
+            final String sql = "COPY " + bl.table + " (" + String.join(", ", bl.columns) + ") FROM STDIN WITH (FORMAT csv)";
+            final CopyIn in = bl.conn.conn.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+            final long limit = bl.progressCallback == null ? Long.MAX_VALUE : bl.progressInterval;
+            // COPY line numbers count the lines sent, which differ from source rows once a row is skipped;
+            // each entry is {first line, source row - line} recorded whenever that difference changes
+            final ArrayList<long[]> offsets = new ArrayList<>();
+            long offset = 0;
+            final StringBuilder sb = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            try {
+                long lines = 0;
+                while (vals != null && lines < limit) {
+                    for (int i = 0; i < vals.length; i++) {
+                        if (i > 0)
+                            sb.append(',');
+                        appendCSV(sb, vals[i]);
+                    }
+                    sb.append('\n');
+                    if (bl.rowNumber - ++lines != offset)
+                        offsets.add(new long[] { lines, offset = bl.rowNumber - lines });
+                    if (sb.length() >= COPY_BUFFER_SIZE) {
+                        final byte [] buf = sb.toString().getBytes(StandardCharsets.UTF_8);
+                        in.writeToCopy(buf, 0, buf.length);
+                        sb.setLength(0);
+                    }
+                    vals = bl.nextRow(src);
+                }
+                if (sb.length() > 0) {
+                    final byte [] buf = sb.toString().getBytes(StandardCharsets.UTF_8);
+                    in.writeToCopy(buf, 0, buf.length);
+                }
+                bl.rowCount += in.endCopy();
+                return vals;
+            } catch (SQLException e) {
+                if (in.isActive())
+                    try {
+                        in.cancelCopy();
+                    } catch (SQLException ignore) {
+                    }
+                if (bl.errorHandler != null) {
+                    final long line = failedLine(e);
+                    if (line > 0)
+                        bl.errorHandler.error(line + offsetAt(offsets, line), null, e.getMessage());
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the input line reported in a COPY error, or 0 if there is none.
+         */
+        private static long failedLine(SQLException e) {
+            String where = null;
+            if (e instanceof PSQLException) {
+                final ServerErrorMessage sem = ((PSQLException) e).getServerErrorMessage();
+                if (sem != null)
+                    where = sem.getWhere();
+            }
+            if (where == null)
+                where = e.getMessage();
+            final Matcher m = where == null ? null : LINE.matcher(where);
+            return m != null && m.find() ? Long.parseLong(m.group(1)) : 0;
+        }
+
+        private static long offsetAt(ArrayList<long[]> offsets, long line) {
+            long offset = 0;
+            for (long [] o : offsets) {
+                if (o[0] > line)
+                    break;
+                offset = o[1];
+            }
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.kissweb.database;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Maps (lower case) column names to slots in a <code>Record</code>'s value array.
+ * <br><br>
+ * A cursor builds one schema from its result set metadata and every record it returns shares it, so column names
+ * are stored once per query rather than once per row.  A record that needs a column its schema doesn't have makes
+ * its own copy of the schema first (see <code>Record.put</code>).
+ * <br><br>
+ * If a result set has more than one column with the same name, the name keeps its first position and the value
+ * of the last column (the same as putting them into a <code>LinkedHashMap</code> in order).
+ * <br><br>
+ * This class is not thread-safe.  Shared schemas are never modified.
+ */
+final class ColumnSchema {
+
+    private String [] names;    // distinct names in column order
+    private int [] slots;       // the value slot of each name
+    private int count;          // number of distinct names
+    private int width;          // number of value slots
+    private final HashMap<String,Integer> index;
+
+    /**
+     * Create an empty schema.
+     */
+    ColumnSchema() {
+        names = new String[8];
+        slots = new int[8];
+        index = new HashMap<>();
+    }
+
+    /**
+     * Create a schema for the columns of a result set.
+     *
+     * @param columnNames the lower case column names in result set order (slot <code>i</code> holds column <code>i</code>)
+     */
+    ColumnSchema(String [] columnNames) {
+        names = new String[columnNames.length];
+        slots = new int[columnNames.length];
+        index = new HashMap<>(columnNames.length * 2);
+        width = columnNames.length;
+        for (int i = 0; i < columnNames.length; i++) {
+            final Integer prev = index.put(columnNames[i], i);
+            if (prev == null) {
+                names[count] = columnNames[i];
+                slots[count++] = i;
+            } else
+                for (int j = 0; j < count; j++)
+                    if (slots[j] == prev) {
+                        slots[j] = i;
+                        break;
+                    }
+        }
+    }
+
+    private ColumnSchema(ColumnSchema from) {
+        names = Arrays.copyOf(from.names, Math.max(8, from.count + 4));
+        slots = Arrays.copyOf(from.slots, names.length);
+        count = from.count;
+        width = from.width;
+        index = new HashMap<>(from.index);
+    }
+
+    /**
+     * Returns a modifiable copy of this schema.
+     */
+    ColumnSchema copy() {
+        return new ColumnSchema(this);
+    }
+
+    /**
+     * Returns the value slot of a column or -1 if the column doesn't exist.
+     *
+     * @param name the lower case column name
+     */
+    int slot(String name) {
+        final Integer i = index.get(name);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * Add a new column.
+     *
+     * @param name the lower case column name (must not already exist)
+     * @return the slot of the new column
+     */
+    int add(String name) {
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        final int slot = width++;
+        names[count] = name;
+        slots[count++] = slot;
+        index.put(name, slot);
+        return slot;
+    }
+
+    /**
+     * Returns the number of (distinct) columns.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of value slots a record needs.
+     */
+    int width() {
+        return width;
+    }
+
+    /**
+     * Returns the name of the <code>i</code>th column.
+     */
+    String name(int i) {
+        return names[i];
+    }
+
+    /**
+     * Returns the value slot of the <code>i</code>th column.
+     */
+    int slotAt(int i) {
+        return slots[i];
+    }
+}
@@ -62,7 +62,6 @@ public class Command implements AutoCloseable {
     PreparedStatement pstat;
     boolean isSelect;
     private String lastSQL;
-    private List<String> pcols;
 
     Command(Connection c) throws SQLException {
         conn = c;
@@ -93,32 +92,35 @@ public boolean execute(String sql, Object ... args) throws SQLException {
         // The following two lines allows args to be a variable argument array or a passed in ArrayList of arguments
         if (args != null && args.length == 1 && args[0] instanceof ArrayList && !(args[0] instanceof ArrayListType))
             args = ((ArrayList) args[0]).toArray();
-        if (lastSQL == null || lastSQL != sql && !lastSQL.equals(sql)) {
-            if (pstat != null)
-                pstat.close();
-            pstat = conn.conn.prepareStatement(sql);
-            lastSQL = null;
-            if (pcols != null)
-                pcols.clear();
-        } else
-            pstat.clearParameters();
-        if (args != null)
-            for (int i = 0; i < args.length; ) {
-                Object val = args[i];
-                Array a = Record.makeSQLArray(conn, val);
-                try {
-                    if (a == null)
-                        pstat.setObject(++i, Connection.fixDate(val));
-                    else
-                        pstat.setArray(++i, a);
-                } catch (Exception e) {
-                    throw new SQLException("Too many SQL parameters specified", e);
-                }
-            }
-        if (lastSQL == null)
-            lastSQL = sql;
-        isSelect = false;
-        return pstat.execute();
+        final ArrayParams.Statement expanded = ArrayParams.expand(conn, sql, args);
+        if (expanded != null) {
+            sql = expanded.sql;
+            args = expanded.args;
+        }
+        final long start = SqlStats.start();
+        final boolean res;
+        try {
+            if (lastSQL == null || lastSQL != sql && !lastSQL.equals(sql)) {
+                if (pstat != null)
+                    pstat.close();
+                pstat = conn.conn.prepareStatement(sql);
+                lastSQL = null;
+            } else
+                pstat.clearParameters();
+            setParameters(pstat, args);
+            if (lastSQL == null)
+                lastSQL = sql;
+            isSelect = false;
+            res = pstat.execute();
+        } catch (SQLException e) {
+            SqlStats.record(conn, sql, args, pstat, start, 0, true);
+            throw e;
+        }
+        SqlStats.record(conn, sql, args, pstat, start, res ? 0 : -1, false);
+        conn.noteWrite(ResultCache.writtenTable(sql));
+        if (MetadataCache.isDDL(sql))
+            MetadataCache.invalidateDatabase(conn.metadataDatabase());
+        return res;
     }
 
     /**
@@ -246,32 +248,135 @@ else if (max > 0)
 
         if (args != null && args.length == 1 && args[0] instanceof ArrayList && !(args[0] instanceof ArrayListType))
             args = ((ArrayList) args[0]).toArray();
-        if (lastSQL == null || lastSQL != sql && !lastSQL.equals(sql)) {
-            if (pstat != null)
-                pstat.close();
-            pstat = conn.conn.prepareStatement(sql);
-            lastSQL = null;
-            if (pcols != null)
-                pcols.clear();
-        } else
-            pstat.clearParameters();
+        final ArrayParams.Statement expanded = ArrayParams.expand(conn, sql, args);
+        if (expanded != null) {
+            sql = expanded.sql;
+            args = expanded.args;
+        }
+        final long start = SqlStats.start();
+        final Cursor c;
+        try {
+            if (lastSQL == null || lastSQL != sql && !lastSQL.equals(sql)) {
+                if (pstat != null)
+                    pstat.close();
+                pstat = conn.conn.prepareStatement(sql);
+                lastSQL = null;
+            } else
+                pstat.clearParameters();
+            setParameters(pstat, args);
+            c = new Cursor(useMemoryCache, max, this);
+        } catch (SQLException | IOException | RuntimeException e) {
+            SqlStats.record(conn, sql, args, pstat, start, 0, true);
+            throw e;
+        }
+        SqlStats.record(conn, sql, args, pstat, start, c.size(), false);
+        if (lastSQL == null)
+            lastSQL = sql;
+        return c;
+    }
+
+    /**
+     * Execute a select statement returning a streaming, forward-only Cursor that reads directly from the open
+     * database result set.
+     * <br><br>
+     * Unlike {@link #query(String, Object...)}, the result set is not downloaded before the first row is returned.
+     * Rows are fetched from the server <code>fetchSize</code> at a time as the cursor advances, so the time to the
+     * first row and the memory used are the same no matter how large the result is.  This is intended for large
+     * exports and similar one-pass processing.
+     * <br><br>
+     * Database specifics are handled as follows:
+     * <ul>
+     *     <li>PostgreSQL only streams inside a transaction.  If the connection is in auto-commit mode, auto-commit is
+     *     turned off while the cursor is open and restored when it is closed.</li>
+     *     <li>MySQL streams one row at a time (the Connector/J streaming mode).  No other statement may be
+     *     executed on the connection until the cursor is closed.</li>
+     *     <li>Other databases use <code>fetchSize</code> as a hint.</li>
+     * </ul>
+     * The cursor holds a real database cursor open, so it must be closed (it is <code>AutoCloseable</code>) and the
+     * transaction should not be committed until it is.  Records read may still be updated or deleted.
+     * <br><br>
+     * This method normally takes a variable argument list representing the consecutive parameters.
+     * However, this method also accepts a single argument (which must be an <code>ArrayList</code>) that
+     * represents the parameters rather than an in-line list of parameters.
+     *
+     * @param fetchSize the number of rows to fetch from the server at a time (0 for the default)
+     * @param sql the sql statement with ? parameters
+     * @param args the parameter values
+     * @return a streaming Cursor
+     * @throws SQLException if database access error occurs
+     *
+     * @see Cursor#isStreaming()
+     * @see Connection#streamQuery(String, Object...)
+     */
+    public Cursor streamQuery(int fetchSize, String sql, Object ... args) throws SQLException {
+        if (args != null && args.length == 1 && args[0] instanceof ArrayList && !(args[0] instanceof ArrayListType))
+            args = ((ArrayList) args[0]).toArray();
+        final ArrayParams.Statement expanded = ArrayParams.expand(conn, sql, args);
+        if (expanded != null) {
+            sql = expanded.sql;
+            args = expanded.args;
+        }
+        close();  // the statement is handed to the cursor, so it can't be re-used by this command
+        final java.sql.Connection jconn = conn.conn;
+        final Connection.ConnectionType type = conn.getDBType();
+        final boolean restoreAutoCommit = type == Connection.ConnectionType.PostgreSQL && jconn.getAutoCommit();
+        PreparedStatement ps = null;
+        try {
+            if (restoreAutoCommit)
+                jconn.setAutoCommit(false);
+            ps = jconn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (type == Connection.ConnectionType.MySQL)
+                ps.setFetchSize(Integer.MIN_VALUE);  // tells Connector/J to stream row by row
+            else
+                ps.setFetchSize(fetchSize > 0 ? fetchSize : Cursor.STREAM_FETCH_SIZE);
+            setParameters(ps, args);
+            final long start = SqlStats.start();
+            final Cursor c = new Cursor(this, ps, restoreAutoCommit);
+            SqlStats.record(conn, sql, args, ps, start, 0, false);  // the time to the first row; rows aren't known yet
+            return c;
+        } catch (SQLException | RuntimeException e) {
+            if (ps != null)
+                try {
+                    ps.close();
+                } catch (SQLException ignore) {
+                }
+            if (restoreAutoCommit)
+                try {
+                    jconn.setAutoCommit(true);
+                } catch (SQLException ignore) {
+                }
+            throw e;
+        }
+    }
+
+    /**
+     * Execute a select statement returning a streaming, forward-only Cursor using the default fetch size.
+     *
+     * @param sql the sql statement with ? parameters
+     * @param args the parameter values
+     * @return a streaming Cursor
+     * @throws SQLException if database access error occurs
+     *
+     * @see #streamQuery(int, String, Object...)
+     */
+    public Cursor streamQuery(String sql, Object ... args) throws SQLException {
+        return streamQuery(0, sql, args);
+    }
+
+    private void setParameters(PreparedStatement ps, Object [] args) throws SQLException {
         if (args != null)
             for (int i = 0; i < args.length; ) {
                 Object val = args[i];
                 Array a = Record.makeSQLArray(conn, val);
                 try {
                     if (a == null)
-                        pstat.setObject(++i, Connection.fixDate(val));
+                        ps.setObject(++i, Connection.fixDate(val));
                     else
-                        pstat.setArray(++i, a);
+                        ps.setArray(++i, a);
                 } catch (Exception e) {
                     throw new SQLException("Too many SQL parameters specified", e);
                 }
             }
-        Cursor c = new Cursor(useMemoryCache, max, this);
-        if (lastSQL == null)
-            lastSQL = sql;
-        return c;
     }
 
     /**
@@ -518,17 +623,11 @@ public QueryBuilder newQueryBuilder() throws SQLException {
     }
 
     List<String> getPriColumns(Cursor c) {
-        if (pcols == null  ||  pcols.isEmpty()) {
-            if (pcols == null)
-                pcols = new ArrayList<String>();
-            try (ResultSet r = conn.dmd.getPrimaryKeys(null, null, c.getTableName())) {
-                while (r.next())
-                    pcols.add(r.getString(4));
-            } catch (SQLException e) {
-                throw new RuntimeException(e);
-            }
+        try {
+            return conn.primaryKeyColumns(c.getTableName());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
         }
-        return pcols;
     }
 
     /**
@@ -34,14 +34,18 @@
 
 import org.kissweb.json.JSONArray;
 import org.kissweb.json.JSONObject;
+import org.kissweb.json.JSONWritable;
 import org.kissweb.DateUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
 import java.util.Date;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 
 /**
@@ -73,12 +77,10 @@ public enum ConnectionType {
         SQLite
     }
 
-    /** Cache of table names to auto-increment primary key column names */
-    private final ConcurrentHashMap<String, String> primaryColName = new ConcurrentHashMap<>();
-    /** Cache of table names to primary key column names */
-    private final ConcurrentHashMap<String, List<String>> primaryColumns = new ConcurrentHashMap<>();
-    /** Cache of table existence status */
-    private final HashMap<String, Boolean> TableExistenceCache = new HashMap<>();
+    /** Identifies the database in the shared MetadataCache */
+    private String metadataDatabase;
+    /** The schema set with setSchema (null means the default) */
+    private String metadataSchema;
     /** Flag indicating if this connection was created externally */
     private boolean externalConnection = false;
 
@@ -91,10 +93,18 @@ public enum ConnectionType {
     DatabaseMetaData dmd;
     /** The type of database connection */
     private ConnectionType ctype;
-    /** Cache of table and column information */
-    private final HashMap<String,HashMap<String,ColumnInfo>> columnInfo = new HashMap<>();
     /** Schema graph */
     private SchemaGraph schemaGraph;
+    /** Where setReadOnly() gets a read-only (replica) connection from, or null */
+    private Callable<java.sql.Connection> readOnlySource;
+    /** Set once a Kiss method has written to the database through this connection */
+    private boolean written;
+    /** Tables written in the current transaction while the result cache is enabled (null element means unknown) */
+    private Set<String> changedTables;
+    /** Runs fetchAllAsync / fetchOneAsync queries on extra connections, or null */
+    private ParallelQueries parallel;
+    /** Who statements are attributed to in the SQL statistics (normally the web service), or null */
+    private String statisticsLabel;
 
     /**
      * Create a Connection out of a pre-opened JDBC connection.
@@ -208,13 +218,136 @@ else if (type == ConnectionType.Oracle)
      * Set the connection to be read-only.  This may be useful to prevent operations
      * from being committed to the database, but it is not a substitute for proper
      * database permissions.
+     * <br><br>
+     * If a read-only source has been set (Kiss does this when read replicas are configured) and nothing
+     * has been written through this connection yet, the rest of the work is moved to a connection from that
+     * source.  The connection being replaced is rolled back and closed.
      *
      * @throws SQLException if a database error occurs
+     * @see #setReadOnlySource(Callable)
      */
     public void setReadOnly() throws SQLException {
+        final Callable<java.sql.Connection> source = readOnlySource;
+        readOnlySource = null;
+        if (source != null  &&  !written) {
+            java.sql.Connection replica;
+            try {
+                replica = source.call();
+            } catch (Exception e) {
+                replica = null;  // stay where we are
+            }
+            if (replica != null) {
+                final java.sql.Connection primary = conn;
+                replica.setAutoCommit(primary.getAutoCommit());
+                if (metadataSchema != null)
+                    replica.setSchema(metadataSchema);
+                conn = replica;
+                dmd = replica.getMetaData();
+                metadataDatabase = null;
+                if (!primary.getAutoCommit())
+                    primary.rollback();
+                primary.close();
+            }
+        }
         conn.setReadOnly(true);
     }
 
+    /**
+     * Set where {@link #setReadOnly()} gets a read-only connection from.
+     * <br><br>
+     * When <code>setReadOnly()</code> uses it, the new connection replaces the one returned by
+     * {@link #getSQLConnection()}, so whoever releases that connection releases the new one.
+     * The source may return null if there is no read-only connection available.
+     *
+     * @param source supplies a read-only (e.g. replica) connection, or null
+     */
+    public void setReadOnlySource(Callable<java.sql.Connection> source) {
+        readOnlySource = source;
+    }
+
+    /**
+     * Returns true if anything has been written to the database through the Kiss methods of this connection
+     * (<code>execute</code>, <code>Command.execute</code>, <code>Record</code> adds, updates and deletes,
+     * <code>BatchWriter</code>, and <code>BulkLoader</code>).
+     *
+     * @return true if this connection has written to the database
+     */
+    public boolean hasWritten() {
+        return written;
+    }
+
+    /**
+     * Set who the statements run through this connection are attributed to in the SQL statistics.
+     * Kiss sets this to <code>className.methodName</code> of the web service using the connection.
+     *
+     * @param label the label, or null
+     * @see SqlStats
+     */
+    public void setStatisticsLabel(String label) {
+        statisticsLabel = label;
+    }
+
+    /**
+     * Returns who the statements run through this connection are attributed to in the SQL statistics.
+     *
+     * @return the label, or null
+     * @see #setStatisticsLabel(String)
+     */
+    public String getStatisticsLabel() {
+        return statisticsLabel;
+    }
+
+    /**
+     * Set where {@link #fetchAllAsync(String, Object...)} and {@link #fetchOneAsync(String, Object...)} get the
+     * extra connections they run their queries on (Kiss sets this to the connection pool for each web service).
+     * <br><br>
+     * At most <code>maxConnections</code> extra connections are held at once.  They are checked out as needed,
+     * reused by later queries, and rolled back and closed when this connection is closed.
+     *
+     * @param source supplies connections to the same database (e.g. a connection pool), or null to run the queries one at a time on this connection
+     * @param maxConnections the maximum number of extra connections held at once
+     */
+    public void setParallelSource(Callable<java.sql.Connection> source, int maxConnections) {
+        if (parallel != null)
+            parallel.close();
+        parallel = source == null  ||  maxConnections < 1 ? null : new ParallelQueries(this, source, maxConnections);
+    }
+
+    /**
+     * Called by the classes in this package whenever they write to the database.
+     *
+     * @param table the table written, or null if it isn't known
+     */
+    void noteWrite(String table) {
+        written = true;
+        if (ResultCache.isEnabled()) {
+            ResultCache.invalidate(table);
+            if (changedTables == null)
+                changedTables = new HashSet<>();
+            changedTables.add(table);
+        }
+    }
+
+    /**
+     * Returns the tables this connection has written in its current (uncommitted) transaction, as passed to
+     * <code>noteWrite</code> (a <code>null</code> element is a write to an unknown table), or null if there are none.
+     */
+    Set<String> uncommittedTables() throws SQLException {
+        return changedTables == null || conn.getAutoCommit() ? null : changedTables;
+    }
+
+    /**
+     * Results read by other connections while this connection's writes were uncommitted may have been cached,
+     * so the tables written are invalidated again when the transaction ends.
+     */
+    private void transactionEnded() {
+        if (changedTables != null) {
+            for (String table : changedTables)
+                ResultCache.invalidate(table);
+            changedTables = null;
+        }
+    }
+
     /**
      * Form a new connection to an SQL database.  This method is only used in special situations.
      * <br><br>
@@ -283,6 +416,10 @@ public Connection(ConnectionType type, String host, Integer port, String dbname)
      */
     @Override
     public void close() throws SQLException {
+        if (parallel != null) {
+            parallel.close();
+            parallel = null;
+        }
         if (conn != null) {
             if (!externalConnection)
                 conn.close();
@@ -323,6 +460,7 @@ public boolean isOpen() {
      */
     public void commit() throws SQLException {
         conn.commit();
+        transactionEnded();
     }
 
     /**
@@ -334,6 +472,7 @@ public void commit() throws SQLException {
      */
     public void rollback() throws SQLException {
         conn.rollback();
+        transactionEnded();
     }
 
     /**
@@ -363,6 +502,140 @@ public void execute(String sql, Object... args) throws SQLException {
         }
     }
 
+    /**
+     * Delete the rows of a table with the given primary key values using as few statements as possible,
+     * rather than one <code>Record.delete()</code> per row.  The table must have a single-column primary key.
+     * <br><br>
+     * On PostgreSQL all the keys are bound as one array (<code>where key = ANY(?)</code>).  The other databases
+     * are sent <code>where key in (...)</code> lists of up to 1,000 keys per statement.  The delete callback,
+     * if one is set, is called for each row actually deleted (keys that match no row are not reported).
+     *
+     * @param table the table name
+     * @param keys the primary key values of the rows to delete
+     * @return the number of rows deleted
+     * @throws SQLException if a database access error occurs or the table doesn't have a single-column primary key
+     *
+     * @see #deleteByKeys(String, Collection)
+     * @see #setDeleteCallback(BiConsumer)
+     */
+    public int deleteByKeys(String table, PrimitiveList keys) throws SQLException {
+        final String pcol = getPrimaryColumnName(table);
+        if (keys.isEmpty())
+            return 0;
+        int n = 0;
+        if (ctype == ConnectionType.PostgreSQL)
+            n = deleteRows(table, pcol, pcol + " = ANY(?)", keys);
+        else
+            for (int start = 0; start < keys.size; start += ArrayParams.MAX_IN_LIST)
+                n += deleteRows(table, pcol, pcol + " " +
+                        ArrayParams.inList(keys, start, Math.min(keys.size, start + ArrayParams.MAX_IN_LIST), false));
+        return n;
+    }
+
+    /**
+     * Delete the rows of a table with the given primary key values using as few statements as possible,
+     * rather than one <code>Record.delete()</code> per row.  The table must have a single-column primary key.
+     * <br><br>
+     * The keys are bound as parameters in <code>where key in (?, ?, ...)</code> lists of up to 1,000 keys
+     * per statement, except that integer keys are bound as one array on PostgreSQL.  The delete callback,
+     * if one is set, is called for each row actually deleted (keys that match no row are not reported).
+     *
+     * @param table the table name
+     * @param keys the primary key values of the rows to delete
+     * @return the number of rows deleted
+     * @throws SQLException if a database access error occurs or the table doesn't have a single-column primary key
+     *
+     * @see #deleteByKeys(String, PrimitiveList)
+     * @see #setDeleteCallback(BiConsumer)
+     */
+    public int deleteByKeys(String table, Collection<?> keys) throws SQLException {
+        final String pcol = getPrimaryColumnName(table);
+        if (keys.isEmpty())
+            return 0;
+        final Object [] vals = keys.toArray();
+        int n = 0;
+        if (ctype == ConnectionType.PostgreSQL && Arrays.stream(vals).allMatch(k -> k instanceof Integer || k instanceof Long || k instanceof Short)) {
+            final LongList lst = new LongList(vals.length);
+            for (Object k : vals)
+                lst.add(((Number) k).longValue());
+            n = deleteRows(table, pcol, pcol + " = ANY(?)", lst);
+        } else {
+            final int max = BatchWriter.maxParameters(ctype);
+            final int chunk = max > 0 ? Math.min(max, ArrayParams.MAX_IN_LIST) : ArrayParams.MAX_IN_LIST;
+            for (int start = 0; start < vals.length; start += chunk) {
+                final Object [] args = Arrays.copyOfRange(vals, start, Math.min(vals.length, start + chunk));
+                final StringBuilder where = new StringBuilder(pcol).append(" in (");
+                for (int i = 0; i < args.length; i++)
+                    where.append(i == 0 ? "?" : ", ?");
+                n += deleteRows(table, pcol, where.append(")").toString(), args);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Delete the rows matching <code>where</code>, passing the key of each deleted row to the delete callback.
+     */
+    private int deleteRows(String table, String pcol, String where, Object... args) throws SQLException {
+        noteWrite(table);
+        final String delete = "delete from " + table + " where " + where;
+        if (deleteCallback == null)
+            return updateRows(delete, args);
+        final List<Object> deleted;
+        switch (ctype) {
+            case PostgreSQL:
+            case SQLite:
+                deleted = queryKeys(delete + " returning " + pcol, args);
+                break;
+            case MicrosoftServer:
+                deleted = queryKeys("delete from " + table + " output deleted." + pcol + " where " + where, args);
+                break;
+            default:
+                // no RETURNING; lock and read the keys that are about to be deleted
+                deleted = queryKeys("select " + pcol + " from " + table + " where " + where + " for update", args);
+                updateRows(delete, args);
+                break;
+        }
+        for (Object key : deleted)
+            deleteCallback.accept(table, key);
+        return deleted.size();
+    }
+
+    private int updateRows(String sql, Object [] args) throws SQLException {
+        final long start = SqlStats.start();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++)
+                Record.bindValue(this, ps, i + 1, args[i]);
+            final int n;
+            try {
+                n = ps.executeUpdate();
+            } catch (SQLException e) {
+                SqlStats.record(this, sql, args, ps, start, 0, true);
+                throw e;
+            }
+            SqlStats.record(this, sql, args, ps, start, n, false);
+            return n;
+        }
+    }
+
+    private List<Object> queryKeys(String sql, Object [] args) throws SQLException {
+        final long start = SqlStats.start();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++)
+                Record.bindValue(this, ps, i + 1, args[i]);
+            final List<Object> keys = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next())
+                    keys.add(rs.getObject(1));
+            } catch (SQLException e) {
+                SqlStats.record(this, sql, args, ps, start, 0, true);
+                throw e;
+            }
+            SqlStats.record(this, sql, args, ps, start, keys.size(), false);
+            return keys;
+        }
+    }
+
     /**
      * Executes the given SQL statement immediately (outside any transaction).
      *
@@ -375,6 +648,9 @@ public void executeImmediate(String sql) throws SQLException {
             stmt.executeUpdate(sql);
             conn.setAutoCommit(false);
         }
+        noteWrite(ResultCache.writtenTable(sql));
+        if (MetadataCache.isDDL(sql))
+            MetadataCache.invalidateDatabase(metadataDatabase());
     }
 
     /**
@@ -407,6 +683,43 @@ public QueryBuilder newQueryBuilder() throws SQLException {
         return new QueryBuilder(this);
     }
 
+    /**
+     * Create a new {@link BatchWriter} that writes records in batches of {@link BatchWriter#DEFAULT_FLUSH_SIZE}.
+     *
+     * @return a new BatchWriter
+     *
+     * @see BatchWriter
+     */
+    public BatchWriter newBatchWriter() {
+        return new BatchWriter(this, BatchWriter.DEFAULT_FLUSH_SIZE);
+    }
+
+    /**
+     * Create a new {@link BatchWriter}.
+     *
+     * @param flushSize the number of rows queued for one statement before they are sent to the database
+     * @return a new BatchWriter
+     *
+     * @see BatchWriter
+     */
+    public BatchWriter newBatchWriter(int flushSize) {
+        return new BatchWriter(this, flushSize);
+    }
+
+    /**
+     * Create a new {@link BulkLoader} that loads rows into a table using <code>COPY</code> on PostgreSQL
+     * and batched inserts on other databases.
+     *
+     * @param table the table to load
+     * @param columns the columns to load (optional when loading records or JSON)
+     * @return a new BulkLoader
+     *
+     * @see BulkLoader
+     */
+    public BulkLoader newBulkLoader(String table, String ... columns) {
+        return new BulkLoader(this, table, columns);
+    }
+
     /**
      * Read in the first record and then close it.
      * The record can be updated or deleted if it was a single-table select and
@@ -516,6 +829,149 @@ public JSONArray fetchAllJSON(String sql, Object... args) throws Exception {
         return Record.toJSONArray(fetchAll(sql, args));
     }
 
+    /**
+     * Same as <code>fetchAllJSON</code> except that the rows are written straight from the result set to
+     * wherever the JSON is written, normally the web service response.  No <code>Record</code> or
+     * <code>JSONObject</code> is created per row and the result is never held in memory, which makes this
+     * suitable for very large results (e.g. grid loads).  The JSON produced is the same.
+     * <br><br>
+     * The value returned is put into the response like any other value:
+     * <pre>
+     *     outjson.put("rows", db.fetchAllJSONStream("select * from orders where customer_id=?", id));
+     * </pre>
+     * The query does not run until the value is written.  For a web service this is after the service
+     * returns and its work has been committed, on the same connection, so the connection must not be closed
+     * by the service.  An error while the rows are being written can no longer be reported to the
+     * front-end as a failed service; the response is cut short and the error is logged.
+     *
+     * @param sql the SQL query to execute
+     * @param args the parameter values for the SQL statement
+     * @return a value that writes the JSON array of records
+     *
+     * @see #fetchAllJSON(String, Object...)
+     */
+    public JSONWritable fetchAllJSONStream(String sql, Object... args) {
+        return new JSONRowStream(this, sql, args);
+    }
+
+    /**
+     * Same as <code>fetchAll</code> except that the result is kept in the process-wide result cache and later
+     * calls with the same SQL and parameters are answered from the cache until Kiss writes to one of the tables
+     * the query reads (or the entry expires).
+     * <br><br>
+     * This is intended for small, mostly static tables.  The records returned can't be updated or deleted,
+     * and their values must not be modified in place.
+     *
+     * @param sql the SQL query to execute
+     * @param args the parameter values for the SQL statement
+     * @return a list of records matching the query
+     * @throws Exception if a database access error occurs
+     *
+     * @see ResultCache
+     * @see #fetchAll(String, Object...)
+     */
+    public List<Record> fetchAllCached(String sql, Object... args) throws Exception {
+        return ResultCache.fetch(this, "all", sql, args, () -> fetchAll(sql, args));
+    }
+
+    /**
+     * Same as <code>fetchOne</code> except that the result is kept in the process-wide result cache.
+     *
+     * @param sql the SQL query to execute
+     * @param args the parameter values for the SQL statement
+     * @return the Record or null if none
+     * @throws Exception if a database access error occurs
+     *
+     * @see #fetchAllCached(String, Object...)
+     * @see #fetchOne(String, Object...)
+     */
+    public Record fetchOneCached(String sql, Object... args) throws Exception {
+        final List<Record> recs = ResultCache.fetch(this, "one", sql, args, () -> {
+            final Record r = fetchOne(sql, args);
+            return r == null ? Collections.emptyList() : Collections.singletonList(r);
+        });
+        return recs.isEmpty() ? null : recs.get(0);
+    }
+
+    /**
+     * Start a query that runs at the same time as the caller and other async queries.  This is useful when a
+     * service runs several independent queries; it takes about as long as the slowest one rather than their sum.
+     * For example:
+     * <pre>
+     *     CompletableFuture&lt;List&lt;Record&gt;&gt; orders = db.fetchAllAsync("select * from orders where customer_id=?", id);
+     *     CompletableFuture&lt;Record&gt; totals = db.fetchOneAsync("select sum(amount) total from payment where customer_id=?", id);
+     *     List&lt;Record&gt; o = orders.join();
+     *     Record t = totals.join();
+     * </pre>
+     * Each query runs on an extra connection (see {@link #setParallelSource(Callable, int)}) and therefore in its
+     * own transaction:
+     * <ul>
+     *     <li>it does not see changes made through this connection that are not yet committed</li>
+     *     <li>queries may see the database as of slightly different moments</li>
+     *     <li>it does not wait on or hold the locks of this connection's transaction</li>
+     * </ul>
+     * It should only be used for reads.  The records returned are not associated with a table, so they can't be
+     * updated or deleted; re-read a record through this connection to change it.
+     * <br><br>
+     * If no parallel source has been set, the query runs immediately on this connection and the future
+     * returned is already complete.
+     * <br><br>
+     * Queries still running when this connection is closed are waited for.
+     *
+     * @param sql the SQL query to execute
+     * @param args the parameter values for the SQL statement
+     * @return the records matching the query when the query completes
+     *
+     * @see #fetchOneAsync(String, Object...)
+     */
+    public CompletableFuture<List<Record>> fetchAllAsync(String sql, Object... args) {
+        return async(c -> c.fetchAll(sql, args));
+    }
+
+    /**
+     * Start a query that runs at the same time as the caller and other async queries.
+     * See {@link #fetchAllAsync(String, Object...)} for how the query is isolated.
+     *
+     * @param sql the SQL query to execute
+     * @param args the parameter values for the SQL statement
+     * @return the first record (or null) when the query completes
+     *
+     * @see #fetchAllAsync(String, Object...)
+     */
+    public CompletableFuture<Record> fetchOneAsync(String sql, Object... args) {
+        return async(c -> {
+            final Record r = c.fetchOne(sql, args);
+            return r == null ? Collections.emptyList() : Collections.singletonList(r);
+        }).thenApply(recs -> recs.isEmpty() ? null : recs.get(0));
+    }
+
+    private CompletableFuture<List<Record>> async(ParallelQueries.Query<List<Record>> query) {
+        final ParallelQueries pq = parallel;
+        if (pq == null) {
+            try {
+                return CompletableFuture.completedFuture(query.run(this));
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return pq.submit(c -> {
+            // detach the records from the extra connection, which is reused and eventually released
+            final List<Record> recs = query.run(c);
+            final List<Record> detached = new ArrayList<>(recs.size());
+            for (Record r : recs)
+                detached.add(new Record(this, null, r.columnSchema(), r.rowValues()));
+            return detached;
+        });
+    }
+
+    /**
+     * Returns the number of extra connections held for async queries.
+     */
+    int parallelConnectionCount() {
+        final ParallelQueries pq = parallel;
+        return pq == null ? 0 : pq.connectionCount();
+    }
+
     /**
      * Fetch all (but no more than max) of the records and close it.
      * The records can be updated or deleted if there was a single-table select and
@@ -768,6 +1224,81 @@ public Cursor query(int page, int max, String sql, Object ... args) throws SQLEx
         }
     }
 
+    /**
+     * Execute a select statement returning a streaming, forward-only Cursor that reads directly from the open
+     * database result set rather than downloading the whole result first.  The time to the first row and the
+     * memory used stay constant regardless of the size of the result, which makes this the right choice for
+     * large exports.
+     * <br><br>
+     * The returned cursor holds a real database cursor open and must be closed.
+     * See {@link Command#streamQuery(int, String, Object...)} for the database-specific details.
+     *
+     * @param sql the sql statement with ? parameters
+     * @param args the parameter values
+     * @return a streaming Cursor
+     * @throws SQLException if a database access error occurs
+     *
+     * @see Command#streamQuery(int, String, Object...)
+     * @see #query(String, Object...)
+     */
+    public Cursor streamQuery(String sql, Object ... args) throws SQLException {
+        return streamQuery(0, sql, args);
+    }
+
+    /**
+     * Execute a select statement returning a streaming, forward-only Cursor with the given fetch size.
+     *
+     * @param fetchSize the number of rows to fetch from the server at a time (0 for the default)
+     * @param sql the sql statement with ? parameters
+     * @param args the parameter values
+     * @return a streaming Cursor
+     * @throws SQLException if a database access error occurs
+     *
+     * @see #streamQuery(String, Object...)
+     */
+    public Cursor streamQuery(int fetchSize, String sql, Object ... args) throws SQLException {
+        try (Command cmd = newCommand()) {
+            return cmd.streamQuery(fetchSize, sql, args);
+        }
+    }
+
+    /**
+     * Copy the binary value of the first column of the first row of a select to <code>out</code> without reading
+     * it into memory first.  This is used to send stored documents and images straight to a download.
+     * For example:
+     * <br><br>
+     * <code>
+     * &nbsp;&nbsp;&nbsp;&nbsp;OutputStream out = servlet.startDownload(fileName, "application/pdf", false);<br>
+     * &nbsp;&nbsp;&nbsp;&nbsp;db.copyBinary(out, "select document from scan where scan_id = ?", scanId);
+     * </code>
+     * <br><br>
+     * <code>out</code> is not closed.
+     *
+     * @param out where the data is written
+     * @param sql the sql statement with ? parameters
+     * @param args the parameter values
+     * @return the number of bytes copied, or -1 if there is no row or the value is null
+     * @throws Exception if a database access or I/O error occurs
+     *
+     * @see Cursor#streamColumns(String...)
+     * @see Record#getBinaryStream(String)
+     */
+    public long copyBinary(OutputStream out, String sql, Object ... args) throws Exception {
+        try (Cursor c = streamQuery(sql, args)) {
+            final String cname = c.columnName(0);
+            // streamed columns must come last, so any columns after the first are left unread too
+            final String [] cnames = new String[c.columnCount()];
+            for (int i = 0; i < cnames.length; i++)
+                cnames[i] = c.columnName(i);
+            final Record rec = c.streamColumns(cnames).next();
+            if (rec == null)
+                return -1;
+            try (InputStream in = rec.getBinaryStream(cname)) {
+                return in == null ? -1 : in.transferTo(out);
+            }
+        }
+    }
+
     /**
      * Return the name of the column that is the table's primary key.  Throws an exception of
      * the table has a composite primary key.
@@ -779,18 +1310,12 @@ public Cursor query(int page, int max, String sql, Object ... args) throws SQLEx
      * @see #getPrimaryColumns(String table)
      */
     public String getPrimaryColumnName(String table) throws SQLException {
-        String colname = primaryColName.get(table);
-        if (colname == null) {
-            try (ResultSet r = dmd.getPrimaryKeys(null, null, table)) {
-                if (!r.next())
-                    throw new SQLException("No primary column");
-                colname = r.getString(4);
-                if (r.next())
-                    throw new SQLException("Primary column is composit");
-            }
-            primaryColName.put(table, colname);
-        }
-        return colname;
+        final List<String> colnames = primaryKeyColumns(table);
+        if (colnames.isEmpty())
+            throw new SQLException("No primary column");
+        if (colnames.size() > 1)
+            throw new SQLException("Primary column is composit");
+        return colnames.get(0);
     }
 
     /**
@@ -803,19 +1328,48 @@ public String getPrimaryColumnName(String table) throws SQLException {
      * @see #getPrimaryColumnName(String)
      */
     public List<String> getPrimaryColumns(String table) throws SQLException {
-        List<String> colnames = primaryColumns.get(table);
-        if (colnames == null) {
+        final List<String> colnames = primaryKeyColumns(table);
+        if (colnames.isEmpty())
+            throw new SQLException("No primary column");
+        return colnames;
+    }
+
+    /**
+     * Returns the primary key columns of a table (an empty list if it has none) from the shared metadata cache.
+     *
+     * @param table the table name
+     * @return an unmodifiable list of primary key column names
+     * @throws SQLException if a database access error occurs
+     * @see MetadataCache
+     */
+    List<String> primaryKeyColumns(String table) throws SQLException {
+        return MetadataCache.primaryKeys(metadataDatabase(), metadataSchema, table, () -> {
+            final List<String> colnames = new ArrayList<>();
             try (ResultSet r = dmd.getPrimaryKeys(null, null, table)) {
-                if (!r.next())
-                    throw new SQLException("No primary column");
-                colnames = new ArrayList<String>();
-                colnames.add(r.getString(4));
                 while (r.next())
                     colnames.add(r.getString(4));
             }
-            primaryColumns.put(table, colnames);
+            return Collections.unmodifiableList(colnames);
+        });
+    }
+
+    /**
+     * Returns the key that identifies this connection's database in the shared metadata cache.
+     */
+    String metadataSchema() {
+        return metadataSchema;
+    }
+
+    String metadataDatabase() {
+        if (metadataDatabase == null) {
+            String url = null;
+            try {
+                url = dmd.getURL();
+            } catch (SQLException | RuntimeException ignore) {
+            }
+            metadataDatabase = (ctype == null ? "" : ctype.name()) + ":" + (url == null ? "" : url);
         }
-        return colnames;
+        return metadataDatabase;
     }
 
     /**
@@ -852,23 +1406,25 @@ public boolean tableExists(String table) {
             table = parts[parts.length - 1];
         }
 
-        if (TableExistenceCache.containsKey(table))
-            return TableExistenceCache.get(table);
-        boolean res = false;
-        try (Command cmd = newCommand()) {
-            if (schema == null)
-                schema = "%";
-            try (Cursor cursor = cmd.query("select count(*) from information_schema.tables where table_schema like ? and table_name = ?", schema, table)) {
-                if (cursor.isNext()) {
-                    Record rec = cursor.getRecord();
-                    res = rec.getLong("count(*)") != 0;
+        final String tname = table;
+        final String sname = schema == null ? "%" : schema;
+        try {
+            // keyed by the schema pattern the query uses, so an unqualified name doesn't share an entry with one schema
+            return MetadataCache.tableExists(metadataDatabase(), sname, table, () -> {
+                try (Command cmd = newCommand();
+                     Cursor cursor = cmd.query("select count(*) from information_schema.tables where table_schema like ? and table_name = ?", sname, tname)) {
+                    if (cursor.isNext()) {
+                        Record rec = cursor.getRecord();
+                        return rec.getLong("count(*)") != 0;
+                    }
+                    return false;
+                } catch (Exception e) {
+                    throw new SQLException(e);
                 }
-            } catch (Exception e) {
-                return false;
-            }
+            });
+        } catch (SQLException e) {
+            return false;
         }
-        TableExistenceCache.put(table, res);
-        return res;
     }
 
     /**
@@ -931,6 +1487,9 @@ String limit(int max, String sql) {
 
     /**
      * Read a single page worth of records.  Useful for screens that page.
+     * <br><br>
+     * The database reads and discards all the rows before the requested page, so deep pages get slower.
+     * Keyset pagination (see <code>QueryBuilder.fetchPage</code>) costs the same for every page.
      *
      * @param pageNumber starting at zero
      * @param maxRecords number of records in each page
@@ -955,6 +1514,65 @@ String page(int pageNumber, int maxRecords, String sql) {
         }
     }
 
+    /**
+     * Build the condition that selects the rows after a given row in a sort order (keyset pagination).
+     * <br><br>
+     * When all columns sort in the same direction, PostgreSQL and SQLite use a row value comparison such as
+     * <code>(a, b) &gt; (?, ?)</code>, which the database can satisfy with a single index range scan.
+     * Mixed directions and the other databases (which either lack row value comparisons or don't use indexes
+     * for them) use the equivalent expanded form
+     * <code>a &gt;= ? AND (a &gt; ? OR (a = ? AND b &gt; ?))</code>.
+     *
+     * @param ctype the database type (null for the portable form)
+     * @param columns the sort columns as they appear in the SQL
+     * @param descending which columns sort in descending order
+     * @param values the sort column values of the last row seen
+     * @param params receives the parameter values for the returned condition, in order
+     * @return the SQL condition
+     */
+    static String seekCondition(ConnectionType ctype, String [] columns, boolean [] descending, Object [] values, List<Object> params) {
+        final int n = columns.length;
+        boolean sameDirection = true;
+        for (int i = 1; i < n; i++)
+            if (descending[i] != descending[0])
+                sameDirection = false;
+        if (n == 1 || sameDirection && (ctype == ConnectionType.PostgreSQL || ctype == ConnectionType.SQLite)) {
+            final StringBuilder sql = new StringBuilder();
+            if (n == 1)
+                sql.append(columns[0]);
+            else
+                sql.append('(').append(String.join(", ", columns)).append(')');
+            sql.append(descending[0] ? " < " : " > ");
+            if (n == 1)
+                sql.append('?');
+            else {
+                sql.append('(');
+                for (int i = 0; i < n; i++)
+                    sql.append(i == 0 ? "?" : ", ?");
+                sql.append(')');
+            }
+            Collections.addAll(params, values);
+            return sql.toString();
+        }
+        final StringBuilder sql = new StringBuilder();
+        sql.append(columns[0]).append(descending[0] ? " <= ?" : " >= ?").append(" AND ");
+        params.add(values[0]);
+        for (int i = 0; i < n; i++) {
+            if (i < n - 1) {
+                sql.append('(').append(columns[i]).append(descending[i] ? " < ?" : " > ?");
+                sql.append(" OR (").append(columns[i]).append(" = ? AND ");
+                params.add(values[i]);
+                params.add(values[i]);
+            } else {
+                sql.append(columns[i]).append(descending[i] ? " < ?" : " > ?");
+                params.add(values[i]);
+            }
+        }
+        for (int i = 0; i < n - 1; i++)
+            sql.append("))");
+        return sql.toString();
+    }
+
     /**
      * Returns the database type.
      *
@@ -1028,6 +1646,7 @@ public BiConsumer<String,Object> setDeleteCallback(BiConsumer<String,Object> del
     public String setSchema(String schema) throws SQLException {
         String oldSchema = conn.getSchema();
         conn.setSchema(schema);
+        metadataSchema = schema;
         schemaGraph = SchemaGraph.fromDatabase(this, schema);
         return oldSchema;
     }
@@ -1111,28 +1730,26 @@ static Object fixDate(Object dt) {
      * Gets column information for the specified table.
      *
      * @param table the table name
-     * @return a map of column names to ColumnInfo objects, or null if table is null or empty
+     * @return an unmodifiable map of column names to ColumnInfo objects, or null if table is null or empty
      * @throws SQLException if a database access error occurs
      */
-    HashMap<String, ColumnInfo> getColumnInfo(String table) throws SQLException {
+    Map<String, ColumnInfo> getColumnInfo(String table) throws SQLException {
         if (table == null || table.isEmpty())
             return null;
-        HashMap<String, ColumnInfo> colInfo = columnInfo.get(table);
-        if (colInfo != null)
-            return colInfo;
-        DatabaseMetaData meta = conn.getMetaData();
-        ResultSet res = meta.getColumns(null, null, table, null);
-        colInfo = new HashMap<>();
-        while (res.next()) {
-            String colName = res.getString("COLUMN_NAME");
-            colInfo.put(colName, new ColumnInfo(colName,
-                    res.getInt("DATA_TYPE"),
-                    res.getInt("COLUMN_SIZE"),
-                    res.getInt("NULLABLE")));
-        }
-        res.close();
-        columnInfo.put(table, colInfo);
-        return colInfo;
+        // the map is shared by all connections so it is unmodifiable
+        return MetadataCache.columns(metadataDatabase(), metadataSchema, table, () -> {
+            final HashMap<String, ColumnInfo> colInfo = new HashMap<>();
+            try (ResultSet res = conn.getMetaData().getColumns(null, null, table, null)) {
+                while (res.next()) {
+                    String colName = res.getString("COLUMN_NAME");
+                    colInfo.put(colName, new ColumnInfo(colName,
+                            res.getInt("DATA_TYPE"),
+                            res.getInt("COLUMN_SIZE"),
+                            res.getInt("NULLABLE")));
+                }
+            }
+            return Collections.unmodifiableMap(colInfo);
+        });
     }
 
 }
\ No newline at end of file
@@ -40,6 +40,7 @@
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.*;
 import java.time.ZonedDateTime;
 import java.util.*;
@@ -61,23 +62,40 @@
  *  &nbsp;&nbsp;&nbsp;&nbsp;   <code>Cursor cursor = cmd.query("select .....</code>
  * <br><br>
  *     where <code>cmd</code> is an instance of Command.
+ * <br><br>
+ * For very large results a streaming cursor may be used instead (see <code>streamQuery</code>).  A streaming
+ * cursor is a true forward-only database cursor: rows are read directly from the open result set as the cursor
+ * advances, so nothing is cached and the first row is available immediately.
  * @see Command#query(String, Object...)
+ * @see Command#streamQuery(int, String, Object...)
  *
  * @author Blake McBride
  */
 public class Cursor implements AutoCloseable {
     private static final int BATCH_SIZE = 100;  // number of records retrieved from the database server at a time
+    static final int STREAM_FETCH_SIZE = 1000;  // default fetch size of streaming cursors
     Command cmd;
     String tname;
     PreparedStatement pstmt;
     StringBuilder prevsql;  // this is the sql last used by pstmt
     private final ResultSetMetaData mdata;
     private Record lastRec;
-    private File cacheFile;
-    private ObjectInputStream cacheStream;
-    private ColumnInfo [] columnInfo;
+    private RowCache rowCache;
+    private long cacheRead;  // number of rows read back from rowCache
     private ArrayList<Record> memoryCache;
     private long size;
+    private String [] columnNames;
+    private int [] columnTypes;
+    private ColumnSchema schema;  // shared by all the records of this cursor
+
+    // streaming mode only
+    private final boolean streaming;
+    private PreparedStatement streamStmt;
+    private ResultSet rset;
+    private boolean restoreAutoCommit;
+    private boolean [] streamedColumns;   // streaming only: columns left in the result set (see streamColumns)
+
+    private static volatile long spillThreshold = 4L * 1024 * 1024;
 
     /**
      * Read in the entire result set and cache locally.  This can be done via a temporary disk file or in-memory.
@@ -93,6 +111,7 @@ public class Cursor implements AutoCloseable {
      */
     Cursor(boolean useMemoryCache, int max, Command cmd) throws SQLException, IOException {
         this.cmd = cmd;
+        streaming = false;
         final int bs = max == 0 ? BATCH_SIZE : max;
         cmd.pstat.setFetchSize(bs);
         ResultSet rset = cmd.pstat.executeQuery();
@@ -101,6 +120,149 @@ public class Cursor implements AutoCloseable {
         cacheAllRecords(useMemoryCache, max, rset);
     }
 
+    /**
+     * Create a streaming cursor that reads directly from the result set of <code>stmt</code>.
+     * The cursor takes ownership of the statement and closes it when the cursor is closed.
+     *
+     * @param cmd the command
+     * @param stmt the prepared (and parameter bound) statement
+     * @param restoreAutoCommit if true, auto-commit is turned back on when the cursor is closed
+     * @throws SQLException if a database access error occurs
+     */
+    Cursor(Command cmd, PreparedStatement stmt, boolean restoreAutoCommit) throws SQLException {
+        this.cmd = cmd;
+        streaming = true;
+        streamStmt = stmt;
+        rset = stmt.executeQuery();
+        this.restoreAutoCommit = restoreAutoCommit;
+        mdata = rset.getMetaData();
+        cmd.isSelect = true;
+        initColumns();
+        size = 0;
+    }
+
+    /**
+     * Set the number of bytes of (compactly encoded) result set data a non-memory cursor keeps in memory before
+     * spilling the rest to a temporary disk file.  The default is 4MB.
+     *
+     * @param bytes the threshold in bytes (0 spills immediately)
+     */
+    public static void setSpillThreshold(long bytes) {
+        spillThreshold = Math.max(0, bytes);
+    }
+
+    /**
+     * Returns the spill threshold.
+     *
+     * @return the threshold in bytes
+     * @see #setSpillThreshold(long)
+     */
+    public static long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Returns true if this is a streaming (forward-only, uncached) cursor.
+     *
+     * @return true if streaming
+     * @see Command#streamQuery(int, String, Object...)
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Leave the named columns of a streaming cursor in the result set rather than reading them into each record.
+     * Their values are <code>null</code> in the records and are instead read, as they are needed, with
+     * <code>getBinaryStream</code> or <code>getBinaryChannel</code> while the cursor is on the row.
+     * This is how large binary columns (documents, images) are sent on without ever being held in memory.
+     * <br><br>
+     * This must be called before the first row is read.  The streamed columns must be the last columns of the
+     * select list, and each row's streamed columns should be read in select-list order, because some drivers
+     * only stream a value that is read after every column before it.
+     * <br><br>
+     * How much this saves depends on the JDBC driver.  Oracle returns BLOB locators and SQL Server (with adaptive
+     * buffering, its default) streams the trailing columns, so with those the data is read as the stream is read.
+     * MySQL, even with a streaming result set, and PostgreSQL <code>bytea</code> and SQLite values arrive with
+     * the row, so the stream is over that single copy.
+     *
+     * @param cnames the column names
+     * @return this
+     * @throws SQLException if this is not a streaming cursor, rows have already been read, a column does not exist,
+     *                      or a column that isn't streamed follows one that is
+     *
+     * @see Command#streamQuery(int, String, Object...)
+     * @see #getBinaryStream(String)
+     */
+    public Cursor streamColumns(String ... cnames) throws SQLException {
+        if (!streaming)
+            throw new SQLException("Only a streaming cursor can stream columns");
+        if (size > 0 || rset == null)
+            throw new SQLException("Columns must be streamed before the first row is read");
+        final boolean [] streamed = streamedColumns == null ? new boolean[columnNames.length] : streamedColumns.clone();
+        for (String cname : cnames)
+            streamed[columnIndex(cname)] = true;
+        for (int i = 1; i < streamed.length; i++)
+            if (streamed[i - 1] && !streamed[i])
+                throw new SQLException("Streamed columns must come last in the select list; " + columnNames[i] +
+                        " follows " + columnNames[i - 1]);
+        streamedColumns = streamed;
+        return this;
+    }
+
+    /**
+     * Returns true if the named column is left in the result set.
+     *
+     * @see #streamColumns(String...)
+     */
+    boolean isStreamedColumn(String cname) {
+        if (streamedColumns == null)
+            return false;
+        final int i = schema.slot(cname.toLowerCase());
+        return i >= 0 && i < streamedColumns.length && streamedColumns[i];
+    }
+
+    /**
+     * Returns the lower case name of the <code>i</code>th column of the result set.
+     */
+    String columnName(int i) {
+        return columnNames[i];
+    }
+
+    /**
+     * Returns the number of columns in the result set.
+     */
+    int columnCount() {
+        return columnNames.length;
+    }
+
+    private int columnIndex(String cname) throws SQLException {
+        final int i = schema.slot(cname.toLowerCase());
+        if (i < 0 || i >= columnNames.length)
+            throw new SQLException("Column " + cname + " not found.");
+        return i;
+    }
+
+    /**
+     * Open a stream over a streamed column of the row <code>rec</code> which must be the current row.
+     */
+    InputStream openColumnStream(Record rec, String cname) throws SQLException {
+        if (rec != lastRec || rset == null)
+            throw new SQLException("Column " + cname + " can only be read while the cursor is on its row");
+        final int i = columnIndex(cname);
+        try {
+            if (columnTypes[i] == Types.BLOB) {
+                final Blob blob = rset.getBlob(i + 1);
+                return blob == null ? null : blob.getBinaryStream();
+            }
+            return rset.getBinaryStream(i + 1);
+        } catch (SQLFeatureNotSupportedException e) {
+            // e.g. SQLite
+            final byte [] ba = rset.getBytes(i + 1);
+            return ba == null ? null : new ByteArrayInputStream(ba);
+        }
+    }
+
     /**
      * Returns the name of the table associated with the select associated with this cursor.
      *
@@ -110,6 +272,13 @@ public String getTableName() {
         return tname;
     }
 
+    /**
+     * Returns the column schema shared by the records of this cursor.
+     */
+    ColumnSchema columnSchema() {
+        return schema;
+    }
+
     /**
      * Returns the <code>Record</code> instance representing the current row.  This method does not advance the row pointer.
      *
@@ -146,195 +315,124 @@ public boolean isNext() throws Exception {
      * @see #isNext()
      */
     public Record next() throws Exception {
-        return lastRec = nextCachedRecord();
-    }
-
-    private static class ColumnInfo {
-        String name;
-        int type;
-        int size;
-
-        ColumnInfo(ResultSetMetaData mdata, int i) throws SQLException {
-            name = mdata.getColumnName(i).toLowerCase();
-            type = mdata.getColumnType(i);
-            size = mdata.getPrecision(i);
-        }
+        return lastRec = streaming ? nextStreamedRecord() : nextCachedRecord();
     }
 
-    private static final int RECORD_BEGINNING = 9990;
-    private static final int END_OF_RECORD    = 9991;
-    private static final int END_OF_CACHE     = 9992;
-    private static final int NULL_FIELD       = 9993;
-    private static final int FIELD_HAS_VALUE  = 9994;
-
     /**
      * Read all records in, cache locally, close result set and statement.
      * <br><br>
      * This can be done via a temporary disk file or in-memory.
      * In-memory cache is used if <code>useMemoryCache</code>
      * is <code>true</code> or if <code>max</code> is greater than zero and less than <code>BATCH_SIZE</code>.
+     * Otherwise, rows are kept in a compact binary form (see <code>RowCache</code>) that is held in memory until it
+     * grows past the spill threshold and is then written to a temporary disk file.
      *
-     * <br><br>
-     * <pre>
-     * Format is:<br>
-     *     Entry type: (int)
-     *         1=record beginning
-     *         3=end of cache (all records)
-     *         4=null field
-     *         5=field not null
-     *     Field type - Types class (int) or 9999=end of record
-     *     Field length: if not null and only for string or binary fields (short or int)
-     *     Field value: if not null
-     * </pre>
+     * @see #setSpillThreshold(long)
      */
     private void cacheAllRecords(boolean useMemoryCache, int maxRecords, ResultSet rset) throws IOException, SQLException {
-        try {
-            tname = mdata.getTableName(1).toLowerCase();
-        } catch (SQLException e) {
-            tname = null;
-        }
+        initColumns();
         size = 0;
         if (useMemoryCache || maxRecords > 0  &&  maxRecords <= BATCH_SIZE) {
-            cacheFile = null;
-            cacheStream = null;
+            rowCache = null;
             memoryCache = new ArrayList<>();
-
             while (rset.next() && (maxRecords == 0 || size < maxRecords)) {
                 size++;
-                HashMap<String,Object> ocols = new HashMap<>();
-                LinkedHashMap<String,Object> cols = new LinkedHashMap<>();
-                int ncols = mdata.getColumnCount();
-                for (int i=1 ; i <= ncols ; i++) {
-                    Object val;
-                    if (mdata.getColumnType(i) == Types.TIMESTAMP_WITH_TIMEZONE)
-                        val = rset.getObject(i, ZonedDateTime.class);
-                    else
-                        val = rset.getObject(i);
-                    String name = mdata.getColumnName(i).toLowerCase();
-                    cols.put(name, val);
-                    ocols.put(name, val);
-                }
-                memoryCache.add(new Record(cmd.conn, this, ocols, cols));
+                memoryCache.add(newRecord(readRow(rset)));
             }
         } else {
             memoryCache = null;
-            cacheFile = File.createTempFile("cache-", ".dat");
-            int ncols = -1;
-            columnInfo = null;  //  initialized just to keep the IDE happy
-            try (FileOutputStream fos = new FileOutputStream(cacheFile);
-                 BufferedOutputStream bos = new BufferedOutputStream(fos);
-                 ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            rowCache = new RowCache(columnNames.length, spillThreshold);
+            try {
                 while (rset.next() && (maxRecords == 0 || size < maxRecords)) {
                     size++;
-                    int len;
-                    if (ncols == -1) {
-                        ncols = mdata.getColumnCount();
-                        columnInfo = new ColumnInfo[ncols];
-                        for (int i = 0; i < ncols; i++)
-                            columnInfo[i] = new ColumnInfo(mdata, i+1);
-                    }
-                    oos.writeInt(RECORD_BEGINNING);
-                    for (int i = 0; i < ncols; i++) {
-                        ColumnInfo ci = columnInfo[i];
-                        Object val;
-                        if (ci.type == Types.TIMESTAMP_WITH_TIMEZONE)
-                            val = rset.getObject(i+1, ZonedDateTime.class);
-                        else
-                            val = rset.getObject(i+1);
-                        oos.writeInt(ci.type);
-                        if (val == null) {
-                            oos.writeInt(NULL_FIELD);
-                            continue;
-                        } else
-                            oos.writeInt(FIELD_HAS_VALUE);
-                        switch (ci.type) {
-                            case Types.SMALLINT:
-                                short s = (short)(int)(Integer) val;
-                                oos.writeShort(s);
-                                break;
-                            case Types.INTEGER:
-                                oos.writeInt((Integer) val);
-                                break;
-                            case Types.BIGINT:
-                                oos.writeLong((Long) val);
-                                break;
-                            case Types.REAL:
-                            case Types.FLOAT:
-                                oos.writeFloat((Float) val);
-                                break;
-                            case Types.DOUBLE:
-                                oos.writeDouble((Double) val);
-                                break;
-                            case Types.CHAR:
-                            case Types.VARCHAR:
-                            case Types.LONGVARCHAR:
-                                len = ((String) val).length();
-                                oos.writeInt(len);
-                                if (len > 0)
-                                    oos.writeObject(val);
-                                break;
-                            case Types.TIMESTAMP:
-                            case Types.TIMESTAMP_WITH_TIMEZONE:
-                            case Types.DATE:
-                            case Types.TIME:
-                            case Types.TIME_WITH_TIMEZONE:
-                            case Types.NCHAR:
-                            case Types.NVARCHAR:
-                            case Types.LONGNVARCHAR:
-                                oos.writeObject(val);
-                                break;
-                            case Types.BINARY:
-                            case Types.VARBINARY:
-                            case Types.LONGVARBINARY:
-                            case Types.BLOB:
-                                byte [] bytes = (byte[]) val;
-                                len = bytes.length;
-                                oos.writeInt(len);
-                                if (len > 0)
-                                    oos.write(bytes);
-                                break;
-                            default:
-                                throw new SQLException("Unhandled data type " + ci.type);
-                        }
-                    }
-                    oos.writeInt(END_OF_RECORD);
-                }
-                oos.writeInt(END_OF_CACHE);
-            }
-            FileInputStream fis = null;
-            BufferedInputStream bis = null;
-            try {
-                fis = new FileInputStream(cacheFile);
-                bis = new BufferedInputStream(fis);
-                cacheStream = new ObjectInputStream(bis);
-            } catch (IOException e) {
-                if (bis != null) {
-                    try { bis.close(); } catch (IOException ignore) {}
-                } else if (fis != null) {
-                    try { fis.close(); } catch (IOException ignore) {}
+                    rowCache.add(readRow(rset));
                 }
-                cacheFile.delete();
-                cacheFile = null;
+                rowCache.finish();
+            } catch (IOException | SQLException | RuntimeException e) {
+                rowCache.close();
+                rowCache = null;
                 throw e;
             }
         }
         rset.close();
     }
 
-    private Record closeCache() {
+    private void initColumns() throws SQLException {
         try {
-            if (cacheStream != null)
-                cacheStream.close();
-        } catch (Exception ignore) {
-
-        } finally {
-            if (cacheFile != null)
-                cacheFile.delete();
-            cacheStream = null;
-            cacheFile = null;
-            columnInfo = null;
-            memoryCache = null;
+            tname = mdata.getTableName(1).toLowerCase();
+        } catch (SQLException e) {
+            tname = null;
+        }
+        final int ncols = mdata.getColumnCount();
+        columnNames = new String[ncols];
+        columnTypes = new int[ncols];
+        for (int i = 0; i < ncols; i++) {
+            columnNames[i] = mdata.getColumnName(i + 1).toLowerCase();
+            columnTypes[i] = mdata.getColumnType(i + 1);
+        }
+        schema = new ColumnSchema(columnNames);
+    }
+
+    private Object [] readRow(ResultSet rset) throws SQLException {
+        final Object [] row = new Object[columnNames.length];
+        for (int i = 0; i < row.length; i++)
+            if (streamedColumns != null && streamedColumns[i])
+                continue;
+            else if (columnTypes[i] == Types.TIMESTAMP_WITH_TIMEZONE)
+                row[i] = rset.getObject(i + 1, ZonedDateTime.class);
+            else
+                row[i] = rset.getObject(i + 1);
+        return row;
+    }
+
+    private Record newRecord(Object [] row) {
+        return new Record(cmd.conn, this, schema, row);
+    }
+
+    private Record nextStreamedRecord() throws SQLException {
+        if (rset == null)
+            return null;
+        if (!rset.next())
+            return closeCache();
+        size++;
+        return newRecord(readRow(rset));
+    }
+
+    /**
+     * Close the open result set and statement of a streaming cursor.
+     */
+    private void closeStream() {
+        if (rset != null) {
+            try {
+                rset.close();
+            } catch (SQLException ignore) {
+            }
+            rset = null;
         }
+        if (streamStmt != null) {
+            try {
+                streamStmt.close();
+            } catch (SQLException ignore) {
+            }
+            streamStmt = null;
+        }
+        if (restoreAutoCommit) {
+            restoreAutoCommit = false;
+            try {
+                cmd.conn.conn.setAutoCommit(true);
+            } catch (SQLException ignore) {
+            }
+        }
+    }
+
+    private Record closeCache() {
+        if (streaming)
+            closeStream();
+        if (rowCache != null) {
+            rowCache.close();
+            rowCache = null;
+        }
+        memoryCache = null;
         return null;
     }
 
@@ -344,90 +442,12 @@ private Record nextCachedRecord() throws Exception {
                 return null;
             return memoryCache.remove(0);
         }
-        if (cacheFile == null || cacheStream == null)
-            return closeCache();
-        int recType = cacheStream.readInt();
-        if (recType == END_OF_CACHE)
+        if (rowCache == null)
+            return null;
+        if (cacheRead >= size)
             return closeCache();
-        if (recType != RECORD_BEGINNING)
-            throw new Exception("Cursor: JDBC Cache: expected RECORD_BEGINNING");
-        final LinkedHashMap<String,Object> cols = new LinkedHashMap<>();
-        final HashMap<String,Object> ocols = new HashMap<>();
-        int i = 0;
-        while (true) {
-            Object obj;
-            int len;
-            int fieldType = cacheStream.readInt();
-            if (fieldType == END_OF_RECORD)
-                break;
-            ColumnInfo ci = columnInfo[i++];
-            int nullField = cacheStream.readInt();
-            if (nullField == NULL_FIELD) {
-                cols.put(ci.name, null);
-                ocols.put(ci.name, null);
-                continue;
-            }
-            switch (fieldType) {
-                case Types.SMALLINT:
-                    cols.put(ci.name, obj=cacheStream.readShort());
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.INTEGER:
-                    cols.put(ci.name, obj=cacheStream.readInt());
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.BIGINT:
-                    cols.put(ci.name, obj=cacheStream.readLong());
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.REAL:
-                case Types.FLOAT:
-                    cols.put(ci.name, obj=cacheStream.readFloat());
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.DOUBLE:
-                    cols.put(ci.name, obj=cacheStream.readDouble());
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.CHAR:
-                case Types.VARCHAR:
-                case Types.LONGVARCHAR:
-                    len = cacheStream.readInt();
-                    cols.put(ci.name, obj=len > 0 ? cacheStream.readObject() : "");
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.TIMESTAMP:
-                case Types.TIMESTAMP_WITH_TIMEZONE:
-                case Types.DATE:
-                case Types.TIME:
-                case Types.TIME_WITH_TIMEZONE:
-                case Types.NCHAR:
-                case Types.NVARCHAR:
-                case Types.LONGNVARCHAR:
-                    cols.put(ci.name, obj=cacheStream.readObject());
-                    ocols.put(ci.name, obj);
-                    break;
-                case Types.BINARY:
-                case Types.VARBINARY:
-                case Types.LONGVARBINARY:
-                case Types.BLOB:
-                    len = cacheStream.readInt();
-                    if (len > 0) {
-                        byte[] bytes = new byte[len];
-                        int total_read = 0;
-                        while (total_read < len)
-                            total_read += cacheStream.read(bytes, total_read, len-total_read);
-                        Byte [] bytes2 = new Byte[bytes.length];
-                        Arrays.setAll(bytes2, n -> bytes[n]);
-                        cols.put(ci.name, bytes2);
-                        ocols.put(ci.name, bytes2);
-                    }
-                    break;
-                default:
-                    throw new SQLException("Unhandled data type " + fieldType);
-            }
-        }
-        return new Record(cmd.conn, this, ocols, cols);
+        cacheRead++;
+        return newRecord(rowCache.next());
     }
 
     /**
@@ -540,7 +560,7 @@ public void close() throws SQLException {
      * @see #setDateTime(String, java.util.Date)
      */
     public Cursor set(String name, Object val) {
-        lastRec.cols.put(name.toLowerCase(), val);
+        lastRec.put(name.toLowerCase(), val);
         return this;
     }
 
@@ -558,7 +578,7 @@ public Cursor set(String name, Object val) {
      * @see #setTime(String, long)
      */
     public Cursor setDateOnly(String name, java.util.Date val) {
-        lastRec.cols.put(name.toLowerCase(), new java.sql.Date(val.getTime()));
+        lastRec.put(name.toLowerCase(), new java.sql.Date(val.getTime()));
         return this;
     }
 
@@ -576,11 +596,11 @@ public Cursor setDateOnly(String name, java.util.Date val) {
      */
     public Cursor setTime(String name, long dat) {
         if (dat == 0) {
-            lastRec.cols.put(name.toLowerCase(), null);
+            lastRec.put(name.toLowerCase(), null);
             return this;
         }
         java.util.Date val = new java.util.Date(dat);
-        lastRec.cols.put(name.toLowerCase(), new java.sql.Time(val.getTime()));
+        lastRec.put(name.toLowerCase(), new java.sql.Time(val.getTime()));
         return this;
     }
 
@@ -599,14 +619,14 @@ public Cursor setTime(String name, long dat) {
      */
     public Cursor setDateOnly(String name, int dat) {
         if (dat == 0) {
-            lastRec.cols.put(name.toLowerCase(), null);
+            lastRec.put(name.toLowerCase(), null);
             return this;
         }
         int y = dat / 10000;
         int m = (dat % 10000) / 100;
         int d = dat % 100;
         java.util.Date val = new GregorianCalendar(y, m-1, d).getTime();
-        lastRec.cols.put(name.toLowerCase(), new java.sql.Date(val.getTime()));
+        lastRec.put(name.toLowerCase(), new java.sql.Date(val.getTime()));
         return this;
     }
 
@@ -623,7 +643,7 @@ public Cursor setDateOnly(String name, int dat) {
      * @see #set(String, Object)
      */
     public Cursor setDateTime(String name, java.util.Date val) {
-        lastRec.cols.put(name.toLowerCase(), val == null ? null : new java.sql.Timestamp(val.getTime()));
+        lastRec.put(name.toLowerCase(), val == null ? null : new java.sql.Timestamp(val.getTime()));
         return this;
     }
 
@@ -640,7 +660,7 @@ public Cursor setDateTime(String name, java.util.Date val) {
      * @see #set(String, Object)
      */
     public Cursor setDateTime(String name, long val) {
-        lastRec.cols.put(name.toLowerCase(), val == 0 ? null : new java.sql.Timestamp(val));
+        lastRec.put(name.toLowerCase(), val == 0 ? null : new java.sql.Timestamp(val));
         return this;
     }
 
@@ -659,11 +679,7 @@ public Cursor setDateTime(String name, long val) {
      * etc.
      */
     public Object get(String cname) throws SQLException {
-        cname = cname.toLowerCase();
-        if (lastRec.cols.containsKey(cname))
-            return lastRec.cols.get(cname);
-        else
-            throw new SQLException("Column " + cname + " not found.");
+        return lastRec.get(cname);
     }
 
     /**
@@ -1000,8 +1016,48 @@ public Character getChar(String cname) throws SQLException {
         return ArrayUtils.toPrimitiveByteArray((Byte[]) ba);
     }
 
+    /**
+     * Return an <code>InputStream</code> over the binary value of the named column of the current row.
+     * A <code>null</code> is returned on <code>null</code> valued columns.
+     * <br><br>
+     * If the column was named in <code>streamColumns</code> the data is read from the database as the stream is read
+     * and the stream is only valid until the cursor moves to the next row.  Otherwise, the stream reads the
+     * <code>byte[]</code> already in the record without copying it.
+     *
+     * @param cname the column name
+     * @return the stream or null
+     * @throws SQLException if a database access error occurs
+     *
+     * @see #streamColumns(String...)
+     * @see Record#getBinaryStream(String)
+     */
+    public InputStream getBinaryStream(String cname) throws SQLException {
+        return currentRecord(cname).getBinaryStream(cname);
+    }
+
+    /**
+     * Return a <code>ReadableByteChannel</code> over the binary value of the named column of the current row.
+     * A <code>null</code> is returned on <code>null</code> valued columns.
+     *
+     * @param cname the column name
+     * @return the channel or null
+     * @throws SQLException if a database access error occurs
+     *
+     * @see #getBinaryStream(String)
+     */
+    public ReadableByteChannel getBinaryChannel(String cname) throws SQLException {
+        return currentRecord(cname).getBinaryChannel(cname);
+    }
+
+    private Record currentRecord(String cname) throws SQLException {
+        if (lastRec == null)
+            throw new SQLException("Column " + cname + " can only be read while the cursor is on its row");
+        return lastRec;
+    }
+
     /**
      * Returns the number of records in the cursor.
+     * For a streaming cursor this is the number of records read so far.
      *
      * @return the number of records
      */
@@ -0,0 +1,902 @@
+package org.kissweb.database;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes rows to an output stream as a CSV file or an Excel (XLSX) workbook as they are read, so that an export
+ * of any size runs in constant memory.
+ * <br><br>
+ * Rows normally come from a streaming <code>Cursor</code> (see <code>Connection.streamQuery</code>) and each row is
+ * encoded and written before the next one is read.  Numbers and dates are formatted directly into a reusable
+ * character buffer rather than through <code>String.format</code>, <code>SimpleDateFormat</code>, or
+ * <code>toString</code>.  Typical usage from a web service:
+ * <br><br>
+ * <code>
+ * &nbsp;&nbsp;&nbsp;&nbsp;Exporter ex = Exporter.xlsx().progress(10000, servlet.downloadProgress());<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;OutputStream out = servlet.startDownload("items" + ex.getFileExtension(), ex.getContentType(), true);<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;ex.write(out, db, "select * from item order by item_id");
+ * </code>
+ * <br><br>
+ * The columns are those of the query (or those selected with <code>columns</code>) and the first row holds the
+ * column names (or the <code>titles</code> given).  Values are written as follows:
+ * <ul>
+ *     <li>Numbers as numbers.  A <code>Double</code> or <code>Float</code> with no fractional part is written as
+ *     an integer.</li>
+ *     <li><code>java.sql.Date</code> and <code>LocalDate</code> as dates, <code>java.sql.Time</code> and
+ *     <code>LocalTime</code> as times, and other dates as date-times.  CSV files use <code>yyyy-MM-dd</code>,
+ *     <code>HH:mm:ss</code>, and <code>yyyy-MM-dd HH:mm:ss</code> (with milliseconds when not zero).  Workbooks
+ *     use date cells.  Dates are in the server's time zone.</li>
+ *     <li>Booleans as <code>true</code>/<code>false</code> (CSV) or boolean cells (XLSX).</li>
+ *     <li>Byte arrays and nulls as empty fields, and everything else as text.</li>
+ * </ul>
+ * CSV files follow RFC 4180: fields containing the delimiter, a quote, or a line break are quoted and lines end
+ * with CR LF.  They are written in UTF-8.
+ * <br><br>
+ * Workbooks are written without any library as a minimal Office Open XML package with inline strings, which
+ * Excel, LibreOffice, and Google Sheets all read.  A worksheet holds at most 1,048,576 rows; longer exports
+ * continue on additional worksheets, each starting with the title row.
+ * <br><br>
+ * An <code>Exporter</code> holds only its settings and may be reused, but is not thread-safe while it is being
+ * configured.
+ *
+ * @see Connection#streamQuery(String, Object...)
+ * @see org.kissweb.restServer.ProcessServlet#startDownload(String, String, boolean)
+ */
+public final class Exporter {
+
+    /**
+     * The file formats an <code>Exporter</code> writes.
+     */
+    public enum Format {
+        /** Delimited text (comma-separated by default) */
+        CSV("text/csv; charset=UTF-8", ".csv"),
+        /** Excel workbook */
+        XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", ".xlsx");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+    }
+
+    static final int XLSX_MAX_ROWS = 1_048_576;      // rows per worksheet
+    private static final int XLSX_MAX_TEXT = 32_767;  // characters per cell
+    private static final long DAY = 86_400_000L;
+
+    private final Format format;
+    private String [] columns;
+    private String [] titles;
+    private boolean header = true;
+    private char delimiter = ',';
+    private String sheetName = "Sheet1";
+    private int sheetRows = XLSX_MAX_ROWS;
+    private int progressRows = 1;
+    private LongConsumer progress;
+
+    private Exporter(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Create an exporter that writes CSV files.
+     *
+     * @return the new exporter
+     */
+    public static Exporter csv() {
+        return new Exporter(Format.CSV);
+    }
+
+    /**
+     * Create an exporter that writes Excel (XLSX) workbooks.
+     *
+     * @return the new exporter
+     */
+    public static Exporter xlsx() {
+        return new Exporter(Format.XLSX);
+    }
+
+    /**
+     * Create an exporter for a given format.
+     *
+     * @param format the format
+     * @return the new exporter
+     */
+    public static Exporter of(Format format) {
+        return new Exporter(format);
+    }
+
+    /**
+     * Create an exporter from a format name such as a front-end would send.
+     *
+     * @param format <code>csv</code> or <code>xlsx</code> (case-insensitive)
+     * @return the new exporter
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public static Exporter of(String format) {
+        for (Format f : Format.values())
+            if (f.name().equalsIgnoreCase(format))
+                return new Exporter(f);
+        throw new IllegalArgumentException("Unknown export format " + format);
+    }
+
+    /**
+     * Returns the format written.
+     *
+     * @return the format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the MIME type of the files written.
+     *
+     * @return the content type
+     */
+    public String getContentType() {
+        return format.contentType;
+    }
+
+    /**
+     * Returns the usual file name extension of the files written, including the dot.
+     *
+     * @return the file name extension
+     */
+    public String getFileExtension() {
+        return format.extension;
+    }
+
+    /**
+     * Select and order the columns of a query that are written.  By default, all columns are written in the
+     * order of the query.
+     *
+     * @param names the column names (case-insensitive)
+     * @return this exporter
+     */
+    public Exporter columns(String ... names) {
+        columns = names == null || names.length == 0 ? null : names.clone();
+        return this;
+    }
+
+    /**
+     * Set the text of the title row.  By default, the column names are used.
+     *
+     * @param titles one title per column written
+     * @return this exporter
+     */
+    public Exporter titles(String ... titles) {
+        this.titles = titles == null || titles.length == 0 ? null : titles.clone();
+        return this;
+    }
+
+    /**
+     * Set whether a title row is written.  The default is <code>true</code>.
+     *
+     * @param header false to write the data rows only
+     * @return this exporter
+     */
+    public Exporter header(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * Set the field delimiter of CSV files.  The default is a comma.
+     *
+     * @param delimiter the delimiter character
+     * @return this exporter
+     */
+    public Exporter delimiter(char delimiter) {
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n')
+            throw new IllegalArgumentException("Invalid delimiter");
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    /**
+     * Set the name of the (first) worksheet of a workbook.  The default is <code>Sheet1</code>.
+     *
+     * @param name the worksheet name
+     * @return this exporter
+     */
+    public Exporter sheetName(String name) {
+        sheetName = name;
+        return this;
+    }
+
+    /**
+     * Report progress while writing.  The listener is called with the number of data rows written so far after
+     * every <code>everyRows</code> rows, and once more with the total when the export is complete.
+     * The listener is called on the writing thread, between rows.
+     *
+     * @param everyRows the number of rows between calls
+     * @param listener the listener, or null for none
+     * @return this exporter
+     * @see org.kissweb.restServer.ProcessServlet#downloadProgress()
+     */
+    public Exporter progress(int everyRows, LongConsumer listener) {
+        if (everyRows < 1)
+            throw new IllegalArgumentException("everyRows must be at least 1");
+        progressRows = everyRows;
+        progress = listener;
+        return this;
+    }
+
+    /**
+     * Used by tests to roll over to a new worksheet sooner.
+     */
+    Exporter sheetRows(int rows) {
+        sheetRows = rows;
+        return this;
+    }
+
+    /**
+     * Run a query and write its rows.  The query is read with a streaming cursor (see
+     * <code>Connection.streamQuery</code>) which is closed when this method returns.
+     *
+     * @param out where the file is written (it is not closed)
+     * @param db the database connection
+     * @param sql the select statement with ? parameters
+     * @param args the parameter values
+     * @return the number of data rows written
+     * @throws Exception if a database or I/O error occurs
+     */
+    public long write(OutputStream out, Connection db, String sql, Object ... args) throws Exception {
+        return write(out, db.streamQuery(sql, args));
+    }
+
+    /**
+     * Write the remaining rows of a cursor.  The cursor is closed when this method returns.
+     *
+     * @param out where the file is written (it is not closed)
+     * @param cursor the cursor, normally a streaming one
+     * @return the number of data rows written
+     * @throws Exception if a database or I/O error occurs
+     */
+    public long write(OutputStream out, Cursor cursor) throws Exception {
+        try (Cursor c = cursor) {
+            final ColumnSchema schema = c.columnSchema();
+            final String [] names;
+            final int [] slots;
+            if (columns == null) {
+                names = new String[schema.size()];
+                slots = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = schema.name(i);
+                    slots[i] = schema.slotAt(i);
+                }
+            } else {
+                names = columns;
+                slots = new int[names.length];
+                for (int i = 0; i < names.length; i++)
+                    if ((slots[i] = schema.slot(names[i].toLowerCase())) < 0)
+                        throw new IllegalArgumentException("Column " + names[i] + " is not in the query");
+            }
+            final Object [] row = new Object[names.length];
+            return writeRows(out, names, () -> {
+                final Record rec = c.next();
+                if (rec == null)
+                    return null;
+                final Object [] values = rec.rowValues();
+                for (int i = 0; i < slots.length; i++)
+                    row[i] = slots[i] < values.length ? values[slots[i]] : null;
+                return row;
+            });
+        }
+    }
+
+    /**
+     * Write rows that don't come from a query.  The <code>columns</code> setting is ignored.
+     *
+     * @param out where the file is written (it is not closed)
+     * @param names the column names (used as titles unless <code>titles</code> is set)
+     * @param rows the rows, each with one value per column
+     * @return the number of data rows written
+     * @throws IOException if an I/O error occurs
+     */
+    public long write(OutputStream out, String [] names, Iterator<Object []> rows) throws IOException {
+        try {
+            return writeRows(out, names, () -> rows.hasNext() ? rows.next() : null);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Supplies rows until it returns null.  The array returned may be reused.
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        Object [] next() throws Exception;
+    }
+
+    private long writeRows(OutputStream out, String [] names, RowSource rows) throws Exception {
+        String [] top = null;
+        if (header) {
+            if (titles != null && titles.length != names.length)
+                throw new IllegalArgumentException("There are " + titles.length + " titles for " + names.length + " columns");
+            top = titles != null ? titles : names;
+        }
+        final Encoder enc = format == Format.CSV ? new CsvEncoder(out, delimiter) : new XlsxEncoder(out, sheetName, sheetRows);
+        enc.begin(top);
+        long count = 0;
+        Object [] row;
+        while ((row = rows.next()) != null) {
+            enc.row(row);
+            if (++count % progressRows == 0 && progress != null)
+                progress.accept(count);
+        }
+        enc.end();
+        if (progress != null && (count == 0 || count % progressRows != 0))
+            progress.accept(count);
+        return count;
+    }
+
+    /**
+     * Converts UTC milliseconds to local milliseconds, remembering the offset in force between the surrounding
+     * time zone transitions so that the zone rules are only consulted when a value falls outside them.
+     */
+    private static final class LocalClock {
+        private final ZoneRules rules = ZoneId.systemDefault().getRules();
+        private long validFrom = 1;
+        private long validTo = 0;
+        private long offset;
+
+        long local(long utc) {
+            if (utc < validFrom || utc >= validTo) {
+                final Instant at = Instant.ofEpochMilli(utc);
+                offset = rules.getOffset(at).getTotalSeconds() * 1000L;
+                final ZoneOffsetTransition next = rules.nextTransition(at);
+                final ZoneOffsetTransition prev = rules.previousTransition(Instant.ofEpochMilli(utc + 1));
+                validTo = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000L;
+                validFrom = prev == null ? Long.MIN_VALUE : prev.toEpochSecond() * 1000L;
+            }
+            return utc + offset;
+        }
+    }
+
+    /**
+     * Encodes values into a character buffer that is written out when full.
+     */
+    private abstract static class Encoder {
+        private final char [] buf = new char[8192];
+        private int pos;
+        private final LocalClock clock = new LocalClock();
+        Writer writer;
+
+        abstract void begin(String [] titles) throws IOException;
+
+        abstract void row(Object [] row) throws IOException;
+
+        abstract void end() throws IOException;
+
+        abstract void empty() throws IOException;
+
+        abstract void text(String s) throws IOException;
+
+        abstract void integer(long v) throws IOException;
+
+        /**
+         * A number already formatted.
+         */
+        abstract void number(String v) throws IOException;
+
+        abstract void bool(boolean v) throws IOException;
+
+        abstract void date(long epochDay) throws IOException;
+
+        abstract void time(long msOfDay) throws IOException;
+
+        abstract void dateTime(long epochDay, long msOfDay) throws IOException;
+
+        final void value(Object v) throws IOException {
+            if (v == null)
+                empty();
+            else if (v instanceof String)
+                text((String) v);
+            else if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte)
+                integer(((Number) v).longValue());
+            else if (v instanceof Double || v instanceof Float) {
+                final double d = ((Number) v).doubleValue();
+                if (Double.isNaN(d) || Double.isInfinite(d))
+                    text(v.toString());
+                else if (d == Math.rint(d) && Math.abs(d) < 1e15)
+                    integer((long) d);
+                else
+                    number(v.toString());
+            } else if (v instanceof BigDecimal)
+                number(((BigDecimal) v).toPlainString());
+            else if (v instanceof Number)
+                number(v.toString());
+            else if (v instanceof Boolean)
+                bool((Boolean) v);
+            else if (v instanceof java.sql.Date)
+                date(Math.floorDiv(clock.local(((java.util.Date) v).getTime()), DAY));
+            else if (v instanceof java.sql.Time)
+                time(Math.floorMod(clock.local(((java.util.Date) v).getTime()), DAY));
+            else if (v instanceof java.util.Date) {
+                final long t = clock.local(((java.util.Date) v).getTime());
+                dateTime(Math.floorDiv(t, DAY), Math.floorMod(t, DAY));
+            } else if (v instanceof LocalDate)
+                date(((LocalDate) v).toEpochDay());
+            else if (v instanceof LocalTime)
+                time(((LocalTime) v).toNanoOfDay() / 1_000_000L);
+            else if (v instanceof LocalDateTime)
+                dateTime((LocalDateTime) v);
+            else if (v instanceof ZonedDateTime)
+                dateTime(((ZonedDateTime) v).toLocalDateTime());
+            else if (v instanceof OffsetDateTime)
+                dateTime(((OffsetDateTime) v).toLocalDateTime());
+            else if (v instanceof byte [])
+                empty();
+            else
+                text(v.toString());
+        }
+
+        private void dateTime(LocalDateTime v) throws IOException {
+            dateTime(v.toLocalDate().toEpochDay(), v.toLocalTime().toNanoOfDay() / 1_000_000L);
+        }
+
+        final void drain() throws IOException {
+            writer.write(buf, 0, pos);
+            pos = 0;
+        }
+
+        /**
+         * Write out everything buffered.
+         */
+        final void flush() throws IOException {
+            drain();
+            writer.flush();
+        }
+
+        final void put(char c) throws IOException {
+            if (pos == buf.length)
+                drain();
+            buf[pos++] = c;
+        }
+
+        final void put(String s) throws IOException {
+            final int len = s.length();
+            int off = 0;
+            while (off < len) {
+                if (pos == buf.length)
+                    drain();
+                final int n = Math.min(len - off, buf.length - pos);
+                s.getChars(off, off + n, buf, pos);
+                pos += n;
+                off += n;
+            }
+        }
+
+        final void putLong(long v) throws IOException {
+            if (v == Long.MIN_VALUE) {
+                put("-9223372036854775808");
+                return;
+            }
+            if (buf.length - pos < 20)
+                drain();
+            if (v < 0) {
+                buf[pos++] = '-';
+                v = -v;
+            }
+            int n = 1;
+            for (long x = v; x >= 10; x /= 10)
+                n++;
+            pos += n;
+            for (int i = pos - 1; i >= pos - n; i--, v /= 10)
+                buf[i] = (char) ('0' + v % 10);
+        }
+
+        /**
+         * Write a non-negative number using exactly <code>width</code> digits.
+         */
+        final void putPadded(long v, int width) throws IOException {
+            if (buf.length - pos < width)
+                drain();
+            for (int i = pos + width - 1; i >= pos; i--, v /= 10)
+                buf[i] = (char) ('0' + v % 10);
+            pos += width;
+        }
+
+        /**
+         * Write a date as <code>yyyy-MM-dd</code>.
+         */
+        final void putDate(long epochDay) throws IOException {
+            // civil-from-days (H. Hinnant) to avoid creating a LocalDate per value
+            final long z = epochDay + 719_468;
+            final long era = Math.floorDiv(z, 146_097);
+            final long doe = z - era * 146_097;
+            final long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+            final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            final long mp = (5 * doy + 2) / 153;
+            final long d = doy - (153 * mp + 2) / 5 + 1;
+            final long m = mp < 10 ? mp + 3 : mp - 9;
+            final long y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+            if (y < 0 || y > 9999) {
+                put(LocalDate.ofEpochDay(epochDay).toString());
+                return;
+            }
+            putPadded(y, 4);
+            put('-');
+            putPadded(m, 2);
+            put('-');
+            putPadded(d, 2);
+        }
+
+        /**
+         * Write a time of day as <code>HH:mm:ss</code> followed by <code>.SSS</code> if the milliseconds aren't zero.
+         */
+        final void putTime(long msOfDay) throws IOException {
+            final long secs = msOfDay / 1000;
+            putPadded(secs / 3600, 2);
+            put(':');
+            putPadded(secs / 60 % 60, 2);
+            put(':');
+            putPadded(secs % 60, 2);
+            if (msOfDay % 1000 != 0) {
+                put('.');
+                putPadded(msOfDay % 1000, 3);
+            }
+        }
+    }
+
+    private static final class CsvEncoder extends Encoder {
+        private final char delimiter;
+        private boolean first;
+
+        CsvEncoder(OutputStream out, char delimiter) {
+            writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        void begin(String [] titles) throws IOException {
+            if (titles != null)
+                row(titles);
+        }
+
+        @Override
+        void row(Object [] row) throws IOException {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0)
+                    put(delimiter);
+                value(row[i]);
+            }
+            put('\r');
+            put('\n');
+        }
+
+        @Override
+        void end() throws IOException {
+            flush();
+        }
+
+        @Override
+        void empty() {
+        }
+
+        @Override
+        void text(String s) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                final char c = s.charAt(i);
+                quote = c == delimiter || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                put(s);
+                return;
+            }
+            put('"');
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c == '"')
+                    put('"');
+                put(c);
+            }
+            put('"');
+        }
+
+        @Override
+        void integer(long v) throws IOException {
+            putLong(v);
+        }
+
+        @Override
+        void number(String v) throws IOException {
+            put(v);
+        }
+
+        @Override
+        void bool(boolean v) throws IOException {
+            put(v ? "true" : "false");
+        }
+
+        @Override
+        void date(long epochDay) throws IOException {
+            putDate(epochDay);
+        }
+
+        @Override
+        void time(long msOfDay) throws IOException {
+            putTime(msOfDay);
+        }
+
+        @Override
+        void dateTime(long epochDay, long msOfDay) throws IOException {
+            putDate(epochDay);
+            put(' ');
+            putTime(msOfDay);
+        }
+    }
+
+    /**
+     * Writes a workbook as a zip of worksheets streamed as they are filled, followed by the workbook part that
+     * lists them.
+     */
+    private static final class XlsxEncoder extends Encoder {
+        private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+        private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+        private static final String REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+        private static final String DOC_REL = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+        private static final long EXCEL_EPOCH_DAY = 25_569;  // 1970-01-01 as an Excel serial day number
+        // cell styles (indexes into cellXfs)
+        private static final int STYLE_DATE = 1;
+        private static final int STYLE_DATE_TIME = 2;
+        private static final int STYLE_TIME = 3;
+        private static final int STYLE_TITLE = 4;
+
+        private final ZipOutputStream zip;
+        private final String baseName;
+        private final int maxRows;
+        private final ArrayList<String> sheets = new ArrayList<>();
+        private String [] titles;
+        private int rowsInSheet;
+        private int style;  // style applied to text cells
+
+        XlsxEncoder(OutputStream out, String sheetName, int maxRows) {
+            zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+            writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            baseName = sheetName(sheetName == null ? "Sheet1" : sheetName);
+            this.maxRows = maxRows;
+        }
+
+        @Override
+        void begin(String [] titles) throws IOException {
+            this.titles = titles;
+            part("[Content_Types].xml", XML_HEADER +
+                    "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                    "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                    "<Default Extension=\"xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+                    "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+                    "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>" +
+                    "</Types>");
+            part("_rels/.rels", XML_HEADER +
+                    "<Relationships xmlns=\"" + REL_NS + "\">" +
+                    "<Relationship Id=\"rId1\" Type=\"" + DOC_REL + "/officeDocument\" Target=\"xl/workbook.xml\"/>" +
+                    "</Relationships>");
+            part("xl/styles.xml", XML_HEADER +
+                    "<styleSheet xmlns=\"" + MAIN_NS + "\">" +
+                    "<numFmts count=\"2\"><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd\"/>" +
+                    "<numFmt numFmtId=\"165\" formatCode=\"yyyy-mm-dd hh:mm:ss\"/></numFmts>" +
+                    "<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>" +
+                    "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>" +
+                    "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>" +
+                    "<fill><patternFill patternType=\"gray125\"/></fill></fills>" +
+                    "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>" +
+                    "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>" +
+                    "<cellXfs count=\"5\">" +
+                    "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>" +
+                    "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>" +
+                    "<xf numFmtId=\"165\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>" +
+                    "<xf numFmtId=\"21\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>" +
+                    "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/>" +
+                    "</cellXfs>" +
+                    "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>" +
+                    "</styleSheet>");
+            startSheet();
+        }
+
+        @Override
+        void row(Object [] row) throws IOException {
+            if (rowsInSheet == maxRows) {
+                endSheet();
+                startSheet();
+            }
+            rowsInSheet++;
+            put("<row>");
+            for (Object v : row)
+                value(v);
+            put("</row>");
+        }
+
+        @Override
+        void end() throws IOException {
+            endSheet();
+            final StringBuilder wb = new StringBuilder(XML_HEADER);
+            final StringBuilder rels = new StringBuilder(XML_HEADER);
+            wb.append("<workbook xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(DOC_REL).append("\"><sheets>");
+            rels.append("<Relationships xmlns=\"").append(REL_NS).append("\">");
+            for (int i = 1; i <= sheets.size(); i++) {
+                wb.append("<sheet name=\"").append(escape(sheets.get(i - 1))).append("\" sheetId=\"").append(i)
+                        .append("\" r:id=\"rId").append(i).append("\"/>");
+                rels.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(DOC_REL)
+                        .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+            }
+            wb.append("</sheets></workbook>");
+            rels.append("<Relationship Id=\"rId").append(sheets.size() + 1).append("\" Type=\"").append(DOC_REL)
+                    .append("/styles\" Target=\"styles.xml\"/></Relationships>");
+            part("xl/workbook.xml", wb.toString());
+            part("xl/_rels/workbook.xml.rels", rels.toString());
+            zip.finish();
+            zip.flush();
+        }
+
+        private void part(String name, String content) throws IOException {
+            zip.putNextEntry(new ZipEntry(name));
+            put(content);
+            flush();
+            zip.closeEntry();
+        }
+
+        private void startSheet() throws IOException {
+            final int n = sheets.size() + 1;
+            sheets.add(n == 1 ? baseName : sheetName(baseName.substring(0, Math.min(baseName.length(), 24)) + " (" + n + ")"));
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + n + ".xml"));
+            put(XML_HEADER);
+            put("<worksheet xmlns=\"" + MAIN_NS + "\">");
+            if (titles != null)  // keep the title row in view
+                put("<sheetViews><sheetView workbookViewId=\"0\">" +
+                        "<pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/>" +
+                        "</sheetView></sheetViews>");
+            put("<sheetData>");
+            rowsInSheet = 0;
+            if (titles != null) {
+                style = STYLE_TITLE;
+                row(titles);
+                style = 0;
+            }
+        }
+
+        private void endSheet() throws IOException {
+            put("</sheetData></worksheet>");
+            flush();
+            zip.closeEntry();
+        }
+
+        /**
+         * Returns a valid worksheet name.
+         */
+        private static String sheetName(String name) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < name.length() && sb.length() < 31; i++) {
+                final char c = name.charAt(i);
+                if ("[]:*?/\\".indexOf(c) < 0 && c >= ' ')
+                    sb.append(c);
+            }
+            if (sb.length() == 0)
+                sb.append("Sheet1");
+            return sb.toString();
+        }
+
+        private static String escape(String s) {
+            return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+
+        private void cell(int style) throws IOException {
+            if (style == 0)
+                put("<c><v>");
+            else {
+                put("<c s=\"");
+                putLong(style);
+                put("\"><v>");
+            }
+        }
+
+        @Override
+        void empty() throws IOException {
+            put("<c/>");
+        }
+
+        @Override
+        void text(String s) throws IOException {
+            if (style == 0)
+                put("<c t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+            else {
+                put("<c t=\"inlineStr\" s=\"");
+                putLong(style);
+                put("\"><is><t xml:space=\"preserve\">");
+            }
+            final int len = Math.min(s.length(), XLSX_MAX_TEXT);
+            for (int i = 0; i < len; i++) {
+                final char c = s.charAt(i);
+                if (c == '&')
+                    put("&amp;");
+                else if (c == '<')
+                    put("&lt;");
+                else if (c == '>')
+                    put("&gt;");
+                else if (c >= ' ' && c < 0xFFFE || c == '\t' || c == '\n' || c == '\r')
+                    put(c);
+                // other control characters can't appear in XML and are dropped
+            }
+            put("</t></is></c>");
+        }
+
+        @Override
+        void integer(long v) throws IOException {
+            cell(0);
+            putLong(v);
+            put("</v></c>");
+        }
+
+        @Override
+        void number(String v) throws IOException {
+            cell(0);
+            put(v);
+            put("</v></c>");
+        }
+
+        @Override
+        void bool(boolean v) throws IOException {
+            put(v ? "<c t=\"b\"><v>1</v></c>" : "<c t=\"b\"><v>0</v></c>");
+        }
+
+        @Override
+        void date(long epochDay) throws IOException {
+            cell(STYLE_DATE);
+            putLong(epochDay + EXCEL_EPOCH_DAY);
+            put("</v></c>");
+        }
+
+        @Override
+        void time(long msOfDay) throws IOException {
+            cell(STYLE_TIME);
+            putFraction(msOfDay);
+            put("</v></c>");
+        }
+
+        @Override
+        void dateTime(long epochDay, long msOfDay) throws IOException {
+            cell(STYLE_DATE_TIME);
+            putLong(epochDay + EXCEL_EPOCH_DAY);
+            if (msOfDay != 0) {
+                put('.');
+                putPadded(msOfDay * 10_000_000_000L / DAY, 10);
+            }
+            put("</v></c>");
+        }
+
+        /**
+         * Write a time of day as a fraction of a day to ten decimal places (about 10 microseconds).
+         */
+        private void putFraction(long msOfDay) throws IOException {
+            put("0.");
+            putPadded(msOfDay * 10_000_000_000L / DAY, 10);
+        }
+    }
+}
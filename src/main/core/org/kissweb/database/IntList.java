@@ -0,0 +1,196 @@
+package org.kissweb.database;
+
+import org.kissweb.json.JSONArray;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A growable list of <code>int</code> values that binds as an SQL array parameter (or an <code>IN</code>
+ * list) without boxing.
+ *
+ * @see PrimitiveList
+ */
+public final class IntList extends PrimitiveList {
+
+    private int [] data;
+
+    /**
+     * Create an empty list.
+     */
+    public IntList() {
+        data = new int[10];
+    }
+
+    /**
+     * Create an empty list with room for <code>capacity</code> elements.
+     *
+     * @param capacity the initial capacity
+     */
+    public IntList(int capacity) {
+        data = new int[capacity];
+    }
+
+    /**
+     * Create a list holding the given values.
+     *
+     * @param values the values
+     * @return the new list
+     */
+    public static IntList of(int ... values) {
+        final IntList lst = new IntList(values.length);
+        lst.addAll(values);
+        return lst;
+    }
+
+    /**
+     * Create a list from the numbers in a JSON array.  Numbers given as strings are parsed.
+     *
+     * @param arr the JSON array
+     * @return the new list
+     * @throws IllegalArgumentException if an element is null or not a number
+     */
+    public static IntList from(JSONArray arr) {
+        final int n = arr.length();
+        final IntList lst = new IntList(n);
+        for (int i = 0; i < n; i++) {
+            final Object v = arr.opt(i);
+            if (v instanceof Number)
+                lst.data[i] = ((Number) v).intValue();
+            else if (v instanceof String)
+                lst.data[i] = Integer.parseInt(((String) v).trim());
+            else
+                throw new IllegalArgumentException("Element " + i + " is not a number");
+        }
+        lst.size = n;
+        return lst;
+    }
+
+    /**
+     * Append a value.
+     *
+     * @param v the value
+     */
+    public void add(int v) {
+        if (size == data.length)
+            data = Arrays.copyOf(data, grow(data.length, size + 1));
+        data[size++] = v;
+    }
+
+    /**
+     * Append values.
+     *
+     * @param values the values
+     */
+    public void addAll(int ... values) {
+        if (size + values.length > data.length)
+            data = Arrays.copyOf(data, grow(data.length, size + values.length));
+        System.arraycopy(values, 0, data, size, values.length);
+        size += values.length;
+    }
+
+    /**
+     * Returns the value at an index.
+     *
+     * @param i the index
+     * @return the value
+     */
+    public int get(int i) {
+        checkIndex(i);
+        return data[i];
+    }
+
+    /**
+     * Replace the value at an index.
+     *
+     * @param i the index
+     * @param v the new value
+     */
+    public void set(int i, int v) {
+        checkIndex(i);
+        data[i] = v;
+    }
+
+    /**
+     * Returns true if the list holds a value.
+     *
+     * @param v the value
+     * @return true if found
+     */
+    public boolean contains(int v) {
+        for (int i = 0; i < size; i++)
+            if (data[i] == v)
+                return true;
+        return false;
+    }
+
+    /**
+     * Sort the list into ascending order.
+     */
+    public void sort() {
+        Arrays.sort(data, 0, size);
+    }
+
+    /**
+     * Returns the values as a new array.
+     *
+     * @return the values
+     */
+    public int [] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @Override
+    String sqlType() {
+        return "integer";
+    }
+
+    @Override
+    Object primitiveArray() {
+        return size == data.length ? data : toArray();
+    }
+
+    @Override
+    Object [] boxedArray() {
+        final Integer [] a = new Integer[size];
+        for (int i = 0; i < size; i++)
+            a[i] = data[i];
+        return a;
+    }
+
+    @Override
+    void appendLiteral(StringBuilder sb, int i) {
+        sb.append(data[i]);
+    }
+
+    @Override
+    public void writeJSON(Writer w) throws IOException {
+        final char [] buf = new char[20];
+        w.write('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                w.write(',');
+            writeNumber(w, buf, data[i]);
+        }
+        w.write(']');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof IntList))
+            return false;
+        final IntList other = (IntList) o;
+        return size == other.size && Arrays.equals(data, 0, size, other.data, 0, size);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++)
+            h = 31 * h + data[i];
+        return h;
+    }
+}
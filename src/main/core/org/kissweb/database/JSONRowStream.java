@@ -0,0 +1,212 @@
+package org.kissweb.database;
+
+import org.kissweb.json.JSONObject;
+import org.kissweb.json.JSONWritable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+
+/**
+ * The rows of a query written as a JSON array of objects straight from the result set, without creating a
+ * <code>Record</code> or <code>JSONObject</code> per row.  The output is the same as that of
+ * <code>Connection.fetchAllJSON</code>: lower case column names (a repeated name appears once with the value of
+ * the last such column), dates as milliseconds since the epoch, and other values as <code>JSONObject</code>
+ * writes them.
+ * <br><br>
+ * Each column gets an encoder chosen from its SQL type when the rows are written.  On PostgreSQL and Microsoft
+ * SQL Server, integer, character, date and timestamp columns are read with the matching typed getter.  Every
+ * other column, and every column on the other databases (whose drivers map types less predictably, SQLite being
+ * dynamically typed), is read the way a <code>Record</code> is.
+ * <br><br>
+ * The query is run each time the value is written, on a forward-only result set using a streaming fetch size.
+ *
+ * @see Connection#fetchAllJSONStream(String, Object...)
+ */
+final class JSONRowStream implements JSONWritable {
+
+    /**
+     * Writes the value of one column of the current row.
+     */
+    @FunctionalInterface
+    private interface Encoder {
+        void write(ResultSet rs, int col, Writer w) throws SQLException, IOException;
+    }
+
+    private static final Encoder GENERIC = (rs, col, w) -> writeObject(rs.getObject(col), w);
+
+    private static final Encoder ZONED = (rs, col, w) -> writeObject(rs.getObject(col, ZonedDateTime.class), w);
+
+    private static final Encoder INTEGER = (rs, col, w) -> {
+        final long v = rs.getLong(col);
+        w.write(rs.wasNull() ? "null" : Long.toString(v));
+    };
+
+    private static final Encoder STRING = (rs, col, w) -> {
+        final String v = rs.getString(col);
+        if (v == null)
+            w.write("null");
+        else
+            JSONObject.quote(v, w);
+    };
+
+    private static final Encoder DATE = (rs, col, w) -> {
+        final java.sql.Date v = rs.getDate(col);
+        w.write(v == null ? "null" : Long.toString(v.getTime()));
+    };
+
+    private static final Encoder TIMESTAMP = (rs, col, w) -> {
+        final java.sql.Timestamp v = rs.getTimestamp(col);
+        w.write(v == null ? "null" : Long.toString(v.getTime()));
+    };
+
+    private final Connection conn;
+    private final String sql;
+    private final Object [] args;
+
+    JSONRowStream(Connection conn, String sql, Object [] args) {
+        if (args != null && args.length == 1 && args[0] instanceof ArrayList && !(args[0] instanceof ArrayListType))
+            args = ((ArrayList<?>) args[0]).toArray();
+        this.conn = conn;
+        this.sql = sql;
+        this.args = args;
+    }
+
+    @Override
+    public void writeJSON(Writer w) throws IOException {
+        try {
+            write(w);
+        } catch (SQLException e) {
+            throw new IOException("Error streaming query results: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the rows as JSON text.
+     */
+    @Override
+    public String toString() {
+        final StringWriter sw = new StringWriter();
+        try {
+            writeJSON(sw);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sw.toString();
+    }
+
+    private void write(Writer w) throws SQLException, IOException {
+        final java.sql.Connection jconn = conn.conn;
+        if (jconn == null)
+            throw new SQLException("Connection has been closed");
+        final ArrayParams.Statement expanded = ArrayParams.expand(conn, this.sql, this.args);
+        final String sql = expanded == null ? this.sql : expanded.sql;
+        final Object [] args = expanded == null ? this.args : expanded.args;
+        final Connection.ConnectionType type = conn.getDBType();
+        final boolean restoreAutoCommit = type == Connection.ConnectionType.PostgreSQL && jconn.getAutoCommit();
+        final long start = SqlStats.start();
+        long rows = 0;
+        PreparedStatement ps = null;
+        try {
+            if (restoreAutoCommit)
+                jconn.setAutoCommit(false);  // PostgreSQL only streams inside a transaction
+            ps = jconn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(type == Connection.ConnectionType.MySQL ? Integer.MIN_VALUE : Cursor.STREAM_FETCH_SIZE);
+            if (args != null)
+                for (int i = 0; i < args.length; i++)
+                    Record.bindValue(conn, ps, i + 1, args[i]);
+            try (ResultSet rs = ps.executeQuery()) {
+                final ResultSetMetaData md = rs.getMetaData();
+                final String [] names = new String[md.getColumnCount()];
+                for (int i = 0; i < names.length; i++)
+                    names[i] = md.getColumnName(i + 1).toLowerCase();
+                final ColumnSchema schema = new ColumnSchema(names);
+                final int n = schema.size();
+                final String [] keys = new String[n];
+                final int [] cols = new int[n];
+                final Encoder [] encoders = new Encoder[n];
+                for (int c = 0; c < n; c++) {
+                    final StringWriter key = new StringWriter();
+                    if (c > 0)
+                        key.write(',');
+                    JSONObject.quote(schema.name(c), key);
+                    key.write(':');
+                    keys[c] = key.toString();
+                    cols[c] = schema.slotAt(c) + 1;
+                    encoders[c] = encoder(type, md.getColumnType(cols[c]));
+                }
+                w.write('[');
+                while (rs.next()) {
+                    if (rows++ > 0)
+                        w.write(',');
+                    w.write('{');
+                    for (int c = 0; c < n; c++) {
+                        w.write(keys[c]);
+                        encoders[c].write(rs, cols[c], w);
+                    }
+                    w.write('}');
+                }
+                w.write(']');
+            }
+            SqlStats.record(conn, sql, args, ps, start, rows, false);
+        } catch (SQLException | IOException | RuntimeException e) {
+            SqlStats.record(conn, sql, args, ps, start, rows, true);
+            throw e;
+        } finally {
+            if (ps != null)
+                try {
+                    ps.close();
+                } catch (SQLException ignore) {
+                }
+            if (restoreAutoCommit)
+                try {
+                    jconn.setAutoCommit(true);
+                } catch (SQLException ignore) {
+                }
+        }
+    }
+
+    private static Encoder encoder(Connection.ConnectionType type, int sqlType) {
+        if (sqlType == Types.TIMESTAMP_WITH_TIMEZONE)
+            return ZONED;  // the same as Cursor
+        if (type != Connection.ConnectionType.PostgreSQL && type != Connection.ConnectionType.MicrosoftServer)
+            return GENERIC;
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return INTEGER;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return STRING;
+            case Types.DATE:
+                return DATE;
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+            default:
+                return GENERIC;
+        }
+    }
+
+    /**
+     * Write a value the way <code>Record.toJSON</code> puts it into a JSONObject.
+     */
+    private static void writeObject(Object v, Writer w) throws IOException {
+        if (v instanceof java.util.Date)
+            w.write(Long.toString(((java.util.Date) v).getTime()));
+        else
+            JSONObject.writeValue(w, v);
+    }
+}
@@ -0,0 +1,196 @@
+package org.kissweb.database;
+
+import org.kissweb.json.JSONArray;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A growable list of <code>long</code> values that binds as an SQL array parameter (or an <code>IN</code>
+ * list) without boxing.
+ *
+ * @see PrimitiveList
+ */
+public final class LongList extends PrimitiveList {
+
+    private long [] data;
+
+    /**
+     * Create an empty list.
+     */
+    public LongList() {
+        data = new long[10];
+    }
+
+    /**
+     * Create an empty list with room for <code>capacity</code> elements.
+     *
+     * @param capacity the initial capacity
+     */
+    public LongList(int capacity) {
+        data = new long[capacity];
+    }
+
+    /**
+     * Create a list holding the given values.
+     *
+     * @param values the values
+     * @return the new list
+     */
+    public static LongList of(long ... values) {
+        final LongList lst = new LongList(values.length);
+        lst.addAll(values);
+        return lst;
+    }
+
+    /**
+     * Create a list from the numbers in a JSON array.  Numbers given as strings are parsed.
+     *
+     * @param arr the JSON array
+     * @return the new list
+     * @throws IllegalArgumentException if an element is null or not a number
+     */
+    public static LongList from(JSONArray arr) {
+        final int n = arr.length();
+        final LongList lst = new LongList(n);
+        for (int i = 0; i < n; i++) {
+            final Object v = arr.opt(i);
+            if (v instanceof Number)
+                lst.data[i] = ((Number) v).longValue();
+            else if (v instanceof String)
+                lst.data[i] = Long.parseLong(((String) v).trim());
+            else
+                throw new IllegalArgumentException("Element " + i + " is not a number");
+        }
+        lst.size = n;
+        return lst;
+    }
+
+    /**
+     * Append a value.
+     *
+     * @param v the value
+     */
+    public void add(long v) {
+        if (size == data.length)
+            data = Arrays.copyOf(data, grow(data.length, size + 1));
+        data[size++] = v;
+    }
+
+    /**
+     * Append values.
+     *
+     * @param values the values
+     */
+    public void addAll(long ... values) {
+        if (size + values.length > data.length)
+            data = Arrays.copyOf(data, grow(data.length, size + values.length));
+        System.arraycopy(values, 0, data, size, values.length);
+        size += values.length;
+    }
+
+    /**
+     * Returns the value at an index.
+     *
+     * @param i the index
+     * @return the value
+     */
+    public long get(int i) {
+        checkIndex(i);
+        return data[i];
+    }
+
+    /**
+     * Replace the value at an index.
+     *
+     * @param i the index
+     * @param v the new value
+     */
+    public void set(int i, long v) {
+        checkIndex(i);
+        data[i] = v;
+    }
+
+    /**
+     * Returns true if the list holds a value.
+     *
+     * @param v the value
+     * @return true if found
+     */
+    public boolean contains(long v) {
+        for (int i = 0; i < size; i++)
+            if (data[i] == v)
+                return true;
+        return false;
+    }
+
+    /**
+     * Sort the list into ascending order.
+     */
+    public void sort() {
+        Arrays.sort(data, 0, size);
+    }
+
+    /**
+     * Returns the values as a new array.
+     *
+     * @return the values
+     */
+    public long [] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @Override
+    String sqlType() {
+        return "bigint";
+    }
+
+    @Override
+    Object primitiveArray() {
+        return size == data.length ? data : toArray();
+    }
+
+    @Override
+    Object [] boxedArray() {
+        final Long [] a = new Long[size];
+        for (int i = 0; i < size; i++)
+            a[i] = data[i];
+        return a;
+    }
+
+    @Override
+    void appendLiteral(StringBuilder sb, int i) {
+        sb.append(data[i]);
+    }
+
+    @Override
+    public void writeJSON(Writer w) throws IOException {
+        final char [] buf = new char[20];
+        w.write('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                w.write(',');
+            writeNumber(w, buf, data[i]);
+        }
+        w.write(']');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof LongList))
+            return false;
+        final LongList other = (LongList) o;
+        return size == other.size && Arrays.equals(data, 0, size, other.data, 0, size);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++)
+            h = 31 * h + Long.hashCode(data[i]);
+        return h;
+    }
+}
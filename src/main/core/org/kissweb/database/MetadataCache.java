@@ -0,0 +1,172 @@
+package org.kissweb.database;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A process-wide cache of database catalog information (primary keys, columns, and table existence) shared by
+ * every <code>Connection</code>.
+ * <br><br>
+ * Kiss creates a new <code>Connection</code> for every web service request, so metadata cached in the connection
+ * itself only lasts for one request.  This cache lets all connections to the same database share what has already
+ * been read from <code>DatabaseMetaData</code>, so a table's catalog information is normally read once per process.
+ * <br><br>
+ * Entries are keyed by database (JDBC URL), schema, and table.  They expire after a time-to-live (10 minutes
+ * by default) and may be invalidated explicitly.  DDL statements (<code>create</code>, <code>alter</code>,
+ * <code>drop</code>) executed through Kiss invalidate everything cached for that database.
+ * <br><br>
+ * The time-to-live may be set in <code>application.ini</code> with <code>DatabaseMetadataCacheSeconds</code>.
+ * <br><br>
+ * This class is thread-safe.
+ */
+public final class MetadataCache {
+
+    /**
+     * Loads a metadata value from the database.
+     *
+     * @param <T> the type of value
+     */
+    @FunctionalInterface
+    interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    private static final String PRIMARY_KEYS = "pk";
+    private static final String COLUMNS = "col";
+    private static final String TABLE_EXISTS = "exists";
+
+    private static final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private static volatile long ttlNanos = TimeUnit.MINUTES.toNanos(10);
+
+    private MetadataCache() {
+    }
+
+    /**
+     * Set how long metadata is cached.
+     *
+     * @param seconds the time-to-live in seconds (0 disables caching)
+     */
+    public static void setTTL(long seconds) {
+        ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, seconds));
+        if (seconds <= 0)
+            entries.clear();
+    }
+
+    /**
+     * Discard everything cached about a table in every database and schema.
+     * This should be called after a table's structure is changed outside of Kiss.
+     *
+     * @param table the table name
+     */
+    public static void invalidate(String table) {
+        if (table != null)
+            entries.keySet().removeIf(k -> k.table.equalsIgnoreCase(table));
+    }
+
+    /**
+     * Discard everything cached.
+     */
+    public static void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Discard everything cached for one database.
+     *
+     * @param database the database key (see <code>Connection.metadataDatabase()</code>)
+     */
+    static void invalidateDatabase(String database) {
+        entries.keySet().removeIf(k -> k.database.equals(database));
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return the number of entries
+     */
+    public static int size() {
+        return entries.size();
+    }
+
+    static <T> T primaryKeys(String database, String schema, String table, Loader<T> loader) throws SQLException {
+        return get(new Key(PRIMARY_KEYS, database, schema, table), loader);
+    }
+
+    static <T> T columns(String database, String schema, String table, Loader<T> loader) throws SQLException {
+        return get(new Key(COLUMNS, database, schema, table), loader);
+    }
+
+    static <T> T tableExists(String database, String schema, String table, Loader<T> loader) throws SQLException {
+        return get(new Key(TABLE_EXISTS, database, schema, table), loader);
+    }
+
+    /**
+     * Returns true if the SQL statement changes the database structure.
+     */
+    static boolean isDDL(String sql) {
+        int i = 0;
+        final int len = sql.length();
+        while (i < len && Character.isWhitespace(sql.charAt(i)))
+            i++;
+        return sql.regionMatches(true, i, "create", 0, 6)
+                || sql.regionMatches(true, i, "alter", 0, 5)
+                || sql.regionMatches(true, i, "drop", 0, 4);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(Key key, Loader<T> loader) throws SQLException {
+        final long ttl = ttlNanos;
+        if (ttl == 0)
+            return loader.load();
+        final long now = System.nanoTime();
+        final Entry e = entries.get(key);
+        if (e != null && now - e.loaded < ttl)
+            return (T) e.value;
+        // Concurrent misses may each load the value; that is harmless and avoids holding a lock during I/O.
+        final T value = loader.load();
+        entries.put(key, new Entry(value, now));
+        return value;
+    }
+
+    private static final class Key {
+        final String kind;
+        final String database;
+        final String schema;
+        final String table;
+        private final int hash;
+
+        Key(String kind, String database, String schema, String table) {
+            this.kind = kind;
+            this.database = database == null ? "" : database;
+            this.schema = schema == null ? "" : schema;
+            this.table = table == null ? "" : table;
+            hash = ((kind.hashCode() * 31 + this.database.hashCode()) * 31 + this.schema.hashCode()) * 31 + this.table.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key k = (Key) o;
+            return hash == k.hash && kind.equals(k.kind) && table.equals(k.table) && schema.equals(k.schema) && database.equals(k.database);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long loaded;
+
+        Entry(Object value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.kissweb.database;
+
+import org.kissweb.json.JSONArray;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Encodes the sort key values of the last row of a page into an opaque, URL-safe token that the front-end passes
+ * back to get the next page (keyset pagination).
+ * <br><br>
+ * Each value is stored with its type so that it is bound with the same type when the token is decoded.  A token
+ * also carries a hash of the sort order it was created for, so a token can't be used with a different sort.
+ * Token values are only ever bound as statement parameters.
+ *
+ * @see QueryBuilder#fetchPage(int, String)
+ */
+final class PageToken {
+
+    private PageToken() {
+    }
+
+    /**
+     * Create a token.
+     *
+     * @param sortSpec a string that identifies the sort order
+     * @param values the sort key values of the last row returned
+     * @return the token
+     */
+    static String encode(String sortSpec, Object [] values) {
+        final JSONArray arr = new JSONArray();
+        arr.put(Integer.toHexString(sortSpec.hashCode()));
+        for (Object v : values) {
+            if (v == null)
+                throw new IllegalArgumentException("Keyset pagination sort columns can't be null");
+            final String type;
+            final String s;
+            if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+                type = "i";
+                s = v.toString();
+            } else if (v instanceof Number) {
+                type = "n";
+                s = v instanceof BigDecimal ? ((BigDecimal) v).toPlainString() : new BigDecimal(v.toString()).toPlainString();
+            } else if (v instanceof String || v instanceof Character) {
+                type = "s";
+                s = v.toString();
+            } else if (v instanceof Boolean) {
+                type = "b";
+                s = v.toString();
+            } else if (v instanceof java.sql.Date) {
+                type = "d";
+                s = v.toString();
+            } else if (v instanceof java.sql.Time) {
+                type = "tm";
+                s = v.toString();
+            } else if (v instanceof java.util.Date) {
+                type = "ts";
+                s = (v instanceof java.sql.Timestamp ? (java.sql.Timestamp) v : new java.sql.Timestamp(((java.util.Date) v).getTime())).toString();
+            } else if (v instanceof LocalDate) {
+                type = "ld";
+                s = v.toString();
+            } else if (v instanceof LocalDateTime) {
+                type = "ldt";
+                s = v.toString();
+            } else if (v instanceof OffsetDateTime || v instanceof ZonedDateTime) {
+                type = "odt";
+                s = (v instanceof ZonedDateTime ? ((ZonedDateTime) v).toOffsetDateTime() : v).toString();
+            } else if (v instanceof UUID) {
+                type = "u";
+                s = v.toString();
+            } else
+                throw new IllegalArgumentException("Keyset pagination doesn't support sort values of type " + v.getClass().getName());
+            arr.put(type);
+            arr.put(s);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(arr.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token.
+     *
+     * @param sortSpec a string that identifies the sort order (must match the one used to create the token)
+     * @param ncols the number of sort columns
+     * @param token the token
+     * @return the sort key values
+     * @throws SQLException if the token is invalid or was created for a different sort order
+     */
+    static Object [] decode(String sortSpec, int ncols, String token) throws SQLException {
+        final JSONArray arr;
+        try {
+            arr = new JSONArray(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new SQLException("Invalid page token");
+        }
+        if (arr.length() != 1 + ncols * 2 || !Integer.toHexString(sortSpec.hashCode()).equals(arr.getString(0)))
+            throw new SQLException("Page token does not match the query's sort order");
+        final Object [] values = new Object[ncols];
+        try {
+            for (int i = 0; i < ncols; i++) {
+                final String s = arr.getString(2 + i * 2);
+                switch (arr.getString(1 + i * 2)) {
+                    case "i":   values[i] = Long.parseLong(s); break;
+                    case "n":   values[i] = new BigDecimal(s); break;
+                    case "s":   values[i] = s; break;
+                    case "b":   values[i] = Boolean.parseBoolean(s); break;
+                    case "d":   values[i] = java.sql.Date.valueOf(s); break;
+                    case "tm":  values[i] = java.sql.Time.valueOf(s); break;
+                    case "ts":  values[i] = java.sql.Timestamp.valueOf(s); break;
+                    case "ld":  values[i] = LocalDate.parse(s); break;
+                    case "ldt": values[i] = LocalDateTime.parse(s); break;
+                    case "odt": values[i] = OffsetDateTime.parse(s); break;
+                    case "u":   values[i] = UUID.fromString(s); break;
+                    default:    throw new SQLException("Invalid page token");
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new SQLException("Invalid page token");
+        }
+        return values;
+    }
+}
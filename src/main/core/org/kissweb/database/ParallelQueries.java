@@ -0,0 +1,194 @@
+package org.kissweb.database;
+
+import org.kissweb.RequestContext;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs queries for a <code>Connection</code> concurrently on extra connections checked out from a source
+ * (normally the connection pool).  At most <code>max</code> extra connections are held at a time; further
+ * queries wait for one of them.  The extra connections are rolled back and released when the owning
+ * connection is closed.
+ *
+ * @see Connection#fetchAllAsync(String, Object...)
+ * @see Connection#setParallelSource(Callable, int)
+ */
+final class ParallelQueries {
+
+    /**
+     * A query to run on one of the extra connections.
+     */
+    @FunctionalInterface
+    interface Query<T> {
+        T run(Connection conn) throws Exception;
+    }
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "kiss-parallel-query");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Connection owner;
+    private final Callable<java.sql.Connection> source;
+    private final int max;
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+    private final List<Connection> all = new ArrayList<>();
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private int opening;
+    private boolean closed;
+
+    ParallelQueries(Connection owner, Callable<java.sql.Connection> source, int max) {
+        this.owner = owner;
+        this.source = source;
+        this.max = max;
+    }
+
+    /**
+     * Start a query on an extra connection.
+     */
+    <T> CompletableFuture<T> submit(Query<T> query) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Callable<T> task = RequestContext.wrap(() -> run(query));
+        pending.add(future);
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    pending.remove(future);
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.remove(future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> T run(Query<T> query) throws Exception {
+        final Connection helper = acquire();
+        boolean reusable = false;
+        try {
+            helper.setStatisticsLabel(owner.getStatisticsLabel());
+            final T result = query.run(helper);
+            // end the transaction so the connection doesn't hold locks or an old snapshot while idle
+            if (!helper.conn.getAutoCommit())
+                helper.conn.rollback();
+            reusable = true;
+            return result;
+        } finally {
+            release(helper, reusable);
+        }
+    }
+
+    private Connection acquire() throws Exception {
+        synchronized (this) {
+            while (true) {
+                if (closed)
+                    throw new SQLException("Connection has been closed");
+                final Connection c = idle.poll();
+                if (c != null)
+                    return c;
+                if (all.size() + opening < max)
+                    break;
+                wait();
+            }
+            opening++;
+        }
+        Connection helper = null;
+        try {
+            final java.sql.Connection sconn = source.call();
+            if (sconn == null)
+                throw new SQLException("No database connection available for a parallel query");
+            try {
+                sconn.setAutoCommit(false);
+                final String schema = owner.metadataSchema();
+                if (schema != null)
+                    sconn.setSchema(schema);
+                helper = new Connection(sconn);
+            } catch (SQLException | RuntimeException e) {
+                sconn.close();
+                throw e;
+            }
+        } finally {
+            synchronized (this) {
+                opening--;
+                if (helper != null)
+                    all.add(helper);
+                notifyAll();
+            }
+        }
+        return helper;
+    }
+
+    private void release(Connection helper, boolean reusable) {
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.push(helper);
+                notifyAll();
+                return;
+            }
+            all.remove(helper);
+            notifyAll();
+        }
+        discard(helper);
+    }
+
+    private static void discard(Connection helper) {
+        final java.sql.Connection sconn = helper.conn;
+        try {
+            if (sconn != null && !sconn.getAutoCommit())
+                sconn.rollback();
+        } catch (SQLException ignored) {
+        }
+        try {
+            helper.close();
+            if (sconn != null)
+                sconn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Wait for the queries still running and release the extra connections.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        for (CompletableFuture<?> f : new ArrayList<>(pending))
+            try {
+                f.join();
+            } catch (RuntimeException ignored) {
+                // the caller sees the failure through the future
+            }
+        final List<Connection> helpers;
+        synchronized (this) {
+            helpers = new ArrayList<>(all);
+            all.clear();
+            idle.clear();
+        }
+        for (Connection helper : helpers)
+            discard(helper);
+    }
+
+    /**
+     * Returns the number of extra connections currently held.
+     */
+    synchronized int connectionCount() {
+        return all.size();
+    }
+}
@@ -0,0 +1,148 @@
+package org.kissweb.database;
+
+import org.kissweb.json.JSONWritable;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+
+/**
+ * A growable list of primitive values that can be passed directly as an SQL parameter, like the
+ * <code>ArrayListType</code> classes but without boxing each element.  For example:
+ * <br><br>
+ * <code>
+ * &nbsp;&nbsp;&nbsp;&nbsp;IntList ids = new IntList();<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;...<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;List&lt;Record&gt; recs = db.fetchAll("select * from item where item_id = ANY(?)", ids);
+ * </code>
+ * <br><br>
+ * On PostgreSQL the list is bound as an SQL array straight from its primitive array.  The other databases have
+ * no usable array parameters, so a list used as <code>x = ANY(?)</code>, <code>x &lt;&gt; ALL(?)</code>,
+ * <code>x IN (?)</code>, or <code>x NOT IN (?)</code> is written into the statement as an <code>IN</code> list of
+ * literal values instead (the values are numbers, so this is safe).  Lists of more than 1,000 values are split
+ * into several <code>IN</code> lists joined with <code>OR</code> (<code>AND</code> for <code>NOT IN</code>) when
+ * <code>x</code> is a column name, since Oracle allows at most 1,000 values in a list.  On PostgreSQL,
+ * <code>x IN (?)</code> is changed to <code>x = ANY(?)</code>.
+ * <br><br>
+ * A list writes itself as a JSON array of numbers when put into a <code>JSONObject</code> or
+ * <code>JSONArray</code>, and may be created from a <code>JSONArray</code>, without boxing.
+ * <br><br>
+ * Lists are not thread-safe.
+ *
+ * @see IntList
+ * @see LongList
+ * @see ShortList
+ * @see ArrayListType
+ */
+public abstract class PrimitiveList implements JSONWritable {
+
+    /** The number of elements. */
+    int size;
+
+    PrimitiveList() {
+    }
+
+    /**
+     * Returns the number of elements in this list.
+     *
+     * @return the number of elements
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if this list has no elements.
+     *
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all the elements of this list.  Its capacity is kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    final void checkIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+    }
+
+    /**
+     * Returns the new capacity needed to hold <code>needed</code> elements.
+     */
+    static int grow(int capacity, int needed) {
+        if (needed < 0)
+            throw new OutOfMemoryError("List too large");
+        return Math.max(needed, capacity < 5 ? 10 : capacity + (capacity >> 1));
+    }
+
+    /**
+     * The SQL name of the element type.
+     */
+    abstract String sqlType();
+
+    /**
+     * Returns a primitive array of exactly <code>size</code> elements.
+     */
+    abstract Object primitiveArray();
+
+    /**
+     * Returns the elements boxed, for drivers that only accept object arrays.
+     */
+    abstract Object [] boxedArray();
+
+    /**
+     * Append element <code>i</code> as an SQL literal.
+     */
+    abstract void appendLiteral(StringBuilder sb, int i);
+
+    /**
+     * Create an SQL array parameter holding this list.
+     */
+    java.sql.Array toSQLArray(Connection conn) throws SQLException {
+        if (conn.getDBType() == Connection.ConnectionType.PostgreSQL)
+            return ArrayParams.createPostgreSQLArray(conn, sqlType(), primitiveArray());
+        return conn.conn.createArrayOf(sqlType(), boxedArray());
+    }
+
+    /**
+     * Write a number as JSON without creating a string.
+     */
+    static void writeNumber(Writer w, char [] buf, long v) throws IOException {
+        if (v == Long.MIN_VALUE) {
+            w.write("-9223372036854775808");
+            return;
+        }
+        int i = buf.length;
+        final boolean neg = v < 0;
+        if (neg)
+            v = -v;
+        do {
+            buf[--i] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (neg)
+            buf[--i] = '-';
+        w.write(buf, i, buf.length - i);
+    }
+
+    /**
+     * Returns the list as a JSON array.
+     */
+    @Override
+    public String toString() {
+        final StringWriter sw = new StringWriter();
+        try {
+            writeJSON(sw);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sw.toString();
+    }
+}
@@ -33,6 +33,7 @@
 package org.kissweb.database;
 
 import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
 
 import java.sql.SQLException;
 import java.util.*;
@@ -60,6 +61,16 @@
  *         .build();
  * </pre>
  *
+ * <b>Keyset pagination:</b>
+ * <pre>
+ *     QueryBuilder qb = db.newQueryBuilder()
+ *         .select("employee.last_name")
+ *         .select("employee.employee_id")
+ *         .orderBy("employee.last_name")
+ *         .orderBy("employee.employee_id");
+ *     JSONObject page = qb.fetchPageJSON(50, injson.getString("pageToken", null));
+ * </pre>
+ *
  * <b>Left join with aggregates:</b>
  * <pre>
  *     String sql = new QueryBuilder(graph)
@@ -109,6 +120,12 @@ private enum JoinType {
     private WhereGroup rootWhereGroup = new WhereGroup(GroupType.AND);
     private WhereGroup currentWhereGroup;
 
+    // Keyset pagination
+    private Object[] seekValues;
+    private String seekToken;
+    private Connection.ConnectionType seekDialect;
+    private String nextPageToken;
+
     // Populated by build()
     private String builtSQL;
     private List<Object> parameters;
@@ -817,6 +834,233 @@ public QueryBuilder limit(int max) {
         return this;
     }
 
+    // ---- KEYSET PAGINATION ----------------------------------------------------
+
+    /**
+     * Return only the rows that sort after the row with the given {@code orderBy} column values
+     * (keyset or "seek" pagination).
+     * <br><br>
+     * Unlike an offset, which makes the database read and discard every row before the page, this adds a
+     * condition on the sort columns so an index on them takes the database straight to the page.  Page
+     * 10,000 costs the same as page 1.
+     * <br><br>
+     * The values correspond, in order, to the {@code orderBy} / {@code orderByDesc} columns.  The sort columns
+     * must not be null, and the last one should be unique (such as the primary key) so that no two rows have
+     * the same sort values.  Keyset pagination can't be used with {@code groupBy} or {@code union}.
+     * <br><br>
+     * {@code fetchPage} reads the next page's values from the last row, so there each sort column must also be
+     * selected on its own (not through {@code *}) under a result name no other select column has.  Use an alias
+     * when two tables have a column of the same name.
+     *
+     * @param lastValues the sort column values of the last row of the previous page
+     * @return this builder for chaining
+     * @see #fetchPage(int, String)
+     */
+    public QueryBuilder after(Object... lastValues) {
+        seekValues = lastValues;
+        seekToken = null;
+        return this;
+    }
+
+    /**
+     * Return only the rows after the row encoded in a page token returned by {@link #getNextPageToken()}.
+     *
+     * @param pageToken the page token, or null for the first page
+     * @return this builder for chaining
+     * @see #after(Object...)
+     */
+    public QueryBuilder afterToken(String pageToken) {
+        seekToken = pageToken == null || pageToken.isEmpty() ? null : pageToken;
+        seekValues = null;
+        return this;
+    }
+
+    /**
+     * Returns the token for the page after the one last read by {@code fetchPage} or {@code fetchPageJSON},
+     * or null if there are no more rows.  The token is opaque and URL-safe; the front-end passes it back to
+     * get the next page.
+     *
+     * @return the next page token or null
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    /**
+     * Read one page of rows using keyset pagination.
+     *
+     * @param conn the database connection
+     * @param pageSize the maximum number of rows
+     * @param pageToken the token from the previous page, or null for the first page
+     * @return the rows of the page
+     * @throws Exception on database or query building errors
+     * @see #after(Object...)
+     * @see #getNextPageToken()
+     */
+    public List<Record> fetchPage(Connection conn, int pageSize, String pageToken) throws Exception {
+        final String[] names = seekResultNames();
+        afterToken(pageToken);
+        seekDialect = conn.getDBType();
+        // one extra row tells whether there is another page
+        final String sql = conn.limit(pageSize + 1, build());
+        final List<Record> rows = conn.fetchAll(sql, parameters.toArray());
+        return trimPage(rows, pageSize, names);
+    }
+
+    /**
+     * Read one page of rows using keyset pagination and the stored connection or command.
+     *
+     * @param pageSize the maximum number of rows
+     * @param pageToken the token from the previous page, or null for the first page
+     * @return the rows of the page
+     * @throws Exception on database or query building errors
+     * @throws IllegalStateException if no connection or command was stored
+     * @see #after(Object...)
+     * @see #getNextPageToken()
+     */
+    public List<Record> fetchPage(int pageSize, String pageToken) throws Exception {
+        if (storedCmd != null) {
+            final String[] names = seekResultNames();
+            afterToken(pageToken);
+            seekDialect = storedCmd.conn.getDBType();
+            final String sql = storedCmd.conn.limit(pageSize + 1, build());
+            return trimPage(storedCmd.fetchAll(sql, parameters.toArray()), pageSize, names);
+        }
+        if (storedConn == null)
+            throw new IllegalStateException("No connection available — use fetchPage(Connection, int, String) or create the QueryBuilder with a Connection or Command");
+        return fetchPage(storedConn, pageSize, pageToken);
+    }
+
+    /**
+     * Read one page of rows using keyset pagination and the stored connection or command, returning a
+     * {@code JSONObject} with the rows in {@code rows} and the token for the next page in {@code nextPageToken}
+     * (absent on the last page).  This is the form expected by {@code Server.pager()} on the front-end.
+     *
+     * @param pageSize the maximum number of rows
+     * @param pageToken the token from the previous page, or null for the first page
+     * @return the page
+     * @throws Exception on database or query building errors
+     */
+    public JSONObject fetchPageJSON(int pageSize, String pageToken) throws Exception {
+        final JSONObject page = new JSONObject();
+        page.put("rows", Record.toJSONArray(fetchPage(pageSize, pageToken)));
+        if (nextPageToken != null)
+            page.put("nextPageToken", nextPageToken);
+        return page;
+    }
+
+    private List<Record> trimPage(List<Record> rows, int pageSize, String[] names) throws SQLException {
+        nextPageToken = null;
+        if (rows.size() > pageSize) {
+            rows = new ArrayList<>(rows.subList(0, pageSize));
+            final Record last = rows.get(pageSize - 1);
+            final Object[] values = new Object[names.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = last.get(names[i]);
+            nextPageToken = PageToken.encode(sortSpec(), values);
+        }
+        return rows;
+    }
+
+    private String sortSpec() {
+        return String.join(",", orderByColumns).toLowerCase();
+    }
+
+    private static boolean isDescending(String orderBy) {
+        return orderBy.toUpperCase().endsWith(" DESC");
+    }
+
+    private static String sortColumn(String orderBy) {
+        final String upper = orderBy.toUpperCase();
+        if (upper.endsWith(" DESC"))
+            return orderBy.substring(0, orderBy.length() - 5).trim();
+        if (upper.endsWith(" ASC"))
+            return orderBy.substring(0, orderBy.length() - 4).trim();
+        return orderBy;
+    }
+
+    /**
+     * Returns the names the sort columns have in the result set.
+     *
+     * @throws SQLException if a sort column isn't selected on its own or its result name isn't unique
+     */
+    private String[] seekResultNames() throws SQLException {
+        if (orderByColumns.isEmpty())
+            throw new SQLException("QueryBuilder: keyset pagination requires orderBy");
+        final int n = selectColumns.size();
+        final String[] exprs = new String[n];
+        final String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            final String col = selectColumns.get(i);
+            final Matcher m = SELECT_ALIAS.matcher(col);
+            final boolean aliased = m.matches();
+            final String expr = aliased ? m.group(1) : col;
+            if (expr.endsWith("*"))
+                throw new SQLException("QueryBuilder: keyset pagination can't be used with " + col +
+                        "; select the columns explicitly");
+            exprs[i] = normalizeName(expr);
+            names[i] = aliased ? normalizeName(m.group(2)) : exprs[i].substring(exprs[i].lastIndexOf('.') + 1);
+        }
+        final String[] result = new String[orderByColumns.size()];
+        for (int i = 0; i < result.length; i++) {
+            final String sort = sortColumn(orderByColumns.get(i));
+            final String expr = normalizeName(sort);
+            for (int j = 0; j < n && result[i] == null; j++)
+                if (exprs[j].equals(expr))
+                    result[i] = names[j];
+            if (result[i] == null)
+                throw new SQLException("QueryBuilder: keyset pagination requires the sort column " + sort + " to be selected");
+            int uses = 0;
+            for (String name : names)
+                if (name.equals(result[i]))
+                    uses++;
+            if (uses > 1)
+                throw new SQLException("QueryBuilder: more than one select column is named " + result[i] +
+                        "; give the sort column " + sort + " an alias");
+        }
+        return result;
+    }
+
+    private static final Pattern SELECT_ALIAS = Pattern.compile("(?is)(.+?)\\s+AS\\s+(\\S+)");
+
+    /**
+     * Returns a column reference without quotes, in lower case.
+     */
+    private static String normalizeName(String col) {
+        return col.replace("\"", "").replace("`", "").replaceAll("\\s*\\.\\s*", ".").trim().toLowerCase();
+    }
+
+    /**
+     * Returns the keyset condition for the current seek position, adding its parameters, or null if not seeking.
+     */
+    private String buildSeekCondition(List<Object> params) throws SQLException {
+        if (seekValues == null && seekToken == null)
+            return null;
+        if (orderByColumns.isEmpty())
+            throw new SQLException("QueryBuilder: keyset pagination requires orderBy");
+        if (!groupByColumns.isEmpty() || !unions.isEmpty())
+            throw new SQLException("QueryBuilder: keyset pagination can't be used with groupBy or union");
+        final int n = orderByColumns.size();
+        final Object[] values = seekValues != null ? seekValues : PageToken.decode(sortSpec(), n, seekToken);
+        if (values.length != n)
+            throw new SQLException("QueryBuilder: expected " + n + " keyset values but got " + values.length);
+        final String[] cols = new String[n];
+        final boolean[] desc = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            cols[i] = sortColumn(orderByColumns.get(i));
+            desc[i] = isDescending(orderByColumns.get(i));
+        }
+        return Connection.seekCondition(seekDialect(), cols, desc, values, params);
+    }
+
+    private Connection.ConnectionType seekDialect() {
+        if (seekDialect != null)
+            return seekDialect;
+        if (storedCmd != null)
+            return storedCmd.conn.getDBType();
+        return storedConn != null ? storedConn.getDBType() : null;
+    }
+
     // ---- CTE (WITH ... AS) ----------------------------------------------------
 
     /**
@@ -873,14 +1117,140 @@ public QueryBuilder unionAll(QueryBuilder other) {
     /**
      * Build the SQL query string.  After calling this method,
      * {@link #getParameters()} returns the ordered parameter values.
+     * <br><br>
+     * The generated SQL depends only on the structure of the query (its columns, conditions, joins, and so on),
+     * not on the parameter values, so it is cached in the {@link SchemaGraph} under a structural fingerprint.
+     * Building the same query shape again only collects the new parameter values.
      *
      * @return the generated SQL string
      * @throws SQLException if no join path exists between the referenced tables
+     * @see SchemaGraph#getQueryCacheHitRate()
      */
     public String build() throws SQLException {
         if (selectColumns.isEmpty())
             throw new SQLException("QueryBuilder: at least one select column is required");
 
+        final StringBuilder fp = new StringBuilder(256);
+        fingerprint(fp);
+        final String fingerprint = fp.toString();
+        final String cached = graph.getCompiledQuery(fingerprint);
+        if (cached != null) {
+            parameters = new ArrayList<>();
+            collectParameters(parameters);
+            builtSQL = cached;
+            return cached;
+        }
+        buildSQL();
+        graph.putCompiledQuery(fingerprint, builtSQL);
+        return builtSQL;
+    }
+
+    /**
+     * Append a description of everything that determines the generated SQL (but not the parameter values).
+     */
+    private void fingerprint(StringBuilder sb) {
+        sb.append(distinct ? 'D' : 'S');
+        appendList(sb, selectColumns);
+        fingerprint(rootWhereGroup, sb);
+        appendList(sb, orderByColumns);
+        appendList(sb, groupByColumns);
+        for (WhereClause hc : havingClauses)
+            sb.append(hc.condition).append('\u0001');
+        sb.append('\u0002');
+        for (ExplicitJoin ej : explicitJoins) {
+            sb.append(ej.joinType).append(' ').append(ej.fromTable).append(Arrays.toString(ej.fromColumns));
+            sb.append(ej.toTable).append(Arrays.toString(ej.toColumns)).append(' ').append(ej.alias).append('\u0001');
+        }
+        sb.append('\u0002').append(new TreeMap<>(aliasToTable)).append(new TreeMap<>(joinTypeOverrides));
+        for (CTE cte : ctes) {
+            sb.append(cte.name).append('(');
+            if (cte.subquery != null)
+                cte.subquery.nestedFingerprint(sb);
+            else
+                sb.append(cte.rawSQL);
+            sb.append(')');
+        }
+        sb.append('\u0002');
+        for (UnionClause uc : unions) {
+            sb.append(uc.all ? "UA(" : "U(");
+            uc.query.nestedFingerprint(sb);
+            sb.append(')');
+        }
+        if (seekValues != null || seekToken != null)
+            sb.append("K").append(seekDialect());
+    }
+
+    private void nestedFingerprint(StringBuilder sb) {
+        // a subquery built with a different graph may join differently
+        sb.append(System.identityHashCode(graph)).append(':');
+        fingerprint(sb);
+    }
+
+    private static void fingerprint(WhereNode node, StringBuilder sb) {
+        if (node instanceof WhereLeaf)
+            sb.append(((WhereLeaf) node).condition).append('\u0001');
+        else if (node instanceof WhereSubquery) {
+            sb.append(((WhereSubquery) node).prefix).append('(');
+            ((WhereSubquery) node).subquery.nestedFingerprint(sb);
+            sb.append(')');
+        } else if (node instanceof WhereRawSubquery)
+            sb.append(((WhereRawSubquery) node).sql).append('\u0001');
+        else if (node instanceof WhereGroup) {
+            final WhereGroup group = (WhereGroup) node;
+            sb.append(group.type).append('[');
+            for (WhereNode child : group.children)
+                fingerprint(child, sb);
+            sb.append(']');
+        }
+    }
+
+    private static void appendList(StringBuilder sb, List<String> list) {
+        for (String s : list)
+            sb.append(s).append('\u0001');
+        sb.append('\u0002');
+    }
+
+    /**
+     * Collect the parameter values in the order <code>buildSQL</code> does, without generating the SQL.
+     */
+    private void collectParameters(List<Object> params) throws SQLException {
+        for (CTE cte : ctes)
+            if (cte.subquery != null) {
+                cte.subquery.build();
+                params.addAll(cte.subquery.getParameters());
+            } else if (cte.params != null)
+                Collections.addAll(params, cte.params);
+        collectWhereParameters(rootWhereGroup, params);
+        buildSeekCondition(params);
+        for (WhereClause hc : havingClauses)
+            if (hc.params != null)
+                Collections.addAll(params, hc.params);
+        for (UnionClause uc : unions) {
+            uc.query.build();
+            params.addAll(uc.query.getParameters());
+        }
+    }
+
+    private static void collectWhereParameters(WhereNode node, List<Object> params) throws SQLException {
+        if (node instanceof WhereLeaf) {
+            if (((WhereLeaf) node).params != null)
+                Collections.addAll(params, ((WhereLeaf) node).params);
+        } else if (node instanceof WhereSubquery) {
+            final QueryBuilder sub = ((WhereSubquery) node).subquery;
+            sub.build();
+            params.addAll(sub.getParameters());
+        } else if (node instanceof WhereRawSubquery) {
+            if (((WhereRawSubquery) node).params != null)
+                Collections.addAll(params, ((WhereRawSubquery) node).params);
+        } else if (node instanceof WhereGroup)
+            for (WhereNode child : ((WhereGroup) node).children)
+                collectWhereParameters(child, params);
+    }
+
+    /**
+     * Generate the SQL (the uncached part of <code>build</code>).
+     */
+    private void buildSQL() throws SQLException {
         parameters = new ArrayList<>();
 
         // 1. Collect all referenced tables
@@ -1044,8 +1414,13 @@ public String build() throws SQLException {
 
         // WHERE
         String whereSQL = buildWhereTree(rootWhereGroup, parameters);
-        if (whereSQL != null)
+        String seekSQL = buildSeekCondition(parameters);
+        if (whereSQL != null && seekSQL != null)
+            sql.append(" WHERE (").append(whereSQL).append(") AND ").append(seekSQL);
+        else if (whereSQL != null)
             sql.append(" WHERE ").append(whereSQL);
+        else if (seekSQL != null)
+            sql.append(" WHERE ").append(seekSQL);
 
         // GROUP BY
         if (!groupByColumns.isEmpty()) {
@@ -1089,7 +1464,6 @@ public String build() throws SQLException {
         }
 
         builtSQL = sql.toString();
-        return builtSQL;
     }
 
     /**
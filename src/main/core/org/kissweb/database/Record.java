@@ -36,7 +36,11 @@
 import org.kissweb.json.JSONObject;
 import org.kissweb.ArrayUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.*;
 import java.time.Instant;
 import java.time.ZonedDateTime;
@@ -54,6 +58,10 @@
  *  &nbsp;&nbsp;&nbsp;&nbsp;   <code>Record rec = db.newRecord('myTable');</code>
  *<br><br>
  *     where <code>db</code> is a <code>Connection</code> instance.
+ * <br><br>
+ * Column values are held in an array indexed through a column schema that is shared by all the records of a query.
+ * Changes are tracked per column so that <code>update()</code> only writes columns whose values actually changed
+ * (by value, not by reference).
  *
  * @see Connection#newRecord(String)
  * @see Connection#fetchAll(String, Object...)
@@ -63,12 +71,18 @@
  * @author Blake McBride
  */
 public class Record implements AutoCloseable {
-    LinkedHashMap<String,Object> cols;       // current column values
-    private HashMap<String,Object> ocols;    // original column values
+    private static final Object [] NO_VALUES = new Object[0];
+
+    private ColumnSchema schema;             // column name to value slot
+    private boolean sharedSchema;            // schema belongs to a cursor (copy before adding columns)
+    private Object [] values;                // current column values (same array as original until first change)
+    private Object [] original;              // values as read or last written, or null if never read or written
+    private BitSet dirty;                    // slots changed since read or last written
     private final Connection conn;
     private Cursor cursor;
     private final String table;
     private PreparedStatement pstmt;
+    private String pstmtSQL;                 // the SQL of pstmt
 
 
     /**
@@ -79,16 +93,174 @@ public class Record implements AutoCloseable {
     public Record(Connection c, String tbl) {
         conn = c;
         table = tbl.toLowerCase();
-        cols = new LinkedHashMap<>();
+        schema = new ColumnSchema();
+        values = NO_VALUES;
     }
 
     // Intended to be used internally only.
-    Record(Connection c, Cursor cursor, HashMap<String,Object> ocols, LinkedHashMap<String,Object> cols) {
+    Record(Connection c, Cursor cursor, ColumnSchema schema, Object [] row) {
         conn = c;
         this.cursor = cursor;
         table = (cursor != null) ? cursor.getTableName() : null;
-        this.ocols = ocols;
-        this.cols = cols;
+        this.schema = schema;
+        sharedSchema = true;
+        values = original = row;
+    }
+
+    /**
+     * Set a column value.
+     *
+     * @param name the lower case column name
+     * @param val the new value
+     * @return this
+     */
+    Record put(String name, Object val) {
+        int slot = schema.slot(name);
+        if (slot < 0) {
+            if (sharedSchema) {
+                schema = schema.copy();
+                sharedSchema = false;
+            }
+            slot = schema.add(name);
+        }
+        if (values == original)
+            values = Arrays.copyOf(original, Math.max(schema.width(), original.length));
+        else if (slot >= values.length)
+            values = Arrays.copyOf(values, Math.max(schema.width(), values.length * 2));
+        values[slot] = val;
+        if (original != null && slot < original.length && sameValue(original[slot], val)) {
+            if (dirty != null)
+                dirty.clear(slot);
+        } else {
+            if (dirty == null)
+                dirty = new BitSet();
+            dirty.set(slot);
+        }
+        return this;
+    }
+
+    /**
+     * Returns true if two column values are the same for the purposes of deciding whether a column changed.
+     */
+    private static boolean sameValue(Object a, Object b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null)
+            return false;
+        if (a instanceof BigDecimal && b instanceof BigDecimal)
+            return ((BigDecimal) a).compareTo((BigDecimal) b) == 0;
+        if (a instanceof java.util.Date && b instanceof java.util.Date) {
+            if (a.getClass() != b.getClass())
+                return false;
+            if (a instanceof Timestamp)
+                return a.equals(b);
+            return ((java.util.Date) a).getTime() == ((java.util.Date) b).getTime();
+        }
+        if (a.getClass().isArray() && b.getClass().isArray())
+            return Objects.deepEquals(a, b);
+        return a.equals(b);
+    }
+
+    /**
+     * Mark the current values as those in the database.
+     */
+    void markClean() {
+        original = values;
+        dirty = null;
+    }
+
+    /**
+     * Mark the values <code>written</code> (a copy of this record's values taken when it was queued to be written)
+     * as those in the database.  Columns changed since the copy was taken stay changed.
+     *
+     * @param written the values written
+     * @param key the name of a generated key column to store, or null
+     * @param keyValue the generated key
+     */
+    void markWritten(Object [] written, String key, Object keyValue) {
+        if (key != null) {
+            put(key, keyValue);
+            final int slot = schema.slot(key);
+            if (slot >= written.length)
+                written = Arrays.copyOf(written, slot + 1);
+            written[slot] = keyValue;
+        }
+        BitSet changed = null;
+        for (int i = 0; i < values.length; i++)
+            if (!sameValue(i < written.length ? written[i] : null, values[i])) {
+                if (changed == null)
+                    changed = new BitSet();
+                changed.set(i);
+            }
+        if (changed == null)
+            markClean();
+        else {
+            original = written;
+            dirty = changed;
+        }
+    }
+
+    ColumnSchema columnSchema() {
+        return schema;
+    }
+
+    Object [] rowValues() {
+        return values;
+    }
+
+    Object value(String name) {
+        final int slot = schema.slot(name);
+        return slot < 0 || slot >= values.length ? null : values[slot];
+    }
+
+    Object originalValue(String name) {
+        if (original == null)
+            return value(name);
+        final int slot = schema.slot(name);
+        return slot < 0 || slot >= original.length ? null : original[slot];
+    }
+
+    /**
+     * Returns the names of the columns that have a value (the columns an insert would write).
+     */
+    String [] nonNullColumns() {
+        final String [] cols = new String[schema.size()];
+        int n = 0;
+        for (int c = 0; c < cols.length; c++) {
+            final int slot = schema.slotAt(c);
+            if (slot < values.length && values[slot] != null)
+                cols[n++] = schema.name(c);
+        }
+        return n == cols.length ? cols : Arrays.copyOf(cols, n);
+    }
+
+    /**
+     * Returns the names of the columns changed since the record was read or last written.
+     */
+    String [] changedColumns() {
+        if (dirty == null || dirty.isEmpty())
+            return new String[0];
+        final String [] cols = new String[schema.size()];
+        int n = 0;
+        for (int c = 0; c < cols.length; c++)
+            if (dirty.get(schema.slotAt(c)))
+                cols[n++] = schema.name(c);
+        return Arrays.copyOf(cols, n);
+    }
+
+    /**
+     * Bind a column value the same way <code>addRecord</code> and <code>update</code> do.
+     */
+    static void bindValue(Connection conn, PreparedStatement ps, int i, Object val) throws SQLException {
+        if (val instanceof Binder) {
+            ((Binder) val).bind(ps, i);
+            return;
+        }
+        final Array a = makeSQLArray(conn, val);
+        if (a == null)
+            ps.setObject(i, Connection.fixDate(val));
+        else
+            ps.setArray(i, a);
     }
 
     /**
@@ -103,7 +275,7 @@ public Record(Connection c, String tbl) {
      * @see #setDateTime(String, java.util.Date)
      */
     public Record set(String name, Object val) {
-        cols.put(name.toLowerCase(), val);
+        put(name.toLowerCase(), val);
         return this;
     }
 
@@ -121,7 +293,7 @@ public Record set(String name, Object val) {
      * @see #setTime(String, long)
      */
     public Record setDateOnly(String name, java.util.Date val) {
-        cols.put(name.toLowerCase(), val == null ? null : new java.sql.Date(val.getTime()));
+        put(name.toLowerCase(), val == null ? null : new java.sql.Date(val.getTime()));
         return this;
     }
 
@@ -140,14 +312,14 @@ public Record setDateOnly(String name, java.util.Date val) {
      */
     public Record setDateOnly(String name, int dat) {
         if (dat == 0) {
-            cols.put(name.toLowerCase(), null);
+            put(name.toLowerCase(), null);
             return this;
         }
         int y = dat / 10000;
         int m = (dat % 10000) / 100;
         int d = dat % 100;
         java.util.Date val = new GregorianCalendar(y, m-1, d).getTime();
-        cols.put(name.toLowerCase(), new java.sql.Date(val.getTime()));
+        put(name.toLowerCase(), new java.sql.Date(val.getTime()));
         return this;
     }
 
@@ -165,11 +337,11 @@ public Record setDateOnly(String name, int dat) {
      */
     public Record setTime(String name, long dat) {
         if (dat == 0) {
-            cols.put(name.toLowerCase(), null);
+            put(name.toLowerCase(), null);
             return this;
         }
         java.util.Date val = new java.util.Date(dat);
-        cols.put(name.toLowerCase(), new java.sql.Time(val.getTime()));
+        put(name.toLowerCase(), new java.sql.Time(val.getTime()));
         return this;
     }
 
@@ -222,7 +394,7 @@ public Record setDateTime(String name, ZonedDateTime val) {
      * @see #set(String, Object)
      */
     public Record setDateTime(String name, long val) {
-        cols.put(name.toLowerCase(), val == 0L ? null : new java.sql.Timestamp(val));
+        put(name.toLowerCase(), val == 0L ? null : new java.sql.Timestamp(val));
         return this;
     }
 
@@ -242,10 +414,10 @@ public Record setDateTime(String name, long val) {
      */
     public Object get(String cname) throws SQLException {
         cname = cname.toLowerCase();
-        if (cols.containsKey(cname))
-            return cols.get(cname);
-        else
+        final int slot = schema.slot(cname);
+        if (slot < 0)
             throw new SQLException("Column " + cname + " not found.");
+        return slot < values.length ? values[slot] : null;
     }
 
     /**
@@ -268,7 +440,7 @@ public Boolean getBoolean(String cname) throws SQLException {
      * @throws SQLException if an error occurs while checking
      */
     public boolean columnExists(String cname) throws SQLException {
-        return cols.containsKey(cname.toLowerCase());
+        return schema.slot(cname.toLowerCase()) >= 0;
     }
 
     /**
@@ -635,16 +807,55 @@ public Character getChar(String cname) throws SQLException {
         return ArrayUtils.toPrimitiveByteArray((Byte[]) ba);
     }
 
+    /**
+     * Return an <code>InputStream</code> over the binary value of the named column.
+     * A <code>null</code> is returned on <code>null</code> valued columns.
+     * <br><br>
+     * If the record is the current row of a streaming cursor and the column was named in
+     * <code>Cursor.streamColumns</code>, the data is read from the database as the stream is read and the stream
+     * is only valid until the cursor moves on.  Otherwise, the stream reads the <code>byte[]</code> value without
+     * copying it.
+     *
+     * @param cname the column name
+     * @return the stream, or null if the column value is null
+     * @throws SQLException if the column is not found or cannot be read
+     *
+     * @see Cursor#streamColumns(String...)
+     * @see #getByteArray(String)
+     */
+    public InputStream getBinaryStream(String cname) throws SQLException {
+        if (cursor != null && cursor.isStreamedColumn(cname))
+            return cursor.openColumnStream(this, cname);
+        final byte [] ba = getByteArray(cname);
+        return ba == null ? null : new ByteArrayInputStream(ba);
+    }
+
+    /**
+     * Return a <code>ReadableByteChannel</code> over the binary value of the named column.
+     * A <code>null</code> is returned on <code>null</code> valued columns.
+     *
+     * @param cname the column name
+     * @return the channel, or null if the column value is null
+     * @throws SQLException if the column is not found or cannot be read
+     *
+     * @see #getBinaryStream(String)
+     */
+    public ReadableByteChannel getBinaryChannel(String cname) throws SQLException {
+        final InputStream is = getBinaryStream(cname);
+        return is == null ? null : Channels.newChannel(is);
+    }
+
     /**
      * Erases all the column information associated with a <code>Record</code> instance.
      *
      * @return this
      */
     public Record clear() {
-        if (cols != null)
-            cols.clear();
-        if (ocols != null)
-            ocols.clear();
+        schema = new ColumnSchema();
+        sharedSchema = false;
+        values = NO_VALUES;
+        original = values;
+        dirty = null;
         return this;
     }
 
@@ -663,10 +874,12 @@ public void update() throws SQLException {
         if (table == null)
             throw new RuntimeException("Can't update record; no table name");
         final ArrayList<AbstractMap.SimpleEntry<String,Object>> cf = new ArrayList<>();
-        cols.forEach((key, val) -> {
-            if (!ocols.containsKey(key) || ocols.get(key) != val)
-                cf.add(new AbstractMap.SimpleEntry<>(key, val));
-        });
+        if (dirty != null)
+            for (int c = 0; c < schema.size(); c++) {
+                final int slot = schema.slotAt(c);
+                if (dirty.get(slot))
+                    cf.add(new AbstractMap.SimpleEntry<>(schema.name(c), values[slot]));
+            }
         if (!cf.isEmpty()) {
             final StringBuilder sql = new StringBuilder("update " + table + " set ");
             boolean needComma = false;
@@ -735,11 +948,10 @@ public void update() throws SQLException {
             else
                 pcols = cursor.cmd.getPriColumns(cursor);
             for (String pcol : pcols)
-                pstmt.setObject(i++, Connection.fixDate(ocols.get(pcol)));
-            pstmt.execute();
+                pstmt.setObject(i++, Connection.fixDate(originalValue(pcol)));
+            executeDML(pstmt, sql.toString());
             // now update our memory of the original values
-            ocols.clear();
-            ocols.putAll(cols);
+            markClean();
             if (cursor == null)
                 pstmt.close();
         }
@@ -781,10 +993,10 @@ public void delete() throws SQLException {
                 int i = 1;
                 for (String pcol : conn.getPrimaryColumns(table)) {
                     if (i == 1)
-                        pkval = cols.get(pcol);
-                    ustmt.setObject(i++, Connection.fixDate(cols.get(pcol)));
+                        pkval = value(pcol);
+                    ustmt.setObject(i++, Connection.fixDate(value(pcol)));
                 }
-                ustmt.execute();
+                executeDML(ustmt, sql.toString());
             }
             if (conn.deleteCallback != null && ncpkey == 1)
                 conn.deleteCallback.accept(table, pkval);
@@ -813,14 +1025,40 @@ public void delete() throws SQLException {
         int i = 1;
         for (String pcol : cursor.cmd.getPriColumns(cursor)) {
             if (i == 1)
-                pkval = cols.get(pcol);
-            cursor.pstmt.setObject(i++, Connection.fixDate(ocols.get(pcol)));
+                pkval = value(pcol);
+            cursor.pstmt.setObject(i++, Connection.fixDate(originalValue(pcol)));
         }
-        cursor.pstmt.execute();
+        executeDML(cursor.pstmt, sql.toString());
         if (conn.deleteCallback != null && ncpkey == 1)
             conn.deleteCallback.accept(table, pkval);
     }
 
+    /**
+     * Inserts the record, or updates the existing row with the same primary key, in a single statement.
+     * This replaces reading the row first and then calling <code>update()</code> or <code>addRecord()</code>.
+     * <br><br>
+     * The columns with non-null values are written, as with <code>addRecord()</code>, and every primary key column
+     * must have a value.  PostgreSQL and SQLite use <code>insert ... on conflict</code>, MySQL uses
+     * <code>insert ... on duplicate key update</code>, and Microsoft SQL Server and Oracle use <code>merge</code>.
+     * It does not affect any cursors.
+     *
+     * @throws SQLException if an error occurs, or a primary key column has no value
+     * @see BatchWriter#upsert(Record)
+     * @see Connection#commit()
+     */
+    public void upsert() throws SQLException {
+        if (table == null)
+            throw new RuntimeException("Can't upsert record; no table name");
+        final String [] cols = nonNullColumns();
+        final String sql = Upsert.sql(conn.getDBType(), table, cols, conn.getPrimaryColumns(table), 1);
+        try (PreparedStatement ps = conn.conn.prepareStatement(sql)) {
+            for (int i = 0; i < cols.length; i++)
+                bindValue(conn, ps, i + 1, value(cols[i]));
+            executeDML(ps, sql);
+        }
+        markClean();
+    }
+
     /**
      * Works like addRecord() except that it returns the value of the serial/primary key column
      * that the database used for the new record.
@@ -835,24 +1073,19 @@ public Object addRecordAutoInc() throws SQLException {
         if (pstmt == null) {
             final StringBuilder sql = new StringBuilder("insert into " + table + " (");
             boolean needComma = false;
-            for (String fld : cols.keySet())
-                if (cols.get(fld) != null) {
+            int nvals = 0;
+            for (int c = 0; c < schema.size(); c++)
+                if (values[schema.slotAt(c)] != null) {
                     if (needComma)
                         sql.append(", ");
                     else
                         needComma = true;
-                    sql.append(fld);
+                    sql.append(schema.name(c));
+                    nvals++;
                 }
             sql.append(") values (");
-            needComma = false;
-            for (Object v : cols.values())
-                if (v != null)
-                    if (needComma)
-                        sql.append(", ?");
-                    else {
-                        needComma = true;
-                        sql.append("?");
-                    }
+            for (int c = 0; c < nvals; c++)
+                sql.append(c == 0 ? "?" : ", ?");
             sql.append(")");
 //            if (conn.ctype == Connection.ConnectionType.PostgreSQL)
 //                sql.append(" returning " + colname);
@@ -860,11 +1093,12 @@ public Object addRecordAutoInc() throws SQLException {
 //                sql.append("; SELECT SCOPE_IDENTITY();");
 //            else
 //                throw new SQLException("serial column support not added to this database type yet.");
-            pstmt = conn.conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+            pstmt = conn.conn.prepareStatement(pstmtSQL = sql.toString(), Statement.RETURN_GENERATED_KEYS);
         } else
             pstmt.clearParameters();
         int i = 1;
-        for (Object val : cols.values()) {
+        for (int c = 0; c < schema.size(); c++) {
+            final Object val = values[schema.slotAt(c)];
             if (val != null) {
                 Array a = makeSQLArray(conn, val);
                 if (a == null)
@@ -874,7 +1108,16 @@ public Object addRecordAutoInc() throws SQLException {
             }
         }
 //        ResultSet rset = pstmt.executeQuery();
-        pstmt.executeUpdate();
+        conn.noteWrite(table);
+        final long start = SqlStats.start();
+        final int nrows;
+        try {
+            nrows = pstmt.executeUpdate();
+        } catch (SQLException e) {
+            SqlStats.record(conn, pstmtSQL, null, pstmt, start, 0, true);
+            throw e;
+        }
+        SqlStats.record(conn, pstmtSQL, null, pstmt, start, nrows, false);
         Object nextId;
         try (ResultSet rset = pstmt.getGeneratedKeys()) {
             if (rset.next())
@@ -885,13 +1128,9 @@ public Object addRecordAutoInc() throws SQLException {
 
         //  update the column value
         final List<String> pcols = conn.getPrimaryColumns(table);
-        cols.put(pcols.get(0), nextId);
+        put(pcols.get(0), nextId);
 
-        if (ocols == null)
-            ocols = new HashMap<>();
-        else
-            ocols.clear();
-        ocols.putAll(cols);
+        markClean();
         return nextId;
     }
 
@@ -924,30 +1163,26 @@ public boolean addRecord() throws SQLException {
         if (pstmt == null) {
             final StringBuilder sql = new StringBuilder("insert into " + table + " (");
             boolean needComma = false;
-            for (String fld : cols.keySet())
-                if (cols.get(fld) != null) {
+            int nvals = 0;
+            for (int c = 0; c < schema.size(); c++)
+                if (values[schema.slotAt(c)] != null) {
                     if (needComma)
                         sql.append(", ");
                     else
                         needComma = true;
-                    sql.append(fld);
+                    sql.append(schema.name(c));
+                    nvals++;
                 }
             sql.append(") values (");
-            needComma = false;
-            for (Object v : cols.values())
-                if (v != null)
-                    if (needComma)
-                        sql.append(", ?");
-                    else {
-                        needComma = true;
-                        sql.append("?");
-                    }
+            for (int c = 0; c < nvals; c++)
+                sql.append(c == 0 ? "?" : ", ?");
             sql.append(")");
-            pstmt = conn.conn.prepareStatement(sql.toString());
+            pstmt = conn.conn.prepareStatement(pstmtSQL = sql.toString());
         } else
             pstmt.clearParameters();
         int i = 1;
-        for (Object val : cols.values()) {
+        for (int c = 0; c < schema.size(); c++) {
+            final Object val = values[schema.slotAt(c)];
             if (val != null) {
                 Array a = makeSQLArray(conn, val);
                 if (a != null)
@@ -958,13 +1193,8 @@ else if (val instanceof Binder)
                     pstmt.setObject(i++, Connection.fixDate(val));
             }
         }
-        boolean ret = pstmt.execute();
-        if (ocols == null)
-            ocols = new HashMap<>();
-        else
-            ocols.clear();
-        for (String key : cols.keySet())
-            ocols.put(key, cols.get(key));
+        boolean ret = executeDML(pstmt, pstmtSQL);
+        markClean();
         return ret;
     }
 
@@ -988,9 +1218,25 @@ else if (val instanceof Binder)
      * @see ArrayListLong
      * @see ArrayListShort
      * @see ArrayListString
+     * @see PrimitiveList
      */
     @SuppressWarnings("unchecked")
     static Array makeSQLArray(Connection conn, Object a) throws SQLException {
+        if (a instanceof PrimitiveList)
+            return ((PrimitiveList) a).toSQLArray(conn);
+        if (conn.getDBType() == Connection.ConnectionType.PostgreSQL) {
+            // the PostgreSQL driver takes primitive arrays as they are
+            if (a instanceof int[])
+                return ArrayParams.createPostgreSQLArray(conn, "integer", a);
+            if (a instanceof long[])
+                return ArrayParams.createPostgreSQLArray(conn, "bigint", a);
+            if (a instanceof short[])
+                return ArrayParams.createPostgreSQLArray(conn, "smallint", a);
+            if (a instanceof float[])
+                return ArrayParams.createPostgreSQLArray(conn, "real", a);
+            if (a instanceof double[])
+                return ArrayParams.createPostgreSQLArray(conn, "double precision", a);
+        }
         if (a instanceof int[]) {
             int [] a1 = (int[]) a;
             Integer [] a2 = new Integer[a1.length];
@@ -1079,21 +1325,21 @@ public void copyCorresponding(Record fromRec) throws SQLException {
         final String toTable = table;
         if (toTable == null)
             throw new SQLException("Missing to table name");
-        final HashMap<String, ColumnInfo> fromCols = conn.getColumnInfo(fromTable);
+        final Map<String, ColumnInfo> fromCols = conn.getColumnInfo(fromTable);
         if (fromCols == null)
             throw new SQLException("Error acquiring from table column information");
-        final HashMap<String, ColumnInfo> toCols = conn.getColumnInfo(toTable);
+        final Map<String, ColumnInfo> toCols = conn.getColumnInfo(toTable);
         if (toCols == null)
             throw new SQLException("Error acquiring to table column information");
-        for (Map.Entry<String, Object> e : fromRec.cols.entrySet()) {
-            String fromFieldName = e.getKey();
+        for (int c = 0; c < fromRec.schema.size(); c++) {
+            String fromFieldName = fromRec.schema.name(c);
             ColumnInfo toColInfo = toCols.get(fromFieldName);
             if (toColInfo == null)
                 continue;
             ColumnInfo fromCol = fromCols.get(fromFieldName);
             if (fromCol.getDataType() != toColInfo.getDataType())
                 continue;
-            cols.put(fromFieldName, e.getValue());
+            put(fromFieldName, fromRec.values[fromRec.schema.slotAt(c)]);
         }
     }
 
@@ -1103,7 +1349,8 @@ public void copyCorresponding(Record fromRec) throws SQLException {
      * @param rec the record to be copied from
      */
     public void copy(Record rec) {
-        cols.putAll(rec.cols);
+        for (int c = 0; c < rec.schema.size(); c++)
+            put(rec.schema.name(c), rec.values[rec.schema.slotAt(c)]);
     }
 
     /**
@@ -1119,9 +1366,27 @@ public void close() {
             } catch (SQLException ignored) {
             }
             pstmt = null;
+            pstmtSQL = null;
         }
     }
 
+    /**
+     * Execute an insert, update or delete of this record, noting the write and recording it in the SQL statistics.
+     */
+    private boolean executeDML(PreparedStatement ps, String sql) throws SQLException {
+        conn.noteWrite(table);
+        final long start = SqlStats.start();
+        final boolean ret;
+        try {
+            ret = ps.execute();
+        } catch (SQLException e) {
+            SqlStats.record(conn, sql, null, ps, start, 0, true);
+            throw e;
+        }
+        SqlStats.record(conn, sql, null, ps, start, ret ? 0 : -1, false);
+        return ret;
+    }
+
     /**
      * Returns the <code>Connection</code> instance associated to this <code>Record</code> instance.
      *
@@ -1142,11 +1407,12 @@ public String getTableName() {
 
     /**
      * Returns a map of all the columns in the record.
+     * The map is a live view; putting a value into it sets the column.  Columns can't be removed through it.
      *
      * @return a map containing all column names and their values
      */
     public AbstractMap<String,Object> getAllColumns() {
-        return cols;
+        return new Columns();
     }
 
     /**
@@ -1156,12 +1422,14 @@ public AbstractMap<String,Object> getAllColumns() {
      */
     public JSONObject toJSON() {
         JSONObject obj = new JSONObject();
-        cols.forEach((id, val) -> {
+        for (int c = 0; c < schema.size(); c++) {
+            final String id = schema.name(c);
+            final Object val = values[schema.slotAt(c)];
             if (val instanceof java.util.Date)
                 obj.put(id, (java.util.Date) val);
             else
                 obj.put(id, val);
-        });
+        }
         return obj;
     }
 
@@ -1172,7 +1440,8 @@ public JSONObject toJSON() {
      * @return the modified JSONObject with the record columns added
      */
     public JSONObject addToJSON(JSONObject obj) {
-        cols.forEach(obj::put);
+        for (int c = 0; c < schema.size(); c++)
+            obj.put(schema.name(c), values[schema.slotAt(c)]);
         return obj;
     }
 
@@ -1187,4 +1456,68 @@ public static JSONArray toJSONArray(List<Record> recs) {
         recs.forEach(rec -> ary.put(rec.toJSON()));
         return ary;
     }
+
+    /**
+     * A live map view of the record's columns.
+     */
+    private final class Columns extends AbstractMap<String,Object> {
+
+        @Override
+        public int size() {
+            return schema.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && schema.slot((String) key) >= 0;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String ? value((String) key) : null;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            final Object prev = value(key);
+            Record.this.put(key, value);
+            return prev;
+        }
+
+        @Override
+        public Set<Entry<String,Object>> entrySet() {
+            return new AbstractSet<Entry<String,Object>>() {
+                @Override
+                public int size() {
+                    return schema.size();
+                }
+
+                @Override
+                public Iterator<Entry<String,Object>> iterator() {
+                    return new Iterator<Entry<String,Object>>() {
+                        private int c;
+
+                        @Override
+                        public boolean hasNext() {
+                            return c < schema.size();
+                        }
+
+                        @Override
+                        public Entry<String,Object> next() {
+                            if (c >= schema.size())
+                                throw new NoSuchElementException();
+                            final String name = schema.name(c++);
+                            return new SimpleEntry<String,Object>(name, value(name)) {
+                                @Override
+                                public Object setValue(Object value) {
+                                    super.setValue(value);
+                                    return Columns.this.put(name, value);
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+        }
+    }
 }
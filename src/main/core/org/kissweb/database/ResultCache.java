@@ -0,0 +1,511 @@
+package org.kissweb.database;
+
+import org.kissweb.LRUCache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A process-wide cache of query results used by <code>Connection.fetchAllCached</code> and
+ * <code>Connection.fetchOneCached</code>.  It is meant for small, mostly static tables (codes, types,
+ * settings, etc.) that are read on nearly every request.
+ * <br><br>
+ * Results are keyed by database, schema, SQL (with whitespace normalized), and parameter values.  Each
+ * result is tagged with the tables named in its SQL.  Whenever Kiss writes to a table (<code>Record</code>
+ * adds, updates and deletes, <code>Command.execute</code>, <code>BatchWriter</code>, <code>BulkLoader</code>),
+ * every cached result that reads that table becomes stale, both at the write and again at the commit or
+ * rollback.  A write whose table can't be determined makes every cached result stale.  While a connection has
+ * uncommitted writes to a table, its cached queries that read that table bypass the cache entirely so that
+ * uncommitted rows are never shared with other connections.
+ * <br><br>
+ * Only writes made through Kiss in this process are seen, so results also expire after a time-to-live
+ * (5 minutes by default).  Memory is bounded by the number of results kept (least recently used are dropped)
+ * and by the number of rows a result may have (larger results are not cached).
+ * <br><br>
+ * Records returned from the cache are not associated with a table and so can't be updated or deleted, and
+ * their values are shared with the cache and must not be modified in place.
+ * <br><br>
+ * The limits may be set in <code>application.ini</code> with <code>DatabaseResultCacheEntries</code>,
+ * <code>DatabaseResultCacheRows</code>, and <code>DatabaseResultCacheSeconds</code>.
+ * <br><br>
+ * This class is thread-safe.
+ *
+ * @see Connection#fetchAllCached(String, Object...)
+ * @see Connection#fetchOneCached(String, Object...)
+ */
+public final class ResultCache {
+
+    /**
+     * Runs a query on a cache miss.
+     */
+    @FunctionalInterface
+    interface Loader {
+        List<Record> load() throws Exception;
+    }
+
+    private static volatile LRUCache<Key, Entry> entries = new LRUCache<>(1000, 0);
+    private static volatile int maxEntries = 1000;
+    private static volatile int maxRows = 1000;
+    private static volatile long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+
+    // table → number of times it has been written
+    private static final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    // number of writes to unknown tables
+    private static final AtomicLong globalVersion = new AtomicLong();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private ResultCache() {
+    }
+
+    /**
+     * Set the maximum number of results kept.  Changing it empties the cache.
+     *
+     * @param n the maximum number of results (0 disables caching)
+     */
+    public static void setMaxEntries(int n) {
+        maxEntries = Math.max(0, n);
+        entries = new LRUCache<>(Math.max(1, maxEntries), 0);
+    }
+
+    /**
+     * Set the largest number of rows a result may have and still be cached (the default is 1000).
+     *
+     * @param n the maximum number of rows
+     */
+    public static void setMaxRows(int n) {
+        maxRows = Math.max(0, n);
+    }
+
+    /**
+     * Set how long a result is kept (the default is 300 seconds).
+     *
+     * @param seconds the time-to-live in seconds (0 means results only become stale through writes)
+     */
+    public static void setTTL(long seconds) {
+        ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(0, seconds));
+    }
+
+    /**
+     * Returns true if results are being cached.
+     *
+     * @return true if the cache is enabled
+     */
+    public static boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Mark every cached result that reads a table as stale.
+     * This should be called after a table is changed outside of Kiss.
+     *
+     * @param table the table name, or null if unknown (which makes every result stale)
+     */
+    public static void invalidate(String table) {
+        if (table == null)
+            globalVersion.incrementAndGet();
+        else
+            versions.computeIfAbsent(baseName(table), t -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Discard every cached result.
+     */
+    public static void invalidateAll() {
+        globalVersion.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached results (including stale ones not yet discarded).
+     *
+     * @return the number of results
+     */
+    public static int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of queries answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of cached queries that had to be run.
+     *
+     * @return the number of misses
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of cached queries answered from the cache.
+     *
+     * @return the hit rate from 0 to 1 (0 if nothing has been queried)
+     */
+    public static double getHitRate() {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Reset the hit and miss counts.
+     */
+    public static void resetStats() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Returns the cached result of a query, or runs it and caches the result.
+     *
+     * @param conn the connection the records are for
+     * @param kind distinguishes the calling method (the same SQL may return different rows)
+     * @param sql the SQL
+     * @param args the parameter values
+     * @param loader runs the query
+     * @return the records
+     */
+    static List<Record> fetch(Connection conn, String kind, String sql, Object [] args, Loader loader) throws Exception {
+        if (!isEnabled())
+            return loader.load();
+        final Key key = Key.make(conn, kind, sql, args);
+        if (key == null)
+            return loader.load();  // a parameter that can't be used in a key
+        final String [] tables = readTables(sql);
+        if (hasUncommittedWrites(conn, tables))
+            return loader.load();  // the result would include rows other connections can't see
+
+        final LRUCache<Key, Entry> cache = entries;
+        final Entry e = cache.get(key);
+        final long now = System.nanoTime();
+        if (e != null && e.isCurrent(now)) {
+            hits.increment();
+            final List<Record> recs = new ArrayList<>(e.rows.length);
+            for (Object [] row : e.rows)
+                recs.add(new Record(conn, null, e.schema, row));
+            return recs;
+        }
+        misses.increment();
+
+        // Take the versions before running the query so a concurrent write leaves the result stale
+        final long [] vers = new long[tables.length];
+        for (int i = 0; i < tables.length; i++)
+            vers[i] = version(tables[i]);
+        final long global = globalVersion.get();
+
+        final List<Record> recs = loader.load();
+        if (recs.size() <= maxRows) {
+            final Object [][] rows = new Object[recs.size()][];
+            ColumnSchema schema = null;
+            for (int i = 0; i < rows.length; i++) {
+                final Record r = recs.get(i);
+                if (schema == null)
+                    schema = r.columnSchema();
+                else if (schema != r.columnSchema())
+                    return recs;
+                rows[i] = r.rowValues();
+            }
+            cache.add(key, new Entry(schema == null ? new ColumnSchema() : schema, rows, tables, vers, global, now));
+        }
+        return recs;
+    }
+
+    /**
+     * Returns true if <code>conn</code> has uncommitted writes to any of <code>tables</code> or to an unknown table.
+     */
+    private static boolean hasUncommittedWrites(Connection conn, String [] tables) throws Exception {
+        final Set<String> changed = conn.uncommittedTables();
+        if (changed == null)
+            return false;
+        for (String t : changed) {
+            if (t == null)
+                return true;
+            final String base = baseName(t);
+            for (String table : tables)
+                if (table.equals(base))
+                    return true;
+        }
+        return false;
+    }
+
+    private static long version(String table) {
+        final AtomicLong v = versions.get(table);
+        return v == null ? 0 : v.get();
+    }
+
+    /**
+     * Returns the table name without any schema or quotes, in lower case.
+     */
+    private static String baseName(String table) {
+        final int dot = table.lastIndexOf('.');
+        String t = dot < 0 ? table : table.substring(dot + 1);
+        if (t.length() > 1 && (t.charAt(0) == '"' || t.charAt(0) == '`' || t.charAt(0) == '['))
+            t = t.substring(1, t.length() - 1);
+        return t.toLowerCase();
+    }
+
+    // ---- SQL scanning ------------------------------------------------------------
+
+    private static final Set<String> NOT_ALIASES = new HashSet<>(Arrays.asList(
+            "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "on", "using",
+            "group", "order", "having", "limit", "offset", "fetch", "union", "intersect", "except", "minus",
+            "for", "window", "as", "lateral", "with", "set", "values", "returning", "top"));
+
+    /**
+     * Returns the SQL broken into lower case words and single-character symbols, without string literals.
+     */
+    private static List<String> tokens(String sql) {
+        final List<String> toks = new ArrayList<>();
+        final int len = sql.length();
+        int i = 0;
+        while (i < len) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'') {
+                            i += 2;  // escaped quote
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+            } else if (c == '"' || c == '`' || c == '[') {
+                final char close = c == '[' ? ']' : c;
+                final int start = i++;
+                while (i < len && sql.charAt(i) != close)
+                    i++;
+                i = Math.min(len, i + 1);
+                appendName(toks, sql.substring(start, i));
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                final int start = i;
+                while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$'))
+                    i++;
+                appendName(toks, sql.substring(start, i).toLowerCase());
+            } else {
+                toks.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return toks;
+    }
+
+    /**
+     * Add a name to the token list, joining it to a preceding <code>schema.</code> qualifier.
+     */
+    private static void appendName(List<String> toks, String name) {
+        final int n = toks.size();
+        if (n >= 2 && toks.get(n - 1).equals(".") && isName(toks.get(n - 2))) {
+            toks.remove(n - 1);
+            toks.set(n - 2, toks.get(n - 2) + "." + name);
+        } else
+            toks.add(name);
+    }
+
+    private static boolean isName(String tok) {
+        final char c = tok.charAt(0);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '"' || c == '`' || c == '[';
+    }
+
+    /**
+     * Returns the tables a query reads (every name following <code>from</code> or <code>join</code>, including
+     * comma-separated lists).
+     */
+    static String [] readTables(String sql) {
+        final List<String> toks = tokens(sql);
+        final Set<String> tables = new LinkedHashSet<>();
+        for (int i = 0; i < toks.size(); i++) {
+            final String t = toks.get(i);
+            if (!t.equals("from") && !t.equals("join"))
+                continue;
+            int j = i + 1;
+            while (j < toks.size()) {
+                if (toks.get(j).equals("only") || toks.get(j).equals("lateral"))
+                    j++;
+                if (j >= toks.size() || !isName(toks.get(j)))
+                    break;  // a subquery or function; its own from is found separately
+                tables.add(baseName(toks.get(j)));
+                j++;
+                // skip an alias
+                if (j < toks.size() && toks.get(j).equals("as"))
+                    j++;
+                if (j < toks.size() && isName(toks.get(j)) && !NOT_ALIASES.contains(toks.get(j)))
+                    j++;
+                if (!t.equals("from") || j >= toks.size() || !toks.get(j).equals(","))
+                    break;
+                j++;
+            }
+        }
+        return tables.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the table an <code>insert</code>, <code>update</code>, <code>delete</code>, <code>merge</code>,
+     * or <code>truncate</code> statement writes, or null if it can't be determined.
+     */
+    static String writtenTable(String sql) {
+        final List<String> toks = tokens(sql);
+        if (toks.isEmpty())
+            return null;
+        int i;
+        switch (toks.get(0)) {
+            case "insert":
+            case "merge":
+            case "replace":
+                i = toks.size() > 1 && toks.get(1).equals("into") ? 2 : 1;
+                break;
+            case "update":
+                i = 1;
+                break;
+            case "delete":
+                i = toks.size() > 1 && toks.get(1).equals("from") ? 2 : 1;
+                break;
+            case "truncate":
+                i = toks.size() > 1 && toks.get(1).equals("table") ? 2 : 1;
+                break;
+            default:
+                return null;
+        }
+        if (i < toks.size() && toks.get(i).equals("only"))
+            i++;
+        return i < toks.size() && isName(toks.get(i)) ? baseName(toks.get(i)) : null;
+    }
+
+    /**
+     * Returns the SQL with runs of whitespace outside of string literals replaced by a single space.
+     */
+    static String normalize(String sql) {
+        final StringBuilder sb = new StringBuilder(sql.length());
+        boolean inString = false;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            final char c = sql.charAt(i);
+            if (!inString && Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            if (c == '\'')
+                inString = !inString;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // ---- Keys and entries ----------------------------------------------------------
+
+    private static final class Key {
+        final String database;
+        final String schema;
+        final String kind;
+        final String sql;
+        final Object [] args;
+        private final int hash;
+
+        private Key(String database, String schema, String kind, String sql, Object [] args) {
+            this.database = database;
+            this.schema = schema == null ? "" : schema;
+            this.kind = kind;
+            this.sql = sql;
+            this.args = args;
+            hash = (((database.hashCode() * 31 + this.schema.hashCode()) * 31 + kind.hashCode()) * 31 + sql.hashCode()) * 31 + Arrays.hashCode(args);
+        }
+
+        /**
+         * Returns the key for a query, or null if a parameter is not a simple value.
+         */
+        static Key make(Connection conn, String kind, String sql, Object [] args) {
+            if (args != null && args.length == 1 && args[0] instanceof ArrayList && !(args[0] instanceof ArrayListType))
+                args = ((ArrayList<?>) args[0]).toArray();
+            final Object [] vals = args == null ? new Object[0] : args.clone();
+            for (int i = 0; i < vals.length; i++) {
+                final Object v = vals[i];
+                if (v instanceof java.util.Date)
+                    vals[i] = ((java.util.Date) v).clone();  // mutable
+                else if (!(v == null || v instanceof String || v instanceof Integer || v instanceof Long
+                        || v instanceof Short || v instanceof Byte || v instanceof Double || v instanceof Float
+                        || v instanceof BigDecimal || v instanceof BigInteger || v instanceof Boolean
+                        || v instanceof Character || v instanceof Temporal || v instanceof UUID || v instanceof Enum))
+                    return null;
+            }
+            return new Key(conn.metadataDatabase(), conn.metadataSchema(), kind, normalize(sql), vals);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key k = (Key) o;
+            return hash == k.hash && sql.equals(k.sql) && Arrays.equals(args, k.args) && kind.equals(k.kind)
+                    && schema.equals(k.schema) && database.equals(k.database);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final ColumnSchema schema;
+        final Object [][] rows;
+        final String [] tables;
+        final long [] versions;
+        final long global;
+        final long loaded;
+
+        Entry(ColumnSchema schema, Object [][] rows, String [] tables, long [] versions, long global, long loaded) {
+            this.schema = schema;
+            this.rows = rows;
+            this.tables = tables;
+            this.versions = versions;
+            this.global = global;
+            this.loaded = loaded;
+        }
+
+        /**
+         * Returns true if nothing the result reads has been written and it hasn't expired.
+         */
+        boolean isCurrent(long now) {
+            final long ttl = ttlNanos;
+            if (ttl > 0 && now - loaded > ttl)
+                return false;
+            if (global != globalVersion.get())
+                return false;
+            for (int i = 0; i < tables.length; i++)
+                if (versions[i] != version(tables[i]))
+                    return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package org.kissweb.database;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A forward-only store of result set rows in a compact binary form, used by <code>Cursor</code> to buffer a
+ * result set once the database cursor has been closed.
+ * <br><br>
+ * Rows are encoded into memory until the encoded size passes a threshold.  At that point everything is written to a
+ * temporary file and subsequent rows are appended to the file.  The file is read back through a sliding
+ * memory-mapped window.
+ * <br><br>
+ * <pre>
+ * Row format:
+ *     null bitmap: (ncols + 7) / 8 bytes, bit set = column is null
+ *     for each non-null column:
+ *         type tag: one byte (see the T_ constants)
+ *         value:
+ *             integers - zig-zag varint
+ *             float, double - 4 or 8 bytes
+ *             strings - varint length followed by UTF-8 bytes
+ *             binary - varint length followed by the bytes
+ *             dates &amp; times - epoch based (millis, days, or seconds + nanos) varints
+ *             BigDecimal - varint scale, varint length, unscaled bytes
+ * </pre>
+ * Values of any other type are Java-serialized if they are serializable and otherwise kept in memory.
+ * <br><br>
+ * Large binary values are written straight to the file rather than being copied into the row buffer first.
+ * <br><br>
+ * Some platforms won't delete a file while it is still mapped, and a mapping lasts until it is garbage collected.
+ * Files that can't be deleted on close are retried each time another cache is closed, and spill files left behind
+ * by an earlier process are deleted when this class is loaded.
+ * <br><br>
+ * This class is not thread-safe.
+ */
+final class RowCache implements Closeable {
+
+    private static final byte T_INT = 1;
+    private static final byte T_LONG = 2;
+    private static final byte T_SHORT = 3;
+    private static final byte T_FLOAT = 4;
+    private static final byte T_DOUBLE = 5;
+    private static final byte T_STRING = 6;
+    private static final byte T_BYTES = 7;
+    private static final byte T_TRUE = 8;
+    private static final byte T_FALSE = 9;
+    private static final byte T_BIG_DECIMAL = 10;
+    private static final byte T_BIG_INTEGER = 11;
+    private static final byte T_SQL_DATE = 12;
+    private static final byte T_SQL_TIME = 13;
+    private static final byte T_TIMESTAMP = 14;
+    private static final byte T_ZONED_DATE_TIME = 15;
+    private static final byte T_OFFSET_DATE_TIME = 16;
+    private static final byte T_LOCAL_DATE = 17;
+    private static final byte T_LOCAL_DATE_TIME = 18;
+    private static final byte T_LOCAL_TIME = 19;
+    private static final byte T_UUID = 20;
+    private static final byte T_SERIALIZED = 21;
+    private static final byte T_HELD = 22;
+
+    private static final int MAP_WINDOW = 64 * 1024 * 1024;
+    private static final int DIRECT_WRITE = 64 * 1024;   // binary values at least this size bypass buf when spilling
+
+    private static final String FILE_PREFIX = "kiss-rows-";
+    private static final long STALE_MS = TimeUnit.DAYS.toMillis(1);
+
+    // spill files whose delete failed, retried on later closes
+    private static final ConcurrentLinkedQueue<File> undeleted = new ConcurrentLinkedQueue<>();
+
+    static {
+        deleteStaleFiles();
+    }
+
+    private final int ncols;
+    private final int bitmapSize;
+    private final long memoryThreshold;
+    private final int mapWindow;
+
+    // writing
+    private byte [] buf = new byte[8192];
+    private int len;             // bytes in buf
+    private File file;
+    private OutputStream out;
+    private long fileSize;
+
+    // values that can't be encoded are held here
+    private ArrayList<Object> held;
+
+    // reading
+    private ByteBuffer in;
+    private FileChannel channel;
+    private long windowStart;
+    private final byte [] bitmap;
+    private byte [] scratch;
+
+    /**
+     * @param ncols the number of columns in each row
+     * @param memoryThreshold the number of encoded bytes kept in memory before spilling to disk
+     */
+    RowCache(int ncols, long memoryThreshold) {
+        this(ncols, memoryThreshold, MAP_WINDOW);
+    }
+
+    /**
+     * @param ncols the number of columns in each row
+     * @param memoryThreshold the number of encoded bytes kept in memory before spilling to disk
+     * @param mapWindow the size of the memory-mapped read window
+     */
+    RowCache(int ncols, long memoryThreshold, int mapWindow) {
+        this.ncols = ncols;
+        this.memoryThreshold = memoryThreshold;
+        this.mapWindow = mapWindow;
+        bitmapSize = (ncols + 7) / 8;
+        bitmap = new byte[bitmapSize];
+    }
+
+    /**
+     * Returns true if the rows were spilled to a disk file.
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns the number of bytes used by the encoded rows.
+     */
+    long encodedSize() {
+        return fileSize + len;
+    }
+
+    /* ---- Writing ---- */
+
+    /**
+     * Append a row.
+     *
+     * @param row the column values (must have <code>ncols</code> elements)
+     */
+    void add(Object [] row) throws IOException {
+        ensure(bitmapSize);
+        for (int i = 0; i < bitmapSize; i++)
+            buf[len + i] = 0;
+        for (int i = 0; i < ncols; i++)
+            if (row[i] == null)
+                buf[len + (i >> 3)] |= (byte) (1 << (i & 7));
+        len += bitmapSize;
+        for (int i = 0; i < ncols; i++)
+            if (row[i] != null)
+                encode(row[i]);
+        if (out != null) {
+            // already spilling; keep only a row's worth of data in memory
+            out.write(buf, 0, len);
+            fileSize += len;
+            len = 0;
+        } else if (len > memoryThreshold)
+            spill();
+    }
+
+    /**
+     * Finish writing.  Rows may be read after this is called.
+     */
+    void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            windowStart = 0;
+            in = ByteBuffer.allocate(0);
+        } else
+            in = ByteBuffer.wrap(buf, 0, len);
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile(FILE_PREFIX, ".dat");
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+            out.write(buf, 0, len);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        fileSize = len;
+        len = 0;
+        buf = new byte[8192];
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length) {
+            long newSize = Math.max((long) buf.length * 2, (long) len + n);
+            if (newSize > Integer.MAX_VALUE - 8)
+                newSize = Integer.MAX_VALUE - 8;
+            final byte [] nb = new byte[(int) newSize];
+            System.arraycopy(buf, 0, nb, 0, len);
+            buf = nb;
+        }
+    }
+
+    private void writeByte(int b) {
+        ensure(1);
+        buf[len++] = (byte) b;
+    }
+
+    private void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[len++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[len++] = (byte) v;
+    }
+
+    private void writeZigZag(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    private void writeFixed(long v, int nbytes) {
+        ensure(nbytes);
+        for (int i = 0; i < nbytes; i++) {
+            buf[len++] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    private void writeBytes(byte [] b) {
+        writeVarLong(b.length);
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    /**
+     * Write a binary value.  Once the data is spilling (or about to), a large value is written directly to the file
+     * after what is in <code>buf</code> so that it is never copied.  The row's null bitmap is already in
+     * <code>buf</code> so the row may be split this way.
+     */
+    private void writeBinary(byte [] b) throws IOException {
+        if (b.length < DIRECT_WRITE) {
+            writeBytes(b);
+            return;
+        }
+        writeVarLong(b.length);
+        if (out == null && len + b.length > memoryThreshold)
+            spill();
+        if (out == null) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        } else {
+            out.write(buf, 0, len);
+            out.write(b);
+            fileSize += len + (long) b.length;
+            len = 0;
+        }
+    }
+
+    private void encode(Object val) throws IOException {
+        final Class<?> cls = val.getClass();
+        if (cls == Integer.class) {
+            writeByte(T_INT);
+            writeZigZag((Integer) val);
+        } else if (cls == String.class) {
+            writeByte(T_STRING);
+            writeBytes(((String) val).getBytes(StandardCharsets.UTF_8));
+        } else if (cls == Long.class) {
+            writeByte(T_LONG);
+            writeZigZag((Long) val);
+        } else if (cls == Short.class) {
+            writeByte(T_SHORT);
+            writeZigZag((Short) val);
+        } else if (cls == Double.class) {
+            writeByte(T_DOUBLE);
+            writeFixed(Double.doubleToRawLongBits((Double) val), 8);
+        } else if (cls == Float.class) {
+            writeByte(T_FLOAT);
+            writeFixed(Float.floatToRawIntBits((Float) val), 4);
+        } else if (cls == Boolean.class) {
+            writeByte((Boolean) val ? T_TRUE : T_FALSE);
+        } else if (cls == BigDecimal.class) {
+            final BigDecimal bd = (BigDecimal) val;
+            writeByte(T_BIG_DECIMAL);
+            writeZigZag(bd.scale());
+            writeBytes(bd.unscaledValue().toByteArray());
+        } else if (cls == Timestamp.class) {
+            final Timestamp ts = (Timestamp) val;
+            writeByte(T_TIMESTAMP);
+            writeZigZag(Math.floorDiv(ts.getTime(), 1000L));
+            writeVarLong(ts.getNanos());
+        } else if (cls == java.sql.Date.class) {
+            writeByte(T_SQL_DATE);
+            writeZigZag(((java.sql.Date) val).getTime());
+        } else if (cls == java.sql.Time.class) {
+            writeByte(T_SQL_TIME);
+            writeZigZag(((java.sql.Time) val).getTime());
+        } else if (cls == byte[].class) {
+            writeByte(T_BYTES);
+            writeBinary((byte[]) val);
+        } else if (cls == ZonedDateTime.class) {
+            final ZonedDateTime zdt = (ZonedDateTime) val;
+            writeByte(T_ZONED_DATE_TIME);
+            writeZigZag(zdt.toEpochSecond());
+            writeVarLong(zdt.getNano());
+            writeBytes(zdt.getZone().getId().getBytes(StandardCharsets.UTF_8));
+        } else if (cls == OffsetDateTime.class) {
+            final OffsetDateTime odt = (OffsetDateTime) val;
+            writeByte(T_OFFSET_DATE_TIME);
+            writeZigZag(odt.toEpochSecond());
+            writeVarLong(odt.getNano());
+            writeZigZag(odt.getOffset().getTotalSeconds());
+        } else if (cls == LocalDate.class) {
+            writeByte(T_LOCAL_DATE);
+            writeZigZag(((LocalDate) val).toEpochDay());
+        } else if (cls == LocalDateTime.class) {
+            final LocalDateTime ldt = (LocalDateTime) val;
+            writeByte(T_LOCAL_DATE_TIME);
+            writeZigZag(ldt.toEpochSecond(ZoneOffset.UTC));
+            writeVarLong(ldt.getNano());
+        } else if (cls == LocalTime.class) {
+            writeByte(T_LOCAL_TIME);
+            writeVarLong(((LocalTime) val).toNanoOfDay());
+        } else if (cls == BigInteger.class) {
+            writeByte(T_BIG_INTEGER);
+            writeBytes(((BigInteger) val).toByteArray());
+        } else if (cls == UUID.class) {
+            final UUID u = (UUID) val;
+            writeByte(T_UUID);
+            writeFixed(u.getMostSignificantBits(), 8);
+            writeFixed(u.getLeastSignificantBits(), 8);
+        } else if (val instanceof Serializable) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(val);
+            }
+            writeByte(T_SERIALIZED);
+            writeBytes(bos.toByteArray());
+        } else {
+            if (held == null)
+                held = new ArrayList<>();
+            writeByte(T_HELD);
+            writeVarLong(held.size());
+            held.add(val);
+        }
+    }
+
+    /* ---- Reading ---- */
+
+    /**
+     * Read the next row.  The caller must know how many rows there are.
+     *
+     * @return the column values
+     */
+    Object [] next() throws IOException {
+        need(bitmapSize);
+        in.get(bitmap);
+        final Object [] row = new Object[ncols];
+        for (int i = 0; i < ncols; i++) {
+            if ((bitmap[i >> 3] & (1 << (i & 7))) != 0)
+                continue;
+            need(1);
+            row[i] = decode(in.get());
+        }
+        return row;
+    }
+
+    /**
+     * Make sure at least <code>n</code> bytes are available in the current window (remapping if needed).
+     * Note that this may invalidate positions previously obtained from <code>in</code>.
+     */
+    private void need(int n) throws IOException {
+        if (channel == null || in.remaining() >= n)
+            return;
+        final long pos = windowStart + in.position();
+        final long size = Math.min(fileSize - pos, Math.max(mapWindow, n));
+        if (size < n)
+            throw new EOFException("Cursor: row cache: unexpected end of data");
+        in = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        windowStart = pos;
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            need(1);
+            final byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+        throw new IOException("Cursor: row cache: malformed varint");
+    }
+
+    private long readZigZag() throws IOException {
+        final long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readFixed(int nbytes) throws IOException {
+        need(nbytes);
+        long v = 0;
+        for (int i = 0; i < nbytes; i++)
+            v |= (in.get() & 0xFFL) << (8 * i);
+        return v;
+    }
+
+    private byte [] readBytes() throws IOException {
+        final int n = (int) readVarLong();
+        final byte [] b = new byte[n];
+        need(n);
+        in.get(b);
+        return b;
+    }
+
+    private String readString() throws IOException {
+        final int n = (int) readVarLong();
+        if (n == 0)
+            return "";
+        need(n);
+        if (in.hasArray()) {
+            final String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+            in.position(in.position() + n);
+            return s;
+        }
+        if (scratch == null || scratch.length < n)
+            scratch = new byte[Math.max(n, 256)];
+        in.get(scratch, 0, n);
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private Object decode(byte tag) throws IOException {
+        switch (tag) {
+            case T_INT:
+                return (int) readZigZag();
+            case T_STRING:
+                return readString();
+            case T_LONG:
+                return readZigZag();
+            case T_SHORT:
+                return (short) readZigZag();
+            case T_DOUBLE:
+                return Double.longBitsToDouble(readFixed(8));
+            case T_FLOAT:
+                return Float.intBitsToFloat((int) readFixed(4));
+            case T_TRUE:
+                return Boolean.TRUE;
+            case T_FALSE:
+                return Boolean.FALSE;
+            case T_BIG_DECIMAL: {
+                final int scale = (int) readZigZag();
+                return new BigDecimal(new BigInteger(readBytes()), scale);
+            }
+            case T_TIMESTAMP: {
+                final Timestamp ts = new Timestamp(readZigZag() * 1000L);
+                ts.setNanos((int) readVarLong());
+                return ts;
+            }
+            case T_SQL_DATE:
+                return new java.sql.Date(readZigZag());
+            case T_SQL_TIME:
+                return new java.sql.Time(readZigZag());
+            case T_BYTES:
+                return readBytes();
+            case T_ZONED_DATE_TIME: {
+                final long sec = readZigZag();
+                final int nano = (int) readVarLong();
+                final ZoneId zone = ZoneId.of(readString());
+                return ZonedDateTime.ofInstant(Instant.ofEpochSecond(sec, nano), zone);
+            }
+            case T_OFFSET_DATE_TIME: {
+                final long sec = readZigZag();
+                final int nano = (int) readVarLong();
+                final ZoneOffset offset = ZoneOffset.ofTotalSeconds((int) readZigZag());
+                return OffsetDateTime.ofInstant(Instant.ofEpochSecond(sec, nano), offset);
+            }
+            case T_LOCAL_DATE:
+                return LocalDate.ofEpochDay(readZigZag());
+            case T_LOCAL_DATE_TIME: {
+                final long sec = readZigZag();
+                return LocalDateTime.ofEpochSecond(sec, (int) readVarLong(), ZoneOffset.UTC);
+            }
+            case T_LOCAL_TIME:
+                return LocalTime.ofNanoOfDay(readVarLong());
+            case T_BIG_INTEGER:
+                return new BigInteger(readBytes());
+            case T_UUID: {
+                final long msb = readFixed(8);
+                return new UUID(msb, readFixed(8));
+            }
+            case T_SERIALIZED:
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes()))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            case T_HELD:
+                return held.get((int) readVarLong());
+            default:
+                throw new IOException("Cursor: row cache: unknown type tag " + tag);
+        }
+    }
+
+    /**
+     * Release all resources and delete the disk file (if any).
+     */
+    @Override
+    public void close() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException ignore) {
+        }
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException ignore) {
+        }
+        out = null;
+        channel = null;
+        in = null;
+        buf = null;
+        held = null;
+        if (file != null) {
+            // a mapped file can't be deleted on some platforms until the mapping is garbage collected
+            if (!file.delete())
+                undeleted.add(file);
+            file = null;
+        }
+        retryDeletes();
+    }
+
+    /**
+     * Try again to delete the spill files whose delete failed.
+     */
+    static void retryDeletes() {
+        for (Iterator<File> it = undeleted.iterator(); it.hasNext(); ) {
+            final File f = it.next();
+            if (f.delete() || !f.exists())
+                it.remove();
+        }
+    }
+
+    /**
+     * Returns the number of spill files waiting to be deleted.
+     */
+    static int undeletedCount() {
+        return undeleted.size();
+    }
+
+    /**
+     * Delete spill files an earlier process left in the temporary directory.  Only files that haven't been
+     * modified for a day are removed so that the files of other running processes are left alone.
+     */
+    private static void deleteStaleFiles() {
+        final File [] files = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) ->
+                name.startsWith(FILE_PREFIX) && name.endsWith(".dat"));
+        if (files == null)
+            return;
+        final long cutoff = System.currentTimeMillis() - STALE_MS;
+        for (File f : files)
+            if (f.lastModified() < cutoff)
+                f.delete();
+    }
+}
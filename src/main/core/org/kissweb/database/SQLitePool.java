@@ -0,0 +1,534 @@
+package org.kissweb.database;
+
+import org.sqlite.SQLiteConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Connections to an SQLite database that never compete for its write lock.
+ * <br><br>
+ * SQLite allows one writer at a time.  When each request has its own connection, concurrent writers fail with
+ * <code>SQLITE_BUSY</code> and retry or stall.  This pool instead opens the database in WAL mode with:
+ * <ul>
+ *     <li>a pool of read-only connections, which read concurrently with each other and with the writer, and</li>
+ *     <li>one writer connection, which the connections take turns using, in order of arrival.</li>
+ * </ul>
+ * The connections handed out by <code>getConnection()</code> are ordinary JDBC connections (wrap them in a
+ * Kiss <code>Connection</code>).  Each one reads from a read-only connection until it first writes.  From
+ * then until it commits or rolls back, it holds the writer's turn and all its statements go to the writer.
+ * Work done before the first write reads the database as it was when the transaction started.  So, as with
+ * read-committed isolation in other databases, a row that must not change between being read and being
+ * written should be read again after the first write.
+ * <br><br>
+ * A connection's work is committed when it commits, before the next connection takes its turn, so commit
+ * latency doesn't depend on what other connections are doing.  With WAL journaling and
+ * <code>synchronous=NORMAL</code> a commit doesn't wait for the disk; a power loss may lose the last commits
+ * but can't corrupt the database.
+ * <br><br>
+ * Connections marked read-only never use the writer.  Auto-commit is supported, but the connections start with
+ * it off.  This class is thread-safe, though each connection it hands out should be used by one thread at a time.
+ *
+ * @see #getConnection()
+ */
+public final class SQLitePool implements AutoCloseable {
+
+    /** Statements starting with these words only read */
+    private static final Pattern READ = Pattern.compile("^(?i)(select|values|explain)\\b");
+    /** A <code>with</code> statement that contains one of these words may write */
+    private static final Pattern WRITE_WORD = Pattern.compile("(?i)\\b(insert|update|delete|replace)\\b");
+
+    private final String url;
+    private final java.sql.Connection writer;
+    private final Semaphore turn = new Semaphore(1, true);
+    private final ArrayBlockingQueue<java.sql.Connection> idleReaders;
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private final int maxReaders;
+    private final AtomicLong transactions = new AtomicLong();
+    private volatile long checkoutTimeoutMs = 10_000;
+    private volatile boolean closed;
+
+    /**
+     * Open an SQLite database in WAL mode.
+     *
+     * @param url the JDBC URL of the database (a file, not <code>:memory:</code>)
+     * @param maxReaders the most read-only connections open at once, which limits how many connections
+     *                   from this pool may be in use at once
+     * @throws SQLException if the database can't be opened
+     */
+    public SQLitePool(String url, int maxReaders) throws SQLException {
+        if (maxReaders < 1)
+            throw new IllegalArgumentException("maxReaders must be at least 1");
+        this.url = url;
+        this.maxReaders = maxReaders;
+        idleReaders = new ArrayBlockingQueue<>(maxReaders);
+        final SQLiteConfig config = newConfig();
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        writer = config.createConnection(url);
+        writer.setAutoCommit(false);
+    }
+
+    private static SQLiteConfig newConfig() {
+        final SQLiteConfig config = new SQLiteConfig();
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);  // a power loss may lose the last commits but can't corrupt the database
+        config.setBusyTimeout(5000);  // only other processes can hold the lock
+        return config;
+    }
+
+    /**
+     * Set how long <code>getConnection()</code> waits for a read-only connection, and a connection waits for its
+     * turn with the writer, before failing.  The default is 10 seconds.
+     *
+     * @param ms the number of milliseconds
+     */
+    public void setCheckoutTimeout(long ms) {
+        checkoutTimeoutMs = ms;
+    }
+
+    /**
+     * Returns a connection to the database.  It must be closed to release it.
+     *
+     * @return the connection
+     * @throws SQLException if the pool is closed
+     */
+    public java.sql.Connection getConnection() throws SQLException {
+        if (closed)
+            throw new SQLException("SQLite pool is closed");
+        final Session session = new Session();
+        return session.proxy = (java.sql.Connection) Proxy.newProxyInstance(SQLitePool.class.getClassLoader(),
+                new Class<?>[] { java.sql.Connection.class }, session);
+    }
+
+    /**
+     * Returns the number of write transactions committed.
+     *
+     * @return the number of transactions
+     */
+    public long getTransactionCount() {
+        return transactions.get();
+    }
+
+    /**
+     * Returns the number of connections waiting for their turn with the writer.
+     *
+     * @return the number of connections waiting
+     */
+    public int waitingWriters() {
+        return turn.getQueueLength();
+    }
+
+    /**
+     * Close the database.  Connections still in use fail when next used, and their uncommitted work is lost.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (turn.tryAcquire(checkoutTimeoutMs, TimeUnit.MILLISECONDS))
+                turn.release();  // let the current writer finish
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeQuietly(writer);
+        java.sql.Connection c;
+        while ((c = idleReaders.poll()) != null)
+            closeQuietly(c);
+    }
+
+    private static void closeQuietly(java.sql.Connection c) {
+        try {
+            c.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    static boolean isWrite(String sql) {
+        int i = 0;
+        final int len = sql.length();
+        while (i < len) {  // skip leading space, comments, and parentheses
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c) || c == '(')
+                i++;
+            else if (sql.startsWith("--", i)) {
+                final int end = sql.indexOf('\n', i);
+                i = end < 0 ? len : end + 1;
+            } else if (sql.startsWith("/*", i)) {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? len : end + 2;
+            } else
+                break;
+        }
+        final String rest = sql.substring(i);
+        if (READ.matcher(rest).lookingAt())
+            return false;
+        if (rest.regionMatches(true, 0, "with", 0, 4))
+            return WRITE_WORD.matcher(rest).find();
+        return true;
+    }
+
+    private java.sql.Connection checkoutReader() throws SQLException {
+        java.sql.Connection c = idleReaders.poll();
+        if (c != null)
+            return c;
+        if (openReaders.incrementAndGet() <= maxReaders) {
+            try {
+                final SQLiteConfig config = newConfig();
+                config.setReadOnly(true);
+                c = config.createConnection(url);
+                c.setAutoCommit(false);  // each connection's reads see one snapshot until it commits or rolls back
+                return c;
+            } catch (SQLException | RuntimeException e) {
+                openReaders.decrementAndGet();
+                throw e;
+            }
+        }
+        openReaders.decrementAndGet();
+        try {
+            c = idleReaders.poll(checkoutTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for an SQLite connection", e);
+        }
+        if (c == null)
+            throw new SQLException("Timed out waiting for an SQLite connection (all " + maxReaders + " in use)");
+        return c;
+    }
+
+    private void checkinReader(java.sql.Connection c) {
+        try {
+            c.rollback();
+            if (!closed && idleReaders.offer(c))
+                return;
+        } catch (SQLException ignore) {
+        }
+        openReaders.decrementAndGet();
+        closeQuietly(c);
+    }
+
+    /**
+     * Take the writer's turn and start a savepoint for the caller's work.
+     */
+    private Savepoint acquireTurn() throws SQLException {
+        try {
+            if (!turn.tryAcquire(checkoutTimeoutMs, TimeUnit.MILLISECONDS))
+                throw new SQLException("Timed out waiting for the SQLite writer");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the SQLite writer", e);
+        }
+        if (closed) {
+            turn.release();
+            throw new SQLException("SQLite pool is closed");
+        }
+        try {
+            return writer.setSavepoint();
+        } catch (SQLException | RuntimeException e) {
+            turn.release();
+            throw e;
+        }
+    }
+
+    /**
+     * End the caller's turn, committing or discarding its work.
+     */
+    private void releaseTurn(Savepoint sp, boolean keep) throws SQLException {
+        try {
+            if (keep) {
+                writer.releaseSavepoint(sp);
+                writer.commit();
+                transactions.incrementAndGet();
+            } else {
+                writer.rollback(sp);
+                writer.releaseSavepoint(sp);
+            }
+        } catch (SQLException e) {
+            // the writer's transaction can no longer be trusted
+            try {
+                writer.rollback();
+            } catch (SQLException ignore) {
+            }
+            throw e;
+        } finally {
+            turn.release();
+        }
+    }
+
+    /**
+     * A connection handed out by the pool.
+     */
+    private final class Session implements InvocationHandler {
+        java.sql.Connection proxy;
+        private java.sql.Connection reader;
+        private Savepoint savepoint;  // non-null while this connection holds the writer's turn
+        private boolean autoCommit;
+        private boolean readOnly;
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object p, Method method, Object [] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "SQLitePool connection " + url;
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "isValid":
+                    return !closed && !SQLitePool.this.closed;
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(p))
+                        return p;
+                    throw new SQLException("Not a wrapper for " + args[0]);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(p);
+            }
+            if (closed)
+                throw new SQLException("Connection is closed");
+            switch (method.getName()) {
+                case "commit":
+                    commit();
+                    return null;
+                case "rollback":
+                    if (args == null) {
+                        rollback();
+                        return null;
+                    }
+                    break;  // to a savepoint
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    if ((Boolean) args[0] && !autoCommit)
+                        commit();
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return readOnly;
+                case "setReadOnly":
+                    if ((Boolean) args[0] && savepoint != null)
+                        throw new SQLException("Can't make a connection read-only after it has written");
+                    readOnly = (Boolean) args[0];
+                    return null;
+                case "createStatement":
+                case "prepareStatement":
+                case "prepareCall":
+                    if (readOnly)
+                        break;
+                    final Class<?> iface = method.getName().equals("prepareCall") ? CallableStatement.class
+                            : method.getName().equals("prepareStatement") ? PreparedStatement.class : Statement.class;
+                    return Proxy.newProxyInstance(SQLitePool.class.getClassLoader(), new Class<?>[] { iface },
+                            new RoutedStatement(method, args));
+                case "setSavepoint":
+                case "releaseSavepoint":
+                    takeTurn();
+                    return call(writer, method, args);
+            }
+            if (method.getName().equals("rollback")) {  // to a savepoint
+                if (savepoint == null)
+                    throw new SQLException("No savepoint is active");
+                return call(writer, method, args);
+            }
+            if (reader == null)
+                reader = checkoutReader();
+            return call(reader, method, args);
+        }
+
+        private Object call(Object target, Method method, Object [] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        void takeTurn() throws SQLException {
+            if (savepoint == null)
+                savepoint = acquireTurn();
+        }
+
+        void commit() throws SQLException {
+            if (reader != null)
+                reader.rollback();  // end the read snapshot
+            if (savepoint != null) {
+                final Savepoint sp = savepoint;
+                savepoint = null;
+                releaseTurn(sp, true);
+            }
+        }
+
+        void rollback() throws SQLException {
+            if (reader != null)
+                reader.rollback();
+            if (savepoint != null) {
+                final Savepoint sp = savepoint;
+                savepoint = null;
+                releaseTurn(sp, false);
+            }
+        }
+
+        void close() throws SQLException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (autoCommit)
+                    commit();
+                else
+                    rollback();
+            } finally {
+                if (reader != null) {
+                    checkinReader(reader);
+                    reader = null;
+                }
+            }
+        }
+
+        /**
+         * A statement that runs each execution on the reader or the writer, whichever the session should use at
+         * that moment.  Writes take the writer's turn (and commit afterwards in auto-commit mode).  Reads go to
+         * the writer while the session holds the turn, so they see its uncommitted work, and to the reader
+         * otherwise.  The underlying statements are created when first needed and are given the settings and
+         * parameters set so far.
+         */
+        private final class RoutedStatement implements InvocationHandler {
+            private final Method create;
+            private final Object [] createArgs;
+            private final boolean writes;  // a prepared statement that writes
+            // settings and parameters, replayed on a statement when it is created
+            private final Map<Object, Object []> settings = new LinkedHashMap<>();
+            private final Map<Object, Method> setters = new HashMap<>();
+            private Object onReader;
+            private Object onWriter;
+            private Object last;  // the statement last executed
+            private boolean stmtClosed;
+
+            RoutedStatement(Method create, Object [] createArgs) {
+                this.create = create;
+                this.createArgs = createArgs;
+                writes = createArgs != null && createArgs.length > 0 && createArgs[0] instanceof String
+                        && isWrite((String) createArgs[0]);
+            }
+
+            @Override
+            public Object invoke(Object p, Method method, Object [] args) throws Throwable {
+                final String name = method.getName();
+                switch (name) {
+                    case "getConnection":
+                        return proxy;
+                    case "equals":
+                        return p == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(p);
+                    case "isClosed":
+                        return stmtClosed;
+                    case "close":
+                        stmtClosed = true;
+                        try {
+                            if (onReader != null)
+                                ((Statement) onReader).close();
+                        } finally {
+                            if (onWriter != null)
+                                ((Statement) onWriter).close();
+                        }
+                        return null;
+                }
+                if (stmtClosed)
+                    throw new SQLException("Statement is closed");
+                if (closed)
+                    throw new SQLException("Connection is closed");
+                if (name.startsWith("set") || name.startsWith("register")) {
+                    // a parameter is keyed by its index or name, a statement setting by its method
+                    final Object key;
+                    if (method.getDeclaringClass() == Statement.class || args == null || args.length == 0)
+                        key = name;
+                    else
+                        key = Arrays.asList(name.startsWith("set") ? "" : name, args[0]);
+                    settings.put(key, args);
+                    setters.put(key, method);
+                    return forward(method, args);
+                }
+                if (name.equals("clearParameters")) {
+                    settings.keySet().removeIf(k -> k instanceof List && "".equals(((List<?>) k).get(0)));
+                    return forward(method, args);
+                }
+                if (name.equals("addBatch") || name.equals("executeBatch") || name.equals("executeLargeBatch")
+                        || name.equals("clearBatch"))
+                    return execute(true, method, args);  // only writes are batched
+                if (name.startsWith("execute"))
+                    return execute(args != null && args.length > 0 && args[0] instanceof String ? isWrite((String) args[0]) : writes,
+                            method, args);
+                // results and other calls go to the statement last executed
+                return call(last != null ? last : statement(savepoint != null || writes), method, args);
+            }
+
+            private Object execute(boolean write, Method method, Object [] args) throws Throwable {
+                if (write)
+                    takeTurn();
+                last = statement(savepoint != null);
+                final Object ret = call(last, method, args);
+                final String name = method.getName();
+                if (write && autoCommit && !name.equals("addBatch") && !name.equals("clearBatch"))
+                    commit();
+                return ret;
+            }
+
+            /**
+             * Returns the statement on the writer or the reader, creating it if needed.
+             */
+            private Object statement(boolean onWriter) throws Throwable {
+                if (onWriter ? this.onWriter != null : onReader != null)
+                    return onWriter ? this.onWriter : onReader;
+                final java.sql.Connection conn;
+                if (onWriter)
+                    conn = writer;
+                else {
+                    if (reader == null)
+                        reader = checkoutReader();
+                    conn = reader;
+                }
+                final Object stmt = call(conn, create, createArgs);
+                for (Map.Entry<Object, Object []> ent : settings.entrySet())
+                    call(stmt, setters.get(ent.getKey()), ent.getValue());
+                if (onWriter)
+                    this.onWriter = stmt;
+                else
+                    onReader = stmt;
+                return stmt;
+            }
+
+            /**
+             * Pass a setting to the statements already created.
+             */
+            private Object forward(Method method, Object [] args) throws Throwable {
+                Object ret = null;
+                if (onReader != null)
+                    ret = call(onReader, method, args);
+                if (onWriter != null)
+                    ret = call(onWriter, method, args);
+                return ret;
+            }
+        }
+    }
+}
@@ -33,17 +33,33 @@
 package org.kissweb.database;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.LRUCache;
 
 /**
  * Models a database schema as a graph where tables are nodes and foreign key
  * relationships are edges.  Given a set of tables, it can find the shortest
  * join path connecting them using BFS.
  * <br><br>
+ * The shortest path between every pair of tables is computed once (when the
+ * graph is read from the database or a cache file, or on first use) and join
+ * path results are remembered, so resolving the joins for a query is normally
+ * just a lookup.
+ * <br><br>
  * The graph can be built automatically from JDBC metadata, declared
  * programmatically, or both (hybrid approach).  Both single-column and
  * composite (multi-column) foreign keys are supported.
@@ -81,6 +97,8 @@
  */
 public class SchemaGraph {
 
+    private static final Logger logger = LogManager.getLogger(SchemaGraph.class);
+
     /**
      * Represents a foreign key relationship between two tables.
      * Supports both single-column and composite (multi-column) foreign keys.
@@ -263,6 +281,28 @@ public String toString() {
     // Cache of schema name → SchemaGraph for the two-argument fromDatabase method
     private static final ConcurrentHashMap<String, SchemaGraph> schemaCache = new ConcurrentHashMap<>();
 
+    // Warm start settings for the two-argument fromDatabase method
+    private static volatile String warmStartDirectory;
+    private static volatile Supplier<Connection> warmStartOpen;
+    private static volatile Consumer<Connection> warmStartClose;
+
+    // Number of compiled queries each graph keeps
+    private static volatile int queryCacheSize = 2000;
+
+    // QueryBuilder structural fingerprint → generated SQL.  Cleared when the graph changes.
+    private final LRUCache<String, String> queryCache = new LRUCache<>(queryCacheSize, 0);
+    private final LongAdder queryCacheHits = new LongAdder();
+    private final LongAdder queryCacheMisses = new LongAdder();
+
+    // source table → shortest path tree from that table.  Cleared when the graph changes.
+    private final ConcurrentHashMap<String, PathTree> pathIndex = new ConcurrentHashMap<>();
+
+    // Largest number of findJoinPath results remembered
+    private static final int MAX_JOIN_PATHS = 10000;
+
+    // root + table list → join path.  Cleared when the graph changes.
+    private final ConcurrentHashMap<String, List<Edge>> joinPathCache = new ConcurrentHashMap<>();
+
     /**
      * Create an empty schema graph.  Use {@link #addForeignKey(String, String, String, String)}
      * or {@link #addForeignKey(String, String[], String, String[])} to populate it.
@@ -272,9 +312,15 @@ public SchemaGraph() {
 
     /**
      * Build a schema graph by reading foreign key metadata from a live
-     * JDBC connection.  This queries DatabaseMetaData for all tables and
-     * their imported foreign keys, properly grouping composite (multi-column)
-     * foreign keys by constraint name.
+     * JDBC connection.  All tables are read with one DatabaseMetaData call and
+     * all foreign keys with one catalog query for the database type
+     * (<code>pg_constraint</code> on PostgreSQL, <code>sys.foreign_keys</code> on
+     * Microsoft SQL Server, <code>information_schema</code> on MySQL,
+     * <code>all_constraints</code> on Oracle, and <code>pragma_foreign_key_list</code>
+     * on SQLite).  Composite (multi-column) foreign keys are grouped by constraint name.
+     * <br><br>
+     * If the catalog query fails, the foreign keys are read table by table with
+     * DatabaseMetaData instead.
      * <br><br>
      * Called once at application startup.  The resulting graph is thread-safe
      * for read operations (path finding).
@@ -285,59 +331,166 @@ public SchemaGraph() {
      */
     public static SchemaGraph fromDatabase(Connection conn) throws SQLException {
         SchemaGraph graph = new SchemaGraph();
-        DatabaseMetaData meta = conn.getSQLConnection().getMetaData();
-        String schema = conn.getSQLConnection().getSchema();
+        java.sql.Connection sconn = conn.getSQLConnection();
+        DatabaseMetaData meta = sconn.getMetaData();
+        String schema = sconn.getSchema();
 
         // Get all tables
+        List<String> tableNames = new ArrayList<>();
         try (ResultSet tables = meta.getTables(null, schema, "%", new String[]{"TABLE"})) {
             while (tables.next()) {
-                String tableName = tables.getString("TABLE_NAME").toLowerCase();
-                graph.addTable(tableName);
-
-                // Get imported (incoming) foreign keys for this table.
-                // Composite FKs return multiple rows sharing the same FK_NAME,
-                // ordered by KEY_SEQ.
-                try (ResultSet fks = meta.getImportedKeys(null, schema, tables.getString("TABLE_NAME"))) {
-                    // Group columns by FK constraint name
-                    Map<String, List<String[]>> fkGroups = new LinkedHashMap<>();
-                    while (fks.next()) {
-                        String fkName = fks.getString("FK_NAME");
-                        String fkTable = fks.getString("FKTABLE_NAME").toLowerCase();
-                        String fkColumn = fks.getString("FKCOLUMN_NAME").toLowerCase();
-                        String pkTable = fks.getString("PKTABLE_NAME").toLowerCase();
-                        String pkColumn = fks.getString("PKCOLUMN_NAME").toLowerCase();
-                        // Use a synthetic key if FK_NAME is null
-                        if (fkName == null)
-                            fkName = fkTable + "." + fkColumn + "->" + pkTable + "." + pkColumn;
-                        fkGroups.computeIfAbsent(fkName, k -> new ArrayList<>())
-                                .add(new String[]{fkTable, fkColumn, pkTable, pkColumn});
-                    }
+                String tableName = tables.getString("TABLE_NAME");
+                tableNames.add(tableName);
+                graph.addTable(tableName.toLowerCase());
+            }
+        }
 
-                    // Build edges, handling both single and composite FKs
-                    for (List<String[]> group : fkGroups.values()) {
-                        if (group.size() == 1) {
-                            String[] row = group.get(0);
-                            graph.addForeignKey(row[0], row[1], row[2], row[3]);
-                        } else {
-                            String[] first = group.get(0);
-                            String fkTable = first[0];
-                            String pkTable = first[2];
-                            String[] fkCols = new String[group.size()];
-                            String[] pkCols = new String[group.size()];
-                            for (int i = 0; i < group.size(); i++) {
-                                fkCols[i] = group.get(i)[1];
-                                pkCols[i] = group.get(i)[3];
-                            }
-                            graph.addForeignKey(fkTable, fkCols, pkTable, pkCols);
-                        }
-                    }
+        Map<String, List<String[]>> fkGroups = null;
+        String sql = foreignKeyCatalogQuery(conn.getDBType(), schema);
+        if (sql != null) {
+            // A failed statement aborts the whole transaction on PostgreSQL
+            Savepoint savepoint = sconn.getAutoCommit() ? null : sconn.setSavepoint();
+            try {
+                fkGroups = readForeignKeys(sconn, sql, schema);
+                if (savepoint != null)
+                    sconn.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                logger.warn("Catalog query for foreign keys failed; reading them table by table: " + e.getMessage());
+                if (savepoint != null)
+                    sconn.rollback(savepoint);
+            }
+        }
+        if (fkGroups == null)
+            fkGroups = readImportedKeys(meta, schema, tableNames);
+
+        // Build edges, handling both single and composite FKs
+        for (List<String[]> group : fkGroups.values()) {
+            if (group.size() == 1) {
+                String[] row = group.get(0);
+                graph.addForeignKey(row[0], row[1], row[2], row[3]);
+            } else {
+                String[] first = group.get(0);
+                String fkTable = first[0];
+                String pkTable = first[2];
+                String[] fkCols = new String[group.size()];
+                String[] pkCols = new String[group.size()];
+                for (int i = 0; i < group.size(); i++) {
+                    fkCols[i] = group.get(i)[1];
+                    pkCols[i] = group.get(i)[3];
                 }
+                graph.addForeignKey(fkTable, fkCols, pkTable, pkCols);
             }
         }
 
+        graph.precomputeJoinPaths();
         return graph;
     }
 
+    /**
+     * Returns the query that reads every foreign key column in the schema in one round trip, or null
+     * if there isn't one for the database type.  Each row is constraint name, FK table, FK column,
+     * referenced table, referenced column, ordered so the columns of a composite key are in key order.
+     * The schema, if not null, is the only parameter.
+     */
+    static String foreignKeyCatalogQuery(Connection.ConnectionType type, String schema) {
+        if (type == null)
+            return null;
+        switch (type) {
+            case PostgreSQL:
+                return "select con.conname, src.relname, sa.attname, tgt.relname, ta.attname " +
+                        "from pg_constraint con " +
+                        "join pg_class src on src.oid = con.conrelid " +
+                        "join pg_namespace ns on ns.oid = src.relnamespace " +
+                        "join pg_class tgt on tgt.oid = con.confrelid " +
+                        "cross join lateral unnest(con.conkey, con.confkey) with ordinality as k(src_att, tgt_att, seq) " +
+                        "join pg_attribute sa on sa.attrelid = con.conrelid and sa.attnum = k.src_att " +
+                        "join pg_attribute ta on ta.attrelid = con.confrelid and ta.attnum = k.tgt_att " +
+                        "where con.contype = 'f' and ns.nspname = " + (schema != null ? "?" : "current_schema()") +
+                        " order by src.relname, con.conname, k.seq";
+            case MicrosoftServer:
+                return "select fk.name, tp.name, cp.name, tr.name, cr.name " +
+                        "from sys.foreign_keys fk " +
+                        "join sys.foreign_key_columns fkc on fkc.constraint_object_id = fk.object_id " +
+                        "join sys.tables tp on tp.object_id = fkc.parent_object_id " +
+                        "join sys.columns cp on cp.object_id = fkc.parent_object_id and cp.column_id = fkc.parent_column_id " +
+                        "join sys.tables tr on tr.object_id = fkc.referenced_object_id " +
+                        "join sys.columns cr on cr.object_id = fkc.referenced_object_id and cr.column_id = fkc.referenced_column_id " +
+                        "where schema_name(tp.schema_id) = " + (schema != null ? "?" : "schema_name()") +
+                        " order by tp.name, fk.name, fkc.constraint_column_id";
+            case MySQL:
+                return "select constraint_name, table_name, column_name, referenced_table_name, referenced_column_name " +
+                        "from information_schema.key_column_usage " +
+                        "where table_schema = " + (schema != null ? "?" : "database()") +
+                        " and referenced_table_name is not null " +
+                        "order by table_name, constraint_name, ordinal_position";
+            case Oracle:
+                return "select c.constraint_name, c.table_name, cc.column_name, r.table_name, rc.column_name " +
+                        "from all_constraints c " +
+                        "join all_cons_columns cc on cc.owner = c.owner and cc.constraint_name = c.constraint_name " +
+                        "join all_constraints r on r.owner = c.r_owner and r.constraint_name = c.r_constraint_name " +
+                        "join all_cons_columns rc on rc.owner = r.owner and rc.constraint_name = r.constraint_name and rc.position = cc.position " +
+                        "where c.constraint_type = 'R' and c.owner = " + (schema != null ? "?" : "sys_context('USERENV', 'CURRENT_SCHEMA')") +
+                        " order by c.table_name, c.constraint_name, cc.position";
+            case SQLite:
+                // "to" is null when the key references the parent's primary key implicitly
+                return "select m.name || '.' || p.id, m.name, p.\"from\", p.\"table\", " +
+                        "coalesce(p.\"to\", (select ti.name from pragma_table_info(p.\"table\") ti where ti.pk = p.seq + 1)) " +
+                        "from sqlite_master m join pragma_foreign_key_list(m.name) p " +
+                        "where m.type = 'table' " +
+                        "order by m.name, p.id, p.seq";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Read all foreign keys with a catalog query.  Returns constraint → rows of {fkTable, fkColumn, pkTable, pkColumn}.
+     */
+    private static Map<String, List<String[]>> readForeignKeys(java.sql.Connection sconn, String sql, String schema) throws SQLException {
+        Map<String, List<String[]>> fkGroups = new LinkedHashMap<>();
+        try (PreparedStatement ps = sconn.prepareStatement(sql)) {
+            if (sql.indexOf('?') >= 0)
+                ps.setString(1, schema);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String fkTable = rs.getString(2).toLowerCase();
+                    String pkColumn = rs.getString(5);
+                    if (pkColumn == null)
+                        continue;  // references a table without a primary key
+                    fkGroups.computeIfAbsent(fkTable + "." + rs.getString(1), k -> new ArrayList<>())
+                            .add(new String[]{fkTable, rs.getString(3).toLowerCase(), rs.getString(4).toLowerCase(), pkColumn.toLowerCase()});
+                }
+            }
+        }
+        return fkGroups;
+    }
+
+    /**
+     * Read the foreign keys of each table with DatabaseMetaData.  Returns constraint → rows of {fkTable, fkColumn, pkTable, pkColumn}.
+     */
+    static Map<String, List<String[]>> readImportedKeys(DatabaseMetaData meta, String schema, List<String> tableNames) throws SQLException {
+        Map<String, List<String[]>> fkGroups = new LinkedHashMap<>();
+        for (String table : tableNames) {
+            // Composite FKs return multiple rows sharing the same FK_NAME,
+            // ordered by KEY_SEQ.
+            try (ResultSet fks = meta.getImportedKeys(null, schema, table)) {
+                while (fks.next()) {
+                    String fkName = fks.getString("FK_NAME");
+                    String fkTable = fks.getString("FKTABLE_NAME").toLowerCase();
+                    String fkColumn = fks.getString("FKCOLUMN_NAME").toLowerCase();
+                    String pkTable = fks.getString("PKTABLE_NAME").toLowerCase();
+                    String pkColumn = fks.getString("PKCOLUMN_NAME").toLowerCase();
+                    // Use a synthetic key if FK_NAME is null
+                    if (fkName == null)
+                        fkName = fkColumn + "->" + pkTable + "." + pkColumn;
+                    fkGroups.computeIfAbsent(fkTable + "." + fkName, k -> new ArrayList<>())
+                            .add(new String[]{fkTable, fkColumn, pkTable, pkColumn});
+                }
+            }
+        }
+        return fkGroups;
+    }
+
     /**
      * Build or retrieve a cached schema graph for the given schema name.
      * On the first call for a given schema, this delegates to
@@ -345,6 +498,9 @@ public static SchemaGraph fromDatabase(Connection conn) throws SQLException {
      * Subsequent calls with the same schema name return the cached instance
      * without reading the database again.
      * <br><br>
+     * When warm start is enabled (see {@link #setWarmStart(String, Supplier, Consumer)}), the first call
+     * loads the graph saved by the previous run instead and re-reads the database in the background.
+     * <br><br>
      * This method is safe for use by multiple threads.  If two threads
      * call this concurrently with the same schema name, the graph will be
      * built once and the same instance returned to both callers.
@@ -362,12 +518,90 @@ public static SchemaGraph fromDatabase(Connection conn, String schema) throws SQ
             cached = schemaCache.get(schema);
             if (cached != null)
                 return cached;
+            String dir = warmStartDirectory;
+            if (dir != null) {
+                File file = warmStartFile(dir, schema);
+                if (file.exists()) {
+                    try {
+                        SchemaGraph graph = loadFromFile(file.getPath());
+                        schemaCache.put(schema, graph);
+                        refreshInBackground(schema, file);
+                        return graph;
+                    } catch (IOException e) {
+                        logger.warn("Ignoring unreadable schema cache " + file + ": " + e.getMessage());
+                    }
+                }
+            }
             SchemaGraph graph = fromDatabase(conn);
             schemaCache.put(schema, graph);
+            if (dir != null)
+                saveWarmStartFile(graph, warmStartFile(dir, schema));
             return graph;
         }
     }
 
+    /**
+     * Enable or disable warm start for {@link #fromDatabase(Connection, String)}.
+     * <br><br>
+     * With warm start enabled, each schema's graph is saved in the given directory.  The next time
+     * the application starts (or after {@link #clearSchemaCache()}), the saved graph is used right away
+     * and a background thread opens its own connection, re-reads the database, saves the result, and
+     * replaces the cached graph.  Connections that already have the old graph keep using it.
+     * <br><br>
+     * Kiss enables this when <code>SchemaGraphCacheDirectory</code> is set in <code>application.ini</code>.
+     *
+     * @param directory the directory for the saved graphs, or null to disable warm start
+     * @param openConnection opens a new connection for the background refresh (may return null if there is no database)
+     * @param closeConnection closes a connection returned by <code>openConnection</code>
+     */
+    public static void setWarmStart(String directory, Supplier<Connection> openConnection, Consumer<Connection> closeConnection) {
+        warmStartOpen = openConnection;
+        warmStartClose = closeConnection;
+        warmStartDirectory = directory;
+    }
+
+    private static File warmStartFile(String dir, String schema) {
+        return new File(dir, "schema-graph-" + schema.replaceAll("[^A-Za-z0-9_.-]", "_") + ".txt");
+    }
+
+    private static void saveWarmStartFile(SchemaGraph graph, File file) {
+        try {
+            File parent = file.getParentFile();
+            if (parent != null)
+                parent.mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            graph.saveToFile(tmp.getPath());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Can't save schema cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void refreshInBackground(String schema, File file) {
+        final Supplier<Connection> open = warmStartOpen;
+        final Consumer<Connection> close = warmStartClose;
+        if (open == null)
+            return;
+        Thread thread = new Thread(() -> {
+            Connection conn = null;
+            try {
+                conn = open.get();
+                if (conn == null)
+                    return;
+                SchemaGraph graph = fromDatabase(conn);
+                saveWarmStartFile(graph, file);
+                schemaCache.put(schema, graph);
+            } catch (Exception e) {
+                logger.error("Background refresh of schema graph " + schema + " failed", e);
+            } finally {
+                if (conn != null && close != null)
+                    close.accept(conn);
+            }
+        }, "SchemaGraph refresh " + schema);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * Clear the internal schema cache used by {@link #fromDatabase(Connection, String)}.
      * After calling this method, the next call to {@code fromDatabase(conn, schema)}
@@ -395,6 +629,7 @@ public static void clearSchemaCache(String schema) {
     public void addTable(String tableName) {
         tableName = tableName.toLowerCase();
         adjacency.computeIfAbsent(tableName, k -> new ArrayList<>());
+        graphChanged();
     }
 
     /**
@@ -436,6 +671,85 @@ private void addEdge(Edge edge) {
             if (!toEdges.contains(edge))
                 toEdges.add(edge);
         }
+        graphChanged();
+    }
+
+    /**
+     * Discard everything derived from the shape of the graph.
+     */
+    private void graphChanged() {
+        queryCache.clear();
+        pathIndex.clear();
+        joinPathCache.clear();
+    }
+
+    // ---- Compiled query cache ----------------------------------------------------
+
+    /**
+     * Set the number of compiled queries each graph created afterwards keeps (the default is 2000).
+     *
+     * @param size the maximum number of cached queries per graph
+     * @see QueryBuilder#build()
+     */
+    public static void setQueryCacheSize(int size) {
+        queryCacheSize = Math.max(1, size);
+    }
+
+    /**
+     * Returns the SQL previously generated for a query structure, or null.
+     */
+    String getCompiledQuery(String fingerprint) {
+        final String sql = queryCache.get(fingerprint);
+        if (sql == null)
+            queryCacheMisses.increment();
+        else
+            queryCacheHits.increment();
+        return sql;
+    }
+
+    /**
+     * Remember the SQL generated for a query structure.
+     */
+    void putCompiledQuery(String fingerprint, String sql) {
+        queryCache.add(fingerprint, sql);
+    }
+
+    /**
+     * Returns the number of <code>QueryBuilder.build()</code> calls that reused previously generated SQL.
+     *
+     * @return the number of cache hits
+     */
+    public long getQueryCacheHits() {
+        return queryCacheHits.sum();
+    }
+
+    /**
+     * Returns the number of <code>QueryBuilder.build()</code> calls that had to generate SQL.
+     *
+     * @return the number of cache misses
+     */
+    public long getQueryCacheMisses() {
+        return queryCacheMisses.sum();
+    }
+
+    /**
+     * Returns the fraction of <code>QueryBuilder.build()</code> calls that reused previously generated SQL.
+     *
+     * @return the hit rate from 0 to 1 (0 if nothing has been built)
+     */
+    public double getQueryCacheHitRate() {
+        final long hits = queryCacheHits.sum();
+        final long total = hits + queryCacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Discard all compiled queries and reset the hit and miss counts.
+     */
+    public void clearQueryCache() {
+        queryCache.clear();
+        queryCacheHits.reset();
+        queryCacheMisses.reset();
     }
 
     /**
@@ -474,10 +788,13 @@ public List<Edge> getEdges(String tableName) {
      * The algorithm picks the first table as the root, then greedily adds
      * the shortest BFS path from the current tree to each remaining table.
      * This is a standard approximation for the Steiner tree problem.
+     * <br><br>
+     * Shortest paths come from the precomputed path index (see {@link #precomputeJoinPaths()})
+     * and the result is remembered, so repeated calls with the same tables are a lookup.
      *
      * @param tables    the set of tables that must be connected
      * @param rootTable the preferred root table (used as FROM), or null to use the first table in the set
-     * @return an ordered list of edges representing the joins needed
+     * @return an unmodifiable, ordered list of edges representing the joins needed
      * @throws SQLException if no path exists between some tables
      */
     public List<Edge> findJoinPath(Set<String> tables, String rootTable) throws SQLException {
@@ -498,6 +815,15 @@ public List<Edge> findJoinPath(Set<String> tables, String rootTable) throws SQLE
         else
             root = normalizedTables.iterator().next();
 
+        // The greedy choice depends on the order of the tables, so it is part of the key
+        final StringBuilder key = new StringBuilder(root);
+        for (String t : normalizedTables)
+            key.append(' ').append(t);
+        final String cacheKey = key.toString();
+        List<Edge> cached = joinPathCache.get(cacheKey);
+        if (cached != null)
+            return cached;
+
         // Tables already connected by the join tree
         Set<String> connected = new LinkedHashSet<>();
         connected.add(root);
@@ -513,7 +839,7 @@ public List<Edge> findJoinPath(Set<String> tables, String rootTable) throws SQLE
             // Find the shortest path from any connected table to any remaining table
             PathResult best = null;
             for (String target : remaining) {
-                PathResult path = bfsShortestPath(connected, target);
+                PathResult path = shortestPath(connected, target);
                 if (path != null && (best == null || path.edges.size() < best.edges.size()))
                     best = path;
             }
@@ -535,12 +861,29 @@ public List<Edge> findJoinPath(Set<String> tables, String rootTable) throws SQLE
             remaining.removeAll(connected);
         }
 
+        joinEdges = Collections.unmodifiableList(joinEdges);
+        if (joinPathCache.size() >= MAX_JOIN_PATHS)
+            joinPathCache.clear();
+        joinPathCache.put(cacheKey, joinEdges);
         return joinEdges;
     }
 
+    /**
+     * Compute the shortest path from every table to every other table.
+     * <br><br>
+     * This is done automatically by {@link #fromDatabase(Connection)} and {@link #loadFromFile(String)}.
+     * Graphs built programmatically compute the paths from each table the first time they are needed,
+     * so calling this is only useful to move that work to startup.  Changing the graph discards the paths.
+     */
+    public void precomputeJoinPaths() {
+        for (String table : adjacency.keySet())
+            pathTree(table);
+    }
+
     // ---- Schema Caching --------------------------------------------------------
 
-    private static final String CACHE_HEADER = "# SchemaGraph cache v1";
+    private static final String CACHE_HEADER = "# SchemaGraph cache v2";
+    private static final String CACHE_HEADER_V1 = "# SchemaGraph cache v1";
 
     /**
      * Save this schema graph to a text file.  The file can later be loaded
@@ -550,7 +893,11 @@ public List<Edge> findJoinPath(Set<String> tables, String rootTable) throws SQLE
      * <ul>
      *   <li>{@code TABLE tablename} — declares a table</li>
      *   <li>{@code FK fromTable fromCol1,fromCol2 toTable toCol1,toCol2} — declares a foreign key</li>
+     *   <li>{@code PATH fromTable table:fk:hops ...} — the shortest path tree from a table.  For each reachable
+     *       table it gives the FK (numbered from 0 in the order of the FK lines) used to reach it and its
+     *       distance</li>
      * </ul>
+     * Saving the paths means a graph loaded from the file doesn't have to compute them again.
      *
      * @param filePath the path to the cache file
      * @throws IOException if the file cannot be written
@@ -559,6 +906,7 @@ public void saveToFile(String filePath) throws IOException {
         // Collect unique edges to avoid writing duplicates
         // (each edge appears in two adjacency lists)
         Set<Edge> writtenEdges = new LinkedHashSet<>();
+        Map<Edge, Integer> edgeNumbers = new HashMap<>();
 
         try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(filePath)))) {
             pw.println(CACHE_HEADER);
@@ -576,6 +924,7 @@ public void saveToFile(String filePath) throws IOException {
                     continue;
                 for (Edge e : edges) {
                     if (writtenEdges.add(e)) {
+                        edgeNumbers.put(e, edgeNumbers.size());
                         pw.print("FK ");
                         pw.print(e.fromTable);
                         pw.print(" ");
@@ -587,12 +936,32 @@ public void saveToFile(String filePath) throws IOException {
                     }
                 }
             }
+
+            // Write the shortest path tree from each table
+            for (String table : sortedTables) {
+                PathTree tree = pathTree(table);
+                if (tree.via.isEmpty())
+                    continue;
+                pw.print("PATH ");
+                pw.print(table);
+                for (Map.Entry<String, Edge> ent : tree.via.entrySet()) {
+                    pw.print(" ");
+                    pw.print(ent.getKey());
+                    pw.print(":");
+                    pw.print(edgeNumbers.get(ent.getValue()));
+                    pw.print(":");
+                    pw.print(tree.hops.get(ent.getKey()));
+                }
+                pw.println();
+            }
         }
     }
 
     /**
      * Load a schema graph from a cache file previously saved with
-     * {@link #saveToFile(String)}.
+     * {@link #saveToFile(String)}.  Files written before join paths were
+     * saved are accepted; their paths are computed when loaded.  Saved paths are checked against the
+     * loaded foreign keys, and if any of them doesn't match, all of them are discarded and computed again.
      *
      * @param filePath the path to the cache file
      * @return a populated SchemaGraph
@@ -600,10 +969,13 @@ public void saveToFile(String filePath) throws IOException {
      */
     public static SchemaGraph loadFromFile(String filePath) throws IOException {
         SchemaGraph graph = new SchemaGraph();
+        List<Edge> edges = new ArrayList<>();
+        Map<String, PathTree> paths = new HashMap<>();
+        boolean pathsValid = true;
 
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
             String line = br.readLine();
-            if (line == null || !line.equals(CACHE_HEADER))
+            if (line == null || !line.equals(CACHE_HEADER) && !line.equals(CACHE_HEADER_V1))
                 throw new IOException("Invalid schema cache file: missing header");
 
             while ((line = br.readLine()) != null) {
@@ -622,68 +994,167 @@ public static SchemaGraph loadFromFile(String filePath) throws IOException {
                     String[] fromCols = parts[1].split(",");
                     String toTable = parts[2];
                     String[] toCols = parts[3].split(",");
-                    if (fromCols.length == 1 && toCols.length == 1)
-                        graph.addForeignKey(fromTable, fromCols[0], toTable, toCols[0]);
-                    else
-                        graph.addForeignKey(fromTable, fromCols, toTable, toCols);
+                    Edge edge = fromCols.length == 1 && toCols.length == 1
+                            ? new Edge(fromTable, fromCols[0], toTable, toCols[0])
+                            : new Edge(fromTable, fromCols, toTable, toCols);
+                    graph.addEdge(edge);
+                    edges.add(edge);
+                } else if (line.startsWith("PATH ")) {
+                    if (!pathsValid)
+                        continue;
+                    String[] parts = line.substring(5).trim().split("\\s+");
+                    PathTree tree = new PathTree();
+                    try {
+                        for (int i = 1; i < parts.length; i++) {
+                            String[] hop = parts[i].split(":");
+                            Edge edge = edges.get(Integer.parseInt(hop[1]));
+                            edge.otherTable(hop[0]);  // must touch the table it reaches
+                            tree.via.put(hop[0], edge);
+                            tree.hops.put(hop[0], Integer.parseInt(hop[2]));
+                        }
+                        paths.put(parts[0], tree);
+                    } catch (RuntimeException e) {
+                        logger.warn("Invalid PATH line in schema cache " + filePath + "; recomputing join paths: " + line);
+                        pathsValid = false;
+                    }
                 } else {
                     throw new IOException("Unrecognized line in schema cache: " + line);
                 }
             }
         }
 
+        for (Map.Entry<String, PathTree> ent : paths.entrySet())
+            if (pathsValid && !graph.isShortestPathTree(ent.getKey(), ent.getValue())) {
+                logger.warn("Join paths in schema cache " + filePath + " don't match its foreign keys; recomputing them");
+                pathsValid = false;
+            }
+
+        // Adding the tables and edges cleared the index, so install the saved paths last
+        if (pathsValid)
+            for (Map.Entry<String, PathTree> ent : paths.entrySet())
+                graph.pathIndex.put(ent.getKey(), ent.getValue());
+        graph.precomputeJoinPaths();
         return graph;
     }
 
+    /**
+     * Returns true if a path tree read from a cache file is the shortest path tree from its source
+     * over this graph's foreign keys.
+     * <br><br>
+     * Every hop must use a foreign key of the table it reaches whose other end is the source or a table one hop
+     * closer, and no foreign key of a table in the tree may lead to a table that is missing or more than one hop
+     * further.  Together these mean the tree reaches exactly the tables BFS would, at the same distances.
+     */
+    private boolean isShortestPathTree(String source, PathTree tree) {
+        if (!adjacency.containsKey(source) || tree.hops.containsKey(source) || !tree.via.keySet().equals(tree.hops.keySet()))
+            return false;
+        for (Map.Entry<String, Edge> ent : tree.via.entrySet()) {
+            final String table = ent.getKey();
+            final List<Edge> edges = adjacency.get(table);
+            if (edges == null || !edges.contains(ent.getValue()))
+                return false;
+            final String prev = ent.getValue().otherTable(table);
+            final int hops = tree.hops.get(table);
+            final int prevHops = prev.equals(source) ? 0 : tree.hops.getOrDefault(prev, -1);
+            if (hops < 1 || prevHops != hops - 1)
+                return false;
+        }
+        final Set<String> reached = new HashSet<>(tree.hops.keySet());
+        reached.add(source);
+        for (String table : reached) {
+            final List<Edge> edges = adjacency.get(table);
+            if (edges == null)
+                continue;
+            final int hops = table.equals(source) ? 0 : tree.hops.get(table);
+            for (Edge edge : edges) {
+                final String next = edge.otherTable(table);
+                if (!next.equals(source) && tree.hops.getOrDefault(next, Integer.MAX_VALUE) > hops + 1)
+                    return false;
+            }
+        }
+        return true;
+    }
+
     // ---- Internal helpers -------------------------------------------------------
 
     /**
-     * BFS from any table in the 'sources' set to the given target table.
-     * Returns the shortest path (list of edges) or null if unreachable.
+     * The shortest path from any table in the 'sources' set to the given target table,
+     * taken from the path index.  Returns the path (list of edges) or null if unreachable.
+     * When several sources are equally close, the first one in the set wins.
      */
-    private PathResult bfsShortestPath(Set<String> sources, String target) {
+    private PathResult shortestPath(Set<String> sources, String target) {
         if (sources.contains(target))
             return new PathResult(Collections.emptyList());
 
-        // BFS state: table → the edge used to reach it
-        Map<String, Edge> parentEdge = new HashMap<>();
-        // table → the table we came from
-        Map<String, String> parentTable = new HashMap<>();
-        Queue<String> queue = new LinkedList<>();
-
+        String bestSource = null;
+        int bestHops = Integer.MAX_VALUE;
         for (String source : sources) {
-            queue.add(source);
-            parentTable.put(source, null);
+            Integer hops = pathTree(source).hops.get(target);
+            if (hops != null && hops < bestHops) {
+                bestHops = hops;
+                bestSource = source;
+            }
         }
+        if (bestSource == null)
+            return null;  // unreachable
+
+        // Walk back from the target to the source
+        Map<String, Edge> via = pathTree(bestSource).via;
+        List<Edge> path = new ArrayList<>(bestHops);
+        String node = target;
+        while (!node.equals(bestSource)) {
+            Edge edge = via.get(node);
+            path.add(edge);
+            node = edge.otherTable(node);
+        }
+        Collections.reverse(path);
+        return new PathResult(path);
+    }
+
+    /**
+     * Returns the shortest path tree from a table, computing it by BFS if it isn't in the index.
+     */
+    private PathTree pathTree(String source) {
+        PathTree tree = pathIndex.get(source);
+        if (tree != null)
+            return tree;
+
+        tree = new PathTree();
+        Queue<String> queue = new ArrayDeque<>();
+        queue.add(source);
+        tree.hops.put(source, 0);
 
         while (!queue.isEmpty()) {
             String current = queue.poll();
             List<Edge> edges = adjacency.get(current);
             if (edges == null)
                 continue;
+            int hops = tree.hops.get(current) + 1;
 
             for (Edge edge : edges) {
                 String neighbor = edge.otherTable(current);
-                if (!parentTable.containsKey(neighbor)) {
-                    parentTable.put(neighbor, current);
-                    parentEdge.put(neighbor, edge);
-                    if (neighbor.equals(target)) {
-                        // Reconstruct path
-                        List<Edge> path = new ArrayList<>();
-                        String node = target;
-                        while (parentEdge.containsKey(node)) {
-                            path.add(parentEdge.get(node));
-                            node = parentTable.get(node);
-                        }
-                        Collections.reverse(path);
-                        return new PathResult(path);
-                    }
+                if (!tree.hops.containsKey(neighbor)) {
+                    tree.hops.put(neighbor, hops);
+                    tree.via.put(neighbor, edge);
                     queue.add(neighbor);
                 }
             }
         }
+        tree.hops.remove(source);
 
-        return null;  // unreachable
+        PathTree prev = pathIndex.putIfAbsent(source, tree);
+        return prev != null ? prev : tree;
+    }
+
+    /**
+     * Shortest paths from one table to every table reachable from it.
+     * Not modified once it is in the index.
+     */
+    private static class PathTree {
+        // reachable table → the edge used to reach it
+        final Map<String, Edge> via = new LinkedHashMap<>();
+        // reachable table → number of edges from the source
+        final Map<String, Integer> hops = new HashMap<>();
     }
 
     private static class PathResult {
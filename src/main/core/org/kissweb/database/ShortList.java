@@ -0,0 +1,196 @@
+package org.kissweb.database;
+
+import org.kissweb.json.JSONArray;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A growable list of <code>short</code> values that binds as an SQL array parameter (or an <code>IN</code>
+ * list) without boxing.
+ *
+ * @see PrimitiveList
+ */
+public final class ShortList extends PrimitiveList {
+
+    private short [] data;
+
+    /**
+     * Create an empty list.
+     */
+    public ShortList() {
+        data = new short[10];
+    }
+
+    /**
+     * Create an empty list with room for <code>capacity</code> elements.
+     *
+     * @param capacity the initial capacity
+     */
+    public ShortList(int capacity) {
+        data = new short[capacity];
+    }
+
+    /**
+     * Create a list holding the given values.
+     *
+     * @param values the values
+     * @return the new list
+     */
+    public static ShortList of(short ... values) {
+        final ShortList lst = new ShortList(values.length);
+        lst.addAll(values);
+        return lst;
+    }
+
+    /**
+     * Create a list from the numbers in a JSON array.  Numbers given as strings are parsed.
+     *
+     * @param arr the JSON array
+     * @return the new list
+     * @throws IllegalArgumentException if an element is null or not a number
+     */
+    public static ShortList from(JSONArray arr) {
+        final int n = arr.length();
+        final ShortList lst = new ShortList(n);
+        for (int i = 0; i < n; i++) {
+            final Object v = arr.opt(i);
+            if (v instanceof Number)
+                lst.data[i] = ((Number) v).shortValue();
+            else if (v instanceof String)
+                lst.data[i] = Short.parseShort(((String) v).trim());
+            else
+                throw new IllegalArgumentException("Element " + i + " is not a number");
+        }
+        lst.size = n;
+        return lst;
+    }
+
+    /**
+     * Append a value.
+     *
+     * @param v the value
+     */
+    public void add(short v) {
+        if (size == data.length)
+            data = Arrays.copyOf(data, grow(data.length, size + 1));
+        data[size++] = v;
+    }
+
+    /**
+     * Append values.
+     *
+     * @param values the values
+     */
+    public void addAll(short ... values) {
+        if (size + values.length > data.length)
+            data = Arrays.copyOf(data, grow(data.length, size + values.length));
+        System.arraycopy(values, 0, data, size, values.length);
+        size += values.length;
+    }
+
+    /**
+     * Returns the value at an index.
+     *
+     * @param i the index
+     * @return the value
+     */
+    public short get(int i) {
+        checkIndex(i);
+        return data[i];
+    }
+
+    /**
+     * Replace the value at an index.
+     *
+     * @param i the index
+     * @param v the new value
+     */
+    public void set(int i, short v) {
+        checkIndex(i);
+        data[i] = v;
+    }
+
+    /**
+     * Returns true if the list holds a value.
+     *
+     * @param v the value
+     * @return true if found
+     */
+    public boolean contains(short v) {
+        for (int i = 0; i < size; i++)
+            if (data[i] == v)
+                return true;
+        return false;
+    }
+
+    /**
+     * Sort the list into ascending order.
+     */
+    public void sort() {
+        Arrays.sort(data, 0, size);
+    }
+
+    /**
+     * Returns the values as a new array.
+     *
+     * @return the values
+     */
+    public short [] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @Override
+    String sqlType() {
+        return "smallint";
+    }
+
+    @Override
+    Object primitiveArray() {
+        return size == data.length ? data : toArray();
+    }
+
+    @Override
+    Object [] boxedArray() {
+        final Short [] a = new Short[size];
+        for (int i = 0; i < size; i++)
+            a[i] = data[i];
+        return a;
+    }
+
+    @Override
+    void appendLiteral(StringBuilder sb, int i) {
+        sb.append(data[i]);
+    }
+
+    @Override
+    public void writeJSON(Writer w) throws IOException {
+        final char [] buf = new char[20];
+        w.write('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                w.write(',');
+            writeNumber(w, buf, data[i]);
+        }
+        w.write(']');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof ShortList))
+            return false;
+        final ShortList other = (ShortList) o;
+        return size == other.size && Arrays.equals(data, 0, size, other.data, 0, size);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++)
+            h = 31 * h + data[i];
+        return h;
+    }
+}
@@ -0,0 +1,487 @@
+package org.kissweb.database;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Statistics on the SQL statements run through Kiss (<code>Command.execute</code>, <code>Command.query</code>
+ * and everything built on them, and <code>Record</code> adds, updates and deletes), and a slow-query log.
+ * <br><br>
+ * Statements are grouped by fingerprint: the SQL with literals replaced by <code>?</code>, lists of parameters
+ * collapsed, whitespace collapsed, and everything outside quoted names lower-cased.  For each fingerprint and
+ * each calling service the number of executions, total, median, 99th percentile and maximum time, rows returned
+ * or affected, and errors are kept.  Percentiles come from a log-scale histogram and are accurate to about 12%.
+ * <br><br>
+ * Statements taking at least the slow-query threshold are logged (as a warning) along with the calling service,
+ * the types of their parameters, and optionally the plan the database reports (<code>explain</code>) for slow
+ * selects.  The most recent slow queries are also kept in memory.
+ * <br><br>
+ * Both are off by default and may be turned on in <code>application.ini</code>:
+ * <pre>
+ *   DatabaseStatistics = true
+ *   DatabaseSlowQueryMillis = 1000
+ *   DatabaseExplainSlowQueries = false
+ * </pre>
+ * The data may be read with {@link #getStatistics()} and {@link #getSlowQueries()} (see the
+ * <code>SqlStatistics</code> web service).
+ * <br><br>
+ * This class is thread-safe.
+ */
+public final class SqlStats {
+
+    private static final Logger logger = LogManager.getLogger(SqlStats.class);
+
+    private static final int MAX_STATEMENTS = 5000;
+    private static final int MAX_FINGERPRINTS = 10_000;
+    private static final int MAX_SLOW = 100;
+    private static final String OTHER = "(other statements)";
+    private static final String NO_SERVICE = "(none)";
+
+    private static volatile boolean enabled;
+    private static volatile long slowNanos;
+    private static volatile boolean explainSlow;
+
+    // fingerprint → service → statistics
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Stat>> stats = new ConcurrentHashMap<>();
+    // SQL → fingerprint
+    private static final ConcurrentHashMap<String, String> fingerprints = new ConcurrentHashMap<>();
+    private static final ArrayDeque<JSONObject> slowQueries = new ArrayDeque<>();
+
+    private static final Pattern PARAM_LIST = Pattern.compile("\\(\\?(, \\?)+\\)");
+    private static final Pattern ROW_LIST = Pattern.compile("\\(\\?\\.\\.\\.\\)(, \\(\\?\\.\\.\\.\\))+");
+
+    private SqlStats() {
+    }
+
+    /**
+     * Turn statement statistics on or off.
+     *
+     * @param on true to collect statistics
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Returns true if statement statistics are being collected.
+     *
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set the time at or above which a statement is logged as slow.
+     *
+     * @param millis the threshold in milliseconds (0 disables the slow-query log)
+     */
+    public static void setSlowQueryMillis(long millis) {
+        slowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Set whether the plan of slow selects is obtained from the database (with <code>explain</code>) and
+     * logged with them.  This is supported on PostgreSQL, MySQL, and SQLite.  The select is not run again.
+     *
+     * @param explain true to log plans
+     */
+    public static void setExplainSlowQueries(boolean explain) {
+        explainSlow = explain;
+    }
+
+    /**
+     * Discard all statistics and slow queries.
+     */
+    public static void reset() {
+        stats.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    /**
+     * Returns the statistics of every statement fingerprint, those taking the most total time first.
+     * <br><br>
+     * Each object has <code>sql</code>, <code>count</code>, <code>totalMs</code>, <code>meanMs</code>,
+     * <code>p50Ms</code>, <code>p99Ms</code>, <code>maxMs</code>, <code>rows</code>, <code>errors</code>, and
+     * <code>services</code>, an array with the same values (except <code>sql</code>) for each calling
+     * service under <code>service</code>.
+     *
+     * @return the statistics
+     */
+    public static JSONArray getStatistics() {
+        final List<JSONObject> list = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, Stat>> e : stats.entrySet()) {
+            final Stat all = new Stat();
+            final List<JSONObject> services = new ArrayList<>();
+            for (Map.Entry<String, Stat> s : e.getValue().entrySet()) {
+                all.merge(s.getValue());
+                final JSONObject obj = s.getValue().toJSON();
+                obj.put("service", s.getKey());
+                services.add(obj);
+            }
+            services.sort((a, b) -> Double.compare(b.getDouble("totalMs"), a.getDouble("totalMs")));
+            final JSONObject obj = all.toJSON();
+            obj.put("sql", e.getKey());
+            obj.put("services", new JSONArray(services));
+            list.add(obj);
+        }
+        list.sort((a, b) -> Double.compare(b.getDouble("totalMs"), a.getDouble("totalMs")));
+        return new JSONArray(list);
+    }
+
+    /**
+     * Returns the most recent slow queries (up to 100), newest last.
+     * <br><br>
+     * Each object has <code>time</code>, <code>ms</code>, <code>service</code>, <code>sql</code>,
+     * <code>paramTypes</code>, <code>rows</code>, <code>failed</code>, and <code>plan</code> if one was obtained.
+     *
+     * @return the slow queries
+     */
+    public static JSONArray getSlowQueries() {
+        synchronized (slowQueries) {
+            return new JSONArray(new ArrayList<>(slowQueries));
+        }
+    }
+
+    /**
+     * Returns the fingerprint of an SQL statement: string and numeric literals are replaced by <code>?</code>,
+     * lists of parameters are collapsed to <code>(?...)</code>, whitespace is collapsed, and everything outside
+     * quoted names is lower-cased.
+     *
+     * @param sql the SQL
+     * @return the fingerprint
+     */
+    public static String fingerprint(String sql) {
+        String fp = fingerprints.get(sql);
+        if (fp == null) {
+            fp = makeFingerprint(sql);
+            if (fingerprints.size() >= MAX_FINGERPRINTS)
+                fingerprints.clear();
+            fingerprints.put(sql, fp);
+        }
+        return fp;
+    }
+
+    private static String makeFingerprint(String sql) {
+        final StringBuilder sb = new StringBuilder(sql.length());
+        final int len = sql.length();
+        boolean space = false;
+        for (int i = 0; i < len; ) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                i++;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                // string literal ('' is an escaped quote)
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'')
+                            i += 2;
+                        else
+                            break;
+                    } else
+                        i++;
+                }
+                i++;
+                sb.append('?');
+            } else if (c == '"' || c == '`' || c == '[') {
+                // quoted name, kept as is
+                final char close = c == '[' ? ']' : c;
+                final int end = sql.indexOf(close, i + 1);
+                final int stop = end < 0 ? len : end + 1;
+                sb.append(sql, i, stop);
+                i = stop;
+            } else if (Character.isDigit(c) && (sb.length() == 0 || !isNameChar(sb.charAt(sb.length() - 1)))) {
+                i++;
+                while (i < len && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++;
+                if (i < len && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+                    i++;
+                    if (i < len && (sql.charAt(i) == '+' || sql.charAt(i) == '-'))
+                        i++;
+                    while (i < len && Character.isDigit(sql.charAt(i)))
+                        i++;
+                }
+                sb.append('?');
+            } else if (c == '=' || c == '<' || c == '>' || c == '!') {
+                // comparison operators are always surrounded by one space
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ')
+                    sb.append(' ');
+                while (i < len && "=<>!".indexOf(sql.charAt(i)) >= 0)
+                    sb.append(sql.charAt(i++));
+                space = true;
+            } else {
+                sb.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        String fp = sb.toString().replace("( ", "(").replace(" )", ")").replace(" ,", ",").replace(",?", ", ?");
+        fp = PARAM_LIST.matcher(fp).replaceAll("(?...)");
+        return ROW_LIST.matcher(fp).replaceAll("(?...)...");
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * Returns the start time of a statement, or 0 if neither statistics nor the slow-query log are enabled.
+     */
+    static long start() {
+        return enabled || slowNanos > 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a statement.
+     *
+     * @param conn the connection the statement ran on
+     * @param sql the SQL
+     * @param args the parameter values, or null if not available (the types are then taken from <code>stmt</code>)
+     * @param stmt the statement
+     * @param start the value returned by {@link #start()}
+     * @param rows the rows returned or affected, or -1 to take the update count from <code>stmt</code>
+     * @param failed true if the statement failed
+     */
+    static void record(Connection conn, String sql, Object [] args, Statement stmt, long start, long rows, boolean failed) {
+        if (start == 0)
+            return;
+        final long nanos = System.nanoTime() - start;
+        if (rows < 0)
+            try {
+                rows = failed || stmt == null ? 0 : Math.max(0, stmt.getUpdateCount());
+            } catch (SQLException e) {
+                rows = 0;
+            }
+        final String service = conn.getStatisticsLabel() == null ? NO_SERVICE : conn.getStatisticsLabel();
+        if (enabled) {
+            String fp = fingerprint(sql);
+            ConcurrentHashMap<String, Stat> byService = stats.get(fp);
+            if (byService == null) {
+                if (stats.size() >= MAX_STATEMENTS)
+                    fp = OTHER;
+                byService = stats.computeIfAbsent(fp, k -> new ConcurrentHashMap<>());
+            }
+            byService.computeIfAbsent(service, k -> new Stat()).add(nanos, rows, failed);
+        }
+        final long slow = slowNanos;
+        if (slow > 0 && nanos >= slow)
+            logSlow(conn, sql, args, stmt, nanos, rows, failed, service);
+    }
+
+    private static void logSlow(Connection conn, String sql, Object [] args, Statement stmt, long nanos, long rows, boolean failed, String service) {
+        final JSONObject obj = new JSONObject();
+        final double ms = nanos / 1_000_000.0;
+        final JSONArray types = paramTypes(args, stmt);
+        obj.put("time", Instant.now().toString());
+        obj.put("ms", Math.round(ms * 1000) / 1000.0);
+        obj.put("service", service);
+        obj.put("sql", sql);
+        obj.put("paramTypes", types);
+        obj.put("rows", rows);
+        obj.put("failed", failed);
+        String plan = null;
+        if (explainSlow && !failed && args != null)
+            plan = explain(conn, sql, args);
+        if (plan != null)
+            obj.put("plan", plan);
+        synchronized (slowQueries) {
+            if (slowQueries.size() >= MAX_SLOW)
+                slowQueries.removeFirst();
+            slowQueries.addLast(obj);
+        }
+        logger.warn("Slow SQL (" + Math.round(ms) + " ms, " + rows + " rows, service " + service + (failed ? ", failed" : "") +
+                "): " + sql + "  param types: " + types + (plan == null ? "" : "\n" + plan));
+    }
+
+    private static JSONArray paramTypes(Object [] args, Statement stmt) {
+        final JSONArray types = new JSONArray();
+        if (args != null) {
+            for (Object a : args)
+                types.put(a == null ? "null" : a.getClass().getSimpleName());
+        } else if (stmt instanceof PreparedStatement) {
+            try {
+                final ParameterMetaData pmd = ((PreparedStatement) stmt).getParameterMetaData();
+                for (int i = 1; i <= pmd.getParameterCount(); i++)
+                    types.put(pmd.getParameterTypeName(i));
+            } catch (SQLException e) {
+                // not supported by the driver
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Returns the plan of a select, or null if it can't be obtained.
+     */
+    private static String explain(Connection conn, String sql, Object [] args) {
+        final String trimmed = sql.trim().toLowerCase();
+        if (!trimmed.startsWith("select") && !trimmed.startsWith("with"))
+            return null;
+        final String prefix;
+        switch (conn.getDBType()) {
+            case PostgreSQL:
+            case MySQL:
+                prefix = "explain ";
+                break;
+            case SQLite:
+                prefix = "explain query plan ";
+                break;
+            default:
+                return null;
+        }
+        final java.sql.Connection sconn = conn.conn;
+        Savepoint savepoint = null;
+        try {
+            // a failed explain must not abort the transaction (PostgreSQL)
+            if (conn.getDBType() == Connection.ConnectionType.PostgreSQL && !sconn.getAutoCommit())
+                savepoint = sconn.setSavepoint();
+            final StringBuilder sb = new StringBuilder();
+            try (PreparedStatement ps = sconn.prepareStatement(prefix + sql)) {
+                for (int i = 0; i < args.length; i++)
+                    Record.bindValue(conn, ps, i + 1, args[i]);
+                try (ResultSet rs = ps.executeQuery()) {
+                    final ResultSetMetaData md = rs.getMetaData();
+                    final int ncols = md.getColumnCount();
+                    while (rs.next()) {
+                        if (sb.length() > 0)
+                            sb.append('\n');
+                        for (int c = 1; c <= ncols; c++) {
+                            if (c > 1)
+                                sb.append(" | ");
+                            sb.append(rs.getString(c));
+                        }
+                    }
+                }
+            }
+            if (savepoint != null)
+                sconn.releaseSavepoint(savepoint);
+            return sb.toString();
+        } catch (SQLException e) {
+            logger.debug("Could not explain slow query: " + e.getMessage());
+            if (savepoint != null)
+                try {
+                    sconn.rollback(savepoint);
+                } catch (SQLException ignored) {
+                }
+            return null;
+        }
+    }
+
+    /**
+     * Statistics of one fingerprint for one service.
+     */
+    private static final class Stat {
+        // micros 0-7 exactly, then four buckets per power of two
+        private static final int BUCKETS = 160;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void add(long nanos, long nrows, boolean failed) {
+            count.increment();
+            totalNanos.add(nanos);
+            rows.add(nrows);
+            if (failed)
+                errors.increment();
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            histogram.incrementAndGet(bucket(nanos / 1000));
+        }
+
+        void merge(Stat s) {
+            count.add(s.count.sum());
+            totalNanos.add(s.totalNanos.sum());
+            rows.add(s.rows.sum());
+            errors.add(s.errors.sum());
+            maxNanos.accumulateAndGet(s.maxNanos.get(), Math::max);
+            for (int i = 0; i < BUCKETS; i++)
+                histogram.addAndGet(i, s.histogram.get(i));
+        }
+
+        static int bucket(long micros) {
+            if (micros < 8)
+                return (int) Math.max(0, micros);
+            final int e = 63 - Long.numberOfLeadingZeros(micros);
+            final int sub = (int) (micros >>> (e - 2)) & 3;
+            return Math.min(8 + (e - 3) * 4 + sub, BUCKETS - 1);
+        }
+
+        static long bucketStart(int b) {
+            if (b < 8)
+                return b;
+            final int e = (b - 8) / 4 + 3;
+            return (4L + (b - 8) % 4) << (e - 2);
+        }
+
+        /**
+         * Returns the time in milliseconds below which the given fraction of executions fall.
+         */
+        double percentileMs(double fraction) {
+            final long n = count.sum();
+            if (n == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram.get(b);
+                if (seen >= rank) {
+                    final double mid = b < 8 ? b : (bucketStart(b) + bucketStart(b + 1)) / 2.0;
+                    return Math.min(mid / 1000.0, maxNanos.get() / 1_000_000.0);
+                }
+            }
+            return maxNanos.get() / 1_000_000.0;
+        }
+
+        JSONObject toJSON() {
+            final long n = count.sum();
+            final double total = totalNanos.sum() / 1_000_000.0;
+            final JSONObject obj = new JSONObject();
+            obj.put("count", n);
+            obj.put("totalMs", round(total));
+            obj.put("meanMs", round(n == 0 ? 0 : total / n));
+            obj.put("p50Ms", round(percentileMs(0.5)));
+            obj.put("p99Ms", round(percentileMs(0.99)));
+            obj.put("maxMs", round(maxNanos.get() / 1_000_000.0));
+            obj.put("rows", rows.sum());
+            obj.put("errors", errors.sum());
+            return obj;
+        }
+
+        private static double round(double ms) {
+            return Math.round(ms * 1000) / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.kissweb.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the insert-or-update statements used by <code>Record.upsert()</code> and <code>BatchWriter.upsert()</code>.
+ * <br><br>
+ * A row is matched on the table's primary key.  PostgreSQL and SQLite use <code>insert ... on conflict (key) do
+ * update</code>, MySQL uses <code>insert ... on duplicate key update</code>, and Microsoft SQL Server and Oracle use
+ * <code>merge</code>.  All but Oracle accept several rows in one statement.
+ *
+ * @see Record#upsert()
+ * @see BatchWriter#upsert(Record)
+ */
+final class Upsert {
+
+    private Upsert() {
+    }
+
+    /**
+     * Build the statement.  The parameters are the values of <code>cols</code>, row by row.
+     *
+     * @param type the database type
+     * @param table the table name
+     * @param cols the columns written (which must include every primary key column)
+     * @param keys the primary key columns
+     * @param rows the number of rows (1 for Oracle)
+     * @return the SQL
+     * @throws SQLException if a key column has no value or the database type isn't supported
+     */
+    static String sql(Connection.ConnectionType type, String table, String [] cols, List<String> keys, int rows) throws SQLException {
+        final List<String> set = new ArrayList<>(cols.length);  // the non-key columns, updated when the row exists
+        int nkeys = 0;
+        for (String col : cols)
+            if (containsIgnoreCase(keys, col))
+                nkeys++;
+            else
+                set.add(col);
+        if (nkeys != keys.size())
+            throw new SQLException("Can't upsert into " + table + "; every primary key column (" + String.join(", ", keys) + ") must have a value");
+        if (type == null)
+            throw new SQLException("Upsert is not supported for this database type");
+        final StringBuilder sql = new StringBuilder();
+        switch (type) {
+            case PostgreSQL:
+            case SQLite:
+                appendInsert(sql, table, cols, rows);
+                sql.append(" on conflict (").append(String.join(", ", keys)).append(") do ");
+                if (set.isEmpty())
+                    sql.append("nothing");
+                else {
+                    sql.append("update set ");
+                    for (int c = 0; c < set.size(); c++)
+                        sql.append(c == 0 ? "" : ", ").append(set.get(c)).append(" = excluded.").append(set.get(c));
+                }
+                break;
+            case MySQL:
+                appendInsert(sql, table, cols, rows);
+                sql.append(" on duplicate key update ");
+                if (set.isEmpty())
+                    sql.append(keys.get(0)).append(" = ").append(keys.get(0));
+                else
+                    for (int c = 0; c < set.size(); c++)
+                        sql.append(c == 0 ? "" : ", ").append(set.get(c)).append(" = values(").append(set.get(c)).append(")");
+                break;
+            case MicrosoftServer:
+                sql.append("merge into ").append(table).append(" with (holdlock) as tgt using (values ");
+                for (int r = 0; r < rows; r++)
+                    appendRow(sql.append(r == 0 ? "" : ", "), cols.length);
+                sql.append(") as src (").append(String.join(", ", cols)).append(")");
+                appendMerge(sql, cols, keys, set);
+                sql.append(";");  // required at the end of a merge
+                break;
+            case Oracle:
+                if (rows != 1)
+                    throw new SQLException("Oracle upserts are one row per statement");
+                sql.append("merge into ").append(table).append(" tgt using (select ");
+                for (int c = 0; c < cols.length; c++)
+                    sql.append(c == 0 ? "" : ", ").append("? ").append(cols[c]);
+                sql.append(" from dual) src");
+                appendMerge(sql, cols, keys, set);
+                break;
+            default:
+                throw new SQLException("Upsert is not supported for " + type);
+        }
+        return sql.toString();
+    }
+
+    private static void appendInsert(StringBuilder sql, String table, String [] cols, int rows) {
+        sql.append("insert into ").append(table).append(" (").append(String.join(", ", cols)).append(") values ");
+        for (int r = 0; r < rows; r++)
+            appendRow(sql.append(r == 0 ? "" : ", "), cols.length);
+    }
+
+    private static void appendRow(StringBuilder sql, int ncols) {
+        sql.append("(");
+        for (int c = 0; c < ncols; c++)
+            sql.append(c == 0 ? "?" : ", ?");
+        sql.append(")");
+    }
+
+    private static void appendMerge(StringBuilder sql, String [] cols, List<String> keys, List<String> set) {
+        sql.append(" on (");
+        for (int k = 0; k < keys.size(); k++)
+            sql.append(k == 0 ? "" : " and ").append("tgt.").append(keys.get(k)).append(" = src.").append(keys.get(k));
+        sql.append(")");
+        if (!set.isEmpty()) {
+            sql.append(" when matched then update set ");
+            for (int c = 0; c < set.size(); c++)
+                sql.append(c == 0 ? "" : ", ").append("tgt.").append(set.get(c)).append(" = src.").append(set.get(c));
+        }
+        sql.append(" when not matched then insert (").append(String.join(", ", cols)).append(") values (");
+        for (int c = 0; c < cols.length; c++)
+            sql.append(c == 0 ? "" : ", ").append("src.").append(cols[c]);
+        sql.append(")");
+    }
+
+    private static boolean containsIgnoreCase(List<String> names, String name) {
+        for (String n : names)
+            if (n.equalsIgnoreCase(name))
+                return true;
+        return false;
+    }
+}
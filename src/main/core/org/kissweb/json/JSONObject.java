@@ -1470,7 +1470,15 @@ static String quote(String string) {
         }
     }
 
-    private static Writer quote(String string, Writer w) throws IOException {
+    /**
+     * Write a string as a quoted JSON string with the necessary characters escaped.
+     *
+     * @param string the string
+     * @param w the writer to write to
+     * @return the writer
+     * @throws IOException if an error occurs writing
+     */
+    public static Writer quote(String string, Writer w) throws IOException {
         if (string == null || string.isEmpty()) {
             w.write("\"\"");
             return w;
@@ -1866,7 +1874,7 @@ static Object wrap(Object object) {
                 return null;
             }
             if (object instanceof JSONObject || object instanceof JSONArray
-                    || object instanceof JSONString
+                    || object instanceof JSONString || object instanceof JSONWritable
                     || object instanceof Byte || object instanceof Character
                     || object instanceof Short || object instanceof Integer
                     || object instanceof Long || object instanceof Boolean
@@ -1916,10 +1924,25 @@ public Writer write(Writer writer) throws JSONException {
         return this.write(writer, 0, 0);
     }
 
+    /**
+     * Write a value (anything that may be put into a JSONObject) as JSON text without building it in memory.
+     *
+     * @param writer the writer to write to
+     * @param value the value
+     * @return the writer
+     * @throws JSONException if the value is not a valid JSON value (e.g. a non-finite number)
+     * @throws IOException if an error occurs writing
+     */
+    public static Writer writeValue(Writer writer, Object value) throws JSONException, IOException {
+        return writeValue(writer, value, 0, 0);
+    }
+
     static Writer writeValue(Writer writer, Object value,
                              int indentFactor, int indent) throws JSONException, IOException {
         if (value == null) {
             writer.write("null");
+        } else if (value instanceof JSONWritable) {
+            ((JSONWritable) value).writeJSON(writer);
         } else if (value instanceof JSONString) {
             Object o;
             try {
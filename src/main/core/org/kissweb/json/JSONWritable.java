@@ -0,0 +1,20 @@
+package org.kissweb.json;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The <code>JSONWritable</code> interface allows a value to write its own JSON text directly to the
+ * writer used by <code>JSONObject.write</code> and <code>JSONArray.write</code> (and therefore
+ * <code>toString()</code>).  Unlike {@link JSONString}, the text is never built as a whole in memory,
+ * so large values (e.g. the rows of a query) can be streamed into a response.
+ */
+public interface JSONWritable {
+    /**
+     * Write this value as JSON text.
+     *
+     * @param writer the writer to write to
+     * @throws IOException if an error occurs producing or writing the value
+     */
+    void writeJSON(Writer writer) throws IOException;
+}
@@ -0,0 +1,341 @@
+package org.kissweb.restServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named, isolated worker pool with its own concurrency limit and queue.
+ * <br><br>
+ * All web services normally run on the <code>default</code> bulkhead (sized by <code>MaxWorkerThreads</code>).
+ * Slow classes of work (reports, LLM calls, long SSE streams, etc.) can be assigned to their own bulkhead so
+ * they can never occupy all the workers that fast CRUD services need.  A request is parsed on the default pool
+ * and, if its service is assigned to another bulkhead, handed off to that bulkhead before a database connection
+ * is obtained.  When a bulkhead's queue is full the request is rejected immediately with a "server busy" error.
+ * <br><br>
+ * Bulkheads may be configured in <code>application.ini</code>:
+ * <pre>
+ *   Bulkheads = reports, ai
+ *   Bulkhead.reports.MaxThreads = 4
+ *   Bulkhead.reports.QueueSize = 50
+ *   Bulkhead.reports.Services = services.Reports, services.*.export*
+ *   Bulkhead.ai.MaxThreads = 8
+ *   Bulkhead.ai.Services = services.Chat
+ * </pre>
+ * or programmatically (e.g. in <code>KissInit.init()</code>) with {@link #define(String, int, int)} and
+ * {@link #assign(String, String)}.
+ * <br><br>
+ * Service patterns are matched against <code>className.methodName</code>.  <code>*</code> matches any
+ * sequence of characters.  A pattern without a wildcard that equals a class name matches every method in
+ * that class.  The first matching pattern wins.
+ * <br><br>
+ * This class is thread-safe.
+ */
+public final class Bulkhead {
+
+    private static final Logger logger = LogManager.getLogger(Bulkhead.class);
+
+    /** The name of the bulkhead used by all services not assigned elsewhere. */
+    public static final String DEFAULT = "default";
+
+    private static final int MAX_RESOLVED = 10_000;
+
+    private static final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private static final List<Rule> rules = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<String, Bulkhead> resolved = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final int maxThreads;
+    private final int queueSize;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger peakQueued = new AtomicInteger();
+
+    private Bulkhead(String name, int maxThreads, int queueSize) {
+        this.name = name;
+        this.maxThreads = maxThreads;
+        this.queueSize = queueSize;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        pool = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
+                queueSize > 0 ? new LinkedBlockingQueue<>(queueSize) : new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "kiss-" + name + "-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Define (or return the existing) bulkhead.
+     *
+     * @param name the bulkhead name
+     * @param maxThreads the maximum number of services that may run concurrently in this bulkhead
+     * @param queueSize the maximum number of waiting requests (0 means unbounded)
+     * @return the bulkhead
+     */
+    public static Bulkhead define(String name, int maxThreads, int queueSize) {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("Bulkhead name is required");
+        if (maxThreads < 1)
+            throw new IllegalArgumentException("Bulkhead " + name + " requires at least one thread");
+        return bulkheads.computeIfAbsent(name, n -> {
+            logger.info("* * * Bulkhead " + n + " created: threads=" + maxThreads + ", queue=" + (queueSize > 0 ? queueSize : "unbounded"));
+            return new Bulkhead(n, maxThreads, queueSize);
+        });
+    }
+
+    /**
+     * Assign services matching a pattern to a bulkhead.
+     *
+     * @param servicePattern pattern matched against <code>className.methodName</code> (see class description)
+     * @param bulkheadName the bulkhead (must already be defined, or be {@link #DEFAULT})
+     */
+    public static void assign(String servicePattern, String bulkheadName) {
+        if (!DEFAULT.equals(bulkheadName) && !bulkheads.containsKey(bulkheadName))
+            throw new IllegalArgumentException("Bulkhead " + bulkheadName + " is not defined");
+        rules.add(new Rule(servicePattern, bulkheadName));
+        resolved.clear();
+    }
+
+    /**
+     * Returns a bulkhead by name, or null if it doesn't exist.
+     *
+     * @param name the bulkhead name
+     * @return the bulkhead or null
+     */
+    public static Bulkhead get(String name) {
+        return bulkheads.get(name);
+    }
+
+    /**
+     * Determine the bulkhead a service should run in.
+     *
+     * @param className the service class
+     * @param methodName the service method
+     * @return the bulkhead, or null if the service runs on the default bulkhead
+     */
+    static Bulkhead forService(String className, String methodName) {
+        if (rules.isEmpty())
+            return null;
+        final String key = className + "." + methodName;
+        Bulkhead bh = resolved.get(key);
+        if (bh != null)
+            return bh.name.equals(DEFAULT) ? null : bh;
+        bh = bulkheads.get(DEFAULT);
+        for (Rule rule : rules)
+            if (rule.matches(className, key)) {
+                bh = bulkheads.get(rule.bulkhead);
+                break;
+            }
+        if (bh != null && resolved.size() < MAX_RESOLVED)
+            resolved.put(key, bh);
+        return bh == null || bh.name.equals(DEFAULT) ? null : bh;
+    }
+
+    /**
+     * Reads the bulkhead configuration from the application environment (normally <code>application.ini</code>).
+     */
+    static void configure() {
+        final String list = (String) MainServlet.getEnvironment("Bulkheads");
+        if (list == null || list.trim().isEmpty())
+            return;
+        for (String name : list.split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || name.equals(DEFAULT))
+                continue;
+            final Integer maxThreads = MainServlet.getEnvironmentInt("Bulkhead." + name + ".MaxThreads");
+            final Integer queueSize = MainServlet.getEnvironmentInt("Bulkhead." + name + ".QueueSize");
+            define(name, maxThreads == null ? 2 : maxThreads, queueSize == null ? 100 : queueSize);
+            final String services = (String) MainServlet.getEnvironment("Bulkhead." + name + ".Services");
+            if (services != null)
+                for (String pattern : services.split(","))
+                    if (!pattern.trim().isEmpty())
+                        assign(pattern, name);
+        }
+    }
+
+    /**
+     * Create the default bulkhead.
+     */
+    static Bulkhead defineDefault(int maxThreads) {
+        return define(DEFAULT, maxThreads, 0);
+    }
+
+    /**
+     * Run a task in this bulkhead.
+     *
+     * @param task the task
+     * @return false if the bulkhead is saturated (or shut down) and the task was rejected
+     */
+    boolean submit(Runnable task) {
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        final int queued = pool.getQueue().size();
+        int peak;
+        while (queued > (peak = peakQueued.get()) && !peakQueued.compareAndSet(peak, queued));
+        return true;
+    }
+
+    /**
+     * Shut down all bulkheads and forget their configuration.
+     */
+    static void shutdownAll() {
+        for (Bulkhead bh : bulkheads.values())
+            bh.shutdown();
+        bulkheads.clear();
+        rules.clear();
+        resolved.clear();
+    }
+
+    private void shutdown() {
+        if (pool.isShutdown())
+            return;
+        try {
+            logger.info("Shutting down bulkhead " + name + "...");
+            pool.shutdown();
+            if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Bulkhead " + name + " did not terminate gracefully, forcing shutdown...");
+                pool.shutdownNow();
+                if (!pool.awaitTermination(2, TimeUnit.SECONDS))
+                    logger.error("Bulkhead " + name + " did not terminate after forced shutdown");
+            }
+        } catch (InterruptedException ie) {
+            logger.error("Bulkhead " + name + " shutdown interrupted", ie);
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ---- Metrics ---- */
+
+    /**
+     * @return the bulkhead name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximum number of concurrently running services
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * @return the maximum number of waiting requests (0 means unbounded)
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return the number of services currently running
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * @return the number of requests currently waiting
+     */
+    public int getQueuedCount() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return the largest queue length observed
+     */
+    public int getPeakQueuedCount() {
+        return peakQueued.get();
+    }
+
+    /**
+     * @return the number of requests that have completed
+     */
+    public long getCompletedCount() {
+        return pool.getCompletedTaskCount();
+    }
+
+    /**
+     * @return the number of requests rejected because the bulkhead was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns how full this bulkhead is: running plus waiting requests divided by threads plus queue capacity.
+     * For an unbounded queue only the threads are counted, so values above 1.0 indicate a backlog.
+     *
+     * @return the saturation (0.0 = idle, 1.0 = full)
+     */
+    public double getSaturation() {
+        final int capacity = maxThreads + queueSize;
+        return (double) (getActiveCount() + getQueuedCount()) / capacity;
+    }
+
+    /**
+     * Returns this bulkhead's metrics.
+     *
+     * @return the metrics as a JSON object
+     */
+    public JSONObject getStats() {
+        final JSONObject obj = new JSONObject();
+        obj.put("name", name);
+        obj.put("maxThreads", maxThreads);
+        obj.put("queueSize", queueSize);
+        obj.put("active", getActiveCount());
+        obj.put("queued", getQueuedCount());
+        obj.put("peakQueued", getPeakQueuedCount());
+        obj.put("completed", getCompletedCount());
+        obj.put("rejected", getRejectedCount());
+        obj.put("saturation", getSaturation());
+        return obj;
+    }
+
+    /**
+     * Returns the metrics of every bulkhead.
+     *
+     * @return a JSON array with one object per bulkhead
+     * @see #getStats()
+     */
+    public static JSONArray getAllStats() {
+        final List<String> names = new ArrayList<>(bulkheads.keySet());
+        names.sort(String::compareTo);
+        final JSONArray arr = new JSONArray();
+        for (String n : names) {
+            Bulkhead bh = bulkheads.get(n);
+            if (bh != null)
+                arr.put(bh.getStats());
+        }
+        return arr;
+    }
+
+    private static final class Rule {
+        private final ServicePattern pattern;
+        private final String bulkhead;
+
+        Rule(String pattern, String bulkhead) {
+            this.pattern = new ServicePattern(pattern);
+            this.bulkhead = bulkhead;
+        }
+
+        boolean matches(String className, String key) {
+            return pattern.matches(className, key);
+        }
+    }
+}
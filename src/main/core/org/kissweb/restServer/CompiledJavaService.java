@@ -1,18 +1,61 @@
 package org.kissweb.restServer;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.LRUSet;
+import org.kissweb.ServerException;
 import org.kissweb.database.Connection;
 import org.kissweb.json.JSONObject;
 
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 
 /**
+ * Dispatches web services to classes that were compiled ahead of time (<code>src/main/precompiled</code>).
+ * <br><br>
+ * The class directories on the application class path are scanned once at startup.  Classes annotated with
+ * {@link KissService}, and classes in a package named <code>service</code> whose names end with <code>Service</code>,
+ * are registered in an immutable route table together with their service methods.  A call to one of these
+ * services is then a single map lookup followed by a reflective call - no file checks and no compilation.
+ * <br><br>
+ * The registry is consulted before Groovy and Java services.  Service names that are not found anywhere are
+ * remembered in a small negative cache so repeated calls to unknown services fail immediately.  Entries expire
+ * after <code>ProcessServlet.CheckCacheDelay</code> seconds so newly added Groovy or Java services are picked up.
+ * <br><br>
  * Author: Blake McBride
  * Date: 5/5/18
  */
 public class CompiledJavaService {
 
+    private static final Logger logger = LogManager.getLogger(CompiledJavaService.class);
+
+    private static final String ANNOTATION_DESCRIPTOR = "L" + KissService.class.getName().replace('.', '/') + ";";
+    private static final Class<?>[] SERVICE_SIGNATURE = { JSONObject.class, JSONObject.class, Connection.class, ProcessServlet.class };
+    private static final int MAX_MISSING = 10_000;
+
+    private static volatile Map<String, Route> routes = Collections.emptyMap();
+    private static final LRUSet<String> missing = new LRUSet<>(MAX_MISSING, ProcessServlet.CheckCacheDelay);
+
     /**
      * Public constructor for CompiledJavaService.
      * Creates a new instance of the CompiledJavaService class.
@@ -22,53 +65,193 @@ public CompiledJavaService() {
     }
 
     ProcessServlet.ExecutionReturn tryCompiledJava(ProcessServlet ms, HttpServletResponse response, String _className, String _method, JSONObject injson, JSONObject outjson) {
-
-        if (true)
-            return ProcessServlet.ExecutionReturn.NotFound;   // not done yet
-
-
-        Class<?> cls = null;
-        String dynamicClassPath = MainServlet.getDynamicClassPath();
-        if (!ms.isEmpty(dynamicClassPath)) {
-            if (dynamicClassPath.charAt(dynamicClassPath.length() - 1) != '/')
-                dynamicClassPath += "/";
-            String classPath = dynamicClassPath + _className.replace(".", "/") + "/";
-            try {
-                cls = ProcessServlet.class.getClassLoader().loadClass(_className);
-            } catch (Throwable e) {
-                // ignore
-            }
+        final Route route = routes.get(_className);
+        if (route == null)
+            return ProcessServlet.ExecutionReturn.NotFound;
+        final Method meth = route.methods.get(_method);
+        if (meth == null) {
+            ms.errorReturn(response, "Method " + _method + " not found in class " + route.cls.getName(), null);
+            return ProcessServlet.ExecutionReturn.Error;
         }
-        if (cls == null)
-            try {
-                cls = Class.forName(_className + "." + _className);
-            } catch (ClassNotFoundException classNotFoundException) {
-                // ignore
-            }
-        if (cls != null) {
-            Class<?>[] ca = {
-                    JSONObject.class,
-                    JSONObject.class,
-                    Connection.class,
-                    ProcessServlet.class
-            };
-
-            Method methp;
+        final Object instance;
+        if (Modifier.isStatic(meth.getModifiers()))
+            instance = null;
+        else
             try {
-                methp = cls.getMethod(_method, ca);  // had to use tmethp to be able to use @SuppressWarnings
+                instance = route.cls.getDeclaredConstructor().newInstance();
             } catch (Exception e) {
-                ms.errorReturn(response, "Java method " + _method + " not found in class " + this.getClass().getName(), e);
+                ms.errorReturn(response, "Error creating instance of " + route.cls.getName(), e);
                 return ProcessServlet.ExecutionReturn.Error;
             }
-            try {
-                methp.invoke(null, injson, outjson, ms.DB, this);
-            } catch (Exception e) {
-                ms.errorReturn(response, "Error executing Java method " + _method + " not found in class " + this.getClass().getName(), e);
-                return ProcessServlet.ExecutionReturn.Error;
+        try {
+            meth.invoke(instance, injson, outjson, ms.DB, ms);
+        } catch (InvocationTargetException e) {
+            Throwable te = e.getTargetException();
+            if (te instanceof ServerException)
+                logger.error(te);
+            ms.errorReturn(response, te.getMessage(), te);
+            return ProcessServlet.ExecutionReturn.Error;
+        } catch (Exception e) {
+            ms.errorReturn(response, "Error executing Java method " + _method + " in class " + route.cls.getName(), e);
+            return ProcessServlet.ExecutionReturn.Error;
+        }
+        return ProcessServlet.ExecutionReturn.Success;
+    }
+
+    /* ---- Negative lookup cache ---- */
+
+    /**
+     * Returns true if a service of this name was recently looked for and not found anywhere.
+     */
+    static boolean isKnownMissing(String className) {
+        return missing.contains(className);
+    }
+
+    /**
+     * Remember that no service of this name exists.
+     */
+    static void recordMissing(String className) {
+        missing.add(className);
+    }
+
+    /* ---- Registration ---- */
+
+    /**
+     * Scan the class directories on the application class path and register every precompiled service.
+     * This replaces any previous registrations.
+     */
+    static synchronized void discover() {
+        final ClassLoader loader = CompiledJavaService.class.getClassLoader();
+        final Set<Path> roots = new LinkedHashSet<>();
+        try {
+            final Enumeration<URL> urls = loader.getResources("");
+            while (urls.hasMoreElements()) {
+                final URL url = urls.nextElement();
+                if ("file".equals(url.getProtocol()))
+                    roots.add(Paths.get(url.toURI()));
             }
+        } catch (Exception e) {
+            logger.error("Error locating class directories", e);
         }
-        return ProcessServlet.ExecutionReturn.NotFound;
+        final String rootPath = MainServlet.getRootPath();
+        if (rootPath != null) {
+            final File classes = new File(rootPath, "WEB-INF/classes");
+            if (classes.isDirectory())
+                roots.add(classes.toPath());
+        }
+
+        final Map<String, Route> table = new HashMap<>();
+        final Set<Path> seen = new LinkedHashSet<>();
+        for (Path root : roots) {
+            root = root.toAbsolutePath().normalize();
+            if (!seen.add(root))
+                continue;
+            for (String name : candidates(root))
+                try {
+                    addRoute(table, Class.forName(name, false, loader), false);
+                } catch (Throwable e) {
+                    logger.warn("Unable to load service class " + name + ": " + e);
+                }
+        }
+        routes = Collections.unmodifiableMap(table);
+        missing.clear();
+        logger.info("* * * " + table.size() + " precompiled service" + (table.size() == 1 ? "" : "s") + " registered");
+    }
+
+    /**
+     * Register a precompiled service class explicitly (e.g. from <code>KissInit.init()</code>).
+     * The class is registered under its fully qualified name, or the name given in its {@link KissService} annotation.
+     *
+     * @param cls the service class
+     * @throws IllegalArgumentException if the class has no service methods
+     */
+    public static synchronized void register(Class<?> cls) {
+        final Map<String, Route> table = new HashMap<>(routes);
+        if (!addRoute(table, cls, true))
+            throw new IllegalArgumentException(cls.getName() + " has no web service methods");
+        routes = Collections.unmodifiableMap(table);
+        missing.clear();
     }
 
+    /**
+     * Returns the names of all registered precompiled services.
+     *
+     * @return the service names
+     */
+    public static Set<String> getServiceNames() {
+        return routes.keySet();
+    }
 
+    private static boolean addRoute(Map<String, Route> table, Class<?> cls, boolean explicit) {
+        if (cls.isInterface() || Modifier.isAbstract(cls.getModifiers()) || !Modifier.isPublic(cls.getModifiers()))
+            return false;
+        final KissService annotation = cls.getAnnotation(KissService.class);
+        if (annotation == null && !explicit && !followsConvention(cls.getName()))
+            return false;
+        final Map<String, Method> methods = new HashMap<>();
+        for (Method m : cls.getMethods())
+            if (m.getDeclaringClass() != Object.class && Arrays.equals(m.getParameterTypes(), SERVICE_SIGNATURE))
+                methods.put(m.getName(), m);
+        if (methods.isEmpty())
+            return false;
+        final String name = annotation == null || annotation.value().isEmpty() ? cls.getName() : annotation.value();
+        final Route prev = table.put(name, new Route(cls, Collections.unmodifiableMap(methods)));
+        if (prev != null && prev.cls != cls)
+            logger.warn("Precompiled service " + name + " is defined by both " + prev.cls.getName() + " and " + cls.getName());
+        logger.info("Registered precompiled service " + name + " " + methods.keySet());
+        return true;
+    }
+
+    /**
+     * A class follows the naming convention if it is in a package named <code>service</code> and its name ends with <code>Service</code>.
+     */
+    private static boolean followsConvention(String className) {
+        final int dot = className.lastIndexOf('.');
+        if (dot < 0 || !className.endsWith("Service"))
+            return false;
+        final String pkg = className.substring(0, dot);
+        return pkg.equals("service") || pkg.endsWith(".service");
+    }
+
+    /**
+     * Returns the names of the classes under a class directory that may be services.
+     * Class files are checked for the annotation without loading them.
+     */
+    private static List<String> candidates(Path root) {
+        final List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(root))
+            return names;
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(p -> p.toString().endsWith(".class")).forEach(p -> {
+                String name = root.relativize(p).toString();
+                name = name.substring(0, name.length() - 6).replace(File.separatorChar, '.');
+                if (name.indexOf('$') >= 0 || name.startsWith("org.kissweb.") || name.endsWith("package-info") || name.endsWith("module-info"))
+                    return;
+                if (followsConvention(name) || isAnnotated(p))
+                    names.add(name);
+            });
+        } catch (IOException e) {
+            logger.error("Error scanning " + root, e);
+        }
+        return names;
+    }
+
+    private static boolean isAnnotated(Path classFile) {
+        try {
+            // the annotation's type descriptor appears verbatim in the constant pool of any class that uses it
+            return new String(Files.readAllBytes(classFile), StandardCharsets.ISO_8859_1).contains(ANNOTATION_DESCRIPTOR);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static final class Route {
+        final Class<?> cls;
+        final Map<String, Method> methods;
+
+        Route(Class<?> cls, Map<String, Method> methods) {
+            this.cls = cls;
+            this.methods = methods;
+        }
+    }
 }
@@ -0,0 +1,205 @@
+package org.kissweb.restServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Tracks the progress of downloads (see <code>ProcessServlet.startDownload</code>) so that the front-end can
+ * follow a long export over server-sent events while the download itself is streaming.
+ * <br><br>
+ * The front-end picks an id, sends it as <code>_downloadId</code> with the download request, and watches it with a
+ * second request whose service calls <code>watch</code>.  The download's service reports its progress through
+ * the listener returned by <code>ProcessServlet.downloadProgress()</code>, normally by handing it to an
+ * <code>Exporter</code>.  Each event is a JSON object:
+ * <br><br>
+ * <code>&nbsp;&nbsp;&nbsp;&nbsp;{"downloadId": "...", "rows": 120000, "done": false, "failed": false}</code>
+ * <br><br>
+ * Events are pushed to the watchers by the download's thread as it reports progress, so a watcher holds neither
+ * a worker thread nor a database connection while it waits.
+ * <br><br>
+ * Finished downloads are forgotten after five minutes.
+ *
+ * @see ProcessServlet#downloadProgress()
+ * @see org.kissweb.database.Exporter#progress(int, LongConsumer)
+ */
+public final class DownloadProgress {
+
+    private static final Logger logger = LogManager.getLogger(DownloadProgress.class);
+
+    private static final long KEEP_MS = 5 * 60_000L;     // how long a finished download is remembered
+    private static final long WAIT_START_MS = 30_000L;   // how long a watcher waits for the download to start
+    private static final long WATCH_MS = 3_600_000L;     // the longest a watcher's stream stays open
+
+    private static final ConcurrentHashMap<String, Entry> downloads = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService timer;
+
+    private static final class Entry implements LongConsumer {
+        final String id;
+        volatile long rows;
+        volatile boolean started;
+        volatile boolean done;
+        volatile boolean failed;
+        volatile long ended;
+        private final List<ProcessServlet> watchers = new ArrayList<>();
+
+        Entry(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void accept(long rows) {
+            this.rows = rows;
+            publish();
+        }
+
+        synchronized void addWatcher(ProcessServlet servlet) {
+            watchers.add(servlet);
+            if (started || done)
+                send(servlet);
+            if (done)
+                endWatchers();
+        }
+
+        /**
+         * Send the current progress to every watcher, and end their streams if the download is done.
+         */
+        synchronized void publish() {
+            for (ProcessServlet servlet : watchers)
+                send(servlet);
+            if (done)
+                endWatchers();
+        }
+
+        private void send(ProcessServlet servlet) {
+            try {
+                servlet.streamSSEJSON(toJSON(id, this));
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Download watcher gone", e);
+            }
+        }
+
+        /**
+         * Ending a stream cleans up its request, so it is done on the timer thread rather than the download's.
+         */
+        private void endWatchers() {
+            final List<ProcessServlet> ending = new ArrayList<>(watchers);
+            watchers.clear();
+            timer().execute(() -> {
+                for (ProcessServlet servlet : ending)
+                    try {
+                        servlet.endSSEStream();
+                    } catch (IOException e) {
+                        logger.debug("Error ending a download watcher", e);
+                    }
+            });
+        }
+    }
+
+    private DownloadProgress() {
+    }
+
+    private static void forgetOld() {
+        final long now = System.currentTimeMillis();
+        downloads.values().removeIf(e -> e.done && now - e.ended > KEEP_MS);
+    }
+
+    /**
+     * Register a download and return the listener that records its progress.
+     */
+    static LongConsumer start(String id) {
+        forgetOld();
+        final Entry entry = downloads.computeIfAbsent(id, Entry::new);  // its watchers may already be waiting
+        entry.started = true;
+        entry.publish();
+        return entry;
+    }
+
+    /**
+     * Mark a download finished.
+     */
+    static void end(String id, boolean success) {
+        final Entry entry = downloads.get(id);
+        if (entry != null)
+            finish(entry, !success);
+    }
+
+    private static void finish(Entry entry, boolean failed) {
+        synchronized (entry) {
+            if (entry.done)
+                return;
+            entry.failed = failed;
+            entry.ended = System.currentTimeMillis();
+            entry.done = true;
+        }
+        entry.publish();
+    }
+
+    /**
+     * Returns the current progress of a download.
+     *
+     * @param id the download id
+     * @return the progress, or null if the download isn't known (not started yet or long finished)
+     */
+    public static JSONObject get(String id) {
+        final Entry entry = downloads.get(id);
+        return entry == null || !entry.started && !entry.done ? null : toJSON(id, entry);
+    }
+
+    private static JSONObject toJSON(String id, Entry entry) {
+        final boolean done = entry.done;  // read first so that the final row count is seen
+        final JSONObject json = new JSONObject();
+        json.put("downloadId", id);
+        json.put("rows", entry.rows);
+        json.put("done", done);
+        json.put("failed", entry.failed);
+        return json;
+    }
+
+    /**
+     * Stream the progress of a download to the front-end as server-sent events until it finishes.
+     * An event is sent whenever the download reports progress and when it ends.  If the download doesn't start
+     * within 30 seconds, a single event with <code>failed</code> set is sent.
+     * <br><br>
+     * This is called from the web service method the front-end uses to watch a download.  It releases the
+     * request's database connection, starts the stream, and returns at once; the events are sent by the
+     * download's thread.
+     *
+     * @param servlet the servlet of the watching request
+     * @param id the download id
+     * @throws IOException if an I/O error occurs while starting the stream
+     */
+    public static void watch(ProcessServlet servlet, String id) throws IOException {
+        servlet.closeConnection(true);
+        servlet.initializeSSEStream(WATCH_MS);
+        forgetOld();
+        final Entry entry = downloads.computeIfAbsent(id, Entry::new);
+        entry.addWatcher(servlet);
+        if (!entry.started)
+            timer().schedule(() -> {
+                if (!entry.started) {
+                    finish(entry, true);
+                    entry.ended = 0;  // forget it at the next cleanup
+                }
+            }, WAIT_START_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null)
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, "kiss-download-progress");
+                t.setDaemon(true);
+                return t;
+            });
+        return timer;
+    }
+}
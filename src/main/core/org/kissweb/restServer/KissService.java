@@ -0,0 +1,37 @@
+package org.kissweb.restServer;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a precompiled class as a web service so it is registered at startup and dispatched without
+ * any file checks or compilation.
+ * <br><br>
+ * Every public method with the signature
+ * <pre>
+ *   void method(JSONObject injson, JSONObject outjson, Connection db, ProcessServlet servlet)
+ * </pre>
+ * becomes callable from the front-end.  Methods may be static or instance methods; a new instance is
+ * created for each call to an instance method (as with Groovy and Java services).
+ * <br><br>
+ * Classes in a package named <code>service</code> (e.g. <code>mycompany.service</code>) whose names end with
+ * <code>Service</code> are registered the same way without the annotation.
+ *
+ * @see CompiledJavaService
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface KissService {
+
+    /**
+     * The name the front-end uses for this service (the <code>_class</code> value).
+     * Defaults to the fully qualified class name.
+     *
+     * @return the service name
+     */
+    String value() default "";
+}
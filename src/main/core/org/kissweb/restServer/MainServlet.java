@@ -8,6 +8,12 @@
 import org.kissweb.Cron;
 import org.kissweb.IniFile;
 import org.kissweb.database.Connection;
+import org.kissweb.database.Cursor;
+import org.kissweb.database.MetadataCache;
+import org.kissweb.database.ResultCache;
+import org.kissweb.database.SQLitePool;
+import org.kissweb.database.SqlStats;
+import org.kissweb.database.SchemaGraph;
 
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletOutputStream;
@@ -51,6 +57,7 @@ public MainServlet() {
     private static String rootPath;                  // the root of the entire application
     private static boolean underIDE = false;
     private static ComboPooledDataSource cpds;
+    private static SQLitePool sqlitePool;            // used instead of cpds in SQLite single-writer mode
     private static boolean hasDatabase;              // determined by application.ini
     private static Cron cron;
     private static final Set<String> allowedWithoutAuthentication = new HashSet<>();
@@ -193,6 +200,7 @@ static void initializeSystem(String path) {
         isHaiku = osName.startsWith("Haiku");
         isFreeBSD = osName.startsWith("FreeBSD");
         setApplicationPathInternal(path);
+        CompiledJavaService.discover();
         ProcessServlet.ExecutionReturn res = (new GroovyService()).internalGroovy(null, "KissInit", "init");
         String databaseType = (String) environment.get("DatabaseType");
         databaseName = (String) environment.get("DatabaseName");
@@ -200,6 +208,33 @@ static void initializeSystem(String path) {
         Integer userInactiveSeconds = getEnvironmentInt("UserInactiveSeconds");
         if (userInactiveSeconds != null)
             UserCache.setInactiveUserMaxSeconds(userInactiveSeconds);
+        Integer cursorSpillKB = getEnvironmentInt("CursorSpillThresholdKB");
+        if (cursorSpillKB != null)
+            Cursor.setSpillThreshold(cursorSpillKB * 1024L);
+        Integer metadataCacheSeconds = getEnvironmentInt("DatabaseMetadataCacheSeconds");
+        if (metadataCacheSeconds != null)
+            MetadataCache.setTTL(metadataCacheSeconds);
+        Integer resultCacheEntries = getEnvironmentInt("DatabaseResultCacheEntries");
+        if (resultCacheEntries != null)
+            ResultCache.setMaxEntries(resultCacheEntries);
+        Integer resultCacheRows = getEnvironmentInt("DatabaseResultCacheRows");
+        if (resultCacheRows != null)
+            ResultCache.setMaxRows(resultCacheRows);
+        Integer resultCacheSeconds = getEnvironmentInt("DatabaseResultCacheSeconds");
+        if (resultCacheSeconds != null)
+            ResultCache.setTTL(resultCacheSeconds);
+        String databaseStatistics = (String) environment.get("DatabaseStatistics");
+        if (databaseStatistics != null)
+            SqlStats.setEnabled(databaseStatistics.trim().equalsIgnoreCase("true"));
+        Integer slowQueryMillis = getEnvironmentInt("DatabaseSlowQueryMillis");
+        if (slowQueryMillis != null)
+            SqlStats.setSlowQueryMillis(slowQueryMillis);
+        String explainSlowQueries = (String) environment.get("DatabaseExplainSlowQueries");
+        if (explainSlowQueries != null)
+            SqlStats.setExplainSlowQueries(explainSlowQueries.trim().equalsIgnoreCase("true"));
+        String schemaGraphCacheDirectory = (String) environment.get("SchemaGraphCacheDirectory");
+        if (schemaGraphCacheDirectory != null  &&  !schemaGraphCacheDirectory.isEmpty())
+            SchemaGraph.setWarmStart(schemaGraphCacheDirectory, MainServlet::openNewConnection, MainServlet::closeConnection);
         if (res == ProcessServlet.ExecutionReturn.Success) {
             hasDatabase = databaseType != null  &&  !databaseType.isEmpty()  &&  databaseName != null  &&  !databaseName.isEmpty();
             if (hasDatabase) {
@@ -267,7 +302,7 @@ public static Connection openNewConnection() {
             return null;
         Connection db = null;
         try {
-            java.sql.Connection c = MainServlet.getCpds().getConnection();
+            java.sql.Connection c = getPooledConnection();
             c.setAutoCommit(false);
             db = new Connection(c);
             if (databaseSchema != null  &&  !databaseSchema.isEmpty())
@@ -389,7 +424,7 @@ private static void makeDatabaseConnection() throws PropertyVetoException, SQLEx
             logger.info("* * * No database configured; bypassing login requirements");
             return;
         }
-        if (cpds == null) {
+        if (cpds == null  &&  sqlitePool == null) {
             String host = (String) environment.get("DatabaseHost");
             Integer port = getEnvironmentInt("DatabasePort");
             String user = (String) environment.get("DatabaseUser");
@@ -439,47 +474,67 @@ private static void makeDatabaseConnection() throws PropertyVetoException, SQLEx
             con.close();
             logger.info("* * * Database connection succeeded");
 
-            cpds = new ComboPooledDataSource();
-
-            cpds.setJdbcUrl(cstr);
-
-            cpds.setDriverClass(Connection.getDriverName(connectionType));
-
-            // Configure connection pool sizes based on CPU count - can be overridden in application.ini
-            int cores = Runtime.getRuntime().availableProcessors();
-            int minPoolSize = getEnvironmentInt("DatabaseMinPoolSize", Math.max(2, cores));
-            int initialPoolSize = getEnvironmentInt("DatabaseInitialPoolSize", Math.max(minPoolSize, cores * 2));
-            int maxPoolSize = getEnvironmentInt("DatabaseMaxPoolSize", defaultMaxPoolSize());
-            int acquireIncrement = getEnvironmentInt("DatabaseAcquireIncrement", Math.max(2, cores / 2));
-            
-            cpds.setMinPoolSize(minPoolSize);
-            cpds.setInitialPoolSize(initialPoolSize);
-            cpds.setMaxPoolSize(maxPoolSize);
-            cpds.setAcquireIncrement(acquireIncrement);
-            
-            // Performance tuning settings
-            cpds.setCheckoutTimeout(getEnvironmentInt("DatabaseCheckoutTimeout", 10_000));
-            cpds.setMaxStatements(getEnvironmentInt("DatabaseMaxStatements", 360)); // Increased for better performance
-            cpds.setMaxStatementsPerConnection(getEnvironmentInt("DatabaseMaxStatementsPerConnection", 20));
-            
-            // Connection validation settings
-            cpds.setIdleConnectionTestPeriod(getEnvironmentInt("DatabaseIdleTestPeriod", 300)); // Test idle connections every 5 minutes
-            cpds.setMaxIdleTime(getEnvironmentInt("DatabaseMaxIdleTime", 1800)); // Remove idle connections after 30 minutes
-            cpds.setTestConnectionOnCheckout(getEnvironmentBoolean("DatabaseTestOnCheckout", false));
-            cpds.setTestConnectionOnCheckin(getEnvironmentBoolean("DatabaseTestOnCheckin", true));
-            
-            // Helper threads for pool management
-            cpds.setNumHelperThreads(getEnvironmentInt("DatabaseHelperThreads", Math.min(10, Runtime.getRuntime().availableProcessors())));
-            
-            // Debug settings - disabled in production for performance
-            cpds.setUnreturnedConnectionTimeout(getEnvironmentInt("DatabaseUnreturnedTimeout", 60));
-            cpds.setDebugUnreturnedConnectionStackTraces(getEnvironmentBoolean("DatabaseDebugStackTraces", isUnderIDE()));
-            
-            logger.info("C3P0 pool configured (CPU cores=" + cores + "): min=" + minPoolSize + ", initial=" + initialPoolSize + ", max=" + maxPoolSize + ", increment=" + acquireIncrement);
+            if (connectionType == Connection.ConnectionType.SQLite  &&  getEnvironmentBoolean("SQLiteSingleWriter", false)) {
+                final int readers = getEnvironmentInt("SQLiteReaderPoolSize", Math.max(4, Runtime.getRuntime().availableProcessors()));
+                sqlitePool = new SQLitePool(cstr, readers);
+                sqlitePool.setCheckoutTimeout(getEnvironmentInt("DatabaseCheckoutTimeout", 10_000));
+                logger.info("SQLite single-writer mode: WAL, " + readers + " readers");
+            } else
+                cpds = newPool(cstr, host, connectionType, getEnvironmentInt("DatabaseMaxPoolSize", defaultMaxPoolSize()));
+            ReplicaRouter.configure(connectionType, port, databaseName, user, password, connectionParameters);
         }
         Configurator.setLevel(logger, level);
     }
 
+    /**
+     * Create a connection pool with the pool settings in <code>application.ini</code>.
+     *
+     * @param cstr the JDBC connection string
+     * @param host the database host (for logging)
+     * @param connectionType the database type
+     * @param maxPoolSize the maximum number of connections
+     * @return the pool
+     */
+    static ComboPooledDataSource newPool(String cstr, String host, Connection.ConnectionType connectionType, int maxPoolSize) throws PropertyVetoException {
+        final ComboPooledDataSource cpds = new ComboPooledDataSource();
+
+        cpds.setJdbcUrl(cstr);
+
+        cpds.setDriverClass(Connection.getDriverName(connectionType));
+
+        // Configure connection pool sizes based on CPU count - can be overridden in application.ini
+        int cores = Runtime.getRuntime().availableProcessors();
+        int minPoolSize = getEnvironmentInt("DatabaseMinPoolSize", Math.max(2, cores));
+        int initialPoolSize = getEnvironmentInt("DatabaseInitialPoolSize", Math.max(minPoolSize, cores * 2));
+        int acquireIncrement = getEnvironmentInt("DatabaseAcquireIncrement", Math.max(2, cores / 2));
+        
+        cpds.setMinPoolSize(minPoolSize);
+        cpds.setInitialPoolSize(initialPoolSize);
+        cpds.setMaxPoolSize(maxPoolSize);
+        cpds.setAcquireIncrement(acquireIncrement);
+        
+        // Performance tuning settings
+        cpds.setCheckoutTimeout(getEnvironmentInt("DatabaseCheckoutTimeout", 10_000));
+        cpds.setMaxStatements(getEnvironmentInt("DatabaseMaxStatements", 360)); // Increased for better performance
+        cpds.setMaxStatementsPerConnection(getEnvironmentInt("DatabaseMaxStatementsPerConnection", 20));
+        
+        // Connection validation settings
+        cpds.setIdleConnectionTestPeriod(getEnvironmentInt("DatabaseIdleTestPeriod", 300)); // Test idle connections every 5 minutes
+        cpds.setMaxIdleTime(getEnvironmentInt("DatabaseMaxIdleTime", 1800)); // Remove idle connections after 30 minutes
+        cpds.setTestConnectionOnCheckout(getEnvironmentBoolean("DatabaseTestOnCheckout", false));
+        cpds.setTestConnectionOnCheckin(getEnvironmentBoolean("DatabaseTestOnCheckin", true));
+        
+        // Helper threads for pool management
+        cpds.setNumHelperThreads(getEnvironmentInt("DatabaseHelperThreads", Math.min(10, Runtime.getRuntime().availableProcessors())));
+        
+        // Debug settings - disabled in production for performance
+        cpds.setUnreturnedConnectionTimeout(getEnvironmentInt("DatabaseUnreturnedTimeout", 60));
+        cpds.setDebugUnreturnedConnectionStackTraces(getEnvironmentBoolean("DatabaseDebugStackTraces", isUnderIDE()));
+        
+        logger.info("C3P0 pool for " + host + " configured (CPU cores=" + cores + "): min=" + minPoolSize + ", initial=" + initialPoolSize + ", max=" + maxPoolSize + ", increment=" + acquireIncrement);
+        return cpds;
+    }
+
     private static int defaultMaxPoolSize() {
         // Default max pool size based on CPU cores
         // Formula: cores * 4 with a minimum of 20 connections
@@ -638,6 +693,22 @@ static ComboPooledDataSource getCpds() {
         return cpds;
     }
 
+    /**
+     * Returns a connection from the pool (the SQLite single-writer pool when it is in use).
+     */
+    static java.sql.Connection getPooledConnection() throws SQLException {
+        return sqlitePool != null ? sqlitePool.getConnection() : cpds.getConnection();
+    }
+
+    /**
+     * Describes the pool for the log.
+     */
+    static String poolStatus() throws SQLException {
+        if (sqlitePool != null)
+            return "SQLite transactions: " + sqlitePool.getTransactionCount() + ", waiting writers: " + sqlitePool.waitingWriters();
+        return "busy: " + cpds.getNumBusyConnections() + ", idle: " + cpds.getNumIdleConnections();
+    }
+
     /**
      * Be default, all web service methods are authenticated.
      * This method is used to declare specific rest service methods that should not be authenticated.
@@ -685,6 +756,14 @@ public static Object getEnvironment(String key) {
      * This method closes the C3P0 connection pool and deregisters JDBC drivers.
      */
     static void cleanupDatabaseResources() {
+        ReplicaRouter.shutdown();
+
+        if (sqlitePool != null) {
+            sqlitePool.close();
+            logger.info("SQLite pool closed");
+            sqlitePool = null;
+        }
+
         // Close C3P0 connection pool
         if (cpds != null) {
             try {
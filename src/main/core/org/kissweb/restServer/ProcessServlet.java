@@ -20,6 +20,7 @@
 import java.time.LocalDateTime;
 import java.util.Enumeration;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import java.io.OutputStreamWriter;
 
@@ -50,7 +51,15 @@ public class ProcessServlet implements Runnable {
     private volatile boolean sseStreamingMode = false;
     /** The PrintWriter for streaming text content. */
     private PrintWriter streamWriter = null;
+    /** The stream a download is written to, once started. */
+    private OutputStream download;
+    /** The front-end's id of this download, if its progress is being tracked. */
+    private String downloadId;
     private static final ThreadLocal<ProcessServlet> instance = new ThreadLocal<>();
+    /** Holds all request-scoped (RequestCache) values; dropped when the request completes. */
+    private final RequestContext requestContext = new RequestContext();
+    /** True once the request has been handed off to a named bulkhead which then owns its cleanup. */
+    private volatile boolean handedOff = false;
     private JSONObject injson;
     private JSONObject outjson;
 
@@ -75,15 +84,52 @@ public class ProcessServlet implements Runnable {
      */
     @Override
     public void run() {
+        final RequestContext previousContext = requestContext.bind();
         try {
             run2();
         } catch (Throwable e) {
             logger.error(e);
         } finally {
             // Defer cleanup if SSE streaming is ongoing – endSSEStream() will handle it.
+            // If handed off to a bulkhead, that bulkhead's thread will handle it.
+            if (handedOff)
+                instance.remove();
+            else if (!sseStreamingMode) {
+                closeSession();
+            }
+            RequestContext.unbind(previousContext);
+        }
+    }
+
+    /**
+     * Runs the remainder of a request on a named bulkhead's thread.
+     *
+     * @see Bulkhead
+     */
+    private void runHandedOff(String _className, String _method) {
+        final RequestContext previousContext = requestContext.bind();
+        instance.set(this);
+        ThreadLevelCache.releaseThreadCaches();
+        try {
+            execute(_className, _method);
+        } catch (Throwable e) {
+            logger.error(e);
+        } finally {
             if (!sseStreamingMode) {
                 closeSession();
             }
+            RequestContext.unbind(previousContext);
+        }
+    }
+
+    /**
+     * Reject a request because its bulkhead is saturated.
+     */
+    void busyReturn() {
+        try {
+            errorReturn(response, "The server is busy.  Please try again later.", null);
+        } finally {
+            closeSession();
         }
     }
 
@@ -93,6 +139,17 @@ enum ExecutionReturn {
         Error
     }
 
+    /**
+     * Returns the request context holding all request-scoped values for this request.
+     * Use {@link RequestContext#wrap(Runnable)} to make it visible to tasks forked by the request.
+     *
+     * @return the request context
+     * @see RequestCache
+     */
+    public RequestContext getRequestContext() {
+        return requestContext;
+    }
+
     /**
      * Get the absolute path of the root of the back-end application.
      *
@@ -303,7 +360,7 @@ private static Object getObject(HttpServletRequest request, String name) {
     }
 
     /**
-     * This is where the login gets validated and the web service gets processed.
+     * This is where the request gets parsed and routed to the bulkhead it runs in.
      */
     private void run2() {
         instance.set(this);
@@ -311,27 +368,31 @@ private void run2() {
         String _className;
         String _method;
         outjson = new JSONObject();
-        ProcessServlet.ExecutionReturn res;
         ThreadLevelCache.releaseThreadCaches();  // done in case a thread is re-used (as tomcat does)
 
-        try {
-            newDatabaseConnection();
-        } catch (Throwable e) {
-            errorReturn(response, "Unable to connect to the database", e);
-            return;
-        }
-
         _className = request.getParameter("_class");
         if (_className != null) {
             //  is file upload
             _method = request.getParameter("_method");
-            logger.info("Enter back-end seeking UPLOAD service " + _className + "." + _method + "()");
-            injson = new JSONObject();
-            Enumeration<String> names = request.getParameterNames();
-            while (names.hasMoreElements()) {
-                String name = names.nextElement();
-                Object value = getObject(request, name);
-                injson.put(name, value);
+            final String json = request.getParameter("_json");
+            if (json != null) {
+                //  is a form-posted download (see Server.download)
+                logger.info("Enter back-end seeking DOWNLOAD service " + _className + "." + _method + "()");
+                try {
+                    injson = new JSONObject(json);
+                } catch (JSONException je) {
+                    errorReturn(response, "Invalid _json parameter", je);
+                    return;
+                }
+            } else {
+                logger.info("Enter back-end seeking UPLOAD service " + _className + "." + _method + "()");
+                injson = new JSONObject();
+                Enumeration<String> names = request.getParameterNames();
+                while (names.hasMoreElements()) {
+                    String name = names.nextElement();
+                    Object value = getObject(request, name);
+                    injson.put(name, value);
+                }
             }
         } else {
             String charset = request.getCharacterEncoding();
@@ -401,6 +462,71 @@ private void run2() {
             return;
         }
 
+        // Reject abusive clients before anything expensive (DB connection, service lookup) happens.
+        if (RateLimiter.isActive() && !withinRateLimit(_className == null ? "" : _className, _method)) {
+            logger.warn("Rate limit exceeded for " + getRemoteAddr() + " calling " + _className + "." + _method + "()");
+            errorReturn(response, "Too many requests.  Please slow down and try again.", null);
+            return;
+        }
+
+        // Slow classes of work run in their own bulkhead so they can't starve everything else.
+        // The hand-off happens before a database connection is taken so queued requests don't hold one.
+        final Bulkhead bulkhead = _className.isEmpty() ? null : Bulkhead.forService(_className, _method);
+        if (bulkhead != null) {
+            // Turn away unknown sessions here so they can't fill the bulkhead's queue.
+            // checkLogin() still runs in execute() once the request has its turn.
+            if (!MainServlet.shouldAllowWithoutAuthentication(_className, _method)
+                    &&  UserCache.findUser(injson.getString("_uuid")) == null) {
+                logger.info("Login failure - unknown session calling " + _className + "." + _method + "()");
+                loginFailure(response, null);
+                return;
+            }
+            final String className = _className;
+            final String method = _method;
+            handedOff = true;
+            if (!bulkhead.submit(() -> runHandedOff(className, method))) {
+                handedOff = false;
+                logger.warn("Bulkhead " + bulkhead.getName() + " is full; rejecting " + _className + "." + _method + "()");
+                errorReturn(response, "The server is busy.  Please try again later.", null);
+            }
+            return;
+        }
+        execute(_className, _method);
+    }
+
+    private boolean withinRateLimit(String _className, String _method) {
+        final String uuid = injson.getString("_uuid");
+        String session = null;
+        String user = null;
+        if (uuid != null && RateLimiter.needsSession(_className, _method)) {
+            final UserData ud = UserCache.findUser(uuid);  // only a logged-in session has a bucket of its own
+            if (ud != null) {
+                session = uuid;
+                user = ud.getUsername();
+            }
+        }
+        String ip = "";
+        try {
+            ip = RateLimiter.clientAddress(request.getRemoteAddr(), request.getHeader("X-Forwarded-For"));
+        } catch (IllegalStateException ignored) {
+            // Request object has been recycled
+        }
+        return RateLimiter.tryAcquire(_className, _method, ip, session, user);
+    }
+
+    /**
+     * This is where the login gets validated and the web service gets processed.
+     */
+    private void execute(String _className, String _method) {
+        ProcessServlet.ExecutionReturn res;
+
+        try {
+            newDatabaseConnection(_className, _method);
+        } catch (Throwable e) {
+            errorReturn(response, "Unable to connect to the database", e);
+            return;
+        }
+
         if (_className.isEmpty()) {
             // Core method
             if (_method.equals("LoginRequired")) {
@@ -466,10 +592,21 @@ private void run2() {
             }
         }
 
-        res = (new GroovyService()).tryGroovy(this, response, _className, _method, injson, outjson);
+        res = (new CompiledJavaService()).tryCompiledJava(this, response, _className, _method, injson, outjson);
         if (res == ProcessServlet.ExecutionReturn.Error)
             return;
 
+        if (res == ProcessServlet.ExecutionReturn.NotFound && CompiledJavaService.isKnownMissing(_className)) {
+            errorReturn(response, "No back-end code found for " + _className, null);
+            return;
+        }
+
+        if (res == ProcessServlet.ExecutionReturn.NotFound) {
+            res = (new GroovyService()).tryGroovy(this, response, _className, _method, injson, outjson);
+            if (res == ProcessServlet.ExecutionReturn.Error)
+                return;
+        }
+
         if (res == ProcessServlet.ExecutionReturn.NotFound) {
             res = (new org.kissweb.restServer.JavaService()).tryJava(this, response, _className, _method, injson, outjson);
             if (res == ProcessServlet.ExecutionReturn.Error)
@@ -482,13 +619,9 @@ private void run2() {
             // if (res == ProcessServlet.ExecutionReturn.Error)
             //     return;
         }
-        if (res == ProcessServlet.ExecutionReturn.NotFound) {
-            res = (new CompiledJavaService()).tryCompiledJava(this, response, _className, _method, injson, outjson);
-            if (res == ProcessServlet.ExecutionReturn.Error)
-                return;
-        }
 
         if (res == ProcessServlet.ExecutionReturn.NotFound) {
+            CompiledJavaService.recordMissing(_className);
             errorReturn(response, "No back-end code found for " + _className, null);
         } else {
             logger.info("REST service " + _className + "." + _method + "() executed successfully");
@@ -506,6 +639,104 @@ public void returnBinary(byte [] data) {
         binaryData = data;
     }
 
+    /**
+     * Start streaming a file to the front-end as the response to this request, rather than returning JSON.
+     * The file is sent with chunked transfer encoding as it is written, so it needn't be built in memory or in a
+     * temporary file first.  The service writes the file to the stream returned and simply returns; the stream
+     * is finished (and the transaction committed) when the service completes.  There is no time limit on the
+     * download.
+     * <br><br>
+     * If the service fails before anything has been sent, the front-end gets the usual JSON error response.
+     * Once the response has started the error can only be logged, and the front-end receives a truncated file.
+     * <br><br>
+     * When <code>compress</code> is true and the front-end accepts it, the file is sent gzip compressed
+     * (<code>Content-Encoding: gzip</code>).  The browser decompresses it, so the saved file is unchanged.
+     * This is worth doing for CSV files but not for files, such as XLSX, that are already compressed.
+     *
+     * @param fileName the name the browser should save the file as
+     * @param contentType the MIME type of the file
+     * @param compress true to compress the transfer if the front-end supports it
+     * @return the stream to write the file to
+     * @throws IOException if an I/O error occurs
+     * @see org.kissweb.database.Exporter
+     * @see #downloadProgress()
+     */
+    public OutputStream startDownload(String fileName, String contentType, boolean compress) throws IOException {
+        if (download != null || sseStreamingMode)
+            throw new IllegalStateException("The response is already being streamed");
+        asyncContext.setTimeout(0);
+        response.setStatus(200);
+        response.setContentType(contentType);
+        response.setHeader("Content-Disposition", contentDisposition(fileName));
+        response.setHeader("Cache-Control", "no-cache");
+        final String accept = request.getHeader("Accept-Encoding");
+        if (compress && accept != null && accept.toLowerCase().contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.setHeader("Vary", "Accept-Encoding");
+            download = new java.util.zip.GZIPOutputStream(out, 8192);
+        } else
+            download = out;
+        return download;
+    }
+
+    private static String contentDisposition(String fileName) {
+        final StringBuilder ascii = new StringBuilder();
+        for (char c : fileName.toCharArray())
+            ascii.append(c < ' ' || c > '~' || c == '"' || c == '\\' ? '_' : c);
+        return "attachment; filename=\"" + ascii + "\"; filename*=UTF-8''" +
+                java.net.URLEncoder.encode(fileName, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * Returns a listener to report the progress (rows written) of this request's download to a front-end watching
+     * it (see <code>DownloadProgress</code>).  Pass it to <code>Exporter.progress</code>.
+     * <br><br>
+     * The front-end identifies the download with a <code>_downloadId</code> in the request.  If there is none,
+     * null is returned, which <code>Exporter</code> takes to mean no progress reporting.
+     *
+     * @return the listener or null
+     * @see DownloadProgress#watch(ProcessServlet, String)
+     */
+    public LongConsumer downloadProgress() {
+        if (downloadId == null) {
+            final String id = injson == null ? null : injson.getString("_downloadId", null);
+            if (id == null || id.isEmpty())
+                return null;
+            downloadId = id;
+        }
+        return DownloadProgress.start(downloadId);
+    }
+
+    /**
+     * Finish a download the service has written successfully.
+     */
+    private void endDownload() {
+        try {
+            if (DB != null) {
+                DB.commit();
+                if (DB.hasWritten())
+                    ReplicaRouter.noteWrite(injson.getString("_uuid"));
+            }
+            if (download instanceof java.util.zip.GZIPOutputStream)
+                ((java.util.zip.GZIPOutputStream) download).finish();
+            out.flush();
+            out.close();
+            if (downloadId != null)
+                DownloadProgress.end(downloadId, true);
+        } catch (SQLException | IOException e) {
+            if (downloadId != null)
+                DownloadProgress.end(downloadId, false);
+            if (!isTomcatClientAbort(e))
+                logger.error("Error completing a download", e);
+        } finally {
+            download = null;
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException ignore) {
+            }
+        }
+    }
+
     /**
      * Initiates streaming mode for this request. Once streaming mode is enabled,
      * the service can send data incrementally to the front-end without buffering
@@ -697,15 +928,24 @@ private void successReturn(HttpServletResponse response, JSONObject outjson) {
         if (sseStreamingMode) {
             return;          // streaming mode active, response handled elsewhere
         }
+        if (download != null) {
+            endDownload();
+            return;
+        }
+        if (downloadId != null)
+            DownloadProgress.end(downloadId, true);
         try {
-            if (DB != null)
+            if (DB != null) {
                 DB.commit();
+                if (DB.hasWritten())
+                    ReplicaRouter.noteWrite(injson.getString("_uuid"));
+            }
             outjson.put("_Success", true);
             outjson.put("_ErrorCode", 0);  // success
             response.setStatus(200);
             if (!isBinaryReturn) {
                 response.setContentType("application/json");
-                out.print(outjson.toString());
+                writeJSON(response, outjson);
             } else {
                 response.setContentType("application/octet-stream");
                 out.print(outjson.toString() + "\003");
@@ -730,6 +970,22 @@ private void successReturn(HttpServletResponse response, JSONObject outjson) {
 
     private static final AtomicInteger errorNumber = new AtomicInteger(0);
 
+    /**
+     * Write the response JSON directly to the output stream (in the response character encoding) rather than
+     * building it as a string first, so that streamed values (see <code>Connection.fetchAllJSONStream</code>)
+     * go straight from the database to the front-end.
+     */
+    private void writeJSON(HttpServletResponse response, JSONObject outjson) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, response.getCharacterEncoding()), 8192);
+        try {
+            outjson.write(writer);
+        } catch (JSONException e) {
+            // too late to report a failure to the front-end; the response is cut short
+            logger.error("Error writing the web service response", e);
+        }
+        writer.flush();
+    }
+
     /**
      * Returns an error response to the front-end.
      * If the response has already been generated elsewhere, this does nothing.
@@ -753,6 +1009,26 @@ else if (e instanceof LogException)
         if (sseStreamingMode) {
             return;          // streaming mode active, response handled elsewhere
         }
+        if (downloadId != null)
+            DownloadProgress.end(downloadId, false);
+        if (download != null) {
+            download = null;
+            if (response.isCommitted()) {
+                // part of the file has been sent, so the error can't be reported to the front-end
+                if (DB != null)
+                    try {
+                        DB.rollback();
+                    } catch (SQLException ignored) {
+                    }
+                log_error(msg, e);
+                try {
+                    asyncContext.complete();
+                } catch (IllegalStateException ignore) {
+                }
+                return;
+            }
+            response.reset();  // nothing sent yet; drop the download headers and report the error normally
+        }
         try {
             if (DB != null) {
                 try {
@@ -951,23 +1227,49 @@ private void checkLogin(UserData ud) throws Exception {
         ud.setLastAccessDate(LocalDateTime.now());
     }
 
-    private void newDatabaseConnection() throws SQLException {
+    private void newDatabaseConnection(String _className, String _method) throws SQLException {
         if (!MainServlet.hasSqlDatabase())
             return;
-        logger.info("Pool status - busy: " + MainServlet.getCpds().getNumBusyConnections() + 
-                   ", idle: " + MainServlet.getCpds().getNumIdleConnections());
-        final java.sql.Connection conn = MainServlet.getCpds().getConnection();
+        logger.info("Pool status - " + MainServlet.poolStatus());
+        // Read-only work goes to a replica unless this session wrote recently and must see its own changes
+        final boolean useReplica = ReplicaRouter.hasReplicas()  &&  !_className.isEmpty()
+                &&  !ReplicaRouter.isPinned(injson.getString("_uuid"));
+        java.sql.Connection conn = null;
+        final boolean readOnly = useReplica  &&  ReplicaRouter.isReadOnlyService(_className, _method)
+                &&  (conn = ReplicaRouter.getConnection()) != null;
+        if (conn == null)
+            conn = MainServlet.getPooledConnection();
         conn.setAutoCommit(false);  //  all SQL operations require a commit but Kiss does a commit at the end of each service
         DB = new Connection(conn);
+        if (!_className.isEmpty())
+            DB.setStatisticsLabel(_className + "." + _method);
+        if (readOnly)
+            DB.setReadOnly();
+        else if (useReplica)
+            DB.setReadOnlySource(ReplicaRouter::getConnection);
+        // Off by default: the extra connections come from the pool that gave this request its connection, so a
+        // busy server could have every connection held by a request waiting for more.  Size the pool for it first.
+        final Integer parallelConnections = MainServlet.getEnvironmentInt("DatabaseParallelQueryConnections");
+        if (parallelConnections != null  &&  parallelConnections > 0)
+            DB.setParallelSource(readOnly ? ProcessServlet::parallelReplicaConnection : MainServlet::getPooledConnection,
+                    parallelConnections);
         String databaseSchema = (String) MainServlet.getEnvironment("DatabaseSchema");
         if (databaseSchema != null  &&  !databaseSchema.isEmpty())
             DB.setSchema(databaseSchema);
-        logger.info("New database connection obtained - pool now busy: " + 
-                   MainServlet.getCpds().getNumBusyConnections());
+        logger.info("New database connection obtained - pool now " + MainServlet.poolStatus());
+    }
+
+    /**
+     * Async queries of a read-only service also go to a replica, or the primary if none is available.
+     */
+    private static java.sql.Connection parallelReplicaConnection() throws SQLException {
+        final java.sql.Connection conn = ReplicaRouter.getConnection();
+        return conn != null ? conn : MainServlet.getPooledConnection();
     }
 
     private void closeSession() {
         instance.remove();
+        requestContext.close();  // drop all request-scoped values
         
         // Clean up streaming resources
         if (sseStreamingMode && streamWriter != null) {
@@ -0,0 +1,356 @@
+package org.kissweb.restServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket rate limiting of web service requests by IP address, session, or user.
+ * <br><br>
+ * The check is made immediately after the request is parsed - before any authentication, database connection
+ * checkout, or service resolution - so a misbehaving client is rejected as cheaply as possible.
+ * <br><br>
+ * Each rule applies to the services matching a pattern (see {@link Bulkhead} for the pattern syntax) and gives
+ * every principal (IP address, session UUID, or username) its own bucket.  A bucket allows <code>burst</code>
+ * requests at once and refills at <code>perSecond</code> requests per second.  A request must pass every rule
+ * that matches it.
+ * <br><br>
+ * The client IP address is the address the request came from.  <code>X-Forwarded-For</code> is only used when
+ * that address is one of the configured trusted proxies (otherwise any client could pick its own address).
+ * Session rules only apply to sessions that are logged in; requests with an unknown <code>_uuid</code> are
+ * limited by their IP address rules alone.
+ * <br><br>
+ * Buckets are lock-free (a single CAS on the bucket's theoretical arrival time, i.e. the GCRA form of a token
+ * bucket) and are held in a concurrent map.  When the map grows past the maximum number of buckets, buckets that
+ * have refilled (and so are no different from new ones) are dropped, then others if needed, so memory stays
+ * bounded no matter how many clients are seen.
+ * <br><br>
+ * Rules may be configured in <code>application.ini</code> as semicolon-separated
+ * <code>scope pattern perSecond burst</code> entries:
+ * <pre>
+ *   RateLimits = ip * 20 40; session services.Reports.* 0.2 2; user services.Chat 1 3
+ *   RateLimitMaxBuckets = 100000
+ *   RateLimitTrustedProxies = 10.0.0.5, 10.0.0.6
+ * </pre>
+ * or programmatically (e.g. in <code>KissInit.init()</code>) with {@link #limit(Scope, String, double, int)}.
+ * <br><br>
+ * This class is thread-safe.
+ */
+public final class RateLimiter {
+
+    private static final Logger logger = LogManager.getLogger(RateLimiter.class);
+
+    /**
+     * Who a bucket belongs to.
+     */
+    public enum Scope {
+        /** The client IP address (X-Forwarded-For aware for trusted proxies) */
+        IP,
+        /** The session UUID (<code>_uuid</code>) of a logged-in session */
+        SESSION,
+        /** The logged-in username */
+        USER
+    }
+
+    private static final int MAX_RESOLVED = 10_000;
+
+    private static final List<Rule> rules = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<String, Rule[]> resolved = new ConcurrentHashMap<>();
+    private static final Rule[] NO_RULES = new Rule[0];
+    private static final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private static final AtomicBoolean evicting = new AtomicBoolean();
+    private static volatile int maxBuckets = 100_000;
+    private static volatile Set<String> trustedProxies = Collections.emptySet();
+
+    private RateLimiter() {
+    }
+
+    /**
+     * Add a rate limit.
+     *
+     * @param scope who each bucket belongs to
+     * @param servicePattern the services the limit applies to (<code>*</code> for all)
+     * @param perSecond sustained requests per second allowed
+     * @param burst the number of requests allowed at once
+     */
+    public static void limit(Scope scope, String servicePattern, double perSecond, int burst) {
+        if (perSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("Invalid rate limit " + perSecond + "/" + burst);
+        rules.add(new Rule(rules.size(), scope, servicePattern, perSecond, burst));
+        resolved.clear();
+        logger.info("* * * Rate limit " + scope + " " + servicePattern + ": " + perSecond + "/s, burst " + burst);
+    }
+
+    /**
+     * Set the (approximate) maximum number of buckets kept.
+     * This resets all current bucket state.
+     *
+     * @param max the maximum number of buckets
+     */
+    public static void setMaxBuckets(int max) {
+        maxBuckets = Math.max(1, max);
+        buckets.clear();
+    }
+
+    /**
+     * Set the addresses of the reverse proxies whose <code>X-Forwarded-For</code> header is believed.
+     *
+     * @param addresses the proxy IP addresses
+     */
+    public static void setTrustedProxies(String ... addresses) {
+        final Set<String> set = new HashSet<>();
+        for (String a : addresses)
+            if (a != null && !a.trim().isEmpty())
+                set.add(a.trim());
+        trustedProxies = set;
+    }
+
+    /**
+     * Remove all rules, buckets, and trusted proxies.
+     */
+    public static void clear() {
+        rules.clear();
+        resolved.clear();
+        buckets.clear();
+        trustedProxies = Collections.emptySet();
+    }
+
+    /**
+     * Reads the rate limit configuration from the application environment (normally <code>application.ini</code>).
+     */
+    static void configure() {
+        final Integer maxBuckets = MainServlet.getEnvironmentInt("RateLimitMaxBuckets");
+        if (maxBuckets != null)
+            setMaxBuckets(maxBuckets);
+        final String proxies = (String) MainServlet.getEnvironment("RateLimitTrustedProxies");
+        if (proxies != null)
+            setTrustedProxies(proxies.split(","));
+        final String list = (String) MainServlet.getEnvironment("RateLimits");
+        if (list == null || list.trim().isEmpty())
+            return;
+        for (String entry : list.split(";")) {
+            entry = entry.trim();
+            if (entry.isEmpty())
+                continue;
+            final String[] parts = entry.split("\\s+");
+            if (parts.length != 4) {
+                logger.error("Invalid RateLimits entry (expected: scope pattern perSecond burst): " + entry);
+                continue;
+            }
+            try {
+                limit(Scope.valueOf(parts[0].toUpperCase()), parts[1], Double.parseDouble(parts[2]), Integer.parseInt(parts[3]));
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid RateLimits entry: " + entry, e);
+            }
+        }
+    }
+
+    /**
+     * Returns true if any rate limits are in effect.
+     *
+     * @return true if there are rules
+     */
+    static boolean isActive() {
+        return !rules.isEmpty();
+    }
+
+    /**
+     * Take one token from every bucket that applies to this request.
+     *
+     * @param className the service class
+     * @param methodName the service method
+     * @param ip the client IP address (see <code>clientAddress</code>)
+     * @param session the UUID of a logged-in session (null if there is none)
+     * @param user the username (may be null)
+     * @return true if the request may proceed, false if it must be rejected
+     */
+    static boolean tryAcquire(String className, String methodName, String ip, String session, String user) {
+        final Rule[] applicable = rulesFor(className, methodName);
+        if (applicable.length == 0)
+            return true;
+        final long now = System.nanoTime();
+        for (Rule rule : applicable) {
+            final String principal;
+            switch (rule.scope) {
+                case IP:
+                    principal = ip;
+                    break;
+                case SESSION:
+                    principal = session;
+                    break;
+                default:
+                    principal = user;
+                    break;
+            }
+            if (principal == null || principal.isEmpty())
+                continue;
+            if (!bucket(rule, principal, now).tryAcquire(now)) {
+                rule.rejected.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if any rule for this service is scoped by session or user (so the caller knows whether to look
+     * the session up).
+     */
+    static boolean needsSession(String className, String methodName) {
+        for (Rule rule : rulesFor(className, methodName))
+            if (rule.scope != Scope.IP)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the address of the client.  When the request came from a trusted proxy, this is the last address in
+     * <code>X-Forwarded-For</code> that isn't itself a trusted proxy.
+     *
+     * @param remoteAddr the address the request came from
+     * @param forwardedFor the <code>X-Forwarded-For</code> header (may be null)
+     * @return the client address
+     */
+    static String clientAddress(String remoteAddr, String forwardedFor) {
+        final Set<String> proxies = trustedProxies;
+        if (forwardedFor == null || forwardedFor.isEmpty() || !proxies.contains(remoteAddr))
+            return remoteAddr;
+        final String [] hops = forwardedFor.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            final String hop = hops[i].trim();
+            if (!hop.isEmpty() && !proxies.contains(hop))
+                return hop;
+        }
+        return remoteAddr;
+    }
+
+    private static Rule[] rulesFor(String className, String methodName) {
+        if (rules.isEmpty())
+            return NO_RULES;
+        final String key = className + "." + methodName;
+        Rule[] r = resolved.get(key);
+        if (r != null)
+            return r;
+        final List<Rule> lst = new ArrayList<>();
+        for (Rule rule : rules)
+            if (rule.pattern.matches(className, key))
+                lst.add(rule);
+        r = lst.isEmpty() ? NO_RULES : lst.toArray(new Rule[0]);
+        if (resolved.size() < MAX_RESOLVED)
+            resolved.put(key, r);
+        return r;
+    }
+
+    private static Bucket bucket(Rule rule, String principal, long now) {
+        final String key = rule.id + ":" + principal;
+        final Bucket b = buckets.get(key);
+        if (b != null)
+            return b;
+        if (buckets.size() >= maxBuckets)
+            evict(now);
+        return buckets.computeIfAbsent(key, k -> new Bucket(rule.intervalNanos, rule.toleranceNanos, now));
+    }
+
+    /**
+     * Drop buckets that have refilled, then (if that isn't enough) arbitrary ones, until the map is back to
+     * three-quarters of its maximum.  Only one thread evicts at a time; the others carry on.
+     */
+    private static void evict(long now) {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            final int target = maxBuckets - maxBuckets / 4;
+            buckets.values().removeIf(b -> b.isFull(now));
+            final Iterator<Bucket> it = buckets.values().iterator();
+            while (buckets.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Returns the configured rules and how many requests each has rejected.
+     *
+     * @return a JSON array with one object per rule
+     */
+    public static JSONArray getStats() {
+        final JSONArray arr = new JSONArray();
+        for (Rule rule : rules) {
+            final JSONObject obj = new JSONObject();
+            obj.put("scope", rule.scope.name());
+            obj.put("pattern", rule.pattern.toString());
+            obj.put("perSecond", rule.perSecond);
+            obj.put("burst", rule.burst);
+            obj.put("rejected", rule.rejected.get());
+            arr.put(obj);
+        }
+        return arr;
+    }
+
+    private static final class Rule {
+        final int id;
+        final Scope scope;
+        final ServicePattern pattern;
+        final double perSecond;
+        final int burst;
+        final long intervalNanos;   // time to earn one token
+        final long toleranceNanos;  // how far ahead of now the bucket may run (burst - 1 tokens)
+        final AtomicLong rejected = new AtomicLong();
+
+        Rule(int id, Scope scope, String pattern, double perSecond, int burst) {
+            this.id = id;
+            this.scope = scope;
+            this.pattern = new ServicePattern(pattern);
+            this.perSecond = perSecond;
+            this.burst = burst;
+            intervalNanos = Math.max(1L, (long) (1_000_000_000L / perSecond));
+            toleranceNanos = intervalNanos * (burst - 1);
+        }
+    }
+
+    /**
+     * A token bucket represented by its theoretical arrival time (GCRA).
+     * A full bucket has <code>tat &lt;= now</code>; each request pushes <code>tat</code> one interval further out.
+     */
+    private static final class Bucket {
+        private final long interval;
+        private final long tolerance;
+        private final AtomicLong tat;
+
+        Bucket(long interval, long tolerance, long now) {
+            this.interval = interval;
+            this.tolerance = tolerance;
+            tat = new AtomicLong(now);
+        }
+
+        boolean isFull(long now) {
+            return tat.get() - now <= 0;
+        }
+
+        boolean tryAcquire(long now) {
+            while (true) {
+                final long current = tat.get();
+                final long base = current - now > 0 ? current : now;
+                if (base - now > tolerance)
+                    return false;  // no token available
+                if (tat.compareAndSet(current, base + interval))
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.kissweb.restServer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.kissweb.database.Connection;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends read-only work to read replicas of the SQL database so that reports and other heavy reads don't
+ * compete with writes on the primary.
+ * <br><br>
+ * Work goes to a replica when:
+ * <ul>
+ *     <li>the web service is declared read-only, in which case its connection comes from a replica and is
+ *     read-only from the start, or</li>
+ *     <li>a service calls <code>db.setReadOnly()</code> before writing anything, in which case the rest of the
+ *     service runs on a replica connection.</li>
+ * </ul>
+ * Replicas are used round-robin.  A background thread checks each replica periodically.  A replica that fails
+ * a check or a connection request is skipped until it passes a check again, and when no replica is available
+ * the work stays on the primary.
+ * <br><br>
+ * Replicas lag behind the primary, so after a session writes something its requests stay on the primary for a
+ * few seconds (<code>ReadYourWritesSeconds</code>) so it sees its own changes.
+ * <br><br>
+ * Replicas may be configured in <code>application.ini</code>:
+ * <pre>
+ *   DatabaseReplicaHosts = replica1, replica2:5433
+ *   DatabaseReplicaMaxPoolSize = 20
+ *   DatabaseReplicaCheckSeconds = 10
+ *   ReadOnlyServices = services.Reports, services.*.list*
+ *   ReadYourWritesSeconds = 5
+ * </pre>
+ * Replicas use the primary's database name, user, password, connection parameters and pool settings.
+ * They may also be added programmatically (e.g. in <code>KissInit.init()</code>) with
+ * {@link #addReplica(String, DataSource)} and {@link #markReadOnly(String)}.
+ * <br><br>
+ * Service patterns are matched the same way as bulkhead patterns (see {@link Bulkhead}).
+ * <br><br>
+ * This class is thread-safe.
+ */
+public final class ReplicaRouter {
+
+    private static final Logger logger = LogManager.getLogger(ReplicaRouter.class);
+
+    private static final int MAX_RESOLVED = 10_000;
+    private static final int MAX_SESSIONS = 100_000;
+
+    private static final List<Replica> replicas = new CopyOnWriteArrayList<>();
+    private static final List<ServicePattern> readOnlyServices = new CopyOnWriteArrayList<>();
+    private static final ConcurrentHashMap<String, Boolean> resolved = new ConcurrentHashMap<>();
+    // session → System.nanoTime() of its last write
+    private static final ConcurrentHashMap<String, Long> lastWrite = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextReplica = new AtomicInteger();
+    private static volatile long pinNanos = TimeUnit.SECONDS.toNanos(5);
+    private static volatile int checkSeconds = 10;
+    private static ScheduledExecutorService checker;
+
+    private ReplicaRouter() {
+    }
+
+    /**
+     * Add a read replica.
+     *
+     * @param name a name for logs and statistics (normally the host)
+     * @param dataSource supplies connections to the replica (normally a connection pool)
+     */
+    public static void addReplica(String name, DataSource dataSource) {
+        replicas.add(new Replica(name, dataSource));
+        logger.info("* * * Read replica " + name + " added");
+        startChecker();
+    }
+
+    /**
+     * Declare services that only read the database.  They get a read-only connection to a replica when one is available.
+     *
+     * @param servicePattern pattern matched against <code>className.methodName</code> (see {@link Bulkhead})
+     */
+    public static void markReadOnly(String servicePattern) {
+        readOnlyServices.add(new ServicePattern(servicePattern));
+        resolved.clear();
+    }
+
+    /**
+     * Set how long a session stays on the primary after it writes (the default is 5 seconds).
+     *
+     * @param seconds the number of seconds (0 disables)
+     */
+    public static void setReadYourWritesSeconds(int seconds) {
+        pinNanos = TimeUnit.SECONDS.toNanos(Math.max(0, seconds));
+    }
+
+    /**
+     * Returns true if any read replicas have been configured.
+     *
+     * @return true if there are replicas
+     */
+    public static boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Reads the replica configuration from the application environment (normally <code>application.ini</code>)
+     * and creates a connection pool for each replica.
+     */
+    static void configure(Connection.ConnectionType type, Integer port, String databaseName, String user, String password, String connectionParameters) {
+        final Integer seconds = MainServlet.getEnvironmentInt("ReadYourWritesSeconds");
+        if (seconds != null)
+            setReadYourWritesSeconds(seconds);
+        final Integer check = MainServlet.getEnvironmentInt("DatabaseReplicaCheckSeconds");
+        if (check != null && check > 0)
+            checkSeconds = check;
+        final String services = (String) MainServlet.getEnvironment("ReadOnlyServices");
+        if (services != null)
+            for (String pattern : services.split(","))
+                if (!pattern.trim().isEmpty())
+                    markReadOnly(pattern);
+        final String hosts = (String) MainServlet.getEnvironment("DatabaseReplicaHosts");
+        if (hosts == null || hosts.trim().isEmpty())
+            return;
+        final Integer maxPoolSize = MainServlet.getEnvironmentInt("DatabaseReplicaMaxPoolSize");
+        for (String host : hosts.split(",")) {
+            host = host.trim();
+            if (host.isEmpty())
+                continue;
+            Integer replicaPort = port;
+            final int colon = host.lastIndexOf(':');
+            if (colon > 0) {
+                replicaPort = Integer.parseInt(host.substring(colon + 1).trim());
+                host = host.substring(0, colon).trim();
+            }
+            String cstr = Connection.makeConnectionString(type, host, replicaPort, databaseName, user, password);
+            if (connectionParameters != null)
+                cstr += connectionParameters;
+            try {
+                addReplica(host, MainServlet.newPool(cstr, host, type, maxPoolSize == null ? 20 : maxPoolSize));
+            } catch (Exception e) {
+                logger.error("* * * Read replica " + host + " could not be configured", e);
+            }
+        }
+    }
+
+    /**
+     * Determine whether a service has been declared read-only.
+     *
+     * @param className the service class
+     * @param methodName the service method
+     * @return true if the service only reads
+     */
+    static boolean isReadOnlyService(String className, String methodName) {
+        if (readOnlyServices.isEmpty())
+            return false;
+        final String key = className + "." + methodName;
+        Boolean ro = resolved.get(key);
+        if (ro != null)
+            return ro;
+        ro = false;
+        for (ServicePattern p : readOnlyServices)
+            if (p.matches(className, key)) {
+                ro = true;
+                break;
+            }
+        if (resolved.size() < MAX_RESOLVED)
+            resolved.put(key, ro);
+        return ro;
+    }
+
+    /**
+     * Returns a connection to a healthy replica, or null if none is available.
+     *
+     * @return the connection or null
+     */
+    static java.sql.Connection getConnection() {
+        final int n = replicas.size();
+        if (n == 0)
+            return null;
+        final int start = nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            final Replica r = replicas.get((start + i) % n);
+            if (!r.healthy)
+                continue;
+            try {
+                final java.sql.Connection conn = r.dataSource.getConnection();
+                r.served.incrementAndGet();
+                return conn;
+            } catch (SQLException e) {
+                r.failed("connection failed: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record that a session has written to the primary.
+     *
+     * @param session the session (login uuid), may be null
+     */
+    static void noteWrite(String session) {
+        if (session == null || pinNanos == 0 || replicas.isEmpty())
+            return;
+        final long now = System.nanoTime();
+        if (lastWrite.size() >= MAX_SESSIONS)
+            lastWrite.values().removeIf(t -> now - t > pinNanos);
+        lastWrite.put(session, now);
+    }
+
+    /**
+     * Returns true if a session wrote recently enough that it must stay on the primary.
+     *
+     * @param session the session (login uuid), may be null
+     * @return true if the session must use the primary
+     */
+    static boolean isPinned(String session) {
+        if (session == null)
+            return false;
+        final Long t = lastWrite.get(session);
+        if (t == null)
+            return false;
+        if (System.nanoTime() - t <= pinNanos)
+            return true;
+        lastWrite.remove(session, t);
+        return false;
+    }
+
+    /**
+     * Returns the state of every replica.
+     *
+     * @return a JSON array with one object (name, healthy, served, failures) per replica
+     */
+    public static JSONArray getStats() {
+        final JSONArray arr = new JSONArray();
+        for (Replica r : replicas) {
+            final JSONObject obj = new JSONObject();
+            obj.put("name", r.name);
+            obj.put("healthy", r.healthy);
+            obj.put("served", r.served.get());
+            obj.put("failures", r.failures.get());
+            arr.put(obj);
+        }
+        return arr;
+    }
+
+    /**
+     * Stop the health checks, close the replica pools, and forget the configuration.
+     */
+    static synchronized void shutdown() {
+        if (checker != null) {
+            checker.shutdownNow();
+            checker = null;
+        }
+        for (Replica r : replicas)
+            if (r.dataSource instanceof AutoCloseable)
+                try {
+                    ((AutoCloseable) r.dataSource).close();
+                } catch (Exception e) {
+                    logger.error("Error closing read replica " + r.name, e);
+                }
+        replicas.clear();
+        readOnlyServices.clear();
+        resolved.clear();
+        lastWrite.clear();
+    }
+
+    private static synchronized void startChecker() {
+        if (checker != null)
+            return;
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "kiss-replica-check");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(ReplicaRouter::checkAll, checkSeconds, checkSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void checkAll() {
+        for (Replica r : replicas) {
+            try (java.sql.Connection conn = r.dataSource.getConnection()) {
+                if (conn.isValid(Math.max(1, checkSeconds / 2)))
+                    r.passed();
+                else
+                    r.failed("health check failed");
+            } catch (Exception e) {
+                r.failed("health check failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+        private final AtomicLong served = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        void failed(String why) {
+            failures.incrementAndGet();
+            if (healthy) {
+                healthy = false;
+                logger.warn("Read replica " + name + " taken out of service: " + why);
+            }
+        }
+
+        void passed() {
+            if (!healthy) {
+                healthy = true;
+                logger.info("Read replica " + name + " back in service");
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.kissweb.restServer;
+
+import java.util.regex.Pattern;
+
+/**
+ * A pattern that selects web services by class and method name.
+ * <br><br>
+ * Patterns are matched against <code>className.methodName</code>.  <code>*</code> matches any
+ * sequence of characters.  A pattern without a wildcard that equals a class name matches every
+ * method in that class.
+ */
+final class ServicePattern {
+
+    private final String pattern;
+    private final Pattern regex;
+
+    ServicePattern(String pattern) {
+        this.pattern = pattern.trim();
+        regex = this.pattern.contains("*") ? Pattern.compile(Pattern.quote(this.pattern).replace("*", "\\E.*\\Q")) : null;
+    }
+
+    /**
+     * @param className the service class
+     * @param key <code>className.methodName</code>
+     * @return true if the service matches this pattern
+     */
+    boolean matches(String className, String key) {
+        if (regex == null)
+            return pattern.equals(className) || pattern.equals(key);
+        return regex.matcher(key).matches();
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
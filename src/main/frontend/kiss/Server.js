@@ -125,6 +125,50 @@ class Server {
 
     }
 
+    /**
+     * Create a pager for a back-end method that returns keyset pages (see <code>QueryBuilder.fetchPageJSON</code>).
+     * <br><br>
+     * Each call to <code>next()</code> calls the web method with <code>injson</code> plus a <code>pageToken</code>
+     * field (null for the first page) and returns the result, which has the page in <code>rows</code>.
+     * The back-end's <code>nextPageToken</code> is remembered for the following call.  <code>hasMore</code>
+     * becomes false after the last page and <code>reset()</code> starts over at the first page.
+     * <br><br>
+     * <code>
+     * &nbsp;&nbsp;&nbsp;&nbsp;const pager = Server.pager('services.Employees', 'getPage', {dept: 3});<br>
+     * &nbsp;&nbsp;&nbsp;&nbsp;const res = await pager.next();<br>
+     * &nbsp;&nbsp;&nbsp;&nbsp;if (res._Success) grid.addRecords(res.rows);
+     * </code>
+     *
+     * @param {string} cls the web service to be called
+     * @param {string} meth  the web method
+     * @param {object} injson data to be passed to the back-end with every page request
+     *
+     * @returns {object} the pager
+     */
+    static pager(cls, meth, injson=null) {
+        let token = null;
+        let done = false;
+        return {
+            get hasMore() {
+                return !done;
+            },
+            async next() {
+                if (done)
+                    return {_Success: true, rows: []};
+                const res = await Server.call(cls, meth, { ...(injson || {}), pageToken: token });
+                if (res._Success) {
+                    token = res.nextPageToken || null;
+                    done = !token;
+                }
+                return res;
+            },
+            reset() {
+                token = null;
+                done = false;
+            }
+        };
+    }
+
     /**
      * Perform a binary call.  JSON is sent and JSON is returned.
      * However, a new element will be in the returned json called '_data'.
@@ -214,6 +258,138 @@ class Server {
 
     }
 
+    /**
+     * Call a back-end method that streams a file (see <code>ProcessServlet.startDownload</code>) and save it
+     * under the name the back-end gives it.
+     * <br><br>
+     * The call is made as a form post into a hidden frame so the browser's download manager streams the file
+     * straight to disk rather than holding it in memory.  <code>injson</code> is sent as the <code>_json</code>
+     * form parameter.
+     * <br><br>
+     * If <code>onProgress</code> is given, the download's progress is watched over server-sent events (see
+     * <code>DownloadProgress</code> and <code>services/Downloads</code>) and <code>onProgress</code> is called with
+     * each event, an object with <code>rows</code>, <code>done</code>, and <code>failed</code>.  The returned
+     * promise then resolves when the download ends.  Otherwise it resolves once the request has been sent.
+     *
+     * @param {string} cls the web service to be called
+     * @param {string} meth  the web method
+     * @param {object} injson data to be passed to the back-end
+     * @param {function} onProgress optional progress callback
+     *
+     * @returns {Promise<object>} <code>{_Success: true}</code> or the back-end's error response
+     */
+    static download(cls, meth, injson=null, onProgress=null) {
+        Server.checkTime();
+        const path = "rest";  // path to servlet
+        if (!injson)
+            injson = {};
+        else
+            injson = { ...injson };  // shallow copy
+        injson._uuid = Server.uuid;
+        injson._method = meth;
+        injson._class = cls;
+        let watching = null;
+        if (onProgress) {
+            injson._downloadId = Date.now().toString(36) + Math.random().toString(36).substring(2);
+            watching = Server.#watchDownload(injson._downloadId, onProgress);
+        }
+        return new Promise(function (resolve) {
+            const name = 'kiss-download-' + Date.now().toString(36) + Math.random().toString(36).substring(2);
+            const frame = document.createElement('iframe');
+            frame.name = name;
+            frame.style.display = 'none';
+            let finished = false;
+            const finish = function (res) {
+                if (!finished) {
+                    finished = true;
+                    resolve(res);
+                }
+            };
+            // the frame only loads a page when the back-end reports an error instead of sending the file
+            frame.addEventListener('load', async function () {
+                let res;
+                try {
+                    if (frame.contentWindow.location.href === 'about:blank')
+                        return;
+                    res = JSON.parse(frame.contentDocument.body.textContent);
+                } catch (err) {
+                    console.log("Server communication error (4): " + cls + "." + meth + "(): " + err.message);
+                    res = {_Success: false, _ErrorMessage: Server.errorMessage};
+                }
+                frame.remove();
+                if (finished)
+                    return;
+                await Utils.showMessage('Error', res._ErrorMessage || Server.errorMessage);
+                finish(res);
+            });
+            document.body.appendChild(frame);
+            // a download never loads the frame, so drop it once the download has had time to finish
+            setTimeout(() => frame.remove(), 3600000);
+            const form = document.createElement('form');
+            form.method = 'POST';
+            form.action = Server.url + '/' + path;
+            form.target = name;
+            form.style.display = 'none';
+            for (const [key, value] of [['_class', cls], ['_method', meth], ['_json', JSON.stringify(injson)]]) {
+                const input = document.createElement('input');
+                input.type = 'hidden';
+                input.name = key;
+                input.value = value;
+                form.appendChild(input);
+            }
+            document.body.appendChild(form);
+            form.submit();
+            form.remove();
+            if (watching)
+                watching.then(function (ev) {
+                    if (ev && ev.failed)
+                        finish({_Success: false, _ErrorMessage: Server.errorMessage});
+                    else
+                        finish({_Success: true});
+                });
+            else
+                finish({_Success: true});
+        });
+    }
+
+    /**
+     * Pass the server-sent progress events of a download to <code>onProgress</code> until it ends.
+     *
+     * @returns {Promise<object>} the last event received, or <code>null</code>
+     */
+    static async #watchDownload(downloadId, onProgress) {
+        try {
+            const response = await fetch(Server.url + '/rest', {
+                method: 'POST',
+                cache: 'no-store',
+                body: JSON.stringify({_uuid: Server.uuid, _class: 'services/Downloads', _method: 'watch', downloadId: downloadId}),
+                headers: {
+                    'Content-Type': 'application/json'
+                }
+            });
+            const reader = response.body.getReader();
+            const decoder = new TextDecoder();
+            let buf = '';
+            let last = null;
+            for (;;) {
+                const {value, done} = await reader.read();
+                if (done)
+                    return last;
+                buf += decoder.decode(value, {stream: true});
+                let i;
+                while ((i = buf.indexOf('\n')) >= 0) {
+                    const line = buf.substring(0, i);
+                    buf = buf.substring(i + 1);
+                    if (line.startsWith('data: {'))
+                        onProgress(last = JSON.parse(line.substring(6)));
+                }
+            }
+        } catch (err) {
+            console.log("Download progress error: " + err.message);
+            return null;
+        }
+    }
+
     static incCount() {
         if (++Utils.suspendDepth === 1)
             document.body.style.cursor = 'wait';
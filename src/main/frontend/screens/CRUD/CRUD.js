@@ -125,10 +125,7 @@
     });
 
     $$('export').onclick(async () => {
-        const res = await Server.call(WS, 'runExport');
-        if (res._Success) {
-            Utils.showReport(res.exportUrl);
-        }
+        await Server.download(WS, 'runExport', {format: 'csv'});
     });
 
 
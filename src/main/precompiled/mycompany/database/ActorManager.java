@@ -1,6 +1,7 @@
 package mycompany.database;
 
 import mycompany.domain.Actor;
+import mycompany.domain.CompiledPermissions;
 import org.garret.perst.continuous.TransactionContainer;
 import java.util.Collection;
 
@@ -8,6 +9,7 @@
  * ActorManager - Manager for Actor CRUD operations.
  * 
  * All operations use TransactionContainer for atomicity.
+ * Writes invalidate CompiledPermissions so sessions re-resolve their Actor.
  */
 public class ActorManager extends BaseManager<Actor> {
     
@@ -72,6 +74,7 @@ public static Actor create(Object... args) {
         if (!oodb.PerstStorageManager.store(tc)) {
             return null;
         }
+        CompiledPermissions.invalidateAll();
         return actor;
     }
     
@@ -80,7 +83,9 @@ public static boolean update(Actor actor) {
         
         TransactionContainer tc = oodb.PerstStorageManager.createContainer();
         tc.addUpdate(actor);
-        return oodb.PerstStorageManager.store(tc);
+        boolean stored = oodb.PerstStorageManager.store(tc);
+        CompiledPermissions.invalidateAll();
+        return stored;
     }
     
     public static boolean delete(Actor actor) {
@@ -88,7 +93,9 @@ public static boolean delete(Actor actor) {
         
         TransactionContainer tc = oodb.PerstStorageManager.createContainer();
         tc.addDelete(actor);
-        return oodb.PerstStorageManager.store(tc);
+        boolean stored = oodb.PerstStorageManager.store(tc);
+        CompiledPermissions.invalidateAll();
+        return stored;
     }
     
     public static boolean validate(Actor actor) {
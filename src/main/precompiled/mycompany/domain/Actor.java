@@ -70,13 +70,13 @@ public Actor(String name, String type, Agreement agreement) {
     public void setCreatedDate(long createdDate) { this.createdDate = createdDate; }
     
     public int getUserId() { return userId; }
-    public void setUserId(int userId) { this.userId = userId; }
+    public void setUserId(int userId) { this.userId = userId; CompiledPermissions.invalidateAll(); }
     
     public PerstUser getPerstUser() { return perstUser; }
     public void setPerstUser(PerstUser perstUser) { this.perstUser = perstUser; }
     
     public Agreement getAgreement() { return agreement; }
-    public void setAgreement(Agreement agreement) { this.agreement = agreement; }
+    public void setAgreement(Agreement agreement) { this.agreement = agreement; CompiledPermissions.invalidateAll(); }
     
     public void addToGroup(Group group) {
         if (agreement == null) {
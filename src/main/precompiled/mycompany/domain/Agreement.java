@@ -51,6 +51,8 @@ public class Agreement extends CVersion {
     @Indexable
     private boolean active = true;
     
+    private transient CompiledPermissions compiled;
+    
     public Agreement() {
         this.validFrom = System.currentTimeMillis();
         this.crudPermissions = new HashSet<>();
@@ -75,6 +77,7 @@ public Agreement(String role) {
      */
     public void grant(Class<?> resource, String action) {
         crudPermissions.add(resource.getName() + ":" + action);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -94,6 +97,7 @@ public void grant(Class<?> resource, Class<?> actionConstant) {
     @Deprecated
     public void grant(String resource, String action) {
         crudPermissions.add(resource + ":" + action);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -106,6 +110,7 @@ public void grant(Class<?> resource, String action, boolean grant) {
         } else {
             crudPermissions.remove(permission);
         }
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -123,6 +128,7 @@ public void grantAll(Class<?> resource) {
      */
     public void revoke(Class<?> resource, String action) {
         crudPermissions.remove(resource.getName() + ":" + action);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -130,20 +136,21 @@ public void revoke(Class<?> resource, String action) {
      */
     public void revoke(String resource, String action) {
         crudPermissions.remove(resource + ":" + action);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
      * Check CRUD permission (type-safe)
      */
     public boolean hasCrudPermission(Class<?> resource, String action) {
-        return crudPermissions.contains(resource.getName() + ":" + action);
+        return compiled().hasCrudPermission(resource, action);
     }
     
     /**
      * Check CRUD permission (string version)
      */
     public boolean hasCrudPermission(String resource, String action) {
-        return crudPermissions.contains(resource + ":" + action);
+        return compiled().hasCrudPermission(resource, action);
     }
     
     public Set<String> getCrudPermissions() { return crudPermissions; }
@@ -155,6 +162,7 @@ public boolean hasCrudPermission(String resource, String action) {
      */
     public void grant(EndpointMethod endpoint) {
         methodPermissions.add(endpoint);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -162,6 +170,7 @@ public void grant(EndpointMethod endpoint) {
      */
     public void revoke(EndpointMethod endpoint) {
         methodPermissions.remove(endpoint);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -180,6 +189,7 @@ public boolean canExecute(EndpointMethod endpoint) {
      */
     public void addGroup(Group group) {
         groups.add(group);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -187,13 +197,14 @@ public void addGroup(Group group) {
      */
     public void removeGroup(Group group) {
         groups.remove(group);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
      * Check if actor belongs to a group
      */
     public boolean hasGroup(String groupName) {
-        return groups.stream().anyMatch(g -> g.getName() != null && g.getName().equals(groupName));
+        return compiled().hasGroup(groupName);
     }
     
     public Set<Group> getGroups() { return groups; }
@@ -201,10 +212,10 @@ public boolean hasGroup(String groupName) {
     // ========== Validity ==========
     
     public long getValidFrom() { return validFrom; }
-    public void setValidFrom(long validFrom) { this.validFrom = validFrom; }
+    public void setValidFrom(long validFrom) { this.validFrom = validFrom; CompiledPermissions.invalidateAll(); }
     
     public Long getValidTo() { return validTo; }
-    public void setValidTo(Long validTo) { this.validTo = validTo; }
+    public void setValidTo(Long validTo) { this.validTo = validTo; CompiledPermissions.invalidateAll(); }
     
     public boolean isValid() {
         long now = System.currentTimeMillis();
@@ -215,7 +226,7 @@ public boolean isValid() {
     }
     
     public boolean isActive() { return active; }
-    public void setActive(boolean active) { this.active = active; }
+    public void setActive(boolean active) { this.active = active; CompiledPermissions.invalidateAll(); }
     
     // ========== Comprehensive Permission Check ==========
     
@@ -223,31 +234,11 @@ public boolean isValid() {
      * Check if this agreement grants permission for an action.
      * Checks in order: CRUD → EndpointMethod → Groups
      * Everything is denied by default.
+     * 
+     * Evaluated against the compiled snapshot - see CompiledPermissions.
      */
     public boolean grants(EndpointMethod endpoint, Class<?> resource, String action) {
-        if (!isValid()) return false;
-        
-        // 1. Check CRUD permission
-        if (crudPermissions.contains("*") ||
-            crudPermissions.contains(resource.getName() + ":*") ||
-            crudPermissions.contains(resource.getName() + ":" + action)) {
-            return true;
-        }
-        
-        // 2. Check EndpointMethod permission
-        if (endpoint != null && methodPermissions.contains(endpoint)) {
-            return true;
-        }
-        
-        // 3. Check via Groups
-        for (Group group : groups) {
-            if (group.canExecute(endpoint) || 
-                group.hasCrudPermission(resource.getName(), action)) {
-                return true;
-            }
-        }
-        
-        return false;
+        return compiled().grants(endpoint, resource, action);
     }
     
     /**
@@ -257,6 +248,17 @@ public boolean grants(Class<?> resource, String action) {
         return grants(null, resource, action);
     }
     
+    /**
+     * Compiled snapshot of this agreement, recompiled after any permission change.
+     */
+    public CompiledPermissions compiled() {
+        CompiledPermissions c = compiled;
+        if (c == null || c.isStale()) {
+            compiled = c = CompiledPermissions.of(this);
+        }
+        return c;
+    }
+    
     // ========== Private Helper ==========
     
     private static String getConstantValue(Class<?> constantClass) {
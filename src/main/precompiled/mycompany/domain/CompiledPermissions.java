@@ -0,0 +1,372 @@
+package mycompany.domain;
+
+import mycompany.database.ActorManager;
+import org.kissweb.restServer.UserData;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CompiledPermissions - Immutable, pre-resolved snapshot of an Agreement or Group.
+ *
+ * Agreement and Group store their permissions as "resource:action" strings and
+ * EndpointMethod sets.  Checking those on every call means string concatenation,
+ * several hash probes and a stream over the groups.  This class compiles them once
+ * into bitsets indexed by interned integer IDs so an authorization check becomes
+ * a couple of array loads.
+ *
+ * Resource names, actions, endpoints and group names are interned into small
+ * process-wide integer IDs.  IDs are never reused or removed.
+ *
+ * Invalidation:
+ * - Every mutation of an Agreement or Group (and ActorManager writes) calls
+ *   invalidateAll(), which bumps a global generation counter.
+ * - A snapshot whose generation differs from the current one is stale and is
+ *   recompiled on next use.
+ * - Code that mutates the sets returned by getCrudPermissions() etc. directly
+ *   must call invalidateAll() itself.
+ *
+ * Usage:
+ *   CompiledPermissions cp = CompiledPermissions.forSession(servlet.getUserData());
+ *   if (cp != null && !cp.grants(endpoint, Actor.class, CRUD.READ)) ...
+ */
+public final class CompiledPermissions {
+
+    /** UserData key under which the caller's snapshot is cached for the session */
+    public static final String SESSION_KEY = "mycompany.domain.CompiledPermissions";
+
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static final ConcurrentHashMap<String, Integer> resourceIds = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> actionIds = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> endpointIds = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Integer> groupIds = new ConcurrentHashMap<>();
+
+    private static final ClassValue<Integer> classIds = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return intern(resourceIds, type.getName());
+        }
+    };
+
+    static {
+        // Fixed low IDs for the standard actions
+        intern(actionIds, CRUD.CREATE);
+        intern(actionIds, CRUD.READ);
+        intern(actionIds, CRUD.UPDATE);
+        intern(actionIds, CRUD.DELETE);
+        intern(actionIds, CRUD.EXECUTE);
+        intern(actionIds, CRUD.ALL);
+    }
+
+    private static final long[] EMPTY = new long[0];
+    private static final long[][] EMPTY_CRUD = new long[0][];
+
+    private final int compiledGeneration;
+    private final boolean active;
+    private final long validFrom;
+    private final Long validTo;
+    private final boolean all;            // "*" - everything granted
+    private final long[] resourceAll;     // "resource:*" - bit per resource ID
+    private final long[][] ownCrud;       // exact grants of the Agreement/Group itself
+    private final long[][] effectiveCrud; // own grants plus those of all groups
+    private final long[] endpoints;       // own endpoints plus those of all groups
+    private final long[] groups;          // group name IDs
+
+    private CompiledPermissions(int compiledGeneration, boolean active, long validFrom, Long validTo, boolean all,
+                                long[] resourceAll, long[][] ownCrud, long[][] effectiveCrud,
+                                long[] endpoints, long[] groups) {
+        this.compiledGeneration = compiledGeneration;
+        this.active = active;
+        this.validFrom = validFrom;
+        this.validTo = validTo;
+        this.all = all;
+        this.resourceAll = resourceAll;
+        this.ownCrud = ownCrud;
+        this.effectiveCrud = effectiveCrud;
+        this.endpoints = endpoints;
+        this.groups = groups;
+    }
+
+    // ========== Compilation ==========
+
+    /**
+     * Compile an Agreement, including the permissions of all its groups.
+     * Wildcards ("*" and "resource:*") are honoured for the Agreement's own
+     * grants only, matching the original Agreement.grants() semantics.
+     */
+    public static CompiledPermissions of(Agreement agreement) {
+        // read the generation before the sets so a concurrent change leaves us stale, not wrong
+        int gen = generation.get();
+        if (agreement == null) {
+            return new CompiledPermissions(gen, false, 0L, null, false, EMPTY, EMPTY_CRUD, EMPTY_CRUD, EMPTY, EMPTY);
+        }
+        Builder own = new Builder();
+        boolean all = false;
+        long[] resourceAll = EMPTY;
+        for (String perm : agreement.getCrudPermissions()) {
+            if (CRUD.ALL.equals(perm)) {
+                all = true;
+                continue;
+            }
+            int sep = perm.lastIndexOf(':');
+            if (sep < 0) {
+                continue;
+            }
+            int resource = intern(resourceIds, perm.substring(0, sep));
+            String action = perm.substring(sep + 1);
+            if (CRUD.ALL.equals(action)) {
+                resourceAll = set(resourceAll, resource);
+            }
+            own.add(resource, intern(actionIds, action));
+        }
+        Builder effective = own.copy();
+        long[] endpoints = addEndpoints(EMPTY, agreement.getMethodPermissions());
+        long[] groupBits = EMPTY;
+        for (Group group : agreement.getGroups()) {
+            if (group == null) {
+                continue;
+            }
+            if (group.getName() != null) {
+                groupBits = set(groupBits, intern(groupIds, group.getName()));
+            }
+            addExact(effective, group.getCrudPermissions());
+            endpoints = addEndpoints(endpoints, group.getMethodPermissions());
+        }
+        return new CompiledPermissions(gen, agreement.isActive(), agreement.getValidFrom(), agreement.getValidTo(),
+                all, resourceAll, own.build(), effective.build(), endpoints, groupBits);
+    }
+
+    /**
+     * Compile a Group.  Groups only support exact grants.
+     */
+    public static CompiledPermissions of(Group group) {
+        int gen = generation.get();
+        Builder own = new Builder();
+        addExact(own, group.getCrudPermissions());
+        long[][] crud = own.build();
+        return new CompiledPermissions(gen, true, Long.MIN_VALUE, null, false, EMPTY, crud, crud,
+                addEndpoints(EMPTY, group.getMethodPermissions()), EMPTY);
+    }
+
+    /**
+     * Resolve (once per session) the compiled permissions of the Actor logged in
+     * under the given UserData.  The snapshot is kept in the UserData and
+     * re-resolved only after invalidateAll().
+     *
+     * @return the snapshot, or null if there is no user or no Actor for the user
+     */
+    public static CompiledPermissions forSession(UserData ud) {
+        if (ud == null) {
+            return null;
+        }
+        Object cached = ud.getUserData(SESSION_KEY);
+        if (cached instanceof CompiledPermissions && !((CompiledPermissions) cached).isStale()) {
+            return (CompiledPermissions) cached;
+        }
+        Actor actor = ActorManager.getByUserId((int) ud.getUserId());
+        if (actor == null) {
+            ud.putUserData(SESSION_KEY, null);
+            return null;
+        }
+        CompiledPermissions cp = actor.getAgreement() != null ? actor.getAgreement().compiled() : of((Agreement) null);
+        ud.putUserData(SESSION_KEY, cp);
+        return cp;
+    }
+
+    /**
+     * Mark every compiled snapshot stale.  Called on any permission change.
+     */
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Has a permission change happened since this snapshot was compiled?
+     */
+    public boolean isStale() {
+        return compiledGeneration != generation.get();
+    }
+
+    // ========== IDs ==========
+
+    /**
+     * Interned ID of a resource class (lock-free after the first call per class).
+     */
+    public static int resourceId(Class<?> resource) {
+        return resource == null ? -1 : classIds.get(resource);
+    }
+
+    /**
+     * Interned ID of an action, creating it if needed.
+     */
+    public static int actionId(String action) {
+        return action == null ? -1 : intern(actionIds, action);
+    }
+
+    /**
+     * Interned ID of an endpoint name, creating it if needed.
+     */
+    public static int endpointId(String name) {
+        return name == null ? -1 : intern(endpointIds, name);
+    }
+
+    // ========== Checks ==========
+
+    /**
+     * Equivalent of Agreement.grants(endpoint, resource, action) using pre-resolved IDs.
+     *
+     * @param endpointId  endpoint ID or -1 for none
+     * @param resourceId  resource ID from resourceId()
+     * @param actionId    action ID from actionId()
+     */
+    public boolean grants(int endpointId, int resourceId, int actionId) {
+        if (!isValid()) {
+            return false;
+        }
+        return all
+                || test(resourceAll, resourceId)
+                || test(effectiveCrud, resourceId, actionId)
+                || test(endpoints, endpointId);
+    }
+
+    /**
+     * Equivalent of Agreement.grants(endpoint, resource, action).
+     */
+    public boolean grants(EndpointMethod endpoint, Class<?> resource, String action) {
+        return grants(endpoint == null ? -1 : endpoint.getPermissionId(), resourceId(resource), lookup(actionIds, action));
+    }
+
+    /**
+     * Exact CRUD grant held directly (not via groups or wildcards).
+     */
+    public boolean hasCrudPermission(int resourceId, int actionId) {
+        return test(ownCrud, resourceId, actionId);
+    }
+
+    /**
+     * Exact CRUD grant held directly, by resource class.
+     */
+    public boolean hasCrudPermission(Class<?> resource, String action) {
+        return test(ownCrud, resourceId(resource), lookup(actionIds, action));
+    }
+
+    /**
+     * Exact CRUD grant held directly, by resource name.
+     */
+    public boolean hasCrudPermission(String resource, String action) {
+        return test(ownCrud, lookup(resourceIds, resource), lookup(actionIds, action));
+    }
+
+    /**
+     * Endpoint granted directly or via a group.
+     */
+    public boolean canExecute(EndpointMethod endpoint) {
+        return endpoint != null && test(endpoints, endpoint.getPermissionId());
+    }
+
+    /**
+     * Membership of a group by name.
+     */
+    public boolean hasGroup(String groupName) {
+        return test(groups, lookup(groupIds, groupName));
+    }
+
+    public boolean isValid() {
+        if (!active) return false;
+        long now = System.currentTimeMillis();
+        if (validFrom > now) return false;
+        return validTo == null || validTo >= now;
+    }
+
+    // ========== Private Helpers ==========
+
+    private static int intern(ConcurrentHashMap<String, Integer> ids, String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            return ids.computeIfAbsent(name, k -> ids.size());
+        }
+    }
+
+    private static int lookup(ConcurrentHashMap<String, Integer> ids, String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    private static void addExact(Builder b, Set<String> perms) {
+        for (String perm : perms) {
+            int sep = perm.lastIndexOf(':');
+            if (sep >= 0) {
+                b.add(intern(resourceIds, perm.substring(0, sep)), intern(actionIds, perm.substring(sep + 1)));
+            }
+        }
+    }
+
+    private static long[] addEndpoints(long[] bits, Set<EndpointMethod> methods) {
+        for (EndpointMethod m : methods) {
+            if (m != null) {
+                bits = set(bits, m.getPermissionId());
+            }
+        }
+        return bits;
+    }
+
+    private static long[] set(long[] bits, int id) {
+        int word = id >>> 6;
+        if (word >= bits.length) {
+            long[] grown = new long[word + 1];
+            System.arraycopy(bits, 0, grown, 0, bits.length);
+            bits = grown;
+        }
+        bits[word] |= 1L << id;
+        return bits;
+    }
+
+    private static boolean test(long[] bits, int id) {
+        if (id < 0) {
+            return false;
+        }
+        int word = id >>> 6;
+        return word < bits.length && (bits[word] & (1L << id)) != 0;
+    }
+
+    private static boolean test(long[][] crud, int resourceId, int actionId) {
+        return resourceId >= 0 && resourceId < crud.length && crud[resourceId] != null && test(crud[resourceId], actionId);
+    }
+
+    /**
+     * Accumulates resource -> action bitsets while compiling.
+     */
+    private static final class Builder {
+        private long[][] crud = EMPTY_CRUD;
+
+        void add(int resource, int action) {
+            if (resource >= crud.length) {
+                long[][] grown = new long[resource + 1][];
+                System.arraycopy(crud, 0, grown, 0, crud.length);
+                crud = grown;
+            }
+            crud[resource] = set(crud[resource] == null ? EMPTY : crud[resource], action);
+        }
+
+        Builder copy() {
+            Builder b = new Builder();
+            b.crud = new long[crud.length][];
+            for (int i = 0; i < crud.length; i++) {
+                b.crud[i] = crud[i] == null ? null : crud[i].clone();
+            }
+            return b;
+        }
+
+        long[][] build() {
+            return crud;
+        }
+    }
+}
@@ -3,8 +3,6 @@
 import org.kissweb.json.JSONObject;
 import org.kissweb.database.Connection;
 import org.kissweb.restServer.ProcessServlet;
-import org.kissweb.restServer.UserData;
-import mycompany.database.ActorManager;
 
 /**
  * EndpointMethod - Abstract base for all service endpoints.
@@ -28,6 +26,10 @@ public abstract class EndpointMethod {
     private final String name;
     private final Class<?> resourceClass;  // Type-safe resource class
     private final boolean external;  // true = callable via REST
+    private final int permissionId;  // interned endpoint ID for CompiledPermissions
+    private final int resourceId;    // interned resource ID for CompiledPermissions
+    
+    private static final int EXECUTE_ID = CompiledPermissions.actionId(CRUD.EXECUTE);
     
     /**
      * Create an external endpoint
@@ -43,6 +45,8 @@ protected EndpointMethod(String name, Class<?> resourceClass, boolean external)
         this.name = name;
         this.resourceClass = resourceClass;
         this.external = external;
+        this.permissionId = CompiledPermissions.endpointId(name);
+        this.resourceId = CompiledPermissions.resourceId(resourceClass);
     }
     
     /**
@@ -59,6 +63,13 @@ public Class<?> getResourceClass() {
         return resourceClass;
     }
     
+    /**
+     * Get the interned ID used by CompiledPermissions
+     */
+    public int getPermissionId() {
+        return permissionId;
+    }
+    
     /**
      * Is this endpoint callable externally via REST?
      */
@@ -87,11 +98,10 @@ public boolean execute(JSONObject in, JSONObject out, Connection db, ProcessServ
             return false;  // Internal only - deny external calls
         }
         
-        // 2. Get caller and check Agreement
-        Actor caller = getCaller(servlet);
+        // 2. Get caller's compiled Agreement (resolved once per session) and check it
+        CompiledPermissions caller = CompiledPermissions.forSession(servlet.getUserData());
         if (caller != null) {
-            // Agreement MUST exist (enforced by Actor constructor)
-            if (!caller.getAgreement().grants(this, resourceClass, CRUD.EXECUTE)) {
+            if (!caller.grants(permissionId, resourceId, EXECUTE_ID)) {
                 return false;  // Not authorized
             }
         }
@@ -100,17 +110,6 @@ public boolean execute(JSONObject in, JSONObject out, Connection db, ProcessServ
         return doExecute(in, out, db, servlet);
     }
     
-    /**
-     * Helper to get authenticated Actor from servlet
-     */
-    private Actor getCaller(ProcessServlet servlet) {
-        UserData ud = servlet.getUserData();
-        if (ud == null) {
-            return null;
-        }
-        return ActorManager.getByUserId((int) ud.getUserId());
-    }
-    
     /**
      * Override with actual endpoint logic.
      */
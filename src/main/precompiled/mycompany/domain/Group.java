@@ -35,6 +35,8 @@ public class Group extends CVersion {
     private Set<EndpointMethod> methodPermissions;
     private Set<String> crudPermissions;
     
+    private transient CompiledPermissions compiled;
+    
     public Group() {
         this.methodPermissions = new HashSet<>();
         this.crudPermissions = new HashSet<>();
@@ -46,7 +48,7 @@ public Group(String name) {
     }
     
     public String getName() { return name; }
-    public void setName(String name) { this.name = name; }
+    public void setName(String name) { this.name = name; CompiledPermissions.invalidateAll(); }
     
     // ========== EndpointMethod Permissions ==========
     
@@ -55,6 +57,7 @@ public Group(String name) {
      */
     public void grant(EndpointMethod endpoint) {
         methodPermissions.add(endpoint);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -62,13 +65,14 @@ public void grant(EndpointMethod endpoint) {
      */
     public void revoke(EndpointMethod endpoint) {
         methodPermissions.remove(endpoint);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
      * Check if this group can execute an endpoint
      */
     public boolean canExecute(EndpointMethod endpoint) {
-        return methodPermissions.contains(endpoint);
+        return compiled().canExecute(endpoint);
     }
     
     public Set<EndpointMethod> getMethodPermissions() { return methodPermissions; }
@@ -82,6 +86,7 @@ public boolean canExecute(EndpointMethod endpoint) {
      */
     public void grant(Class<?> resource, String action) {
         crudPermissions.add(resource.getName() + ":" + action);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -106,6 +111,7 @@ public void grantAll(Class<?> resource) {
      */
     public void grantCrud(String resource, String action) {
         crudPermissions.add(resource + ":" + action);
+        CompiledPermissions.invalidateAll();
     }
     
     /**
@@ -118,24 +124,36 @@ public void grantCrud(String resource, String action, boolean grant) {
         } else {
             crudPermissions.remove(permission);
         }
+        CompiledPermissions.invalidateAll();
     }
     
     /**
      * Check if this group has CRUD permission (type-safe)
      */
     public boolean hasCrudPermission(Class<?> resource, String action) {
-        return crudPermissions.contains(resource.getName() + ":" + action);
+        return compiled().hasCrudPermission(resource, action);
     }
     
     /**
      * Check if this group has CRUD permission (string version)
      */
     public boolean hasCrudPermission(String resource, String action) {
-        return crudPermissions.contains(resource + ":" + action);
+        return compiled().hasCrudPermission(resource, action);
     }
     
     public Set<String> getCrudPermissions() { return crudPermissions; }
     
+    /**
+     * Compiled snapshot of this group, recompiled after any permission change.
+     */
+    public CompiledPermissions compiled() {
+        CompiledPermissions c = compiled;
+        if (c == null || c.isStale()) {
+            compiled = c = CompiledPermissions.of(this);
+        }
+        return c;
+    }
+    
     // ========== Private Helper ==========
     
     private static String getConstantValue(Class<?> constantClass) {
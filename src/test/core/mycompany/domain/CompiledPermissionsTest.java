@@ -0,0 +1,69 @@
+package mycompany.domain;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CompiledPermissions.
+ * Verifies the compiled snapshot answers exactly like the string-based rules.
+ */
+public class CompiledPermissionsTest {
+
+    @Test
+    public void testExactCrudGrant() {
+        Agreement agreement = new Agreement("test");
+        agreement.grant(Actor.class, CRUD.READ);
+        assertTrue(agreement.grants(Actor.class, CRUD.READ));
+        assertFalse(agreement.grants(Actor.class, CRUD.DELETE));
+        assertFalse(agreement.grants(Group.class, CRUD.READ));
+        assertTrue(agreement.hasCrudPermission(Actor.class, CRUD.READ));
+    }
+
+    @Test
+    public void testWildcards() {
+        Agreement agreement = new Agreement("test");
+        agreement.grant(Actor.class, CRUD.ALL);
+        assertTrue(agreement.grants(Actor.class, CRUD.DELETE));
+        assertTrue(agreement.grants(Actor.class, "someCustomAction"));
+        assertFalse(agreement.grants(Group.class, CRUD.READ));
+
+        Agreement admin = new Agreement("admin");
+        admin.getCrudPermissions().add(CRUD.ALL);
+        CompiledPermissions.invalidateAll();
+        assertTrue(admin.grants(Group.class, CRUD.UPDATE));
+    }
+
+    @Test
+    public void testRevokeInvalidatesSnapshot() {
+        Agreement agreement = new Agreement("test");
+        agreement.grant(Actor.class, CRUD.UPDATE);
+        CompiledPermissions before = agreement.compiled();
+        assertTrue(agreement.grants(Actor.class, CRUD.UPDATE));
+        agreement.revoke(Actor.class, CRUD.UPDATE);
+        assertTrue(before.isStale());
+        assertFalse(agreement.grants(Actor.class, CRUD.UPDATE));
+    }
+
+    @Test
+    public void testGroupPermissions() {
+        Group group = new Group("editors");
+        group.grant(Actor.class, CRUD.UPDATE);
+        Agreement agreement = new Agreement("test");
+        agreement.addGroup(group);
+        assertTrue(agreement.hasGroup("editors"));
+        assertFalse(agreement.hasGroup("admins"));
+        assertTrue(agreement.grants(Actor.class, CRUD.UPDATE));
+        assertFalse(agreement.hasCrudPermission(Actor.class, CRUD.UPDATE));
+
+        group.grantCrud(Actor.class.getName(), CRUD.UPDATE, false);
+        assertFalse(agreement.grants(Actor.class, CRUD.UPDATE));
+    }
+
+    @Test
+    public void testInactiveAgreementDeniesEverything() {
+        Agreement agreement = new Agreement("test");
+        agreement.grant(Actor.class, CRUD.READ);
+        agreement.setActive(false);
+        assertFalse(agreement.grants(Actor.class, CRUD.READ));
+    }
+}
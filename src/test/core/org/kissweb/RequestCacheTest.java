@@ -0,0 +1,92 @@
+package org.kissweb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RequestCache and RequestContext.
+ */
+public class RequestCacheTest {
+
+    private static final RequestCache<String,Integer> cache = new RequestCache<>();
+
+    @Test
+    public void testNoContextHoldsNothing() {
+        assertNull(RequestContext.current());
+        cache.put("a", 1);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPutGetWithinContext() {
+        RequestContext ctx = new RequestContext();
+        RequestContext prev = ctx.bind();
+        try {
+            assertNull(cache.put("a", 1));
+            assertEquals(1, cache.get("a"));
+            assertEquals(1, cache.getOrDefault("a", 5));
+            assertEquals(7, cache.getOrDefault("b", 7));
+            assertTrue(cache.containsKey("b"));
+            assertEquals(2, cache.size());
+            cache.put("b", null);
+            assertFalse(cache.containsKey("b"));
+            assertEquals(1, cache.invalidate("a"));
+            assertEquals(0, cache.size());
+        } finally {
+            RequestContext.unbind(prev);
+        }
+        assertNull(RequestContext.current());
+    }
+
+    @Test
+    public void testCloseDropsEverything() {
+        RequestContext ctx = new RequestContext();
+        RequestContext prev = ctx.bind();
+        try {
+            cache.put("a", 1);
+            ctx.close();
+            assertTrue(ctx.isClosed());
+            assertNull(cache.get("a"));
+            cache.put("a", 2);
+            assertNull(cache.get("a"));
+        } finally {
+            RequestContext.unbind(prev);
+        }
+    }
+
+    @Test
+    public void testRequestsAreIsolated() {
+        RequestContext r1 = new RequestContext();
+        RequestContext r2 = new RequestContext();
+        RequestContext prev = r1.bind();
+        cache.put("a", 1);
+        r2.bind();
+        assertNull(cache.get("a"));
+        r1.bind();
+        assertEquals(1, cache.get("a"));
+        RequestContext.unbind(prev);
+    }
+
+    @Test
+    public void testVisibleToChildTasks() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        RequestContext ctx = new RequestContext();
+        RequestContext prev = ctx.bind();
+        try {
+            cache.put("a", 1);
+            assertEquals(1, pool.submit(RequestContext.wrap(() -> cache.get("a"))).get());
+            pool.submit(RequestContext.wrap((Runnable) () -> cache.put("b", 2))).get();
+            assertEquals(2, cache.get("b"));
+            // an unwrapped task does not see the request's values
+            assertNull(pool.submit(() -> cache.get("a")).get());
+        } finally {
+            RequestContext.unbind(prev);
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.kissweb.database;
+
+import java.io.File;
+
+/**
+ * Compares the insert throughput of <code>Record.addRecord()</code> with <code>BatchWriter</code>.
+ * <br><br>
+ * Run with <code>java org.kissweb.database.BatchWriterBenchmark [rows]</code>.  A file-based SQLite database
+ * in the temp directory is used so that no server is needed.  Against a database server, where every statement
+ * is a network round trip, the difference is much larger.
+ */
+public class BatchWriterBenchmark {
+
+    public static void main(String [] args) throws Exception {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final File file = File.createTempFile("kiss-batch", ".db");
+        file.deleteOnExit();
+        try (Connection db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite:" + file.getAbsolutePath())) {
+            db.execute("create table bench (id integer primary key, name varchar(40), qty integer, price double)");
+            db.commit();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++)
+                db.newRecord("bench").set("name", "row " + i).set("qty", i).set("price", i * 1.5).addRecord();
+            db.commit();
+            report("Record.addRecord", rows, start);
+
+            db.execute("delete from bench");
+            db.commit();
+
+            start = System.nanoTime();
+            final BatchWriter writer = db.newBatchWriter();
+            try (BatchWriter bw = writer) {
+                for (int i = 0; i < rows; i++)
+                    bw.add(db.newRecord("bench").set("name", "row " + i).set("qty", i).set("price", i * 1.5));
+            }
+            db.commit();
+            report("BatchWriter.add (" + writer.getStatementCount() + " statements)", rows, start);
+
+            db.execute("delete from bench");
+            db.commit();
+
+            start = System.nanoTime();
+            try (BatchWriter bw = db.newBatchWriter()) {
+                for (int i = 0; i < rows; i++)
+                    bw.addAutoInc(db.newRecord("bench").set("name", "row " + i).set("qty", i).set("price", i * 1.5));
+            }
+            db.commit();
+            report("BatchWriter.addAutoInc", rows, start);
+        }
+    }
+
+    private static void report(String what, int rows, long start) {
+        final double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-45s %,10d rows  %8.3f s  %,12.0f rows/s%n", what, rows, secs, rows / secs);
+    }
+}
@@ -0,0 +1,105 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BatchWriter using an in-memory SQLite database.
+ */
+class BatchWriterTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(40), qty integer)");
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private long count(String where) throws Exception {
+        return db.fetchOne("select count(*) cnt from item " + where).getLong("cnt");
+    }
+
+    @Test
+    void testInsert() throws Exception {
+        final BatchWriter writer = db.newBatchWriter(1000);
+        try (BatchWriter bw = writer) {
+            for (int i = 1; i <= 2500; i++)
+                bw.add(db.newRecord("item").set("item_id", i).set("name", "item " + i));
+            assertEquals(2000, bw.getRowCount());
+        }
+        assertEquals(2500, writer.getRowCount());
+        // 999 parameters per statement / 2 columns = 499 rows per statement
+        assertTrue(writer.getStatementCount() < 10, "statements: " + writer.getStatementCount());
+        assertEquals(2500, count(""));
+        assertEquals("item 1234", db.fetchOne("select name from item where item_id = 1234").getString("name"));
+    }
+
+    @Test
+    void testGeneratedKeys() throws Exception {
+        List<Record> recs = new ArrayList<>();
+        try (BatchWriter bw = db.newBatchWriter(300)) {
+            for (int i = 0; i < 700; i++) {
+                Record r = db.newRecord("item").set("name", "n" + i).set("qty", i);
+                recs.add(r);
+                bw.addAutoInc(r);
+            }
+        }
+        for (Record r : recs)
+            assertEquals(r.getString("name"), db.fetchOne("select name from item where item_id = ?", r.getInt("item_id")).getString("name"));
+    }
+
+    @Test
+    void testMarkedWrittenWhenFlushed() throws Exception {
+        try (BatchWriter bw = db.newBatchWriter()) {
+            final Record rec = db.newRecord("item").set("item_id", 1).set("name", "a");
+            bw.add(rec);
+            assertEquals(2, rec.changedColumns().length);  // not written yet
+            rec.set("name", "b");
+            bw.flush();
+            assertArrayEquals(new String[] { "name" }, rec.changedColumns());
+
+            final Record dup = db.newRecord("item").set("item_id", 1).set("name", "c");
+            bw.addAutoInc(dup);
+            assertThrows(java.sql.SQLException.class, bw::flush);
+            assertEquals(2, dup.changedColumns().length);
+        }
+        assertEquals("a", db.fetchOne("select name from item where item_id = 1").getString("name"));
+    }
+
+    @Test
+    void testUpdateAndDelete() throws Exception {
+        try (BatchWriter bw = db.newBatchWriter()) {
+            for (int i = 1; i <= 100; i++)
+                bw.add(db.newRecord("item").set("item_id", i).set("qty", 0));
+        }
+        List<Record> recs = db.fetchAll("select * from item order by item_id");
+        try (BatchWriter bw = db.newBatchWriter(40)) {
+            for (Record r : recs)
+                if (r.getInt("item_id") % 2 == 0)
+                    bw.update(r.set("qty", 5));
+                else
+                    bw.update(r);   // unchanged: nothing written
+            assertEquals(40, bw.getRowCount());
+            bw.flush();
+            assertEquals(50, bw.getRowCount());
+            for (Record r : recs)
+                if (r.getInt("item_id") <= 10)
+                    bw.delete(r);
+        }
+        assertEquals(45, count("where qty = 5"));
+        assertEquals(90, count(""));
+    }
+}
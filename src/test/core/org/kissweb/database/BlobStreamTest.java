@@ -0,0 +1,114 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for streaming binary column access using an in-memory SQLite database.
+ */
+class BlobStreamTest {
+
+    private Connection db;
+
+    private static byte [] document(int id, int size) {
+        final byte [] b = new byte[size];
+        for (int i = 0; i < size; i++)
+            b[i] = (byte) (i * 31 + id);
+        return b;
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table scan (scan_id integer primary key, name varchar(40), document blob)");
+        for (int i = 1; i <= 3; i++)
+            db.execute("insert into scan (scan_id, name, document) values (?, ?, ?)", i, "scan " + i, document(i, 100_000 * i));
+        db.execute("insert into scan (scan_id, name) values (4, 'empty')");
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void testStreamedColumn() throws Exception {
+        try (Cursor c = db.streamQuery("select * from scan order by scan_id").streamColumns("DOCUMENT")) {
+            assertThrows(SQLException.class, () -> c.getBinaryStream("document"));  // not on a row yet
+            for (int i = 1; i <= 3; i++) {
+                final Record r = c.next();
+                assertEquals("scan " + i, r.getString("name"));
+                assertNull(r.get("document"));   // left in the result set
+                try (InputStream in = r.getBinaryStream("document")) {
+                    assertArrayEquals(document(i, 100_000 * i), in.readAllBytes());
+                }
+            }
+            assertNotNull(c.next());
+            assertNull(c.getBinaryStream("document"));
+            assertNull(c.getBinaryChannel("document"));
+            assertNull(c.next());
+            assertThrows(SQLException.class, () -> c.getBinaryStream("document"));
+            assertThrows(SQLException.class, () -> c.getBinaryChannel("document"));
+        }
+    }
+
+    @Test
+    void testStaleRow() throws Exception {
+        try (Cursor c = db.streamQuery("select * from scan order by scan_id")) {
+            c.streamColumns("document");
+            final Record first = c.next();
+            c.next();
+            assertThrows(SQLException.class, () -> first.getBinaryStream("document"));
+            assertThrows(SQLException.class, () -> c.streamColumns("document"));
+        }
+        try (Cursor c = db.query("select * from scan")) {
+            assertThrows(SQLException.class, () -> c.streamColumns("document"));
+        }
+        try (Cursor c = db.streamQuery("select * from scan")) {
+            assertThrows(SQLException.class, () -> c.streamColumns("nope"));
+            // streamed columns must come last
+            assertThrows(SQLException.class, () -> c.streamColumns("name"));
+            c.streamColumns("name", "document");
+            assertNotNull(c.next());
+        }
+    }
+
+    @Test
+    void testRecordValue() throws Exception {
+        final Record r = db.fetchOne("select * from scan where scan_id = 2");
+        try (InputStream in = r.getBinaryStream("document")) {
+            assertArrayEquals(r.getByteArray("document"), in.readAllBytes());
+        }
+        final ReadableByteChannel ch = r.getBinaryChannel("document");
+        final ByteBuffer bb = ByteBuffer.allocate(300_000);
+        while (ch.read(bb) >= 0)
+            ;
+        assertEquals(200_000, bb.position());
+        assertNull(db.fetchOne("select * from scan where scan_id = 4").getBinaryChannel("document"));
+    }
+
+    @Test
+    void testCopyBinary() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(300_000, db.copyBinary(out, "select document from scan where scan_id = ?", 3));
+        assertArrayEquals(document(3, 300_000), out.toByteArray());
+        assertEquals(-1, db.copyBinary(out, "select document from scan where scan_id = ?", 4));
+        assertEquals(-1, db.copyBinary(out, "select document from scan where scan_id = ?", 99));
+        assertEquals(300_000, out.size());
+        out.reset();
+        assertEquals(100_000, db.copyBinary(out, "select document, name from scan where scan_id = ?", 1));
+        assertArrayEquals(document(1, 100_000), out.toByteArray());
+        // the connection is still usable
+        assertEquals(4, db.fetchOne("select count(*) cnt from scan").getLong("cnt"));
+    }
+}
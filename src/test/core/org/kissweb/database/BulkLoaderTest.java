@@ -0,0 +1,111 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kissweb.DelimitedFileReader;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BulkLoader.  SQLite exercises the batched insert path; the COPY encoding is tested directly.
+ */
+class BulkLoaderTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(40), qty integer)");
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private long count() throws Exception {
+        return db.fetchOne("select count(*) cnt from item").getLong("cnt");
+    }
+
+    @Test
+    void testDelimitedFile() throws Exception {
+        File f = File.createTempFile("bulk", ".csv");
+        f.deleteOnExit();
+        StringBuilder sb = new StringBuilder("qty,name,item_id\n");
+        for (int i = 1; i <= 250; i++)
+            sb.append(i == 7 ? "" : i * 10).append(",\"item, ").append(i).append("\",").append(i).append('\n');
+        Files.writeString(f.toPath(), sb);
+        List<Long> progress = new ArrayList<>();
+        try (DelimitedFileReader dfr = new DelimitedFileReader(f)) {
+            dfr.readHeader();
+            BulkLoader bl = db.newBulkLoader("item", "item_id", "name", "qty")
+                    .setBatchSize(100)
+                    .setProgressCallback(progress::add, 100);
+            assertFalse(bl.usesCopy());
+            assertEquals(250, bl.load(dfr));
+        }
+        assertEquals(List.of(100L, 200L, 250L), progress);
+        assertEquals(250, count());
+        Record r = db.fetchOne("select * from item where item_id = 7");
+        assertEquals("item, 7", r.getString("name"));
+        assertNull(r.getInt("qty"));
+    }
+
+    @Test
+    void testSkippedAndRejectedRows() throws Exception {
+        File f = File.createTempFile("bulk", ".csv");
+        f.deleteOnExit();
+        Files.writeString(f.toPath(), "1,a\n2\n3,c\n1,duplicate\n");
+        List<Long> errors = new ArrayList<>();
+        try (DelimitedFileReader dfr = new DelimitedFileReader(f)) {
+            BulkLoader bl = db.newBulkLoader("item", "item_id", "name")
+                    .setBatchSize(1)
+                    .setErrorHandler((row, values, msg) -> errors.add(row));
+            assertThrows(SQLException.class, () -> bl.load(dfr));
+            assertEquals(1, bl.getSkippedCount());
+        }
+        assertEquals(List.of(2L, 4L), errors);
+    }
+
+    @Test
+    void testRecordsAndJSON() throws Exception {
+        List<Record> recs = new ArrayList<>();
+        for (int i = 1; i <= 20; i++)
+            recs.add(db.newRecord("item").set("item_id", i).set("name", "r" + i).set("qty", i));
+        assertEquals(20, db.newBulkLoader("item").load(recs.iterator()));
+        JSONArray arr = new JSONArray();
+        for (int i = 21; i <= 30; i++) {
+            JSONObject obj = new JSONObject();
+            obj.put("item_id", i);
+            obj.put("name", "j" + i);
+            arr.put(obj);
+        }
+        assertEquals(10, db.newBulkLoader("item").load(arr));
+        assertEquals(30, count());
+        assertEquals("j25", db.fetchOne("select name from item where item_id = 25").getString("name"));
+    }
+
+    @Test
+    void testCopyEncoding() {
+        StringBuilder sb = new StringBuilder();
+        Object [] vals = { null, "", "say \"hi\"\nnow", 12, new BigDecimal("1E+3"), true, new byte[] { 1, (byte) 0xab }, List.of("a", "b\"c") };
+        for (int i = 0; i < vals.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            BulkLoader.appendCSV(sb, vals[i]);
+        }
+        assertEquals(",\"\",\"say \"\"hi\"\"\nnow\",12,1000,t,\\x01ab,\"{\"\"a\"\",\"\"b\\\"\"c\"\"}\"", sb.toString());
+    }
+}
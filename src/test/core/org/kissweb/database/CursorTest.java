@@ -0,0 +1,117 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Cursor using an in-memory SQLite database.
+ */
+class CursorTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(40), qty integer)");
+        try (Command cmd = db.newCommand()) {
+            for (int i = 1; i <= 250; i++)
+                cmd.execute("insert into item (item_id, name, qty) values (?, ?, ?)", i, "item " + i, i % 7 == 0 ? null : i * 10);
+        }
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void testCachedQuery() throws Exception {
+        try (Cursor c = db.query("select * from item order by item_id")) {
+            assertFalse(c.isStreaming());
+            assertEquals(250, c.size());
+            int n = 0;
+            while (c.isNext()) {
+                n++;
+                assertEquals(n, c.getInt("item_id"));
+            }
+            assertEquals(250, n);
+        }
+    }
+
+    @Test
+    void testSpilledQuery() throws Exception {
+        long prev = Cursor.getSpillThreshold();
+        Cursor.setSpillThreshold(0);
+        try (Cursor c = db.query("select * from item order by item_id")) {
+            int n = 0;
+            Record r;
+            while ((r = c.next()) != null) {
+                n++;
+                assertEquals(n, r.getInt("item_id"));
+                assertEquals("item " + n, r.getString("name"));
+                if (n % 7 == 0)
+                    assertNull(r.getInt("qty"));
+            }
+            assertEquals(250, n);
+        } finally {
+            Cursor.setSpillThreshold(prev);
+        }
+    }
+
+    @Test
+    void testStreamQuery() throws Exception {
+        try (Cursor c = db.streamQuery("select * from item where item_id > ? order by item_id", 50)) {
+            assertTrue(c.isStreaming());
+            assertEquals("item", c.getTableName());
+            int n = 50;
+            Record r;
+            while ((r = c.next()) != null) {
+                n++;
+                assertEquals(n, r.getInt("item_id"));
+                assertEquals("item " + n, r.getString("name"));
+                if (n % 7 == 0)
+                    assertNull(r.getInt("qty"));
+                else
+                    assertEquals(n * 10, r.getInt("qty"));
+                assertEquals(n - 50, c.size());
+            }
+            assertEquals(250, n);
+            assertNull(c.next());
+        }
+    }
+
+    @Test
+    void testStreamFetchAll() throws Exception {
+        try (Cursor c = db.streamQuery(10, "select item_id from item")) {
+            List<Record> recs = c.fetchAll();
+            assertEquals(250, recs.size());
+        }
+    }
+
+    @Test
+    void testStreamUpdate() throws Exception {
+        try (Cursor c = db.streamQuery("select * from item where item_id <= 20")) {
+            Record r;
+            while ((r = c.next()) != null)
+                r.set("qty", 1).update();
+        }
+        db.commit();
+        assertEquals(20, db.fetchOne("select count(*) cnt from item where qty = 1").getLong("cnt"));
+    }
+
+    @Test
+    void testStreamEarlyClose() throws Exception {
+        try (Cursor c = db.streamQuery("select * from item")) {
+            assertNotNull(c.next());
+        }
+        // the connection is still usable after abandoning a stream part way through
+        assertEquals(250, db.fetchOne("select count(*) cnt from item").getLong("cnt"));
+    }
+}
@@ -0,0 +1,149 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Exporter (SQLite in-memory).
+ */
+class ExporterTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(40), price double)");
+        db.execute("insert into item values (1, 'bolt', 0.25)");
+        db.execute("insert into item values (2, 'say \"hi\", there', 12.0)");
+        db.execute("insert into item values (3, 'caf\u00e9 <&>', null)");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private static Map<String, String> unzip(byte [] data) throws Exception {
+        final Map<String, String> parts = new LinkedHashMap<>();
+        try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(data))) {
+            ZipEntry e;
+            while ((e = zin.getNextEntry()) != null)
+                parts.put(e.getName(), new String(zin.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        return parts;
+    }
+
+    private static List<Object []> rows(Object [] ... rows) {
+        return new ArrayList<>(Arrays.asList(rows));
+    }
+
+    @Test
+    void testCsvFromQuery() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long n = Exporter.csv().write(out, db, "select * from item order by item_id");
+        assertEquals(3, n);
+        assertEquals("item_id,name,price\r\n" +
+                        "1,bolt,0.25\r\n" +
+                        "2,\"say \"\"hi\"\", there\",12\r\n" +
+                        "3,caf\u00e9 <&>,\r\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testColumnsTitlesAndDelimiter() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Exporter.csv().columns("PRICE", "item_id").titles("Price", "Id").delimiter(';')
+                .write(out, db, "select * from item where item_id < ? order by item_id", 3);
+        assertEquals("Price;Id\r\n0.25;1\r\n12;2\r\n", out.toString(StandardCharsets.UTF_8));
+
+        out.reset();
+        Exporter.csv().header(false).write(out, db, "select item_id from item where item_id > 5");
+        assertEquals(0, out.size());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> Exporter.csv().columns("missing").write(new ByteArrayOutputStream(), db, "select * from item"));
+    }
+
+    @Test
+    void testValueFormatting() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Exporter.csv().header(false).write(out, new String[] {"a", "b", "c", "d", "e", "f", "g"}, rows(
+                new Object[] {java.sql.Date.valueOf(LocalDate.of(2024, 2, 29)),
+                        java.sql.Timestamp.valueOf(LocalDateTime.of(1999, 12, 31, 23, 59, 58)),
+                        java.sql.Timestamp.valueOf(LocalDateTime.of(2001, 1, 2, 3, 4, 5, 6_000_000)),
+                        LocalDate.of(1900, 1, 1), -1234567890123L, new BigDecimal("1E+3"), true},
+                new Object[] {LocalDateTime.of(2030, 6, 7, 8, 9), 1.5e20, -0.0, Double.NaN, 'x', new byte[] {1}, null}
+        ).iterator());
+        assertEquals("2024-02-29,1999-12-31 23:59:58,2001-01-02 03:04:05.006,1900-01-01,-1234567890123,1000,true\r\n" +
+                        "2030-06-07 08:09:00,1.5E20,0,NaN,x,,\r\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testXlsx() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Exporter.xlsx().sheetName("Items & Co").write(out, db, "select * from item order by item_id");
+        final Map<String, String> parts = unzip(out.toByteArray());
+        assertTrue(parts.containsKey("[Content_Types].xml"));
+        assertTrue(parts.containsKey("xl/styles.xml"));
+        assertTrue(parts.get("xl/workbook.xml").contains("<sheet name=\"Items &amp; Co\" sheetId=\"1\" r:id=\"rId1\"/>"));
+        assertTrue(parts.get("xl/_rels/workbook.xml.rels").contains("Target=\"worksheets/sheet1.xml\""));
+        final String sheet = parts.get("xl/worksheets/sheet1.xml");
+        assertTrue(sheet.contains("<row><c t=\"inlineStr\" s=\"4\"><is><t xml:space=\"preserve\">item_id</t></is></c>"));
+        assertTrue(sheet.contains("<row><c><v>1</v></c><c t=\"inlineStr\"><is><t xml:space=\"preserve\">bolt</t></is></c><c><v>0.25</v></c></row>"));
+        assertTrue(sheet.contains("caf\u00e9 &lt;&amp;&gt;</t></is></c><c/></row>"));
+        assertTrue(sheet.endsWith("</sheetData></worksheet>"));
+    }
+
+    @Test
+    void testXlsxDatesAndSheetRollover() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<Object []> data = new ArrayList<>();
+        data.add(new Object[] {LocalDate.of(1970, 1, 1), LocalDateTime.of(2020, 1, 1, 12, 0), true});
+        for (int i = 0; i < 4; i++)
+            data.add(new Object[] {i, null, "r\u0001ow"});
+        Exporter.xlsx().sheetRows(3).write(out, new String[] {"a", "b", "c"}, data.iterator());
+        final Map<String, String> parts = unzip(out.toByteArray());
+        final String first = parts.get("xl/worksheets/sheet1.xml");
+        assertTrue(first.contains("<c s=\"1\"><v>25569</v></c><c s=\"2\"><v>43831.5000000000</v></c><c t=\"b\"><v>1</v></c>"));
+        // 5 rows of 2 (plus the title row) per sheet
+        assertTrue(parts.containsKey("xl/worksheets/sheet3.xml"));
+        assertFalse(parts.containsKey("xl/worksheets/sheet4.xml"));
+        assertTrue(parts.get("xl/worksheets/sheet3.xml").contains(">a</t>"));
+        assertTrue(parts.get("xl/worksheets/sheet2.xml").contains(">row</t>"));
+        assertTrue(parts.get("xl/workbook.xml").contains("<sheet name=\"Sheet1 (3)\" sheetId=\"3\" r:id=\"rId3\"/>"));
+        assertTrue(parts.get("xl/_rels/workbook.xml.rels").contains("Id=\"rId4\""));
+    }
+
+    @Test
+    void testProgress() throws Exception {
+        for (int i = 4; i <= 10; i++)
+            db.execute("insert into item values (?, 'x', 1)", i);
+        final List<Long> calls = new ArrayList<>();
+        final long n = Exporter.csv().progress(4, calls::add).write(new ByteArrayOutputStream(), db, "select * from item");
+        assertEquals(10, n);
+        assertEquals(Arrays.asList(4L, 8L, 10L), calls);
+
+        calls.clear();
+        Exporter.xlsx().progress(5, calls::add).write(new ByteArrayOutputStream(), db, "select * from item where item_id <= 5");
+        assertEquals(Arrays.asList(5L), calls);
+    }
+}
@@ -0,0 +1,87 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Connection.fetchAllJSONStream (SQLite in-memory).
+ */
+class JSONRowStreamTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, Name varchar(40), price double, " +
+                "added date, note text)");
+        db.execute("insert into item values (1, 'bolt', 0.25, ?, 'say \"hi\"\n\tthere')", new java.util.Date(1700000000000L));
+        db.execute("insert into item values (2, ?, 12.5, null, null)", "caf\u00e9 \u20ac");
+        db.execute("insert into item values (3, 'nut', null, ?, '')", new java.util.Date(1600000000000L));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private static String write(Object value) throws IOException {
+        StringWriter sw = new StringWriter();
+        JSONObject.writeValue(sw, value);
+        return sw.toString();
+    }
+
+    private void assertSameAsFetchAllJSON(String sql, Object... args) throws Exception {
+        JSONArray expected = db.fetchAllJSON(sql, args);
+        JSONArray actual = new JSONArray(write(db.fetchAllJSONStream(sql, args)));
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            JSONObject e = expected.getJSONObject(i);
+            JSONObject a = actual.getJSONObject(i);
+            assertTrue(e.keySet().containsAll(a.keySet()));
+            for (String key : e.keySet())  // null values are dropped when the text is parsed
+                assertEquals(write(e.opt(key)), write(a.opt(key)), key);
+        }
+    }
+
+    @Test
+    void testSameAsFetchAllJSON() throws Exception {
+        assertSameAsFetchAllJSON("select * from item order by item_id");
+        assertSameAsFetchAllJSON("select item_id, name, item_id * 2 twice from item where item_id > ?", 1);
+        assertSameAsFetchAllJSON("select * from item where item_id in (?, ?)", new ArrayList<>(Arrays.asList(1, 3)));
+    }
+
+    @Test
+    void testColumns() throws Exception {
+        String json = write(db.fetchAllJSONStream("select item_id, name, price, item_id price from item where item_id = 2"));
+        // lower case names; a repeated name keeps its first position and the last value
+        assertEquals("[{\"item_id\":2,\"name\":\"caf\u00e9 \\u20ac\",\"price\":2}]", json);
+    }
+
+    @Test
+    void testEmptyAndNested() throws Exception {
+        assertEquals("[]", write(db.fetchAllJSONStream("select * from item where item_id > 10")));
+
+        JSONObject outjson = new JSONObject();
+        outjson.put("rows", db.fetchAllJSONStream("select item_id from item order by item_id"));
+        assertEquals("{\"rows\":[{\"item_id\":1},{\"item_id\":2},{\"item_id\":3}]}", outjson.toString());
+        // the query runs each time the value is written
+        db.execute("delete from item where item_id = 3");
+        assertEquals(2, new JSONObject(outjson.toString()).getJSONArray("rows").length());
+    }
+
+    @Test
+    void testErrorsAreReported() {
+        assertThrows(IOException.class, () -> write(db.fetchAllJSONStream("select * from missing")));
+    }
+}
@@ -0,0 +1,80 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the metadata cache shared by connections.
+ */
+class MetadataCacheTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MetadataCache.invalidateAll();
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table part (part_id integer primary key, name varchar(40))");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+        MetadataCache.setTTL(600);
+        MetadataCache.invalidateAll();
+    }
+
+    @Test
+    void testPrimaryKeysAreCached() throws Exception {
+        assertEquals(List.of("part_id"), db.getPrimaryColumns("part"));
+        final int n = MetadataCache.size();
+        assertTrue(n > 0);
+        assertSame(db.getPrimaryColumns("part"), db.getPrimaryColumns("part"));
+        assertEquals("part_id", db.getPrimaryColumnName("part"));
+        assertEquals(n, MetadataCache.size());
+    }
+
+    @Test
+    void testDDLInvalidates() throws Exception {
+        db.execute("create table link (a integer, b integer, primary key (a, b))");
+        assertEquals(List.of("a", "b"), db.getPrimaryColumns("link"));
+        assertThrows(java.sql.SQLException.class, () -> db.getPrimaryColumnName("link"));
+        db.execute("drop table link");
+        assertEquals(0, MetadataCache.size());
+        db.execute("create table link (c integer primary key)");
+        assertEquals(List.of("c"), db.getPrimaryColumns("link"));
+    }
+
+    @Test
+    void testExplicitInvalidationAndDisabled() throws Exception {
+        db.getPrimaryColumns("part");
+        MetadataCache.invalidate("PART");
+        assertEquals(0, MetadataCache.size());
+        MetadataCache.setTTL(0);
+        db.getPrimaryColumns("part");
+        assertEquals(0, MetadataCache.size());
+    }
+
+    @Test
+    void testColumnInfoIsUnmodifiable() throws Exception {
+        final Map<String, ColumnInfo> cols = db.getColumnInfo("part");
+        assertEquals(2, cols.size());
+        assertThrows(UnsupportedOperationException.class, () -> cols.remove("name"));
+        assertEquals(2, db.getColumnInfo("part").size());
+    }
+
+    @Test
+    void testKeys() throws Exception {
+        assertEquals("x", MetadataCache.primaryKeys("db", null, null, () -> "x"));
+        assertEquals("x", MetadataCache.primaryKeys("db", null, null, () -> "y"));
+        // an unqualified name searches every schema, so it must not share an entry with one schema
+        assertEquals(true, MetadataCache.tableExists("db", "%", "t", () -> true));
+        assertEquals(false, MetadataCache.tableExists("db", "main", "t", () -> false));
+    }
+}
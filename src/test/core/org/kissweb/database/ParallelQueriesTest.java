@@ -0,0 +1,131 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.Function;
+
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for fetchAllAsync / fetchOneAsync (SQLite).
+ */
+class ParallelQueriesTest {
+
+    @TempDir
+    Path tempDir;
+
+    private String url;
+    private Connection db;
+    private final List<java.sql.Connection> opened = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        url = "jdbc:sqlite:" + tempDir.resolve("parallel.db");
+        db = new Connection(Connection.ConnectionType.SQLite, url);
+        db.execute("create table item (item_id integer primary key, name varchar(20))");
+        db.execute("insert into item (item_id, name) values (1, 'bolt'), (2, 'nut'), (3, 'washer')");
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private java.sql.Connection open() throws SQLException {
+        final java.sql.Connection c = DriverManager.getConnection(url);
+        // sleep_ms(n) lets the tests make queries slow
+        Function.create(c, "sleep_ms", new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                try {
+                    Thread.sleep(value_int(0));
+                } catch (InterruptedException e) {
+                    throw new SQLException(e);
+                }
+                result(0);
+            }
+        });
+        synchronized (opened) {
+            opened.add(c);
+        }
+        return c;
+    }
+
+    @Test
+    void testWithoutSourceRunsImmediately() throws Exception {
+        CompletableFuture<List<Record>> all = db.fetchAllAsync("select * from item order by item_id");
+        assertTrue(all.isDone());
+        assertEquals(3, all.join().size());
+        assertEquals("nut", db.fetchOneAsync("select name from item where item_id = ?", 2).join().getString("name"));
+        assertNull(db.fetchOneAsync("select name from item where item_id = ?", 9).join());
+    }
+
+    @Test
+    void testQueriesRunConcurrently() throws Exception {
+        db.setParallelSource(this::open, 3);
+        long start = System.nanoTime();
+        List<CompletableFuture<Record>> futures = new ArrayList<>();
+        for (int i = 1; i <= 3; i++)
+            futures.add(db.fetchOneAsync("select name, sleep_ms(400) s from item where item_id = ?", i));
+        assertEquals("bolt", futures.get(0).join().getString("name"));
+        assertEquals("nut", futures.get(1).join().getString("name"));
+        assertEquals("washer", futures.get(2).join().getString("name"));
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(ms < 1000, "took " + ms + "ms");
+    }
+
+    @Test
+    void testConnectionCap() throws Exception {
+        db.setParallelSource(this::open, 2);
+        List<CompletableFuture<List<Record>>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            futures.add(db.fetchAllAsync("select *, sleep_ms(20) s from item"));
+        for (CompletableFuture<List<Record>> f : futures)
+            assertEquals(3, f.join().size());
+        assertTrue(opened.size() <= 2);
+        assertEquals(opened.size(), db.parallelConnectionCount());
+
+        db.close();
+        for (java.sql.Connection c : opened)
+            assertTrue(c.isClosed());
+    }
+
+    @Test
+    void testSeparateTransaction() throws Exception {
+        db.setParallelSource(this::open, 2);
+        db.execute("insert into item (item_id, name) values (4, 'rivet')");
+        assertEquals(3, db.fetchAllAsync("select * from item").join().size());
+        assertEquals(4, db.fetchAll("select * from item").size());
+    }
+
+    @Test
+    void testRecordsAreDetached() throws Exception {
+        db.setParallelSource(this::open, 1);
+        Record rec = db.fetchOneAsync("select * from item where item_id = 1").join();
+        assertEquals("bolt", rec.getString("name"));
+        rec.set("name", "screw");
+        assertEquals("screw", rec.getString("name"));
+        assertEquals("bolt", db.fetchOne("select * from item where item_id = 1").getString("name"));
+    }
+
+    @Test
+    void testFailureIsReported() throws Exception {
+        db.setParallelSource(this::open, 1);
+        CompletableFuture<List<Record>> f = db.fetchAllAsync("select * from no_such_table");
+        CompletionException e = assertThrows(CompletionException.class, f::join);
+        assertInstanceOf(SQLException.class, e.getCause());
+        // the connection is still usable afterwards
+        assertEquals(3, db.fetchAllAsync("select * from item").join().size());
+    }
+}
@@ -0,0 +1,144 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the PrimitiveList classes and their binding (SQLite in-memory).
+ */
+class PrimitiveListTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(20))");
+        try (BatchWriter bw = db.newBatchWriter()) {
+            for (int i = 1; i <= 3000; i++) {
+                Record rec = db.newRecord("item");
+                rec.set("item_id", i);
+                rec.set("name", "n" + i);
+                bw.add(rec);
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    @Test
+    void testListBasics() {
+        IntList lst = new IntList(1);
+        for (int i = 0; i < 25; i++)
+            lst.add(25 - i);
+        lst.addAll(100, -7);
+        assertEquals(27, lst.size());
+        assertEquals(25, lst.get(0));
+        assertTrue(lst.contains(-7));
+        lst.sort();
+        assertEquals(-7, lst.get(0));
+        lst.set(0, 0);
+        assertArrayEquals(new int[] {0, 1, 2}, Arrays.copyOf(lst.toArray(), 3));
+        assertThrows(IndexOutOfBoundsException.class, () -> lst.get(27));
+        assertEquals(IntList.of(1, 2), IntList.of(1, 2));
+        assertEquals(IntList.of(1, 2).hashCode(), IntList.of(1, 2).hashCode());
+        assertNotEquals(IntList.of(1, 2), IntList.of(1, 2, 3));
+        lst.clear();
+        assertTrue(lst.isEmpty());
+    }
+
+    @Test
+    void testJSON() {
+        JSONObject obj = new JSONObject();
+        obj.put("ids", LongList.of(Long.MIN_VALUE, 0, 42));
+        obj.put("small", ShortList.of((short) -3));
+        StringWriter sw = new StringWriter();
+        obj.write(sw);
+        JSONObject back = new JSONObject(sw.toString());
+        assertEquals("[-9223372036854775808,0,42]", back.getJSONArray("ids").toString());
+        assertEquals("[-3]", back.getJSONArray("small").toString());
+
+        IntList lst = IntList.from(new JSONArray("[1, 2.0, \"3\"]"));
+        assertEquals(IntList.of(1, 2, 3), lst);
+        assertEquals("[1,2,3]", lst.toString());
+        assertThrows(IllegalArgumentException.class, () -> IntList.from(new JSONArray("[1, true]")));
+    }
+
+    @Test
+    void testRewrite() throws Exception {
+        final Connection.ConnectionType sqlite = Connection.ConnectionType.SQLite;
+        final Connection.ConnectionType pg = Connection.ConnectionType.PostgreSQL;
+        assertNull(ArrayParams.expand(sqlite, "select * from t where id = ?", new Object[] {1}));
+
+        ArrayParams.Statement st = ArrayParams.expand(sqlite,
+                "select * from t where a = ? and t.id = ANY (?) and b <> '?' || ? and c not in(?)",
+                new Object[] {"a", IntList.of(1, 2), 5, LongList.of(7)});
+        assertEquals("select * from t where a = ? and t.id IN (1,2) and b <> '?' || ? and c NOT IN (7)", st.sql);
+        assertEquals(Arrays.asList("a", 5), Arrays.asList(st.args));
+
+        st = ArrayParams.expand(sqlite, "select * from t where id <> ALL(?) or x = ANY(?)",
+                new Object[] {new IntList(), new IntList()});
+        assertEquals("select * from t where 1 = 1 or x IN (NULL)", st.sql);
+
+        IntList many = new IntList();
+        for (int i = 0; i < 2500; i++)
+            many.add(i);
+        st = ArrayParams.expand(sqlite, "delete from t where \"id\" in (?)", new Object[] {many});
+        assertTrue(st.sql.startsWith("delete from t where (\"id\" IN (0,1,"));
+        assertTrue(st.sql.contains(",999) OR \"id\" IN (1000,"));
+        assertTrue(st.sql.endsWith(",2499))"));
+        st = ArrayParams.expand(sqlite, "select * from t where a = 1 and t.\"my id\" in (?)", new Object[] {many});
+        assertTrue(st.sql.startsWith("select * from t where a = 1 and (t.\"my id\" IN (0,1,"));
+        assertTrue(st.sql.contains(",999) OR t.\"my id\" IN (1000,"));
+        st = ArrayParams.expand(sqlite, "select * from t where a + b in (?)", new Object[] {IntList.of(1, 2)});
+        assertEquals("select * from t where a + b IN (1,2)", st.sql);
+
+        // a long list is only split when it is compared with a column on its own
+        assertThrows(SQLException.class, () -> ArrayParams.expand(sqlite, "select * from t where a + b in (?)", new Object[] {many}));
+        assertThrows(SQLException.class, () -> ArrayParams.expand(sqlite, "select * from t where lower(x) in (?)", new Object[] {many}));
+        assertThrows(SQLException.class, () -> ArrayParams.expand(sqlite, "select * from t where x::int in (?)", new Object[] {many}));
+
+        assertThrows(SQLException.class, () -> ArrayParams.expand(sqlite, "select unnest(?)", new Object[] {many}));
+        assertThrows(SQLException.class, () -> ArrayParams.expand(sqlite, "select * from t where id > ANY(?)", new Object[] {many}));
+
+        st = ArrayParams.expand(pg, "select * from t where id in (?) and x not in (?) and y = any(?)",
+                new Object[] {many, many, many});
+        assertEquals("select * from t where id = ANY(?) and x <> ALL(?) and y = any(?)", st.sql);
+        assertEquals(3, st.args.length);
+    }
+
+    @Test
+    void testQueries() throws Exception {
+        List<Record> recs = db.fetchAll("select * from item where item_id = ANY(?) and name <> ? order by item_id",
+                IntList.of(5, 3, 9999), "n5");
+        assertEquals(1, recs.size());
+        assertEquals(3, (int) recs.get(0).getInt("item_id"));
+
+        LongList many = new LongList();
+        for (long i = 1; i <= 2500; i += 2)
+            many.add(i);
+        assertEquals(1250, db.fetchAll("select item_id from item where item_id in (?)", many).size());
+        assertEquals(3000 - 1250, db.fetchAll("select item_id from item where item_id not in (?)", many).size());
+        assertEquals(3000, db.fetchAll("select item_id from item where item_id <> ALL(?)", new LongList()).size());
+        assertEquals(0, db.fetchAll("select item_id from item where item_id = ANY(?)", new LongList()).size());
+
+        String json = db.fetchAllJSONStream("select item_id from item where item_id in (?)", ShortList.of((short) 2)).toString();
+        assertEquals("[{\"item_id\":2}]", json);
+
+        db.execute("delete from item where item_id in (?)", many);
+        assertEquals(3000 - 1250, db.fetchAll("select item_id from item").size());
+    }
+}
@@ -0,0 +1,59 @@
+package org.kissweb.database;
+
+/**
+ * Measures <code>QueryBuilder.build()</code> with and without the compiled query cache.
+ * <br><br>
+ * Run with <code>java org.kissweb.database.QueryBuilderBenchmark [iterations]</code>.  Each measurement is
+ * preceded by a warm-up pass so the JIT has compiled the code being measured.
+ */
+public class QueryBuilderBenchmark {
+
+    private static SchemaGraph graph() {
+        SchemaGraph g = new SchemaGraph();
+        g.addForeignKey("department", "building_id", "building", "building_id");
+        g.addForeignKey("employee", "department_id", "department", "department_id");
+        g.addForeignKey("project_assignment", "employee_id", "employee", "employee_id");
+        g.addForeignKey("project_assignment", "project_id", "project", "project_id");
+        g.addForeignKey("employee_phone", "employee_id", "employee", "employee_id");
+        for (int i = 0; i < 200; i++)
+            g.addForeignKey("t" + i, "building_id", "building", "building_id");
+        return g;
+    }
+
+    private static String build(SchemaGraph g, int i) throws Exception {
+        return new QueryBuilder(g)
+                .select("employee.first_name")
+                .select("employee.last_name")
+                .select("department.name")
+                .select("building.name")
+                .select("project.name")
+                .where("project.project_id = ?", i)
+                .where("employee.active = ?", "Y")
+                .orderBy("employee.last_name")
+                .build();
+    }
+
+    private static long run(SchemaGraph g, int n, boolean cached) throws Exception {
+        long len = 0;
+        for (int i = 0; i < n; i++) {
+            if (!cached)
+                g.clearQueryCache();
+            len += build(g, i).length();
+        }
+        return len;
+    }
+
+    public static void main(String [] args) throws Exception {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        final SchemaGraph g = graph();
+        for (boolean cached : new boolean[] { false, true }) {
+            run(g, n / 10, cached);   // warm up
+            g.clearQueryCache();
+            final long start = System.nanoTime();
+            run(g, n, cached);
+            final double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-10s %,10d builds  %8.3f s  %,10.0f builds/s  %6.2f us/build  hit rate %.3f%n",
+                    cached ? "cached" : "uncached", n, secs, n / secs, secs * 1e6 / n, g.getQueryCacheHitRate());
+        }
+    }
+}
@@ -948,6 +948,92 @@ void testCacheWithCommentsAndBlankLines(@TempDir Path tempDir) throws IOExceptio
         assertEquals(1, loaded.getEdges("employee").size());
     }
 
+    @Test
+    void testCacheFileSavesJoinPaths(@TempDir Path tempDir) throws IOException, SQLException {
+        String filePath = tempDir.resolve("paths.txt").toString();
+        graph.saveToFile(filePath);
+        String text = java.nio.file.Files.readString(java.nio.file.Path.of(filePath));
+        assertTrue(text.startsWith("# SchemaGraph cache v2"));
+        assertTrue(text.contains("PATH building "));
+
+        SchemaGraph loaded = SchemaGraph.loadFromFile(filePath);
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("building", "project", "employee_phone"));
+        assertEquals(graph.findJoinPath(tables, "building"), loaded.findJoinPath(tables, "building"));
+    }
+
+    @Test
+    void testLoadVersion1CacheFile(@TempDir Path tempDir) throws IOException, SQLException {
+        String filePath = tempDir.resolve("v1.txt").toString();
+        java.nio.file.Files.writeString(java.nio.file.Path.of(filePath),
+                "# SchemaGraph cache v1\n" +
+                "TABLE building\n" +
+                "TABLE department\n" +
+                "TABLE employee\n" +
+                "FK department building_id building building_id\n" +
+                "FK employee department_id department department_id\n");
+
+        SchemaGraph loaded = SchemaGraph.loadFromFile(filePath);
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("employee", "building"));
+        assertEquals(2, loaded.findJoinPath(tables, "employee").size());
+    }
+
+    @Test
+    void testLoadCacheInvalidPathRebuilds(@TempDir Path tempDir) throws IOException, SQLException {
+        String filePath = tempDir.resolve("bad-path.txt").toString();
+        java.nio.file.Files.writeString(java.nio.file.Path.of(filePath),
+                "# SchemaGraph cache v2\n" +
+                "FK employee department_id department department_id\n" +
+                "PATH employee department:7:1\n");
+
+        SchemaGraph loaded = SchemaGraph.loadFromFile(filePath);
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("employee", "department"));
+        assertEquals(1, loaded.findJoinPath(tables, "employee").size());
+    }
+
+    @Test
+    void testLoadCacheMismatchedPathRebuilds(@TempDir Path tempDir) throws IOException, SQLException {
+        // the employee path was saved before the site FK existed, so it doesn't reach site
+        String filePath = tempDir.resolve("stale-path.txt").toString();
+        java.nio.file.Files.writeString(java.nio.file.Path.of(filePath),
+                "# SchemaGraph cache v2\n" +
+                "TABLE building\n" +
+                "TABLE department\n" +
+                "TABLE employee\n" +
+                "TABLE site\n" +
+                "FK department building_id building building_id\n" +
+                "FK employee department_id department department_id\n" +
+                "FK site building_id building building_id\n" +
+                "PATH employee department:1:1 building:0:2\n");
+
+        SchemaGraph loaded = SchemaGraph.loadFromFile(filePath);
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("employee", "site"));
+        assertEquals(3, loaded.findJoinPath(tables, "employee").size());
+    }
+
+    // ---- Join path index tests ----
+
+    @Test
+    void testJoinPathIsRemembered() throws SQLException {
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("building", "project"));
+        List<SchemaGraph.Edge> path1 = graph.findJoinPath(tables, "building");
+        List<SchemaGraph.Edge> path2 = graph.findJoinPath(new LinkedHashSet<>(Arrays.asList("BUILDING", "Project")), "building");
+        assertSame(path1, path2);
+        assertEquals(4, path1.size());
+        assertThrows(UnsupportedOperationException.class, () -> path1.remove(0));
+    }
+
+    @Test
+    void testJoinPathIndexUpdatedWhenGraphChanges() throws SQLException {
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("building", "project"));
+        graph.precomputeJoinPaths();
+        assertEquals(4, graph.findJoinPath(tables, "building").size());
+
+        graph.addForeignKey("project", "building_id", "building", "building_id");
+        List<SchemaGraph.Edge> path = graph.findJoinPath(tables, "building");
+        assertEquals(1, path.size());
+        assertEquals("project", path.get(0).getFromTable());
+    }
+
     // ---- Phase 4: OR / AND grouping tests ----
 
     @Test
@@ -1444,6 +1530,162 @@ void testUnionWithJoins() throws SQLException {
         assertTrue(joinCount >= 2, "Expected at least 2 JOINs, got " + joinCount);
     }
 
+    // ---- Keyset pagination ----
+
+    @Test
+    void testKeysetConditionPortable() throws SQLException {
+        QueryBuilder qb = new QueryBuilder(graph)
+                .select("employee.last_name")
+                .select("employee.employee_id")
+                .where("employee.active = ?", "Y")
+                .orderBy("employee.last_name")
+                .orderBy("employee.employee_id")
+                .after("Smith", 42);
+        String sql = qb.build();
+        assertTrue(sql.contains("WHERE (employee.active = ?) AND employee.last_name >= ? AND (employee.last_name > ? OR (employee.last_name = ? AND employee.employee_id > ?))"), sql);
+        assertEquals(List.of("Y", "Smith", "Smith", "Smith", 42), qb.getParameters());
+    }
+
+    @Test
+    void testKeysetConditionRowValue() {
+        List<Object> params = new ArrayList<>();
+        String sql = Connection.seekCondition(Connection.ConnectionType.PostgreSQL, new String[] {"a", "b"}, new boolean[] {true, true}, new Object[] {1, 2}, params);
+        assertEquals("(a, b) < (?, ?)", sql);
+        assertEquals(List.of(1, 2), params);
+        params.clear();
+        sql = Connection.seekCondition(Connection.ConnectionType.PostgreSQL, new String[] {"a", "b"}, new boolean[] {false, true}, new Object[] {1, 2}, params);
+        assertEquals("a >= ? AND (a > ? OR (a = ? AND b < ?))", sql);
+    }
+
+    @Test
+    void testKeysetRequiresOrderBy() {
+        QueryBuilder qb = new QueryBuilder(graph).select("employee.last_name").after("x");
+        assertThrows(SQLException.class, qb::build);
+    }
+
+    @Test
+    void testKeysetPagesAgainstDatabase() throws Exception {
+        try (Connection db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:")) {
+            db.execute("create table item (item_id integer primary key, grp integer, name varchar(20))");
+            for (int i = 1; i <= 95; i++)
+                db.execute("insert into item values (?, ?, ?)", i, i % 4, "n" + i);
+            SchemaGraph g = new SchemaGraph();
+            g.addTable("item");
+            QueryBuilder qb = new QueryBuilder(g)
+                    .select("item.item_id")
+                    .select("item.grp")
+                    .orderByDesc("item.grp")
+                    .orderBy("item.item_id");
+            List<Integer> seen = new ArrayList<>();
+            String token = null;
+            int pages = 0;
+            do {
+                for (Record r : qb.fetchPage(db, 10, token))
+                    seen.add(r.getInt("item_id"));
+                token = qb.getNextPageToken();
+                pages++;
+            } while (token != null);
+            assertEquals(10, pages);
+            assertEquals(95, seen.size());
+            assertEquals(95, new HashSet<>(seen).size());
+            assertEquals(3, seen.get(0));
+            assertEquals(92, seen.get(94));
+            QueryBuilder other = new QueryBuilder(g).select("item.item_id").orderBy("item.item_id");
+            String t = qb.fetchPage(db, 10, null).isEmpty() ? null : qb.getNextPageToken();
+            assertThrows(SQLException.class, () -> other.fetchPage(db, 10, t));
+        }
+    }
+
+    @Test
+    void testKeysetSortColumnsMustBeSelected() throws Exception {
+        try (Connection db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:")) {
+            db.execute("create table department (department_id integer primary key, name varchar(20))");
+            db.execute("create table employee (employee_id integer primary key, department_id integer, name varchar(20))");
+            for (int i = 1; i <= 3; i++)
+                db.execute("insert into department values (?, ?)", i, "d" + i);
+            for (int i = 1; i <= 25; i++)
+                db.execute("insert into employee values (?, ?, ?)", i, 4 - i % 3 - 1, "e" + i);
+            SchemaGraph g = new SchemaGraph();
+            g.addForeignKey("employee", "department_id", "department", "department_id");
+
+            // not selected
+            assertThrows(SQLException.class, () -> new QueryBuilder(g).select("employee.name")
+                    .orderBy("employee.employee_id").fetchPage(db, 10, null));
+            // only through *
+            assertThrows(SQLException.class, () -> new QueryBuilder(g).select("employee.*")
+                    .orderBy("employee.employee_id").fetchPage(db, 10, null));
+            // the result name is ambiguous
+            assertThrows(SQLException.class, () -> new QueryBuilder(g).select("employee.name", "department.name")
+                    .orderBy("department.name").orderBy("employee.employee_id").fetchPage(db, 10, null));
+
+            QueryBuilder qb = new QueryBuilder(g)
+                    .select("employee.employee_id", "employee.name", "department.name AS dept_name")
+                    .orderByDesc("department.name")
+                    .orderBy("employee.employee_id");
+            List<Integer> seen = new ArrayList<>();
+            String token = null;
+            do {
+                for (Record r : qb.fetchPage(db, 10, token))
+                    seen.add(r.getInt("employee_id"));
+                token = qb.getNextPageToken();
+            } while (token != null);
+            assertEquals(25, seen.size());
+            assertEquals(25, new HashSet<>(seen).size());
+            assertEquals(3, seen.get(0));
+        }
+    }
+
+    // ---- Compiled query cache ----
+
+    private QueryBuilder complexQuery(int dept, String status) {
+        QueryBuilder sub = new QueryBuilder(graph)
+                .select("project_assignment.employee_id")
+                .where("project_assignment.project_id = ?", dept * 10);
+        return new QueryBuilder(graph)
+                .with("active_proj", "SELECT project_id FROM project WHERE status = ?", status)
+                .select("employee.first_name")
+                .selectCount("employee_phone.phone_id", "phones")
+                .where("department.department_id = ?", dept)
+                .startOr()
+                    .where("employee.salary > ?", 1000)
+                    .where("employee.title = ?", "boss")
+                .endOr()
+                .whereIn("employee.employee_id", sub)
+                .groupBy("employee.first_name")
+                .having("COUNT(employee_phone.phone_id) > ?", 1)
+                .orderBy("employee.first_name");
+    }
+
+    @Test
+    void testCompiledQueryCacheReusesSQL() throws SQLException {
+        QueryBuilder first = complexQuery(1, "open");
+        String sql1 = first.build();
+        List<Object> p1 = new ArrayList<>(first.getParameters());
+        long misses = graph.getQueryCacheMisses();
+
+        QueryBuilder second = complexQuery(2, "closed");
+        String sql2 = second.build();
+        assertEquals(sql1, sql2);
+        assertEquals(misses, graph.getQueryCacheMisses());
+        assertTrue(graph.getQueryCacheHits() > 0);
+        assertEquals(List.of("open", 1, 1000, "boss", 10, 1), p1);
+        assertEquals(List.of("closed", 2, 1000, "boss", 20, 1), second.getParameters());
+        assertTrue(graph.getQueryCacheHitRate() > 0);
+    }
+
+    @Test
+    void testCompiledQueryCacheDistinguishesStructure() throws SQLException {
+        String a = new QueryBuilder(graph).select("employee.first_name").where("employee.salary > ?", 1).build();
+        String b = new QueryBuilder(graph).select("employee.first_name").where("employee.salary < ?", 1).build();
+        String c = new QueryBuilder(graph).select("employee.first_name").select("department.name").build();
+        assertNotEquals(a, b);
+        assertTrue(c.contains("JOIN"));
+        graph.addForeignKey("employee", "building_id", "building", "building_id");
+        assertEquals(0, graph.getQueryCacheHits());
+        String d = new QueryBuilder(graph).select("employee.first_name").select("building.name").build();
+        assertTrue(d.contains("employee.building_id"), d);
+    }
+
     // ---- Utility ----
 
     private int countOccurrences(String str, String sub) {
@@ -0,0 +1,126 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sqlite.SQLiteConfig;
+
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for write tracking and moving read-only work to another connection.
+ */
+class ReadOnlyRoutingTest {
+
+    @TempDir
+    Path tempDir;
+
+    private String url;
+    private java.sql.Connection primary;
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        url = "jdbc:sqlite:" + tempDir.resolve("primary.db");
+        primary = DriverManager.getConnection(url);
+        primary.setAutoCommit(false);
+        db = new Connection(primary);
+        db.execute("create table part (part_id integer primary key, name varchar(40))");
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        final java.sql.Connection sconn = db.getSQLConnection();
+        db.close();
+        if (sconn != null && !sconn.isClosed())
+            sconn.close();
+        if (!primary.isClosed())
+            primary.close();
+    }
+
+    private Connection reopen() throws Exception {
+        tearDown();
+        primary = DriverManager.getConnection(url);
+        primary.setAutoCommit(false);
+        return db = new Connection(primary);
+    }
+
+    @Test
+    void testWritesAreTracked() throws Exception {
+        db = reopen();
+        assertFalse(db.hasWritten());
+        db.fetchAll("select * from part");
+        assertFalse(db.hasWritten());
+        final Record rec = db.newRecord("part");
+        rec.set("part_id", 1);
+        rec.set("name", "bolt");
+        rec.addRecord();
+        assertTrue(db.hasWritten());
+        db.commit();
+
+        db = reopen();
+        final Record found = db.fetchOne("select * from part where part_id = ?", 1);
+        found.set("name", "washer");
+        found.update();
+        assertTrue(db.hasWritten());
+
+        db = reopen();
+        try (BatchWriter bw = db.newBatchWriter()) {
+            final Record r = db.newRecord("part");
+            r.set("part_id", 2);
+            bw.add(r);
+        }
+        assertTrue(db.hasWritten());
+    }
+
+    @Test
+    void testSetReadOnlyMovesToReadOnlySource() throws Exception {
+        db = reopen();
+        final java.sql.Connection[] replica = new java.sql.Connection[1];
+        db.setReadOnlySource(() -> {
+            final SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            return replica[0] = config.createConnection(url);
+        });
+        db.fetchAll("select * from part");
+        db.setReadOnly();
+
+        assertNotNull(replica[0]);
+        assertSame(replica[0], db.getSQLConnection());
+        assertTrue(primary.isClosed());
+        assertTrue(db.getSQLConnection().isReadOnly());
+        assertEquals(0, db.fetchAll("select * from part").size());
+    }
+
+    @Test
+    void testSetReadOnlyStaysAfterWrite() throws Exception {
+        db = reopen();
+        final boolean[] called = new boolean[1];
+        db.setReadOnlySource(() -> {
+            called[0] = true;
+            return DriverManager.getConnection(url);
+        });
+        db.execute("insert into part (part_id, name) values (?, ?)", 3, "nut");
+        // SQLite can't make an open connection read-only, which shows the primary was kept
+        assertThrows(SQLException.class, db::setReadOnly);
+
+        assertFalse(called[0]);
+        assertSame(primary, db.getSQLConnection());
+        assertEquals(1, db.fetchAll("select * from part").size());
+    }
+
+    @Test
+    void testSetReadOnlyStaysWhenSourceHasNothing() throws Exception {
+        db = reopen();
+        db.setReadOnlySource(() -> null);
+        assertThrows(SQLException.class, db::setReadOnly);
+        assertSame(primary, db.getSQLConnection());
+        assertFalse(primary.isClosed());
+    }
+}
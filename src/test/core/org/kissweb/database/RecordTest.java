@@ -0,0 +1,127 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kissweb.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for Record using an in-memory SQLite database.
+ */
+class RecordTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(40), qty integer, price numeric)");
+        db.execute("create table update_log (item_id integer)");
+        db.execute("create trigger item_updated after update on item begin insert into update_log values (new.item_id); end");
+        for (int i = 1; i <= 3; i++)
+            db.execute("insert into item (item_id, name, qty, price) values (?, ?, ?, ?)", i, "item " + i, i * 1000, new BigDecimal("1.50"));
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private long updates() throws Exception {
+        return db.fetchOne("select count(*) cnt from update_log").getLong("cnt");
+    }
+
+    @Test
+    void testUnchangedValuesAreNotWritten() throws Exception {
+        Record r = db.fetchOne("select * from item where item_id = 1");
+        r.set("qty", Integer.valueOf(new String("1000")));  // equal value, different instance
+        r.set("name", new String("item 1"));
+        r.update();
+        assertEquals(0, updates());
+    }
+
+    @Test
+    void testChangedValuesAreWritten() throws Exception {
+        Record r = db.fetchOne("select * from item where item_id = 2");
+        r.set("qty", 5);
+        r.update();
+        assertEquals(1, updates());
+        assertEquals(5, db.fetchOne("select qty from item where item_id = 2").getInt("qty"));
+        // now clean again
+        r.update();
+        assertEquals(1, updates());
+    }
+
+    @Test
+    void testRevertedValueIsClean() throws Exception {
+        Record r = db.fetchOne("select * from item where item_id = 3");
+        r.set("qty", 7);
+        r.set("qty", 3000);
+        r.update();
+        assertEquals(0, updates());
+    }
+
+    @Test
+    void testRecordsShareCursorSchema() throws Exception {
+        List<Record> recs = db.fetchAll("select item_id, name from item order by item_id");
+        assertEquals(3, recs.size());
+        Record r = recs.get(0);
+        r.set("extra", "x");  // a column not in the query
+        assertEquals("x", r.getString("extra"));
+        assertFalse(recs.get(1).columnExists("extra"));
+        assertThrows(java.sql.SQLException.class, () -> recs.get(1).get("extra"));
+        assertEquals("item 2", recs.get(1).getString("name"));
+    }
+
+    @Test
+    void testNewRecord() throws Exception {
+        Record r = db.newRecord("item");
+        r.set("item_id", 10).set("name", "ten").set("qty", 1);
+        r.addRecord();
+        assertEquals("ten", db.fetchOne("select name from item where item_id = 10").getString("name"));
+        r.set("qty", 1);
+        r.update();
+        assertEquals(0, updates());
+        r.set("qty", 2);
+        r.update();
+        assertEquals(1, updates());
+        r.delete();
+        assertNull(db.fetchOne("select * from item where item_id = 10"));
+    }
+
+    @Test
+    void testColumnOrderAndViews() throws Exception {
+        Record r = db.fetchOne("select name, item_id, qty, item_id from item where item_id = 1");
+        AbstractMap<String,Object> m = r.getAllColumns();
+        assertEquals(List.of("name", "item_id", "qty"), List.copyOf(m.keySet()));
+        assertEquals(1, m.get("item_id"));
+        m.put("qty", 9);
+        assertEquals(9, r.getInt("qty"));
+        for (Map.Entry<String,Object> e : m.entrySet())
+            if (e.getKey().equals("name"))
+                e.setValue("renamed");
+        assertEquals("renamed", r.getString("name"));
+        JSONObject obj = r.toJSON();
+        assertEquals(3, obj.length());
+        assertEquals("renamed", obj.getString("name"));
+    }
+
+    @Test
+    void testClearAndCopy() throws Exception {
+        Record src = db.fetchOne("select * from item where item_id = 1");
+        Record dest = db.newRecord("item");
+        dest.copy(src);
+        assertEquals("item 1", dest.getString("name"));
+        dest.clear();
+        assertFalse(dest.columnExists("name"));
+        assertEquals(0, dest.getAllColumns().size());
+    }
+}
@@ -0,0 +1,194 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ResultCache (SQLite in-memory).
+ */
+class ResultCacheTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table color (color_id integer primary key, name varchar(20))");
+        db.execute("create table shape (shape_id integer primary key, name varchar(20))");
+        db.execute("insert into color (color_id, name) values (1, 'red'), (2, 'green')");
+        db.execute("insert into shape (shape_id, name) values (1, 'square')");
+        db.commit();
+        ResultCache.invalidateAll();
+        ResultCache.resetStats();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+        ResultCache.setMaxEntries(1000);
+        ResultCache.setMaxRows(1000);
+        ResultCache.setTTL(300);
+        ResultCache.resetStats();
+    }
+
+    private List<Record> colors() throws Exception {
+        return db.fetchAllCached("select * from color order by color_id");
+    }
+
+    @Test
+    void testHit() throws Exception {
+        List<Record> first = colors();
+        assertEquals(0, ResultCache.getHits());
+        assertEquals(1, ResultCache.getMisses());
+
+        List<Record> second = db.fetchAllCached("select *\n   from color  order by color_id");
+        assertEquals(1, ResultCache.getHits());
+        assertEquals(first.size(), second.size());
+        assertEquals("red", second.get(0).getString("name"));
+        assertEquals(2, (int) second.get(1).getInt("color_id"));
+        assertEquals(0.5, ResultCache.getHitRate());
+
+        assertEquals("green", db.fetchOneCached("select name from color where color_id = ?", 2).getString("name"));
+        assertEquals("green", db.fetchOneCached("select name from color where color_id = ?", 2).getString("name"));
+        assertNull(db.fetchOneCached("select name from color where color_id = ?", 3));
+        assertEquals(2, ResultCache.getHits());
+    }
+
+    @Test
+    void testCachedValuesAreNotShared() throws Exception {
+        colors().get(0).set("name", "blue");
+        assertEquals("red", colors().get(0).getString("name"));
+    }
+
+    @Test
+    void testRecordWritesInvalidate() throws Exception {
+        colors();
+        Record rec = db.fetchOne("select * from color where color_id = 1");
+        rec.set("name", "blue");
+        rec.update();
+        assertEquals("blue", colors().get(0).getString("name"));
+        assertEquals(0, ResultCache.getHits());
+
+        Record nr = db.newRecord("color");
+        nr.set("color_id", 3);
+        nr.set("name", "black");
+        nr.addRecord();
+        assertEquals(3, colors().size());
+
+        db.fetchOne("select * from color where color_id = 3").delete();
+        assertEquals(2, colors().size());
+        assertEquals(0, ResultCache.getHits());
+    }
+
+    @Test
+    void testCommandWritesInvalidate() throws Exception {
+        colors();
+        try (Command cmd = db.newCommand()) {
+            cmd.execute("delete from color where color_id = ?", 2);
+        }
+        assertEquals(1, colors().size());
+
+        db.execute("update color set name = 'pink'");
+        assertEquals("pink", colors().get(0).getString("name"));
+        assertEquals(0, ResultCache.getHits());
+    }
+
+    @Test
+    void testOtherTableWritesDoNotInvalidate() throws Exception {
+        colors();
+        db.execute("insert into shape (shape_id, name) values (2, 'circle')");
+        colors();
+        assertEquals(1, ResultCache.getHits());
+
+        // A write whose table isn't known invalidates everything
+        db.execute("create table size (size_id integer)");
+        colors();
+        assertEquals(1, ResultCache.getHits());
+    }
+
+    @Test
+    void testUncommittedWritesBypass() throws Exception {
+        db.execute("update color set name = 'blue' where color_id = 1");
+        colors();
+        colors();
+        assertEquals(0, ResultCache.getHits());
+        assertEquals(0, ResultCache.size());
+        db.fetchAllCached("select * from shape");
+        assertEquals(1, ResultCache.size());  // other tables are still cached
+        db.commit();
+        colors();
+        assertEquals("blue", colors().get(0).getString("name"));
+        assertEquals(1, ResultCache.getHits());
+    }
+
+    @Test
+    void testUncommittedRowsNotShared(@TempDir Path dir) throws Exception {
+        final String url = "jdbc:sqlite:" + dir.resolve("test.db");
+        try (Connection a = new Connection(Connection.ConnectionType.SQLite, url);
+             Connection b = new Connection(Connection.ConnectionType.SQLite, url)) {
+            a.execute("create table color (color_id integer primary key, name varchar(20))");
+            a.execute("insert into color (color_id, name) values (1, 'red')");
+            a.commit();
+
+            a.execute("insert into color (color_id, name) values (2, 'green')");
+            assertEquals(2, a.fetchAllCached("select * from color").size());
+            assertEquals(1, b.fetchAllCached("select * from color").size());
+            a.rollback();
+            assertEquals(1, a.fetchAllCached("select * from color").size());
+            assertEquals(1, b.fetchAllCached("select * from color").size());
+            assertEquals(1, ResultCache.getHits());
+        }
+    }
+
+    @Test
+    void testBypass() throws Exception {
+        ResultCache.setMaxRows(1);
+        colors();
+        colors();
+        assertEquals(0, ResultCache.getHits());
+        assertEquals(0, ResultCache.size());
+        ResultCache.setMaxRows(1000);
+
+        // parameters that can't be part of a key
+        db.fetchAllCached("select * from color where name = ?", new StringBuilder("red"));
+        assertEquals(0, ResultCache.size());
+
+        ResultCache.setMaxEntries(0);
+        assertFalse(ResultCache.isEnabled());
+        colors();
+        colors();
+        assertEquals(0, ResultCache.getHits());
+    }
+
+    @Test
+    void testReadTables() {
+        assertArrayEquals(new String[]{"color"}, ResultCache.readTables("select * from color where color_id = 1"));
+        assertArrayEquals(new String[]{"color", "shape"}, ResultCache.readTables("select * from Color c, public.shape as s"));
+        assertArrayEquals(new String[]{"color", "shape", "size"},
+                ResultCache.readTables("select * from color c join shape s on c.color_id = s.shape_id " +
+                        "left join (select * from size) z on 1=1"));
+        assertArrayEquals(new String[]{"color"}, ResultCache.readTables("select 'from shape' from color"));
+    }
+
+    @Test
+    void testWrittenTable() {
+        assertEquals("color", ResultCache.writtenTable("insert into color (color_id) values (1)"));
+        assertEquals("color", ResultCache.writtenTable("UPDATE public.color SET name = 'x'"));
+        assertEquals("color", ResultCache.writtenTable("delete from color"));
+        assertEquals("color", ResultCache.writtenTable("truncate table only color"));
+        assertNull(ResultCache.writtenTable("create table t (x int)"));
+        assertNull(ResultCache.writtenTable("select * from color"));
+    }
+
+    @Test
+    void testNormalize() {
+        assertEquals("select 'a  b' from x", ResultCache.normalize("  select\t'a  b'\n from   x "));
+    }
+}
@@ -0,0 +1,131 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.*;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the compact row encoding used by Cursor.
+ */
+class RowCacheTest {
+
+    private static Object [] sampleRow(int n) {
+        Timestamp ts = new Timestamp(-86_400_123L + n);
+        ts.setNanos(123_456_789);
+        return new Object[] {
+                n,
+                null,
+                (long) n * -1_000_000_007L,
+                (short) (n % 300),
+                1.5f * n,
+                -2.25 * n,
+                "row " + n + " \u00e9\u4e2d",
+                new byte[] { 1, 2, (byte) n },
+                n % 2 == 0,
+                new BigDecimal("-12345.6789").add(BigDecimal.valueOf(n)),
+                BigInteger.valueOf(n).shiftLeft(70),
+                new java.sql.Date(1_600_000_000_000L + n),
+                new java.sql.Time(45_296_000L),
+                ts,
+                ZonedDateTime.of(2024, 3, 10, 2, 30, 0, 5, ZoneId.of("America/Chicago")),
+                OffsetDateTime.of(2024, 3, 10, 2, 30, 0, 0, ZoneOffset.ofHours(-5)),
+                LocalDate.of(1969, 12, 31),
+                LocalDateTime.of(2020, 1, 2, 3, 4, 5, 6),
+                LocalTime.of(23, 59, 59, 999),
+                new UUID(n, -n),
+                "",
+                java.net.URI.create("https://example.com/" + n),   // serialized
+                new Object()   // not serializable: kept in memory
+        };
+    }
+
+    private static void assertRow(Object [] expected, Object [] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            if (expected[i] instanceof byte[])
+                assertArrayEquals((byte[]) expected[i], (byte[]) actual[i]);
+            else if (expected[i] != null && expected[i].getClass() == Object.class)
+                assertSame(expected[i], actual[i]);
+            else {
+                assertEquals(expected[i], actual[i], "column " + i);
+                if (expected[i] != null)
+                    assertEquals(expected[i].getClass(), actual[i].getClass(), "column " + i);
+            }
+    }
+
+    private static void roundTrip(long threshold, int window, int nrows) throws Exception {
+        Object [][] rows = new Object[nrows][];
+        try (RowCache rc = new RowCache(sampleRow(0).length, threshold, window)) {
+            for (int i = 0; i < nrows; i++)
+                rc.add(rows[i] = sampleRow(i));
+            rc.finish();
+            assertEquals(threshold < rc.encodedSize(), rc.isSpilled());
+            for (int i = 0; i < nrows; i++)
+                assertRow(rows[i], rc.next());
+        }
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        roundTrip(Long.MAX_VALUE, 1 << 20, 500);
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        roundTrip(0, 1 << 20, 500);
+    }
+
+    @Test
+    public void testSpilledWithSmallWindow() throws Exception {
+        // forces rows and values to straddle map windows
+        roundTrip(1000, 37, 500);
+    }
+
+    @Test
+    public void testSpillFileDeleted() throws Exception {
+        final RowCache rc = new RowCache(sampleRow(0).length, 0, 1000);
+        for (int i = 0; i < 100; i++)
+            rc.add(sampleRow(i));
+        rc.finish();
+        assertTrue(rc.isSpilled());
+        rc.next();  // maps a window
+        rc.close();
+        RowCache.retryDeletes();
+        assertEquals(0, RowCache.undeletedCount());
+    }
+
+    @Test
+    public void testLargeBinary() throws Exception {
+        final byte [][] docs = new byte[6][];
+        for (int i = 0; i < docs.length; i++) {
+            docs[i] = new byte[100_000 + i];
+            docs[i][i] = (byte) i;
+        }
+        // large values spill part way through a row and are then written directly
+        try (RowCache rc = new RowCache(3, 250_000, 1000)) {
+            for (int i = 0; i < docs.length; i++)
+                rc.add(new Object[] { i, docs[i], i % 2 == 0 ? null : "x" });
+            rc.finish();
+            assertTrue(rc.isSpilled());
+            for (int i = 0; i < docs.length; i++)
+                assertRow(new Object[] { i, docs[i], i % 2 == 0 ? null : "x" }, rc.next());
+        }
+    }
+
+    @Test
+    public void testCompactness() throws Exception {
+        try (RowCache rc = new RowCache(3, Long.MAX_VALUE)) {
+            for (int i = 0; i < 1000; i++)
+                rc.add(new Object[] { i, null, "abc" });
+            rc.finish();
+            // 1 bitmap + (1 tag + <= 2 varint) + (1 tag + 1 length + 3 chars)
+            assertTrue(rc.encodedSize() <= 1000 * 9, "encoded size " + rc.encodedSize());
+        }
+    }
+}
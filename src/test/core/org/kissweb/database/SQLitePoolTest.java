@@ -0,0 +1,232 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SQLitePool using a temporary SQLite database file.
+ */
+class SQLitePoolTest {
+
+    @TempDir
+    Path dir;
+
+    private SQLitePool pool;
+    private long transactions0;  // count after creating the table
+
+    @BeforeEach
+    void setUp() throws Exception {
+        pool = new SQLitePool("jdbc:sqlite:" + dir.resolve("test.db"), 4);
+        try (Connection db = open()) {
+            db.execute("create table item (item_id integer primary key, name varchar(40))");
+            db.commit();
+        }
+        transactions0 = pool.getTransactionCount();
+    }
+
+    private long transactions() {
+        return pool.getTransactionCount() - transactions0;
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    private Connection open() throws SQLException {
+        return new Connection(pool.getConnection()) {
+            @Override
+            public void close() throws SQLException {
+                final java.sql.Connection c = getSQLConnection();
+                super.close();
+                c.close();
+            }
+        };
+    }
+
+    private long count(Connection db) throws Exception {
+        return db.fetchOne("select count(*) cnt from item").getLong("cnt");
+    }
+
+    @Test
+    void testReadsAndWrites() throws Exception {
+        try (Connection a = open(); Connection b = open()) {
+            assertEquals(Connection.ConnectionType.SQLite, a.getDBType());
+            assertEquals(0, count(b));
+            a.execute("insert into item values (1, 'one')");
+            assertEquals(1, count(a));  // after its first write a connection reads from the writer
+            assertEquals(0, count(b));
+            a.commit();
+            assertEquals(0, count(b));  // b still has the snapshot it started with
+            b.commit();
+            assertEquals(1, count(b));
+
+            b.execute("insert into item values (2, 'two')");
+            b.rollback();
+            b.newRecord("item").set("item_id", 3).set("name", "three").addRecord();
+        }  // closing rolls back
+        try (Connection db = open()) {
+            assertEquals(1, count(db));
+        }
+        assertEquals(1, transactions());
+    }
+
+    @Test
+    void testStatementSeesOwnWrites() throws Exception {
+        try (Connection db = open(); Command cmd = db.newCommand()) {
+            assertEquals(0, cmd.fetchOne("select count(*) cnt from item").getLong("cnt"));
+            db.execute("insert into item values (1, 'one')");
+            // the same prepared statement now runs on the writer
+            assertEquals(1, cmd.fetchOne("select count(*) cnt from item").getLong("cnt"));
+            db.commit();
+            assertEquals(1, cmd.fetchOne("select count(*) cnt from item").getLong("cnt"));
+        }
+        assertEquals(1, transactions());
+    }
+
+    @Test
+    void testStatementReadsDontTakeTurn() throws Exception {
+        pool.setCheckoutTimeout(100);
+        try (Connection a = open(); Connection b = open()) {
+            a.execute("insert into item values (1, 'one')");  // a holds the writer's turn
+            try (java.sql.Statement st = b.getSQLConnection().createStatement()) {
+                try (java.sql.ResultSet rs = st.executeQuery("select count(*) from item")) {
+                    assertTrue(rs.next());
+                    assertEquals(0, rs.getLong(1));
+                }
+                assertThrows(SQLException.class, () -> st.executeUpdate("insert into item values (2, 'two')"));
+                a.commit();
+                assertEquals(1, st.executeUpdate("insert into item values (2, 'two')"));
+                b.commit();
+                // b no longer holds the turn, so its reads go to a reader again
+                a.execute("insert into item values (3, 'three')");
+                try (java.sql.ResultSet rs = st.executeQuery("select count(*) from item")) {
+                    assertTrue(rs.next());
+                    assertEquals(2, rs.getLong(1));
+                }
+                a.commit();
+            }
+        }
+        assertEquals(3, transactions());
+    }
+
+    @Test
+    void testReadOnly() throws Exception {
+        try (Connection db = open()) {
+            db.setReadOnly();
+            assertEquals(0, count(db));
+            assertThrows(SQLException.class, () -> db.execute("insert into item values (1, 'one')"));
+        }
+    }
+
+    @Test
+    void testAutoCommit() throws Exception {
+        try (Connection db = open()) {
+            db.getSQLConnection().setAutoCommit(true);
+            db.execute("insert into item values (1, 'one')");
+            assertEquals(1, transactions());
+            db.executeImmediate("insert into item values (2, 'two')");
+            assertEquals(2, transactions());
+        }
+    }
+
+    @Test
+    void testWritersTakeTurns() throws Exception {
+        final ExecutorService exec = Executors.newFixedThreadPool(2);
+        try (Connection a = open()) {
+            a.execute("insert into item values (1, 'one')");  // a holds the writer
+            final List<Future<?>> others = new ArrayList<>();
+            for (int i = 2; i <= 3; i++) {
+                final int id = i;
+                others.add(exec.submit(() -> {
+                    try (Connection db = open()) {
+                        db.execute("insert into item values (?, 'x')", id);
+                        if (id == 3)
+                            db.rollback();
+                        db.execute("insert into item values (?, 'y')", id + 10);
+                        db.commit();
+                    }
+                    return null;
+                }));
+                while (pool.waitingWriters() < i - 1)
+                    Thread.sleep(5);
+            }
+            a.commit();
+            // a's commit doesn't wait for the connections queued behind it
+            try (Connection db = open()) {
+                assertNotNull(db.fetchOne("select * from item where item_id = 1"));
+            }
+            for (Future<?> f : others)
+                f.get(10, TimeUnit.SECONDS);
+        } finally {
+            exec.shutdown();
+        }
+        assertEquals(3, transactions());
+        try (Connection db = open()) {
+            assertEquals(4, count(db));
+            assertNull(db.fetchOne("select * from item where item_id = 3"));
+        }
+    }
+
+    @Test
+    void testWriterTimeout() throws Exception {
+        pool.setCheckoutTimeout(100);
+        try (Connection a = open(); Connection b = open()) {
+            a.execute("insert into item values (1, 'one')");
+            assertThrows(SQLException.class, () -> b.execute("insert into item values (2, 'two')"));
+            a.commit();
+            b.execute("insert into item values (2, 'two')");
+            b.commit();
+        }
+        assertEquals(2, transactions());
+    }
+
+    @Test
+    void testConcurrentWriters() throws Exception {
+        final ExecutorService exec = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int base = t * 1000;
+            futures.add(exec.submit(() -> {
+                for (int i = 0; i < 50; i++)
+                    try (Connection db = open()) {
+                        count(db);
+                        db.execute("insert into item values (?, 'n')", base + i);
+                        db.commit();
+                    }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get(30, TimeUnit.SECONDS);
+        exec.shutdown();
+        assertEquals(200, transactions());
+        try (Connection db = open()) {
+            assertEquals(200, count(db));
+        }
+    }
+
+    @Test
+    void testIsWrite() {
+        assertFalse(SQLitePool.isWrite("  select * from item"));
+        assertFalse(SQLitePool.isWrite("-- comment\n(SELECT 1)"));
+        assertFalse(SQLitePool.isWrite("with x as (select 1) select * from x"));
+        assertTrue(SQLitePool.isWrite("with x as (select 1) delete from item"));
+        assertTrue(SQLitePool.isWrite("/* c */ insert into item values (1, 'a')"));
+        assertTrue(SQLitePool.isWrite("pragma foreign_keys = on"));
+        assertTrue(SQLitePool.isWrite("selectx"));
+    }
+}
@@ -0,0 +1,144 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for reading a SchemaGraph from a database (SQLite).
+ */
+class SchemaGraphTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        createSchema(db);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+        SchemaGraph.setWarmStart(null, null, null);
+        SchemaGraph.clearSchemaCache();
+    }
+
+    private static void createSchema(Connection db) throws Exception {
+        db.execute("create table building (building_id integer primary key, address varchar(40))");
+        db.execute("create table department (department_id integer primary key, " +
+                "building_id integer references building(building_id))");
+        db.execute("create table employee (employee_id integer primary key, " +
+                "department_id integer references department)");
+        db.execute("create table orders (order_id integer, line_no integer, primary key (order_id, line_no))");
+        db.execute("create table shipment (shipment_id integer primary key, order_id integer, line_no integer, " +
+                "foreign key (order_id, line_no) references orders(order_id, line_no))");
+    }
+
+    private static Set<String> edges(SchemaGraph g) {
+        Set<String> edges = new TreeSet<>();
+        for (String table : g.getTables())
+            for (SchemaGraph.Edge e : g.getEdges(table))
+                edges.add(e.toString());
+        return edges;
+    }
+
+    @Test
+    void testCatalogQueryReadsAllForeignKeys() throws SQLException {
+        SchemaGraph g = SchemaGraph.fromDatabase(db);
+        assertEquals(new TreeSet<>(Arrays.asList("building", "department", "employee", "orders", "shipment")),
+                new TreeSet<>(g.getTables()));
+
+        List<SchemaGraph.Edge> shipment = g.getEdges("shipment");
+        assertEquals(1, shipment.size());
+        assertEquals(Arrays.asList("order_id", "line_no"), shipment.get(0).getFromColumns());
+        assertEquals(Arrays.asList("order_id", "line_no"), shipment.get(0).getToColumns());
+
+        // The implicit reference to department's primary key is resolved
+        assertEquals("employee.department_id -> department.department_id", g.getEdges("employee").get(0).toString());
+
+        Set<String> tables = new LinkedHashSet<>(Arrays.asList("employee", "building"));
+        assertEquals(2, g.findJoinPath(tables, "employee").size());
+    }
+
+    @Test
+    void testCatalogQueryMatchesDatabaseMetaData() throws SQLException {
+        java.sql.DatabaseMetaData meta = db.getSQLConnection().getMetaData();
+        List<String> tables = Arrays.asList("building", "department", "employee", "orders", "shipment");
+        Map<String, List<String[]>> viaMetaData = SchemaGraph.readImportedKeys(meta, null, tables);
+
+        Set<String> expected = new TreeSet<>();
+        for (List<String[]> group : viaMetaData.values())
+            for (String[] row : group)
+                expected.add(String.join(" ", row));
+        Set<String> actual = new TreeSet<>();
+        SchemaGraph g = SchemaGraph.fromDatabase(db);
+        for (String table : g.getTables())
+            for (SchemaGraph.Edge e : g.getEdges(table))
+                for (int i = 0; i < e.getFromColumns().size(); i++)
+                    actual.add(e.getFromTable() + " " + e.getFromColumns().get(i) + " " + e.getToTable() + " " + e.getToColumns().get(i));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testNoCatalogQueryForUnknownType() {
+        assertNull(SchemaGraph.foreignKeyCatalogQuery(null, null));
+        assertTrue(SchemaGraph.foreignKeyCatalogQuery(Connection.ConnectionType.PostgreSQL, "public").contains("?"));
+        assertFalse(SchemaGraph.foreignKeyCatalogQuery(Connection.ConnectionType.PostgreSQL, null).contains("?"));
+    }
+
+    @Test
+    void testWarmStartLoadsSavedGraphAndRefreshes(@TempDir Path tempDir) throws Exception {
+        String url = "jdbc:sqlite:" + tempDir.resolve("warm.db");
+        Connection fileDb = new Connection(Connection.ConnectionType.SQLite, url);
+        try {
+            createSchema(fileDb);
+            SchemaGraph.setWarmStart(tempDir.toString(), () -> {
+                try {
+                    return new Connection(Connection.ConnectionType.SQLite, url);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, c -> {
+                try {
+                    c.close();
+                } catch (SQLException ignored) {
+                }
+            });
+
+            // The first build reads the database and saves the graph
+            SchemaGraph first = SchemaGraph.fromDatabase(fileDb, "warm");
+            File saved = new File(tempDir.toFile(), "schema-graph-warm.txt");
+            assertTrue(saved.exists());
+
+            // Change the database; after a restart the saved graph is used right away
+            fileDb.execute("create table badge (badge_id integer primary key, " +
+                    "employee_id integer references employee(employee_id))");
+            fileDb.commit();
+            SchemaGraph.clearSchemaCache();
+            SchemaGraph warm = SchemaGraph.fromDatabase(fileDb, "warm");
+            assertNotSame(first, warm);
+            assertEquals(edges(first), edges(warm));
+
+            // ...and replaced once the background refresh has read the database
+            long end = System.currentTimeMillis() + 10000;
+            SchemaGraph current = warm;
+            while (current == warm && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+                current = SchemaGraph.fromDatabase(fileDb, "warm");
+            }
+            assertTrue(current.hasTable("badge"));
+            assertEquals(1, current.getEdges("badge").size());
+        } finally {
+            fileDb.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.kissweb.json.JSONArray;
+import org.kissweb.json.JSONObject;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SqlStats (SQLite in-memory).
+ */
+class SqlStatsTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(20))");
+        SqlStats.reset();
+        SqlStats.setEnabled(true);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+        SqlStats.setEnabled(false);
+        SqlStats.setSlowQueryMillis(0);
+        SqlStats.setExplainSlowQueries(false);
+        SqlStats.reset();
+    }
+
+    private static JSONObject find(String fingerprint) {
+        JSONArray all = SqlStats.getStatistics();
+        for (int i = 0; i < all.length(); i++)
+            if (all.getJSONObject(i).getString("sql").equals(fingerprint))
+                return all.getJSONObject(i);
+        return null;
+    }
+
+    @Test
+    void testFingerprint() {
+        assertEquals("select * from item where name = ? and qty > ?",
+                SqlStats.fingerprint("SELECT *\n  FROM item WHERE name = 'O''Brien' AND qty > 12.5"));
+        assertEquals("select * from t2 where id in (?...)", SqlStats.fingerprint("select * from t2 where id in (1, 2,3)"));
+        assertEquals("select * from t where a = ? and b <> ?", SqlStats.fingerprint("select * from t where a=? and b<>'x'"));
+        assertEquals("select * from t2 where id in (?...)", SqlStats.fingerprint("select * from t2 where id in ( ?,? )"));
+        assertEquals("insert into t (a, b) values (?...)...", SqlStats.fingerprint("insert into t (a, b) values (?, ?), (?, ?)"));
+        assertEquals("select \"Name\" from t where x = ?", SqlStats.fingerprint("select \"Name\" from t where x = -1e5".replace("-", "")));
+    }
+
+    @Test
+    void testStatementsAreCounted() throws Exception {
+        db.setStatisticsLabel("services.Items.list");
+        for (int i = 1; i <= 3; i++)
+            db.execute("insert into item (item_id, name) values (?, ?)", i, "n" + i);
+        db.fetchAll("select * from item where item_id > 0");
+        db.fetchAll("select * from item where item_id > 1");
+        db.setStatisticsLabel(null);
+        db.fetchAll("select * from item where item_id > 2");
+
+        JSONObject insert = find("insert into item (item_id, name) values (?...)");
+        assertNotNull(insert);
+        assertEquals(3, insert.getInt("count"));
+        assertEquals(3, insert.getInt("rows"));
+        assertTrue(insert.getDouble("p99Ms") >= insert.getDouble("p50Ms"));
+        assertTrue(insert.getDouble("maxMs") >= insert.getDouble("p99Ms"));
+
+        JSONObject select = find("select * from item where item_id > ?");
+        assertEquals(3, select.getInt("count"));
+        assertEquals(3 + 2 + 1, select.getInt("rows"));
+        JSONArray services = select.getJSONArray("services");
+        assertEquals(2, services.length());
+        JSONObject listService = services.getJSONObject(0).getString("service").equals("services.Items.list")
+                ? services.getJSONObject(0) : services.getJSONObject(1);
+        assertEquals(2, listService.getInt("count"));
+    }
+
+    @Test
+    void testRecordWritesAreCounted() throws Exception {
+        Record rec = db.newRecord("item");
+        rec.set("item_id", 1);
+        rec.set("name", "bolt");
+        rec.addRecord();
+        rec = db.fetchOne("select * from item where item_id = ?", 1);
+        rec.set("name", "nut");
+        rec.update();
+        rec.delete();
+
+        assertEquals(1, find("insert into item (item_id, name) values (?...)").getInt("count"));
+        assertEquals(1, find("update item set name = ? where item_id = ?").getInt("rows"));
+        assertEquals(1, find("delete from item where item_id = ?").getInt("count"));
+    }
+
+    @Test
+    void testErrorsAreCounted() {
+        assertThrows(Exception.class, () -> db.fetchAll("select * from missing where x = 1"));
+        assertEquals(1, find("select * from missing where x = ?").getInt("errors"));
+    }
+
+    @Test
+    void testDisabled() throws Exception {
+        SqlStats.setEnabled(false);
+        db.fetchAll("select * from item");
+        assertEquals(0, SqlStats.getStatistics().length());
+    }
+
+    @Test
+    void testSlowQueryLog() throws Exception {
+        SqlStats.setEnabled(false);
+        SqlStats.setSlowQueryMillis(1);
+        SqlStats.setExplainSlowQueries(true);
+        db.setStatisticsLabel("services.Reports.big");
+        // a recursive query slow enough to pass the threshold
+        db.fetchOne("with recursive n(x) as (select 1 union all select x + 1 from n where x < ?) select count(*) c from n where x > ?",
+                300000, 5L);
+
+        JSONArray slow = SqlStats.getSlowQueries();
+        assertEquals(1, slow.length());
+        JSONObject q = slow.getJSONObject(0);
+        assertEquals("services.Reports.big", q.getString("service"));
+        assertEquals("Integer", q.getJSONArray("paramTypes").getString(0));
+        assertEquals("Long", q.getJSONArray("paramTypes").getString(1));
+        assertEquals(1, q.getInt("rows"));
+        assertNotNull(q.getString("plan", null));
+    }
+}
@@ -0,0 +1,129 @@
+package org.kissweb.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for upserts and Connection.deleteByKeys using an in-memory SQLite database.
+ */
+class UpsertTest {
+
+    private Connection db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new Connection(Connection.ConnectionType.SQLite, "jdbc:sqlite::memory:");
+        db.execute("create table item (item_id integer primary key, name varchar(40), qty integer)");
+        db.execute("create table code (code_id varchar(10), lang varchar(2), descr varchar(40), primary key (code_id, lang))");
+        db.commit();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+    }
+
+    private long count(String table) throws Exception {
+        return db.fetchOne("select count(*) cnt from " + table).getLong("cnt");
+    }
+
+    @Test
+    void testRecordUpsert() throws Exception {
+        db.newRecord("item").set("item_id", 1).set("name", "one").set("qty", 5).upsert();
+        db.newRecord("item").set("item_id", 1).set("name", "uno").upsert();
+        db.newRecord("item").set("item_id", 2).set("name", "two").upsert();
+        assertEquals(2, count("item"));
+        final Record r = db.fetchOne("select * from item where item_id = 1");
+        assertEquals("uno", r.getString("name"));
+        assertEquals(5, (int) r.getInt("qty"));  // null columns are not written
+
+        db.newRecord("code").set("code_id", "A").set("lang", "en").set("descr", "first").upsert();
+        db.newRecord("code").set("lang", "en").set("code_id", "A").set("descr", "second").upsert();
+        db.newRecord("code").set("code_id", "A").set("lang", "fr").upsert();  // keys only
+        db.newRecord("code").set("code_id", "A").set("lang", "fr").upsert();
+        assertEquals(2, count("code"));
+        assertEquals("second", db.fetchOne("select descr from code where code_id = 'A' and lang = 'en'").getString("descr"));
+
+        assertThrows(SQLException.class, () -> db.newRecord("code").set("code_id", "B").set("descr", "x").upsert());
+    }
+
+    @Test
+    void testBatchUpsert() throws Exception {
+        try (BatchWriter bw = db.newBatchWriter()) {
+            for (int i = 1; i <= 1000; i++)
+                bw.add(db.newRecord("item").set("item_id", i).set("name", "old").set("qty", i));
+        }
+        final BatchWriter writer = db.newBatchWriter();
+        try (BatchWriter bw = writer) {
+            for (int i = 501; i <= 2500; i++)
+                bw.upsert(db.newRecord("item").set("item_id", i).set("name", "new"));
+        }
+        assertEquals(2000, writer.getRowCount());
+        // 999 parameters per statement / 2 columns = 499 rows per statement
+        assertTrue(writer.getStatementCount() <= 6, "statements: " + writer.getStatementCount());
+        assertEquals(2500, count("item"));
+        assertEquals(500, db.fetchOne("select count(*) cnt from item where name = 'old'").getLong("cnt"));
+        assertEquals(700, (int) db.fetchOne("select qty from item where item_id = 700").getInt("qty"));
+        assertNull(db.fetchOne("select qty from item where item_id = 2000").getInt("qty"));
+    }
+
+    @Test
+    void testDeleteByKeys() throws Exception {
+        try (BatchWriter bw = db.newBatchWriter()) {
+            for (int i = 1; i <= 3000; i++)
+                bw.add(db.newRecord("item").set("item_id", i).set("name", "n" + i));
+        }
+        final List<Object> deleted = new ArrayList<>();
+        db.setDeleteCallback((table, key) -> deleted.add(key));
+
+        final IntList ids = new IntList();
+        for (int i = 1; i <= 2500; i += 2)
+            ids.add(i);
+        ids.add(99999);
+        assertEquals(1250, db.deleteByKeys("item", ids));
+        assertEquals(1250, deleted.size());  // not 99999, which matched no row
+        assertFalse(deleted.contains(99999));
+        assertEquals(1750, count("item"));
+
+        final List<Integer> more = new ArrayList<>();
+        for (int i = 2; i <= 2400; i += 2)
+            more.add(i);
+        more.add(1);  // already deleted
+        assertEquals(1200, db.deleteByKeys("item", more));
+        assertEquals(2450, deleted.size());
+        assertEquals(550, count("item"));
+        assertEquals(0, db.deleteByKeys("item", Collections.emptyList()));
+        assertEquals(0, db.deleteByKeys("item", new LongList()));
+
+        assertThrows(SQLException.class, () -> db.deleteByKeys("code", Arrays.asList("A", "B")));
+    }
+
+    @Test
+    void testDialectSQL() throws Exception {
+        final String [] cols = {"item_id", "name", "qty"};
+        final List<String> keys = Collections.singletonList("item_id");
+        assertEquals("insert into item (item_id, name, qty) values (?, ?, ?), (?, ?, ?) on conflict (item_id) do update set name = excluded.name, qty = excluded.qty",
+                Upsert.sql(Connection.ConnectionType.PostgreSQL, "item", cols, keys, 2));
+        assertEquals("insert into item (item_id) values (?) on conflict (item_id) do nothing",
+                Upsert.sql(Connection.ConnectionType.SQLite, "item", new String[] {"item_id"}, keys, 1));
+        assertEquals("insert into item (item_id, name, qty) values (?, ?, ?) on duplicate key update name = values(name), qty = values(qty)",
+                Upsert.sql(Connection.ConnectionType.MySQL, "item", cols, keys, 1));
+        assertEquals("merge into item with (holdlock) as tgt using (values (?, ?, ?)) as src (item_id, name, qty) on (tgt.item_id = src.item_id)" +
+                        " when matched then update set tgt.name = src.name, tgt.qty = src.qty" +
+                        " when not matched then insert (item_id, name, qty) values (src.item_id, src.name, src.qty);",
+                Upsert.sql(Connection.ConnectionType.MicrosoftServer, "item", cols, keys, 1));
+        assertEquals("merge into item tgt using (select ? item_id, ? name, ? qty from dual) src on (tgt.item_id = src.item_id)" +
+                        " when matched then update set tgt.name = src.name, tgt.qty = src.qty" +
+                        " when not matched then insert (item_id, name, qty) values (src.item_id, src.name, src.qty)",
+                Upsert.sql(Connection.ConnectionType.Oracle, "item", cols, keys, 1));
+    }
+}